@@ -1,38 +1,72 @@
 package org.example;
 
+import org.example.archive.ContainerArchiveWriter;
+import org.example.archive.StreamArchiveWriter;
+import org.example.builders.BackupOptionsBuilder;
+import org.example.compact.BackupCompactor;
+import org.example.daemon.BackupDaemon;
+import org.example.daemon.DaemonConfig;
+import org.example.entities.BackupOptions;
+import org.example.entities.CompactOptions;
+import org.example.entities.RestoreOptions;
 import org.example.entities.DbConnectionEntity;
 import org.example.factory.ExporterFactory;
+import org.example.factory.StorageFactory;
+import org.example.pool.ConnectionManager;
 import org.example.service.DatabaseExporter;
 import org.example.service.DatabaseRestorer;
+import org.example.service.impl.BackupVerifier;
 import org.example.service.impl.MongoDatabaseRestorer;
 import org.example.service.impl.SQLRestorer;
+import org.example.startup.StartupBenchmark;
+import org.example.storage.BackupStorage;
 import org.example.util.EncryptionUtil;
 import org.example.util.RegexUtil;
 
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.PrintStream;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Objects;
 import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class Main {
 
+    // "users: age > 30" scopes a filter to one entity; the lookahead keeps PostgreSQL casts like "x::int" whole.
+    private static final Pattern ENTITY_PREFIX = Pattern.compile("^(\\w+):(?!:)\\s*(.+)$", Pattern.DOTALL);
+    private static final Pattern COLUMN_LIST = Pattern.compile("[\\w\"$]+(\\s*,\\s*[\\w\"$]+)*");
+
     static DbConnectionEntity dbConnectionEntity = new DbConnectionEntity();
+    static boolean standardStreamsFree = false;
 
     public static void main(String[] args) {
+        if (args.length > 0) {
+            // One command per argument, which leaves stdin and stdout free for --stdin/--stdout archives.
+            standardStreamsFree = true;
+            for (String command : args) {
+                runCommand(command);
+            }
+            return;
+        }
         try (Scanner scanner = new Scanner(System.in)) {
             while (true) {
-                var command = scanner.nextLine();
-                if (command.equalsIgnoreCase("--help")) {
-                    showHelp();
-                } else {
-                    checkCommand(command);
-                }
+                runCommand(scanner.nextLine());
             }
         }
     }
 
+    private static void runCommand(String command) {
+        if (command.equalsIgnoreCase("--help")) {
+            showHelp();
+        } else {
+            checkCommand(command);
+        }
+    }
+
     public static void checkCommand(String command) {
         if (RegexUtil.isGenerateKey(command)) {
             generateKey();
@@ -54,11 +88,36 @@ public class Main {
             return;
         }
 
+        if (RegexUtil.isRestoreFromStdin(command)) {
+            doRestoreFromStdin(command);
+            return;
+        }
+
         if (RegexUtil.isListCommand(command)) {
             listAll(command);
             return;
         }
 
+        if (RegexUtil.isVerify(command)) {
+            doVerify(command);
+            return;
+        }
+
+        if (RegexUtil.isCompact(command)) {
+            doCompact(command);
+            return;
+        }
+
+        if (RegexUtil.isDaemon(command)) {
+            runDaemon(command);
+            return;
+        }
+
+        if (RegexUtil.isStartupBenchmark(command)) {
+            StartupBenchmark.run();
+            return;
+        }
+
         invalidCommand();
     }
 
@@ -69,12 +128,39 @@ public class Main {
         System.out.println("    [--password <password>] [--user <user>] [--dbName <database name>]");
         System.out.println("--do backup                         : Starts a backup process with optional parameters:");
         System.out.println("    [--entity <entity1, entity2>] [--key <encryption key>]");
+        System.out.println("    [--workers <n>] [--max-mbps <MB/s>] [--max-rows <rows/s>] [--latency-target <ms>]");
+        System.out.println("    [--resume <folder name>]        : Continues an interrupted backup in that folder.");
+        System.out.println("    [--base <folder name>]          : Only backs up what changed since that backup (incremental).");
+        System.out.println("    [--part-mb <MB>]                : Splits larger tables into primary key ranges (default 1024, 0 = never).");
+        System.out.println("    [--plan]                        : Prints the export order, parts and predicted duration, and stops.");
+        System.out.println("    [--where \"[<entity>:] <condition>\"] [--columns \"[<entity>:] <col1,col2>\"]");
+        System.out.println("                                    : SQL only: backs up just the matching rows and columns.");
+        System.out.println("    [--filter \"[<entity>:] <query>\"] [--projection \"[<entity>:] <fields>\"]");
+        System.out.println("                                    : MongoDB only: the same with a query and projection document.");
+        System.out.println("    [--stdout]                      : Streams the whole backup to stdout as one archive.");
+        System.out.println("    [--container]                   : Writes the backup as one <folder>.dbk file instead of a folder.");
         System.out.println("--restore                           : Restores a database backup with required parameters:");
         System.out.println("    --foldertypedb <mongo/sql> --folderName <folder name>");
-        System.out.println("    [--saves <save1, save2>] [--key <encryption key>]");
+        System.out.println("    [--saves <save1, save2>] [--key <encryption key>] [--workers <n>]");
+        System.out.println("    [--resume]                      : Continues an interrupted restore of the same folder.");
+        System.out.println("    [--shadow]                      : Loads beside the live tables and swaps them in at the end.");
+        System.out.println("    [--diff]                        : Compares with the live tables and writes only the rows that differ.");
+        System.out.println("--restore --stdin                   : Restores an archive read from stdin into the database set with --db:");
+        System.out.println("    [--saves <save1, save2>] [--key <encryption key>] [--workers <n>] [--shadow]");
+        System.out.println("    --stdout and --stdin need the commands as program arguments, e.g. \"--db ...\" \"--do backup --stdout\".");
+        System.out.println("--verify <mongo/sql> --folder <folder name>");
+        System.out.println("                                    : Checks checksums, row counts and row decoding of a backup.");
+        System.out.println("    [--key <encryption key>] [--workers <n>]");
+        System.out.println("--compact <mongo/sql> --folder <folder name>");
+        System.out.println("                                    : Merges an incremental backup and its chain into a new full backup.");
+        System.out.println("    [--key <encryption key>] [--workers <n>] [--max-mbps <MB/s>]");
+        System.out.println("    [--keep <n>]                    : Then deletes all but the newest n full backups and their increments.");
+        System.out.println("--daemon <config file>              : Runs the backup and restore jobs of the file on their schedules until stopped.");
+        System.out.println("    Each job backs up into <storage>/<job name>/; job status is served on daemon.statusPort.");
         System.out.println("--list                              : Lists available backups with optional parameters:");
         System.out.println("    [mongo/sql]                     : List contents of the 'mongo' or 'sql' backup directory.");
         System.out.println("    [--folder <folder name>]        : Lists files within a specified subfolder inside 'mongo' or 'sql'.");
+        System.out.println("--startup-benchmark                 : Times JVM startup and the loading of each driver and codec, without connecting.");
         System.out.println("--help                              : Displays this help message.");
     }
 
@@ -89,6 +175,7 @@ public class Main {
             System.out.println("Invalid database parameters.");
             return;
         }
+        DbConnectionEntity previous = dbConnectionEntity;
         dbConnectionEntity = DbConnectionEntity.builder()
                 .dbType(params.get(0))
                 .url(params.get(1))
@@ -96,6 +183,9 @@ public class Main {
                 .user(params.size() > 3 && !params.get(3).isEmpty() ? params.get(3) : null)
                 .DbName(params.size() > 4 && params.get(4) != null ? params.get(4) : null)
                 .build();
+        if (previous != null && previous.getUrl() != null && !previous.equals(dbConnectionEntity)) {
+            ConnectionManager.getInstance().release(previous);
+        }
         System.out.println("Database parameters set.");
     }
 
@@ -110,8 +200,28 @@ public class Main {
         List<String> entities = (entitiesArray != null) ? List.of(entitiesArray) : null;
 
         try {
+            BackupOptionsBuilder builder = BackupOptions.builder()
+                    .workers(RegexUtil.getIntOption(command, "workers", BackupOptions.DEFAULT_WORKERS))
+                    .maxMegabytesPerSecond(RegexUtil.getDoubleOption(command, "max-mbps", 0))
+                    .maxRowsPerSecond(RegexUtil.getLongOption(command, "max-rows", 0))
+                    .latencyTargetMillis(RegexUtil.getLongOption(command, "latency-target", 0))
+                    .resumeFolder(RegexUtil.getOption(command, "resume"))
+                    .baseFolder(RegexUtil.getOption(command, "base"))
+                    .partMegabytes(RegexUtil.getLongOption(command, "part-mb", BackupOptions.DEFAULT_PART_MEGABYTES))
+                    .sorted(RegexUtil.hasFlag(command, "sorted"))
+                    .planOnly(RegexUtil.hasFlag(command, "plan"));
+            addSelections(builder, command);
+            BackupOptions options = builder.build();
+            if (!options.isPlanOnly() && RegexUtil.hasFlag(command, "stdout")) {
+                backupToStdout(key, entities, options);
+                return;
+            }
+            if (!options.isPlanOnly() && RegexUtil.hasFlag(command, "container")) {
+                backupToContainer(key, entities, options);
+                return;
+            }
             DatabaseExporter exporter = ExporterFactory.createExporter(dbConnectionEntity);
-            exporter.exportDatabase(key, entities);
+            exporter.exportDatabase(key, entities, options);
         } catch (IllegalArgumentException e) {
             System.out.println("Error while doing backup: " + e.getMessage());
         } catch (UnsupportedOperationException e) {
@@ -119,6 +229,94 @@ public class Main {
         }
     }
 
+    /**
+     * Reads --where/--columns (SQL) or --filter/--projection (MongoDB). Each may be repeated and is either
+     * {@code "<entity>: <value>"} for one table or collection or a bare value for all of them.
+     */
+    private static void addSelections(BackupOptionsBuilder builder, String command) {
+        boolean sql = "SQL".equalsIgnoreCase(dbConnectionEntity.getDbType());
+        String filterOption = sql ? "where" : "filter";
+        String projectionOption = sql ? "columns" : "projection";
+        String other = sql ? "filter" : "where";
+        if (RegexUtil.hasFlag(command, other) || RegexUtil.hasFlag(command, sql ? "projection" : "columns")) {
+            throw new IllegalArgumentException(sql
+                    ? "--filter and --projection are for MongoDB, use --where and --columns with SQL databases."
+                    : "--where and --columns are for SQL databases, use --filter and --projection with MongoDB.");
+        }
+        for (String value : RegexUtil.getOptions(command, filterOption)) {
+            Matcher matcher = ENTITY_PREFIX.matcher(value);
+            boolean scoped = matcher.matches();
+            builder.filter(scoped ? matcher.group(1) : null, scoped ? matcher.group(2) : value.trim());
+        }
+        for (String value : RegexUtil.getOptions(command, projectionOption)) {
+            Matcher matcher = ENTITY_PREFIX.matcher(value);
+            boolean scoped = matcher.matches();
+            String projection = scoped ? matcher.group(2) : value.trim();
+            if (sql && !COLUMN_LIST.matcher(projection).matches()) {
+                throw new IllegalArgumentException("--columns takes a comma-separated list of column names: " + projection);
+            }
+            builder.projection(scoped ? matcher.group(1) : null, projection);
+        }
+    }
+
+    private static void backupToStdout(String key, List<String> entities, BackupOptions options) {
+        if (!standardStreamsFree) {
+            System.out.println("--stdout is only available when commands are passed as program arguments.");
+            return;
+        }
+        if (options.getResumeFolder() != null) {
+            throw new IllegalArgumentException("--resume cannot be combined with --stdout.");
+        }
+        if (options.getBaseFolder() != null) {
+            throw new IllegalArgumentException("--base cannot be combined with --stdout.");
+        }
+        PrintStream console = System.out;
+        // Everything the backup prints goes to stderr so stdout carries nothing but the archive.
+        System.setOut(System.err);
+        try {
+            StreamArchiveWriter archive = new StreamArchiveWriter(new FileOutputStream(FileDescriptor.out), "stdout");
+            ExporterFactory.createExporter(dbConnectionEntity, archive).exportDatabase(key, entities, options);
+            archive.finish();
+        } catch (IOException e) {
+            System.out.println("Error while writing the archive: " + e.getMessage());
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    private static void backupToContainer(String key, List<String> entities, BackupOptions options) {
+        if (options.getResumeFolder() != null) {
+            throw new IllegalArgumentException("--resume cannot be combined with --container.");
+        }
+        if (options.getBaseFolder() != null) {
+            throw new IllegalArgumentException("--base cannot be combined with --container.");
+        }
+        BackupStorage storage = StorageFactory.getStorage();
+        ContainerArchiveWriter container = null;
+        try {
+            container = new ContainerArchiveWriter(storage);
+            ExporterFactory.createExporter(dbConnectionEntity, container).exportDatabase(key, entities, options);
+            String path = container.finish();
+            if (path != null) {
+                System.out.println("Container written: " + storage.describe(path));
+            }
+        } catch (IOException e) {
+            System.out.println("Error while writing the container: " + e.getMessage());
+            discard(container);
+        }
+    }
+
+    private static void discard(ContainerArchiveWriter container) {
+        if (container == null) {
+            return;
+        }
+        try {
+            container.discard();
+        } catch (IOException e) {
+            System.err.println("Failed to remove the unfinished container: " + e.getMessage());
+        }
+    }
+
     private static void doRestore(String command) {
         DatabaseRestorer restoreService;
         String fileTypeDb = Objects.requireNonNull(RegexUtil.getFileTypeDb(command)).toLowerCase();
@@ -138,7 +336,13 @@ public class Main {
             return;
         }
         try {
-            restoreService.restoreDatabase(key, saves, fileTypeDb, fileName, dbConnectionEntity);
+            RestoreOptions options = RestoreOptions.builder()
+                    .workers(RegexUtil.getIntOption(command, "workers", RestoreOptions.DEFAULT_WORKERS))
+                    .resume(RegexUtil.hasFlag(command, "resume"))
+                    .shadow(RegexUtil.hasFlag(command, "shadow"))
+                    .diff(RegexUtil.hasFlag(command, "diff"))
+                    .build();
+            restoreService.restoreDatabase(key, saves, fileTypeDb, fileName, dbConnectionEntity, options);
         } catch (IllegalArgumentException e) {
             System.out.println("Error while restoring: " + e.getMessage());
         } catch (UnsupportedOperationException e) {
@@ -146,62 +350,126 @@ public class Main {
         }
     }
 
-    private static void listAll(String command) {
-        Path backupsPath = Path.of(System.getProperty("user.home") + "/backups");
+    private static void doRestoreFromStdin(String command) {
+        if (!standardStreamsFree) {
+            System.out.println("--stdin is only available when commands are passed as program arguments.");
+            return;
+        }
+        if (dbConnectionEntity == null || dbConnectionEntity.getUrl() == null) {
+            System.out.println("Please set database parameters first.");
+            return;
+        }
+        DatabaseRestorer restoreService = "MONGO".equalsIgnoreCase(dbConnectionEntity.getDbType())
+                ? MongoDatabaseRestorer.getInstance() : SQLRestorer.getInstance();
+        String[] savesArray = RegexUtil.getStdinSaves(command);
+        List<String> saves = (savesArray != null) ? List.of(savesArray) : null;
+        try {
+            if (RegexUtil.hasFlag(command, "resume")) {
+                throw new IllegalArgumentException("--resume cannot be combined with --stdin.");
+            }
+            if (RegexUtil.hasFlag(command, "diff")) {
+                // Parts of large tables are compared by the key ranges the backup manifest records.
+                throw new IllegalArgumentException("--diff needs a backup folder and cannot be combined with --stdin.");
+            }
+            RestoreOptions options = RestoreOptions.builder()
+                    .workers(RegexUtil.getIntOption(command, "workers", RestoreOptions.DEFAULT_WORKERS))
+                    .shadow(RegexUtil.hasFlag(command, "shadow"))
+                    .build();
+            restoreService.restoreArchive(RegexUtil.getStdinKey(command), saves, System.in, dbConnectionEntity, options);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error while restoring: " + e.getMessage());
+        }
+    }
+
+    private static void doVerify(String command) {
+        String dbType = RegexUtil.getVerifyDbType(command);
+        String folderName = RegexUtil.getVerifyFolderName(command);
+        String key = RegexUtil.getVerifyKey(command);
+        try {
+            int workers = RegexUtil.getIntOption(command, "workers", Runtime.getRuntime().availableProcessors());
+            if (workers < 1) {
+                throw new IllegalArgumentException("Workers must be at least 1.");
+            }
+            BackupVerifier.getInstance().verifyBackup(key, dbType, folderName, workers);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error while verifying: " + e.getMessage());
+        }
+    }
+
+    private static void doCompact(String command) {
+        String dbType = RegexUtil.getCompactDbType(command);
+        String folderName = RegexUtil.getCompactFolderName(command);
+        String key = RegexUtil.getCompactKey(command);
+        try {
+            CompactOptions options = CompactOptions.builder()
+                    .workers(RegexUtil.getIntOption(command, "workers", CompactOptions.DEFAULT_WORKERS))
+                    .maxMegabytesPerSecond(RegexUtil.getDoubleOption(command, "max-mbps", 0))
+                    .keepFullBackups(RegexUtil.getIntOption(command, "keep", 0))
+                    .build();
+            BackupCompactor.getInstance().compact(key, dbType, folderName, options);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error while compacting: " + e.getMessage());
+        }
+    }
 
+    private static void runDaemon(String command) {
         try {
+            DaemonConfig config = DaemonConfig.load(Path.of(RegexUtil.getDaemonConfig(command)));
+            new BackupDaemon(config, StorageFactory.getStorage()).run();
+        } catch (IOException e) {
+            System.out.println("Error while starting the daemon: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid daemon configuration: " + e.getMessage());
+        }
+    }
+
+    private static void listAll(String command) {
+        try {
+            BackupStorage storage = StorageFactory.getStorage();
             String dbType = RegexUtil.getDbType(command);
             String folderName = RegexUtil.getFolderName(command);
 
             if (dbType == null) {
-                listRootDirectories(backupsPath);
+                listRootDirectories(storage);
             } else {
-                listDatabaseTypeDirectories(backupsPath, dbType, folderName);
+                listDatabaseTypeDirectories(storage, dbType, folderName);
             }
 
-        } catch (IOException e) {
+        } catch (IOException | IllegalArgumentException e) {
             System.out.println("Error while listing backups: " + e.getMessage());
         }
     }
 
-    private static void listRootDirectories(Path backupsPath) throws IOException {
-        Files.list(backupsPath)
-                .filter(Files::isDirectory)
-                .map(Path::getFileName)
-                .forEach(System.out::println);
+    private static void listRootDirectories(BackupStorage storage) throws IOException {
+        storage.list("").forEach(System.out::println);
     }
 
-    private static void listDatabaseTypeDirectories(Path backupsPath, String dbType, String folderName) throws IOException {
-        Path dbPath = backupsPath.resolve(dbType);
-        if (!Files.isDirectory(dbPath)) {
+    private static void listDatabaseTypeDirectories(BackupStorage storage, String dbType, String folderName) throws IOException {
+        if (!storage.exists(dbType)) {
             System.out.println("No backups found for the specified database type: " + dbType);
             return;
         }
 
         if (folderName == null) {
-            listSubdirectories(dbPath);
+            listSubdirectories(storage, dbType);
         } else {
-            listFilesInFolder(dbPath, folderName);
+            listFilesInFolder(dbType, folderName);
         }
     }
 
-    private static void listSubdirectories(Path dbPath) throws IOException {
-        Files.list(dbPath)
-                .filter(Files::isDirectory)
-                .map(Path::getFileName)
-                .forEach(System.out::println);
+    private static void listSubdirectories(BackupStorage storage, String dbType) throws IOException {
+        storage.list(dbType).forEach(System.out::println);
     }
 
-    private static void listFilesInFolder(Path dbPath, String folderName) throws IOException {
-        Path folderPath = dbPath.resolve(folderName);
-        if (!Files.isDirectory(folderPath)) {
+    private static void listFilesInFolder(String dbType, String folderName) throws IOException {
+        String folderPath = dbType + "/" + folderName;
+        BackupStorage storage = StorageFactory.getStorage(folderPath);
+        if (!storage.exists(folderPath)) {
             System.out.println("Folder not found: " + folderName);
             return;
         }
 
-        Files.list(folderPath)
-                .map(Path::getFileName)
-                .forEach(System.out::println);
+        storage.list(folderPath).forEach(System.out::println);
     }
 
     private static void invalidCommand() {
@@ -0,0 +1,30 @@
+package org.example.archive;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frame layout of a streamed backup. After the magic, the stream is a sequence of frames, so files
+ * written in parallel can be interleaved and a reader never has to seek:
+ * <pre>
+ * OPEN   id path          a new file starts
+ * DATA   id length bytes  the next chunk of file id
+ * CLOSE  id               file id is finished
+ * APPEND path length bytes appended to a small object such as the manifest
+ * END                     the archive was closed cleanly
+ * </pre>
+ */
+final class ArchiveFormat {
+
+    static final byte[] MAGIC = "DBKSTRM1".getBytes(StandardCharsets.US_ASCII);
+
+    static final int OPEN = 1;
+    static final int DATA = 2;
+    static final int CLOSE = 3;
+    static final int APPEND = 4;
+    static final int END = 5;
+
+    static final int CHUNK_SIZE = 256 * 1024;
+
+    private ArchiveFormat() {
+    }
+}
@@ -0,0 +1,226 @@
+package org.example.archive;
+
+import org.example.storage.BackupStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Read-only view of a {@code .dbk} container, mounted at the container's own path so that
+ * {@code sql/2024-0101_120000.dbk} lists and opens like a backup folder. The container is memory-mapped
+ * once and files are served straight from the mapping, block by block, each block checked against its
+ * CRC32C. Only the blocks of the files actually opened are touched. A container on remote storage is
+ * downloaded to a temporary file first.
+ */
+public class ContainerArchiveStorage implements BackupStorage {
+
+    public static final String SUFFIX = ".dbk";
+
+    // Regions overlap by one block so every block lies entirely within a single mapping.
+    private static final long REGION_SIZE = 1L << 30;
+
+    private final BackupStorage storage;
+    private final String mount;
+    private Map<String, ContainerFormat.Entry> entries;
+    private MappedByteBuffer[] regions;
+
+    public ContainerArchiveStorage(BackupStorage storage, String mount) {
+        this.storage = storage;
+        this.mount = mount;
+    }
+
+    @Override
+    public OutputStream create(String path) throws IOException {
+        throw new IOException(describe(path) + " is read-only");
+    }
+
+    @Override
+    public InputStream open(String path) throws IOException {
+        return new BlockInputStream(path, entry(path));
+    }
+
+    @Override
+    public boolean exists(String path) throws IOException {
+        if (!storage.exists(mount)) {
+            return false;
+        }
+        if (path.equals(mount)) {
+            return true;
+        }
+        load();
+        return entries.containsKey(name(path));
+    }
+
+    @Override
+    public long size(String path) throws IOException {
+        return entry(path).length();
+    }
+
+    @Override
+    public List<String> list(String folder) throws IOException {
+        if (!folder.equals(mount) || !storage.exists(mount)) {
+            return List.of();
+        }
+        load();
+        return new ArrayList<>(entries.keySet());
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        throw new IOException(describe(path) + " is read-only");
+    }
+
+    @Override
+    public String describe(String path) {
+        return path.equals(mount) ? storage.describe(mount) : storage.describe(mount) + "!/" + name(path);
+    }
+
+    private ContainerFormat.Entry entry(String path) throws IOException {
+        load();
+        ContainerFormat.Entry entry = entries.get(name(path));
+        if (entry == null || !path.startsWith(mount + "/")) {
+            throw new NoSuchFileException(describe(path));
+        }
+        return entry;
+    }
+
+    private String name(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private synchronized void load() throws IOException {
+        if (entries != null) {
+            return;
+        }
+        Path file = storage.localPath(mount);
+        boolean temporary = file == null;
+        if (temporary) {
+            file = Files.createTempFile("backup-", SUFFIX);
+            try (InputStream in = storage.open(mount)) {
+                Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        // The mappings stay valid once the channel is closed, and a downloaded copy is removed with it.
+        try (FileChannel channel = temporary
+                ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE)
+                : FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < ContainerFormat.MAGIC.length + ContainerFormat.FOOTER_SIZE) {
+                throw new IOException(describe(mount) + " is not a backup container");
+            }
+            ByteBuffer footer = read(channel, size - ContainerFormat.FOOTER_SIZE, ContainerFormat.FOOTER_SIZE);
+            long tocOffset = footer.getLong();
+            int tocLength = footer.getInt();
+            int tocChecksum = footer.getInt();
+            byte[] magic = new byte[ContainerFormat.FOOTER_MAGIC.length];
+            footer.get(magic);
+            if (!Arrays.equals(magic, ContainerFormat.FOOTER_MAGIC) || tocOffset < ContainerFormat.MAGIC.length
+                    || tocLength < 0 || tocOffset + tocLength != size - ContainerFormat.FOOTER_SIZE) {
+                throw new IOException(describe(mount) + " is not a backup container or was cut off");
+            }
+
+            ByteBuffer toc = read(channel, tocOffset, tocLength);
+            CRC32C checksum = new CRC32C();
+            checksum.update(toc.duplicate());
+            if ((int) checksum.getValue() != tocChecksum) {
+                throw new IOException("The table of contents of " + describe(mount) + " is corrupt");
+            }
+            Map<String, ContainerFormat.Entry> byName = new TreeMap<>();
+            for (ContainerFormat.Entry entry : ContainerFormat.readToc(new DataInputStream(new ByteArrayInputStream(toc.array())))) {
+                byName.put(name(entry.path()), entry);
+            }
+
+            MappedByteBuffer[] mapped = new MappedByteBuffer[(int) ((tocOffset + REGION_SIZE - 1) / REGION_SIZE)];
+            for (int i = 0; i < mapped.length; i++) {
+                long start = i * REGION_SIZE;
+                mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE + ContainerFormat.BLOCK_SIZE, tocOffset - start));
+            }
+            regions = mapped;
+            entries = byName;
+        }
+    }
+
+    private ByteBuffer block(String path, ContainerFormat.Block block) throws IOException {
+        int region = (int) (block.offset() / REGION_SIZE);
+        ByteBuffer data = regions[region].slice((int) (block.offset() - region * REGION_SIZE), block.length());
+        CRC32C checksum = new CRC32C();
+        checksum.update(data.duplicate());
+        if ((int) checksum.getValue() != block.checksum()) {
+            throw new IOException(describe(path) + ": block at offset " + block.offset() + " is corrupt");
+        }
+        return data;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of container");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private class BlockInputStream extends InputStream {
+
+        private final String path;
+        private final ContainerFormat.Entry entry;
+        private ByteBuffer current;
+        private int next;
+
+        BlockInputStream(String path, ContainerFormat.Entry entry) {
+            this.path = path;
+            this.entry = entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return ensureData() ? current.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureData()) {
+                return -1;
+            }
+            int n = Math.min(len, current.remaining());
+            current.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return current != null ? current.remaining() : 0;
+        }
+
+        private boolean ensureData() throws IOException {
+            while (current == null || !current.hasRemaining()) {
+                if (next == entry.blocks().size()) {
+                    return false;
+                }
+                current = block(path, entry.blocks().get(next++));
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package org.example.archive;
+
+import org.example.storage.BackupStorage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-only storage that packs a whole backup folder into one {@code <folder>.dbk} container. Blocks are
+ * appended to a temporary file as each file fills them; {@link #finish()} writes the table of contents and
+ * moves the container into place, uploading it when the target storage is not local.
+ */
+public class ContainerArchiveWriter implements BackupStorage {
+
+    private final BackupStorage target;
+    private final Path file;
+    private final FileChannel channel;
+    private final List<ContainerFormat.Entry> entries = new ArrayList<>();
+    private final Map<String, ByteArrayOutputStream> appended = new LinkedHashMap<>();
+    private long end;
+    private String folder;
+
+    public ContainerArchiveWriter(BackupStorage target) throws IOException {
+        this.target = target;
+        Path root = target.localPath("");
+        if (root != null) {
+            // Next to the destination, so the final move is a rename.
+            this.file = Files.createTempFile(Files.createDirectories(root), ".backup-", ContainerArchiveStorage.SUFFIX + ".tmp");
+        } else {
+            this.file = Files.createTempFile("backup-", ContainerArchiveStorage.SUFFIX + ".tmp");
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        write(ByteBuffer.wrap(ContainerFormat.MAGIC), 0);
+        this.end = ContainerFormat.MAGIC.length;
+    }
+
+    @Override
+    public OutputStream create(String path) {
+        remember(path);
+        return new BlockOutputStream(path);
+    }
+
+    @Override
+    public InputStream open(String path) throws IOException {
+        throw new IOException(describe(path) + " cannot be read back before the container is finished");
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return false;
+    }
+
+    @Override
+    public long size(String path) throws IOException {
+        throw new NoSuchFileException(describe(path));
+    }
+
+    @Override
+    public List<String> list(String folder) {
+        return List.of();
+    }
+
+    @Override
+    public void delete(String path) {
+        // Blocks already written stay in the container; the manifest shows which files finished.
+    }
+
+    @Override
+    public String describe(String path) {
+        return "container:" + path;
+    }
+
+    @Override
+    public boolean isReadable() {
+        return false;
+    }
+
+    @Override
+    public synchronized void append(String path, byte[] data) {
+        remember(path);
+        appended.computeIfAbsent(path, k -> new ByteArrayOutputStream()).writeBytes(data);
+    }
+
+    /**
+     * Completes the container and returns its path in the target storage, or null when the backup
+     * produced no files, in which case nothing is kept.
+     */
+    public String finish() throws IOException {
+        List<ContainerFormat.Entry> written;
+        synchronized (this) {
+            written = new ArrayList<>(entries);
+        }
+        if (written.isEmpty()) {
+            discard();
+            return null;
+        }
+        for (Map.Entry<String, ByteArrayOutputStream> object : appended.entrySet()) {
+            try (OutputStream out = new BlockOutputStream(object.getKey())) {
+                object.getValue().writeTo(out);
+            }
+        }
+
+        byte[] toc;
+        long tocOffset;
+        synchronized (this) {
+            toc = ContainerFormat.writeToc(entries);
+            tocOffset = end;
+        }
+        CRC32C tocChecksum = new CRC32C();
+        tocChecksum.update(toc);
+        write(ByteBuffer.wrap(toc), tocOffset);
+        write(ContainerFormat.footer(tocOffset, toc.length, (int) tocChecksum.getValue()), tocOffset + toc.length);
+        channel.force(true);
+        channel.close();
+
+        String destination = folder + ContainerArchiveStorage.SUFFIX;
+        Path local = target.localPath(destination);
+        if (local != null) {
+            Files.createDirectories(local.getParent());
+            Files.move(file, local, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            try (OutputStream out = target.create(destination)) {
+                Files.copy(file, out);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+        return destination;
+    }
+
+    public void discard() throws IOException {
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+
+    private synchronized void remember(String path) {
+        String parent = path.substring(0, Math.max(path.lastIndexOf('/'), 0));
+        if (folder == null) {
+            folder = parent;
+        } else if (!folder.equals(parent)) {
+            throw new IllegalArgumentException("A container holds a single backup folder, got " + path);
+        }
+    }
+
+    private ContainerFormat.Block writeBlock(byte[] data, int length) throws IOException {
+        CRC32C checksum = new CRC32C();
+        checksum.update(data, 0, length);
+        long offset;
+        synchronized (this) {
+            offset = end;
+            end += length;
+        }
+        write(ByteBuffer.wrap(data, 0, length), offset);
+        return new ContainerFormat.Block(offset, length, (int) checksum.getValue());
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private class BlockOutputStream extends OutputStream {
+
+        private final String path;
+        private final byte[] buffer = new byte[ContainerFormat.BLOCK_SIZE];
+        private final List<ContainerFormat.Block> blocks = new ArrayList<>();
+        private long length;
+        private int count;
+        private boolean closed;
+
+        BlockOutputStream(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                drain();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    drain();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            drain();
+            synchronized (ContainerArchiveWriter.this) {
+                entries.add(new ContainerFormat.Entry(path, length, blocks));
+            }
+        }
+
+        private void drain() throws IOException {
+            if (count > 0) {
+                blocks.add(writeBlock(buffer, count));
+                length += count;
+                count = 0;
+            }
+        }
+    }
+}
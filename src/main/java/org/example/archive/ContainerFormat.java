@@ -0,0 +1,80 @@
+package org.example.archive;
+
+import org.example.manifest.BackupManifest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Layout of a single-file backup container:
+ * <pre>
+ * magic | block | block | ... | table of contents | footer
+ * </pre>
+ * Files are cut into blocks of at most {@link #BLOCK_SIZE} bytes. Blocks of files written in parallel may
+ * interleave, so the table of contents lists, per file, the offset, length and CRC32C of each of its
+ * blocks. The fixed-size footer points at the table of contents, which makes the container readable
+ * from its end without scanning.
+ */
+final class ContainerFormat {
+
+    static final byte[] MAGIC = "DBKCONT1".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] FOOTER_MAGIC = "DBKTOC01".getBytes(StandardCharsets.US_ASCII);
+    /** TOC offset, TOC length, TOC CRC32C, magic. */
+    static final int FOOTER_SIZE = 8 + 4 + 4 + 8;
+    static final int BLOCK_SIZE = BackupManifest.BLOCK_SIZE;
+
+    record Block(long offset, int length, int checksum) {
+    }
+
+    record Entry(String path, long length, List<Block> blocks) {
+    }
+
+    private ContainerFormat() {
+    }
+
+    static byte[] writeToc(List<Entry> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(entries.size());
+        for (Entry entry : entries) {
+            out.writeUTF(entry.path());
+            out.writeLong(entry.length());
+            out.writeInt(entry.blocks().size());
+            for (Block block : entry.blocks()) {
+                out.writeLong(block.offset());
+                out.writeInt(block.length());
+                out.writeInt(block.checksum());
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static List<Entry> readToc(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String path = in.readUTF();
+            long length = in.readLong();
+            int blockCount = in.readInt();
+            List<Block> blocks = new ArrayList<>(blockCount);
+            for (int b = 0; b < blockCount; b++) {
+                blocks.add(new Block(in.readLong(), in.readInt(), in.readInt()));
+            }
+            entries.add(new Entry(path, length, blocks));
+        }
+        return entries;
+    }
+
+    static ByteBuffer footer(long tocOffset, int tocLength, int tocChecksum) {
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+        footer.putLong(tocOffset).putInt(tocLength).putInt(tocChecksum).put(FOOTER_MAGIC);
+        return footer.flip();
+    }
+}
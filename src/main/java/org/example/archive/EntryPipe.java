@@ -0,0 +1,135 @@
+package org.example.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Carries one file of a streamed archive from the demultiplexer to its consumer. Writes never block:
+ * chunks are kept in memory up to a limit and spill to a temporary file beyond it, so a consumer
+ * that falls behind cannot stall the files interleaved with it.
+ */
+class EntryPipe {
+
+    private final long memoryLimit;
+    private final Deque<byte[]> memory = new ArrayDeque<>();
+    private long memoryBytes;
+    private int headOffset;
+    private FileChannel spill;
+    private long spillWritten;
+    private long spillRead;
+    private boolean finished;
+    private boolean abandoned;
+    private IOException failure;
+
+    EntryPipe(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    synchronized void write(byte[] chunk) throws IOException {
+        if (abandoned) {
+            return;
+        }
+        // Once something is spilled, later chunks follow it to the file to keep the order.
+        if (spillRead < spillWritten || memoryBytes + chunk.length > memoryLimit) {
+            if (spill == null) {
+                spill = FileChannel.open(Files.createTempFile("backup-archive-", ".spill"), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            while (buffer.hasRemaining()) {
+                spillWritten += spill.write(buffer, spillWritten);
+            }
+        } else {
+            memory.add(chunk);
+            memoryBytes += chunk.length;
+        }
+        notifyAll();
+    }
+
+    synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    synchronized void fail(IOException e) {
+        failure = e;
+        notifyAll();
+    }
+
+    InputStream input() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return len == 0 ? 0 : EntryPipe.this.read(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                abandon();
+            }
+        };
+    }
+
+    private synchronized int read(byte[] b, int off, int len) throws IOException {
+        while (memory.isEmpty() && spillRead == spillWritten && !finished && failure == null && !abandoned) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for archive data");
+            }
+        }
+        if (failure != null) {
+            throw new IOException(failure.getMessage(), failure);
+        }
+        if (!memory.isEmpty()) {
+            byte[] head = memory.peek();
+            int n = Math.min(len, head.length - headOffset);
+            System.arraycopy(head, headOffset, b, off, n);
+            headOffset += n;
+            if (headOffset == head.length) {
+                memory.poll();
+                memoryBytes -= head.length;
+                headOffset = 0;
+            }
+            return n;
+        }
+        if (spillRead < spillWritten) {
+            int n = spill.read(ByteBuffer.wrap(b, off, (int) Math.min(len, spillWritten - spillRead)), spillRead);
+            spillRead += n;
+            if (spillRead == spillWritten) {
+                spill.truncate(0);
+                spillRead = 0;
+                spillWritten = 0;
+            }
+            return n;
+        }
+        return -1;
+    }
+
+    private synchronized void abandon() throws IOException {
+        abandoned = true;
+        memory.clear();
+        memoryBytes = 0;
+        if (spill != null) {
+            spill.close();
+            spill = null;
+            spillRead = 0;
+            spillWritten = 0;
+        }
+        notifyAll();
+    }
+}
@@ -0,0 +1,218 @@
+package org.example.archive;
+
+import org.example.entities.ManifestEntry;
+import org.example.manifest.BackupManifest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+/**
+ * Demultiplexes an archive written by {@link StreamArchiveWriter}. Every file is handed to the handler
+ * on its own thread as soon as its OPEN frame arrives, so interleaved files are consumed concurrently.
+ */
+public class StreamArchiveReader {
+
+    public static final long DEFAULT_MEMORY_PER_ENTRY = 8L * 1024 * 1024;
+
+    @FunctionalInterface
+    public interface EntryHandler {
+        void accept(String path, InputStream data) throws Exception;
+    }
+
+    public record Entry(String path, long bytes, long checksum) {
+    }
+
+    private final DataInputStream in;
+    private final long memoryPerEntry;
+    private final Map<String, ByteArrayOutputStream> appended = new HashMap<>();
+    private final List<Entry> entries = new ArrayList<>();
+
+    public StreamArchiveReader(InputStream in) {
+        this(in, DEFAULT_MEMORY_PER_ENTRY);
+    }
+
+    public StreamArchiveReader(InputStream in, long memoryPerEntry) {
+        this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        this.memoryPerEntry = memoryPerEntry;
+    }
+
+    /**
+     * Reads the whole archive and waits for every handler to return. Throws if the stream is damaged
+     * or cut off, otherwise rethrows the first handler failure.
+     */
+    public void read(EntryHandler handler) throws IOException, InterruptedException {
+        Map<Integer, OpenEntry> open = new HashMap<>();
+        List<Future<?>> handlers = new ArrayList<>();
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        boolean intact = false;
+        try {
+            demultiplex(handler, open, handlers, executor);
+            intact = true;
+        } catch (IOException | RuntimeException | Error e) {
+            // Whatever stopped the demultiplexer, handlers blocked on their pipes must not wait for data forever.
+            IOException failure = e instanceof IOException io ? io : new IOException("The archive could not be read: " + e, e);
+            for (OpenEntry entry : open.values()) {
+                entry.pipe.fail(failure);
+            }
+            throw e;
+        } finally {
+            executor.shutdown();
+            Exception handlerFailure = null;
+            for (Future<?> future : handlers) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (handlerFailure == null && e.getCause() instanceof Exception cause) {
+                        handlerFailure = cause;
+                    }
+                }
+            }
+            if (intact && handlerFailure != null) {
+                throw new IOException(handlerFailure.getMessage(), handlerFailure);
+            }
+        }
+    }
+
+    /**
+     * Compares the files received with the manifest that travelled in the archive and describes every
+     * difference; an empty list means the archive arrived exactly as it was written.
+     */
+    public synchronized List<String> verify() {
+        List<String> problems = new ArrayList<>();
+        String manifestPath = appended.keySet().stream()
+                .filter(path -> path.endsWith("/" + BackupManifest.FILE_NAME))
+                .findFirst().orElse(null);
+        if (manifestPath == null) {
+            problems.add("the archive carries no manifest, its files could not be checked");
+            return problems;
+        }
+        BackupManifest manifest = BackupManifest.parse(appended(manifestPath));
+        if (!manifest.isComplete()) {
+            problems.add("the backup did not complete, only the files it finished were sent");
+        }
+        for (Entry entry : entries) {
+            String fileName = entry.path().substring(entry.path().lastIndexOf('/') + 1);
+            ManifestEntry expected = manifest.get(fileName);
+            if (expected == null) {
+                problems.add(entry.path() + " was not recorded as finished by the backup");
+            } else if (expected.bytes() != entry.bytes() || expected.checksum() != entry.checksum()) {
+                problems.add(entry.path() + " does not match the size or checksum in the manifest");
+            }
+        }
+        return problems;
+    }
+
+    public synchronized byte[] appended(String path) {
+        ByteArrayOutputStream content = appended.get(path);
+        return content != null ? content.toByteArray() : null;
+    }
+
+    public synchronized List<Entry> entries() {
+        return new ArrayList<>(entries);
+    }
+
+    private void demultiplex(EntryHandler handler, Map<Integer, OpenEntry> open, List<Future<?>> handlers,
+                             ExecutorService executor) throws IOException {
+        try {
+            byte[] magic = in.readNBytes(ArchiveFormat.MAGIC.length);
+            if (!Arrays.equals(magic, ArchiveFormat.MAGIC)) {
+                throw new IOException("Input is not a streamed backup archive.");
+            }
+            while (true) {
+                int type = in.readUnsignedByte();
+                switch (type) {
+                    case ArchiveFormat.OPEN -> {
+                        int id = in.readInt();
+                        String path = in.readUTF();
+                        EntryPipe pipe = new EntryPipe(memoryPerEntry);
+                        open.put(id, new OpenEntry(path, pipe));
+                        handlers.add(executor.submit(() -> {
+                            try (InputStream data = pipe.input()) {
+                                handler.accept(path, data);
+                            }
+                            return null;
+                        }));
+                    }
+                    case ArchiveFormat.DATA -> {
+                        OpenEntry entry = entry(open, in.readInt());
+                        byte[] chunk = new byte[readLength()];
+                        in.readFully(chunk);
+                        entry.checksum.update(chunk);
+                        entry.bytes += chunk.length;
+                        entry.pipe.write(chunk);
+                    }
+                    case ArchiveFormat.CLOSE -> {
+                        OpenEntry entry = entry(open, in.readInt());
+                        open.values().remove(entry);
+                        entry.pipe.finish();
+                        synchronized (this) {
+                            entries.add(new Entry(entry.path, entry.bytes, entry.checksum.getValue()));
+                        }
+                    }
+                    case ArchiveFormat.APPEND -> {
+                        String path = in.readUTF();
+                        byte[] data = new byte[readLength()];
+                        in.readFully(data);
+                        synchronized (this) {
+                            appended.computeIfAbsent(path, k -> new ByteArrayOutputStream()).write(data);
+                        }
+                    }
+                    case ArchiveFormat.END -> {
+                        if (!open.isEmpty()) {
+                            throw new IOException("Archive ended with unfinished files: "
+                                    + open.values().stream().map(entry -> entry.path).toList());
+                        }
+                        return;
+                    }
+                    default -> throw new IOException("Unknown archive frame type " + type);
+                }
+            }
+        } catch (EOFException e) {
+            throw new EOFException("The archive ended before its end marker, the backup was cut off.");
+        }
+    }
+
+    /** Frames never carry more than a chunk, so a larger or negative length means the archive is damaged. */
+    private int readLength() throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > ArchiveFormat.CHUNK_SIZE) {
+            throw new IOException("Archive frame has an invalid length of " + length + " bytes, the archive is damaged.");
+        }
+        return length;
+    }
+
+    private static OpenEntry entry(Map<Integer, OpenEntry> open, int id) throws IOException {
+        OpenEntry entry = open.get(id);
+        if (entry == null) {
+            throw new IOException("Archive refers to unknown file " + id);
+        }
+        return entry;
+    }
+
+    private static class OpenEntry {
+
+        private final String path;
+        private final EntryPipe pipe;
+        private final CRC32C checksum = new CRC32C();
+        private long bytes;
+
+        OpenEntry(String path, EntryPipe pipe) {
+            this.path = path;
+            this.pipe = pipe;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.example.archive;
+
+import org.example.storage.BackupStorage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.List;
+
+/**
+ * Write-only storage that multiplexes every file of a backup into one framed stream, e.g. stdout.
+ * Each file buffers a chunk at a time and emits it as a DATA frame, so files exported in parallel
+ * end up interleaved. {@link #finish()} must be called once the backup is done.
+ */
+public class StreamArchiveWriter implements BackupStorage {
+
+    private final DataOutputStream out;
+    private final String name;
+    private int nextId;
+    private boolean finished;
+
+    public StreamArchiveWriter(OutputStream out, String name) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        this.name = name;
+        this.out.write(ArchiveFormat.MAGIC);
+    }
+
+    @Override
+    public synchronized OutputStream create(String path) throws IOException {
+        int id = nextId++;
+        out.writeByte(ArchiveFormat.OPEN);
+        out.writeInt(id);
+        out.writeUTF(path);
+        return new EntryOutputStream(id);
+    }
+
+    @Override
+    public InputStream open(String path) throws IOException {
+        throw new IOException(describe(path) + " cannot be read back, the archive is write-only");
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return false;
+    }
+
+    @Override
+    public long size(String path) throws IOException {
+        throw new NoSuchFileException(describe(path));
+    }
+
+    @Override
+    public List<String> list(String folder) {
+        return List.of();
+    }
+
+    @Override
+    public void delete(String path) {
+        // Frames already sent cannot be taken back; the reader sees the missing COMPLETE line in the manifest.
+    }
+
+    @Override
+    public String describe(String path) {
+        return name + ":" + path;
+    }
+
+    @Override
+    public boolean isReadable() {
+        return false;
+    }
+
+    @Override
+    public synchronized void append(String path, byte[] data) throws IOException {
+        // Split like file data, the reader rejects any frame longer than a chunk.
+        int offset = 0;
+        do {
+            int length = Math.min(data.length - offset, ArchiveFormat.CHUNK_SIZE);
+            out.writeByte(ArchiveFormat.APPEND);
+            out.writeUTF(path);
+            out.writeInt(length);
+            out.write(data, offset, length);
+            offset += length;
+        } while (offset < data.length);
+    }
+
+    public synchronized void finish() throws IOException {
+        if (!finished) {
+            finished = true;
+            out.writeByte(ArchiveFormat.END);
+            out.flush();
+        }
+    }
+
+    private synchronized void writeData(int id, byte[] data, int length) throws IOException {
+        out.writeByte(ArchiveFormat.DATA);
+        out.writeInt(id);
+        out.writeInt(length);
+        out.write(data, 0, length);
+    }
+
+    private synchronized void writeClose(int id) throws IOException {
+        out.writeByte(ArchiveFormat.CLOSE);
+        out.writeInt(id);
+        out.flush();
+    }
+
+    private class EntryOutputStream extends OutputStream {
+
+        private final int id;
+        private final byte[] buffer = new byte[ArchiveFormat.CHUNK_SIZE];
+        private int count;
+        private boolean closed;
+
+        EntryOutputStream(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                drain();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    drain();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            drain();
+            writeClose(id);
+        }
+
+        private void drain() throws IOException {
+            if (count > 0) {
+                writeData(id, buffer, count);
+                count = 0;
+            }
+        }
+    }
+}
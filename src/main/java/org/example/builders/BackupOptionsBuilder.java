@@ -0,0 +1,105 @@
+package org.example.builders;
+
+import org.example.entities.BackupOptions;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class BackupOptionsBuilder {
+
+    private int workers = BackupOptions.DEFAULT_WORKERS;
+    private double maxMegabytesPerSecond;
+    private long maxRowsPerSecond;
+    private long latencyTargetMillis;
+    private String resumeFolder;
+    private String baseFolder;
+    private long partMegabytes = BackupOptions.DEFAULT_PART_MEGABYTES;
+    private boolean planOnly;
+    private boolean sorted;
+    private final Map<String, String> filters = new HashMap<>();
+    private final Map<String, String> projections = new HashMap<>();
+
+    public BackupOptionsBuilder workers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Workers must be at least 1.");
+        }
+        this.workers = workers;
+        return this;
+    }
+
+    public BackupOptionsBuilder maxMegabytesPerSecond(double maxMegabytesPerSecond) {
+        this.maxMegabytesPerSecond = maxMegabytesPerSecond;
+        return this;
+    }
+
+    public BackupOptionsBuilder maxRowsPerSecond(long maxRowsPerSecond) {
+        this.maxRowsPerSecond = maxRowsPerSecond;
+        return this;
+    }
+
+    public BackupOptionsBuilder latencyTargetMillis(long latencyTargetMillis) {
+        this.latencyTargetMillis = latencyTargetMillis;
+        return this;
+    }
+
+    public BackupOptionsBuilder resumeFolder(String resumeFolder) {
+        this.resumeFolder = resumeFolder;
+        return this;
+    }
+
+    public BackupOptionsBuilder baseFolder(String baseFolder) {
+        this.baseFolder = baseFolder;
+        return this;
+    }
+
+    /** Tables estimated larger than this are exported as several key ranges in parallel; 0 never splits. */
+    public BackupOptionsBuilder partMegabytes(long partMegabytes) {
+        if (partMegabytes < 0) {
+            throw new IllegalArgumentException("Part size cannot be negative.");
+        }
+        this.partMegabytes = partMegabytes;
+        return this;
+    }
+
+    public BackupOptionsBuilder planOnly(boolean planOnly) {
+        this.planOnly = planOnly;
+        return this;
+    }
+
+    /**
+     * Writes a full backup in primary key order, as incremental backups and {@code --diff} need it. Character
+     * keys whose collation does not already sort by bytes are then sorted by the database before the first row.
+     */
+    public BackupOptionsBuilder sorted(boolean sorted) {
+        this.sorted = sorted;
+        return this;
+    }
+
+    /** Restricts the rows exported from {@code entity}, or from every entity when it is null. */
+    public BackupOptionsBuilder filter(String entity, String filter) {
+        filters.put(entity != null ? entity : BackupOptions.ALL_ENTITIES, filter);
+        return this;
+    }
+
+    /** Restricts the columns or fields exported from {@code entity}, or from every entity when it is null. */
+    public BackupOptionsBuilder projection(String entity, String projection) {
+        projections.put(entity != null ? entity : BackupOptions.ALL_ENTITIES, projection);
+        return this;
+    }
+
+    public BackupOptions build() {
+        BackupOptions backupOptions = new BackupOptions();
+        backupOptions.setWorkers(workers);
+        backupOptions.setMaxMegabytesPerSecond(maxMegabytesPerSecond);
+        backupOptions.setMaxRowsPerSecond(maxRowsPerSecond);
+        backupOptions.setLatencyTargetMillis(latencyTargetMillis);
+        backupOptions.setResumeFolder(resumeFolder);
+        backupOptions.setBaseFolder(baseFolder);
+        backupOptions.setPartMegabytes(partMegabytes);
+        backupOptions.setPlanOnly(planOnly);
+        backupOptions.setSorted(sorted);
+        backupOptions.setFilters(new HashMap<>(filters));
+        backupOptions.setProjections(new HashMap<>(projections));
+        return backupOptions;
+    }
+}
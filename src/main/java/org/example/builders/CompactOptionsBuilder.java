@@ -0,0 +1,39 @@
+package org.example.builders;
+
+import org.example.entities.CompactOptions;
+
+public class CompactOptionsBuilder {
+
+    private int workers = CompactOptions.DEFAULT_WORKERS;
+    private double maxMegabytesPerSecond;
+    private int keepFullBackups;
+
+    public CompactOptionsBuilder workers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Workers must be at least 1.");
+        }
+        this.workers = workers;
+        return this;
+    }
+
+    public CompactOptionsBuilder maxMegabytesPerSecond(double maxMegabytesPerSecond) {
+        this.maxMegabytesPerSecond = maxMegabytesPerSecond;
+        return this;
+    }
+
+    public CompactOptionsBuilder keepFullBackups(int keepFullBackups) {
+        if (keepFullBackups < 0) {
+            throw new IllegalArgumentException("The number of full backups to keep cannot be negative.");
+        }
+        this.keepFullBackups = keepFullBackups;
+        return this;
+    }
+
+    public CompactOptions build() {
+        CompactOptions compactOptions = new CompactOptions();
+        compactOptions.setWorkers(workers);
+        compactOptions.setMaxMegabytesPerSecond(maxMegabytesPerSecond);
+        compactOptions.setKeepFullBackups(keepFullBackups);
+        return compactOptions;
+    }
+}
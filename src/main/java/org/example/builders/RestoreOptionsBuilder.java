@@ -0,0 +1,46 @@
+package org.example.builders;
+
+import org.example.entities.RestoreOptions;
+
+public class RestoreOptionsBuilder {
+
+    private int workers = RestoreOptions.DEFAULT_WORKERS;
+    private boolean resume;
+    private boolean shadow;
+    private boolean diff;
+
+    public RestoreOptionsBuilder workers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Workers must be at least 1.");
+        }
+        this.workers = workers;
+        return this;
+    }
+
+    public RestoreOptionsBuilder resume(boolean resume) {
+        this.resume = resume;
+        return this;
+    }
+
+    public RestoreOptionsBuilder shadow(boolean shadow) {
+        this.shadow = shadow;
+        return this;
+    }
+
+    public RestoreOptionsBuilder diff(boolean diff) {
+        this.diff = diff;
+        return this;
+    }
+
+    public RestoreOptions build() {
+        if (diff && shadow) {
+            throw new IllegalArgumentException("--diff updates the live tables in place and cannot be combined with --shadow.");
+        }
+        RestoreOptions restoreOptions = new RestoreOptions();
+        restoreOptions.setWorkers(workers);
+        restoreOptions.setResume(resume);
+        restoreOptions.setShadow(shadow);
+        restoreOptions.setDiff(diff);
+        return restoreOptions;
+    }
+}
@@ -0,0 +1,65 @@
+package org.example.checkpoint;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+
+/**
+ * Stores restore progress in a helper collection of the target database. Without a transaction
+ * a batch can be inserted without its checkpoint; re-inserting it is harmless because every
+ * document carries its original _id and duplicates are rejected.
+ */
+public class MongoRestoreCheckpoint extends RestoreCheckpoint {
+
+    public static final String COLLECTION_NAME = "backup_restore_progress";
+
+    private final MongoCollection<Document> progress;
+
+    private MongoRestoreCheckpoint(String restoreId, MongoCollection<Document> progress) {
+        super(restoreId);
+        this.progress = progress;
+    }
+
+    public static MongoRestoreCheckpoint open(MongoDatabase database, String restoreId, boolean resume) {
+        MongoRestoreCheckpoint checkpoint = new MongoRestoreCheckpoint(restoreId, database.getCollection(COLLECTION_NAME));
+        if (resume) {
+            try (MongoCursor<Document> cursor = checkpoint.progress.find(new Document("restoreId", restoreId)).iterator()) {
+                while (cursor.hasNext()) {
+                    Document document = cursor.next();
+                    checkpoint.remember(document.getString("collection"),
+                            ((Number) document.get("firstRow")).longValue(), ((Number) document.get("rowCount")).longValue());
+                }
+            }
+        } else {
+            checkpoint.progress.deleteMany(new Document("restoreId", restoreId));
+        }
+        return checkpoint;
+    }
+
+    public void recordBatch(String collectionName, long firstRow, long rowCount) {
+        insert(collectionName, firstRow, rowCount);
+    }
+
+    public void mark(String collectionName, long marker) {
+        if (isMarked(collectionName, marker)) {
+            return;
+        }
+        insert(collectionName, marker, 0);
+        remember(collectionName, marker, 0);
+    }
+
+    public void clear() {
+        progress.deleteMany(new Document("restoreId", restoreId));
+        if (progress.countDocuments() == 0) {
+            progress.drop();
+        }
+    }
+
+    private void insert(String collectionName, long firstRow, long rowCount) {
+        progress.insertOne(new Document("restoreId", restoreId)
+                .append("collection", collectionName)
+                .append("firstRow", firstRow)
+                .append("rowCount", rowCount));
+    }
+}
@@ -0,0 +1,83 @@
+package org.example.checkpoint;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Progress of one restore, kept in the target database so an interrupted run can pick up where it
+ * stopped. Each entity has the row ranges that were committed plus markers for finished phases.
+ */
+public abstract class RestoreCheckpoint {
+
+    public static final long LOADED = -1;
+    public static final long INDEXED = -2;
+    public static final long CONSTRAINED = -3;
+    public static final long CREATED = -4;
+    public static final long SWAPPED = -5;
+
+    protected final String restoreId;
+    private final Map<String, List<long[]>> ranges = new HashMap<>();
+    private final Map<String, Set<Long>> markers = new HashMap<>();
+
+    protected RestoreCheckpoint(String restoreId) {
+        this.restoreId = restoreId;
+    }
+
+    protected synchronized void remember(String entity, long firstRow, long rowCount) {
+        if (firstRow < 0) {
+            markers.computeIfAbsent(entity, k -> new HashSet<>()).add(firstRow);
+        } else {
+            ranges.computeIfAbsent(entity, k -> new ArrayList<>()).add(new long[]{firstRow, rowCount});
+        }
+    }
+
+    public synchronized boolean hasProgress(String entity) {
+        return ranges.containsKey(entity) || markers.containsKey(entity);
+    }
+
+    public synchronized boolean isMarked(String entity, long marker) {
+        return markers.getOrDefault(entity, Set.of()).contains(marker);
+    }
+
+    public synchronized CommittedRows committedRows(String entity) {
+        List<long[]> committed = new ArrayList<>(ranges.getOrDefault(entity, List.of()));
+        committed.sort(Comparator.comparingLong(range -> range[0]));
+        return new CommittedRows(committed);
+    }
+
+    /**
+     * Walks the committed ranges of one entity in row order while its file is being re-read.
+     */
+    public static class CommittedRows {
+
+        private final List<long[]> ranges;
+        private int next;
+
+        CommittedRows(List<long[]> ranges) {
+            this.ranges = ranges;
+        }
+
+        public boolean isEmpty() {
+            return ranges.isEmpty();
+        }
+
+        /**
+         * Returns the first row after the committed range covering {@code row}, or {@code row} itself
+         * when it still has to be loaded. Rows must be asked for in increasing order.
+         */
+        public long resumeFrom(long row) {
+            while (next < ranges.size() && ranges.get(next)[0] + ranges.get(next)[1] <= row) {
+                next++;
+            }
+            if (next < ranges.size() && ranges.get(next)[0] <= row) {
+                return ranges.get(next)[0] + ranges.get(next)[1];
+            }
+            return row;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.example.checkpoint;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores restore progress in a helper table of the target database. Batch ranges are inserted on
+ * the worker connection before it commits, so a batch and its checkpoint row land together.
+ */
+public class SqlRestoreCheckpoint extends RestoreCheckpoint {
+
+    public static final String TABLE_NAME = "backup_restore_progress";
+    public static final String FOREIGN_KEYS_TABLE_NAME = "backup_restore_foreign_keys";
+
+    // Restored table -> statement adding back a foreign key that points at it -> the table the key belongs to.
+    private final Map<String, Map<String, String>> foreignKeys = new HashMap<>();
+
+    private SqlRestoreCheckpoint(String restoreId) {
+        super(restoreId);
+    }
+
+    public static SqlRestoreCheckpoint open(Connection connection, String restoreId, boolean resume) throws SQLException {
+        SqlRestoreCheckpoint checkpoint = new SqlRestoreCheckpoint(restoreId);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (restore_id VARCHAR(255) NOT NULL, "
+                    + "table_name VARCHAR(255) NOT NULL, first_row BIGINT NOT NULL, row_count BIGINT NOT NULL)");
+            statement.execute("CREATE TABLE IF NOT EXISTS " + FOREIGN_KEYS_TABLE_NAME + " (restore_id VARCHAR(255) NOT NULL, "
+                    + "table_name VARCHAR(255) NOT NULL, referencing_table VARCHAR(255) NOT NULL, statement TEXT NOT NULL)");
+        }
+        if (resume) {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT table_name, first_row, row_count FROM " + TABLE_NAME + " WHERE restore_id = ?")) {
+                statement.setString(1, restoreId);
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        checkpoint.remember(rs.getString(1), rs.getLong(2), rs.getLong(3));
+                    }
+                }
+            }
+        } else {
+            checkpoint.delete(connection, TABLE_NAME);
+        }
+        // Saved foreign keys survive a fresh start too: the keys they stand for were dropped and exist nowhere else.
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT table_name, referencing_table, statement FROM " + FOREIGN_KEYS_TABLE_NAME + " WHERE restore_id = ?")) {
+            statement.setString(1, restoreId);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    checkpoint.foreignKeys.computeIfAbsent(rs.getString(1), k -> new HashMap<>()).put(rs.getString(3), rs.getString(2));
+                }
+            }
+        }
+        commitIfNeeded(connection);
+        return checkpoint;
+    }
+
+    public void recordBatch(Connection connection, String tableName, long firstRow, long rowCount) throws SQLException {
+        insert(connection, tableName, firstRow, rowCount);
+    }
+
+    public void mark(Connection connection, String tableName, long marker) throws SQLException {
+        if (isMarked(tableName, marker)) {
+            return;
+        }
+        insert(connection, tableName, marker, 0);
+        commitIfNeeded(connection);
+        remember(tableName, marker, 0);
+    }
+
+    /**
+     * Saves a foreign key of {@code referencingTable} that points at {@code tableName} before it is taken off for
+     * the drop, so it is added back after the load even if the restore is interrupted and resumed in between.
+     */
+    public synchronized void saveForeignKey(Connection connection, String tableName, String referencingTable, String addStatement)
+            throws SQLException {
+        Map<String, String> saved = foreignKeys.computeIfAbsent(tableName, k -> new HashMap<>());
+        if (saved.containsKey(addStatement)) {
+            return;
+        }
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO " + FOREIGN_KEYS_TABLE_NAME
+                + " (restore_id, table_name, referencing_table, statement) VALUES (?, ?, ?, ?)")) {
+            statement.setString(1, restoreId);
+            statement.setString(2, tableName);
+            statement.setString(3, referencingTable);
+            statement.setString(4, addStatement);
+            statement.executeUpdate();
+        }
+        commitIfNeeded(connection);
+        saved.put(addStatement, referencingTable);
+    }
+
+    /** Forgets the saved keys of a table that is restored itself; its own keys come from the backup. */
+    public synchronized void forgetForeignKeysOf(Connection connection, String referencingTable) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "DELETE FROM " + FOREIGN_KEYS_TABLE_NAME + " WHERE restore_id = ? AND LOWER(referencing_table) = LOWER(?)")) {
+            statement.setString(1, restoreId);
+            statement.setString(2, referencingTable);
+            statement.executeUpdate();
+        }
+        commitIfNeeded(connection);
+        foreignKeys.values().forEach(saved -> saved.values().removeIf(referencingTable::equalsIgnoreCase));
+    }
+
+    /** Tables that saved foreign keys point at, whether or not this restore restores them. */
+    public synchronized List<String> savedForeignKeyTables() {
+        return foreignKeys.entrySet().stream().filter(entry -> !entry.getValue().isEmpty()).map(Map.Entry::getKey).sorted().toList();
+    }
+
+    /** The saved statements adding back the foreign keys that point at a table, always in the same order. */
+    public synchronized List<String> savedForeignKeys(String tableName) {
+        return foreignKeys.getOrDefault(tableName, Map.of()).keySet().stream().sorted().toList();
+    }
+
+    public void clear(Connection connection) throws SQLException {
+        delete(connection, TABLE_NAME);
+        delete(connection, FOREIGN_KEYS_TABLE_NAME);
+        for (String table : List.of(TABLE_NAME, FOREIGN_KEYS_TABLE_NAME)) {
+            boolean empty;
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+                empty = rs.next() && rs.getLong(1) == 0;
+            }
+            if (empty) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("DROP TABLE " + table);
+                }
+            }
+        }
+        commitIfNeeded(connection);
+    }
+
+    private void insert(Connection connection, String tableName, long firstRow, long rowCount) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO " + TABLE_NAME + " (restore_id, table_name, first_row, row_count) VALUES (?, ?, ?, ?)")) {
+            statement.setString(1, restoreId);
+            statement.setString(2, tableName);
+            statement.setLong(3, firstRow);
+            statement.setLong(4, rowCount);
+            statement.executeUpdate();
+        }
+    }
+
+    private void delete(Connection connection, String table) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + table + " WHERE restore_id = ?")) {
+            statement.setString(1, restoreId);
+            statement.executeUpdate();
+        }
+    }
+
+    private static void commitIfNeeded(Connection connection) throws SQLException {
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+}
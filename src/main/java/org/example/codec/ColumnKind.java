@@ -0,0 +1,56 @@
+package org.example.codec;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+public enum ColumnKind {
+    TEXT,
+    LONG,
+    INT,
+    DOUBLE,
+    FLOAT,
+    BOOLEAN,
+    BINARY,
+    BLOB,
+    CLOB,
+    DECIMAL,
+    DATE,
+    TIMESTAMP,
+    PLAIN;
+
+    private static final int MAX_INLINE_PRECISION = 65535;
+
+    public static ColumnKind of(ResultSetMetaData metaData, int column) throws SQLException {
+        int type = metaData.getColumnType(column);
+        return switch (type) {
+            case Types.BIGINT -> metaData.isSigned(column) ? LONG : DECIMAL;
+            case Types.INTEGER -> metaData.isSigned(column) ? INT : LONG;
+            case Types.SMALLINT, Types.TINYINT -> INT;
+            case Types.DOUBLE, Types.FLOAT -> DOUBLE;
+            case Types.REAL -> FLOAT;
+            case Types.BOOLEAN -> BOOLEAN;
+            case Types.BIT -> metaData.getPrecision(column) <= 1 ? BOOLEAN : BINARY;
+            case Types.BINARY, Types.VARBINARY -> isUnbounded(metaData, column) ? BLOB : BINARY;
+            case Types.LONGVARBINARY, Types.BLOB -> BLOB;
+            case Types.VARCHAR, Types.NVARCHAR -> isUnbounded(metaData, column) ? CLOB : TEXT;
+            case Types.LONGVARCHAR, Types.LONGNVARCHAR, Types.CLOB, Types.NCLOB -> CLOB;
+            case Types.DECIMAL, Types.NUMERIC -> DECIMAL;
+            case Types.DATE -> DATE;
+            case Types.TIMESTAMP -> TIMESTAMP;
+            case Types.TIME, Types.TIME_WITH_TIMEZONE, Types.TIMESTAMP_WITH_TIMEZONE -> PLAIN;
+            default -> TEXT;
+        };
+    }
+
+    /** Whether values of this kind are read and written as streams, see {@link RowEncoder}. */
+    public boolean isLarge() {
+        return this == BLOB || this == CLOB;
+    }
+
+    /** Columns such as PostgreSQL's {@code bytea} and {@code text} report no or a huge maximum length. */
+    private static boolean isUnbounded(ResultSetMetaData metaData, int column) throws SQLException {
+        int precision = metaData.getPrecision(column);
+        return precision <= 0 || precision > MAX_INLINE_PRECISION;
+    }
+}
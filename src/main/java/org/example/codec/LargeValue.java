@@ -0,0 +1,121 @@
+package org.example.codec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A BLOB or CLOB value read back from its chunks, kept in a temporary file so that a row costs the
+ * same memory however large its values are. {@link #close()} deletes the file.
+ */
+public class LargeValue implements Closeable {
+
+    private final boolean binary;
+    private final Path file;
+    private OutputStream out;
+    private long length;
+    private final List<InputStream> opened = new ArrayList<>();
+
+    LargeValue(boolean binary) throws IOException {
+        this.binary = binary;
+        this.file = Files.createTempFile("backup-lob-", ".tmp");
+        try {
+            this.out = Files.newOutputStream(file);
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    void append(byte[] data, int length) throws IOException {
+        out.write(data, 0, length);
+        if (binary) {
+            this.length += length;
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            byte b = data[i];
+            if ((b & 0xC0) != 0x80) {
+                // Every character starts with a non-continuation byte; four byte sequences are two chars.
+                this.length += (b & 0xF8) == 0xF0 ? 2 : 1;
+            }
+        }
+    }
+
+    void finish() throws IOException {
+        out.close();
+        out = null;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /** Bytes for a binary value, characters for text. */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * The value's bytes. The file is only opened on the first read, so a batch of bound values does
+     * not hold a file handle per row while the driver sends them one after the other.
+     */
+    public InputStream openStream() {
+        InputStream stream = new InputStream() {
+            private InputStream in;
+
+            @Override
+            public int read() throws IOException {
+                return open().read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return open().read(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (in != null) {
+                    in.close();
+                }
+            }
+
+            private InputStream open() throws IOException {
+                if (in == null) {
+                    in = Files.newInputStream(file);
+                }
+                return in;
+            }
+        };
+        opened.add(stream);
+        return stream;
+    }
+
+    public Reader openReader() {
+        return new InputStreamReader(openStream(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (out != null) {
+                out.close();
+            }
+            for (InputStream stream : opened) {
+                stream.close();
+            }
+        } finally {
+            opened.clear();
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.example.codec;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Fixed-capacity, column-typed row buffer that moves between the parser and the insert workers.
+ * Primitive columns are kept unboxed so a batch can be refilled without allocating per cell.
+ * Large values stay in their spill files and are bound as streams.
+ */
+public class RowBatch {
+
+    private final ColumnKind[] kinds;
+    private final int[] sqlTypes;
+    private final int capacity;
+    private final int columns;
+    private final long[] longs;
+    private final double[] doubles;
+    private final Object[] objects;
+    private final boolean[] nulls;
+    private int size;
+    private long firstRow;
+    private boolean largeValues;
+
+    public RowBatch(ColumnKind[] kinds, int[] sqlTypes, int capacity) {
+        this.kinds = kinds;
+        this.sqlTypes = sqlTypes;
+        this.capacity = capacity;
+        this.columns = kinds.length;
+        this.longs = new long[capacity * columns];
+        this.doubles = new double[capacity * columns];
+        this.objects = new Object[capacity * columns];
+        this.nulls = new boolean[capacity * columns];
+    }
+
+    public int columnCount() {
+        return columns;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getFirstRow() {
+        return firstRow;
+    }
+
+    public void setFirstRow(long firstRow) {
+        this.firstRow = firstRow;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public void clear() {
+        if (largeValues) {
+            closeLargeValues();
+            largeValues = false;
+        }
+        Arrays.fill(objects, 0, size * columns, null);
+        size = 0;
+    }
+
+    private void closeLargeValues() {
+        for (int cell = 0; cell < size * columns; cell++) {
+            if (objects[cell] instanceof LargeValue value) {
+                try {
+                    value.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to remove a spilled large value: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public void add(RowParser parser) {
+        if (parser.fieldCount() != columns) {
+            throw new IllegalArgumentException("Expected " + columns + " fields but found " + parser.fieldCount());
+        }
+        int base = size * columns;
+        for (int column = 0; column < columns; column++) {
+            int cell = base + column;
+            nulls[cell] = parser.isNull(column);
+            if (nulls[cell]) {
+                objects[cell] = null;
+                continue;
+            }
+            if (parser.isLargeValue(column)) {
+                objects[cell] = parser.getLargeValue(column);
+                largeValues = true;
+                continue;
+            }
+            switch (kinds[column]) {
+                case LONG, INT -> longs[cell] = parser.getLong(column);
+                case BOOLEAN -> longs[cell] = parser.getBoolean(column) ? 1 : 0;
+                case DOUBLE, FLOAT -> doubles[cell] = parser.getDouble(column);
+                case BINARY, BLOB -> objects[cell] = parser.getBinary(column);
+                case DECIMAL -> objects[cell] = parser.getDecimal(column);
+                case DATE -> objects[cell] = parser.getDate(column);
+                case TIMESTAMP -> objects[cell] = parser.getTimestamp(column);
+                default -> objects[cell] = parser.getString(column);
+            }
+        }
+        size++;
+    }
+
+    public void bind(PreparedStatement statement, int row) throws SQLException {
+        for (int column = 0; column < columns; column++) {
+            bindCell(statement, column + 1, row, column);
+        }
+    }
+
+    /** Binds only the given columns of a row, in that order, e.g. the key columns of a DELETE. */
+    public void bind(PreparedStatement statement, int row, int[] selectedColumns) throws SQLException {
+        for (int i = 0; i < selectedColumns.length; i++) {
+            bindCell(statement, i + 1, row, selectedColumns[i]);
+        }
+    }
+
+    private void bindCell(PreparedStatement statement, int parameter, int row, int column) throws SQLException {
+        int cell = row * columns + column;
+        if (nulls[cell]) {
+            statement.setNull(parameter, sqlTypes[column]);
+            return;
+        }
+        if (objects[cell] instanceof LargeValue value) {
+            bindLargeValue(statement, parameter, value);
+            return;
+        }
+        switch (kinds[column]) {
+            case LONG -> statement.setLong(parameter, longs[cell]);
+            case INT -> statement.setInt(parameter, (int) longs[cell]);
+            case BOOLEAN -> statement.setBoolean(parameter, longs[cell] != 0);
+            case DOUBLE -> statement.setDouble(parameter, doubles[cell]);
+            case FLOAT -> statement.setFloat(parameter, (float) doubles[cell]);
+            case TEXT, CLOB, PLAIN -> statement.setString(parameter, (String) objects[cell]);
+            case BLOB -> statement.setBytes(parameter, (byte[]) objects[cell]);
+            default -> statement.setObject(parameter, objects[cell]);
+        }
+    }
+
+    private static void bindLargeValue(PreparedStatement statement, int parameter, LargeValue value) throws SQLException {
+        // The int length variants are the ones every driver implements.
+        if (value.length() <= Integer.MAX_VALUE) {
+            if (value.isBinary()) {
+                statement.setBinaryStream(parameter, value.openStream(), (int) value.length());
+            } else {
+                statement.setCharacterStream(parameter, value.openReader(), (int) value.length());
+            }
+        } else if (value.isBinary()) {
+            statement.setBinaryStream(parameter, value.openStream(), value.length());
+        } else {
+            statement.setCharacterStream(parameter, value.openReader(), value.length());
+        }
+    }
+}
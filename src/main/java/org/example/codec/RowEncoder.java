@@ -0,0 +1,415 @@
+package org.example.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Encodes result set rows straight into a reusable byte buffer.
+ * <p>
+ * Format: fields are separated by {@code ,} and rows end with {@code \n}. {@code \N} marks NULL,
+ * text is wrapped in double quotes with {@code \"}, {@code \\}, {@code \n} and {@code \r} escapes,
+ * binary values are written as {@code \x} followed by hex digits and everything else is written as-is.
+ * <p>
+ * BLOB and CLOB columns are read as streams, {@link #CHUNK_SIZE} at a time. A value that fits one chunk
+ * is written in place like any other; a larger one is written as chunk lines just before its row, which
+ * holds {@code \L} in its place. Each chunk line is {@code \B} (hex) or {@code \C} (escaped text), the
+ * chunk's decoded length in bytes, {@code :} and the chunk, and a zero length chunk ends the value:
+ * <pre>
+ * \B32768:89504e470d0a1a0a...
+ * \B1200:...
+ * \B0:
+ * 42,"scan.png",\L
+ * </pre>
+ */
+public class RowEncoder {
+
+    public static final int CHUNK_SIZE = 32 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private final OutputStream out;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private final StringBuilder scratch = new StringBuilder(32);
+    private int position;
+    private long flushedBytes;
+    private ColumnKind[] columnKinds;
+    private boolean largeColumns;
+    // Start of the row being written while it has to stay in the buffer, or -1.
+    private int rowStart = -1;
+    private byte[] chunk;
+    private char[] text;
+
+    public RowEncoder(OutputStream out) {
+        this.out = out;
+    }
+
+    public void bind(ResultSetMetaData metaData) throws SQLException {
+        columnKinds = new ColumnKind[metaData.getColumnCount()];
+        for (int i = 0; i < columnKinds.length; i++) {
+            columnKinds[i] = ColumnKind.of(metaData, i + 1);
+        }
+        largeColumns = Arrays.stream(columnKinds).anyMatch(ColumnKind::isLarge);
+    }
+
+    /** Whether the bound columns include BLOB or CLOB columns, whose large values span several lines. */
+    public boolean hasLargeColumns() {
+        return largeColumns;
+    }
+
+    public void writeRow(ResultSet resultSet) throws SQLException, IOException {
+        if (largeColumns) {
+            rowStart = position;
+        }
+        for (int i = 0; i < columnKinds.length; i++) {
+            if (i > 0) {
+                writeByte(',');
+            }
+            writeColumn(resultSet, i + 1, columnKinds[i]);
+        }
+        writeByte('\n');
+        rowStart = -1;
+    }
+
+    public void writeLine(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            writeChar(text.charAt(i));
+        }
+        writeByte('\n');
+    }
+
+    /** Writes an already encoded record, e.g. one read back by {@link RowParser#recordBytes}. */
+    public void writeRecord(byte[] record) throws IOException {
+        writeRaw(record);
+        writeByte('\n');
+    }
+
+    public void writeRaw(byte[] bytes) throws IOException {
+        for (int offset = 0; offset < bytes.length; ) {
+            ensure(Math.min(bytes.length - offset, buffer.length));
+            int length = Math.min(bytes.length - offset, buffer.length - position);
+            System.arraycopy(bytes, offset, buffer, position, length);
+            position += length;
+            offset += length;
+        }
+    }
+
+    public long getBytesWritten() {
+        return flushedBytes + position;
+    }
+
+    public void flush() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            flushedBytes += position;
+            position = 0;
+        }
+        out.flush();
+    }
+
+    private void writeColumn(ResultSet resultSet, int column, ColumnKind kind) throws SQLException, IOException {
+        switch (kind) {
+            case LONG -> {
+                long value = resultSet.getLong(column);
+                if (resultSet.wasNull()) writeNull(); else writeLong(value);
+            }
+            case INT -> {
+                int value = resultSet.getInt(column);
+                if (resultSet.wasNull()) writeNull(); else writeLong(value);
+            }
+            case DOUBLE -> {
+                double value = resultSet.getDouble(column);
+                if (resultSet.wasNull()) writeNull(); else writeScratch(scratch.append(value));
+            }
+            case FLOAT -> {
+                float value = resultSet.getFloat(column);
+                if (resultSet.wasNull()) writeNull(); else writeScratch(scratch.append(value));
+            }
+            case BOOLEAN -> {
+                boolean value = resultSet.getBoolean(column);
+                if (resultSet.wasNull()) writeNull(); else writeScratch(scratch.append(value));
+            }
+            case BINARY -> writeBinary(resultSet.getBytes(column));
+            case BLOB -> writeBlob(resultSet, column);
+            case CLOB -> writeClob(resultSet, column);
+            case TEXT -> writeQuoted(resultSet.getString(column));
+            default -> writePlain(resultSet.getString(column));
+        }
+    }
+
+    private void writeNull() throws IOException {
+        ensure(2);
+        buffer[position++] = '\\';
+        buffer[position++] = 'N';
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeScratch(scratch.append(value));
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        position = end;
+    }
+
+    private void writeScratch(StringBuilder text) throws IOException {
+        ensure(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buffer[position++] = (byte) text.charAt(i);
+        }
+        text.setLength(0);
+    }
+
+    private void writeBinary(byte[] value) throws IOException {
+        if (value == null) {
+            writeNull();
+            return;
+        }
+        ensure(2);
+        buffer[position++] = '\\';
+        buffer[position++] = 'x';
+        writeHex(value, value.length);
+    }
+
+    private void writeHex(byte[] value, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            byte b = value[i];
+            ensure(2);
+            buffer[position++] = HEX[(b >> 4) & 0x0F];
+            buffer[position++] = HEX[b & 0x0F];
+        }
+    }
+
+    private void writeBlob(ResultSet resultSet, int column) throws SQLException, IOException {
+        try (InputStream in = resultSet.getBinaryStream(column)) {
+            if (in == null) {
+                writeNull();
+                return;
+            }
+            if (chunk == null) {
+                chunk = new byte[CHUNK_SIZE];
+            }
+            int length = in.readNBytes(chunk, 0, CHUNK_SIZE);
+            if (length < CHUNK_SIZE) {
+                writeEscape('x');
+                writeHex(chunk, length);
+                return;
+            }
+            byte[] row = detachRow();
+            while (length > 0) {
+                writeBinaryChunk(length);
+                length = in.readNBytes(chunk, 0, CHUNK_SIZE);
+            }
+            writeBinaryChunk(0);
+            attachRow(row);
+        }
+    }
+
+    private void writeClob(ResultSet resultSet, int column) throws SQLException, IOException {
+        try (Reader reader = resultSet.getCharacterStream(column)) {
+            if (reader == null) {
+                writeNull();
+                return;
+            }
+            if (text == null) {
+                text = new char[CHUNK_SIZE];
+            }
+            int length = readChars(reader, 0);
+            if (length < CHUNK_SIZE) {
+                writeQuoted(new String(text, 0, length));
+                return;
+            }
+            byte[] row = detachRow();
+            while (length > 0) {
+                // A surrogate pair must not be split between two chunks.
+                int end = length == CHUNK_SIZE && Character.isHighSurrogate(text[length - 1]) ? length - 1 : length;
+                writeTextChunk(end);
+                int carried = length - end;
+                if (carried > 0) {
+                    text[0] = text[end];
+                }
+                length = carried + readChars(reader, carried);
+            }
+            writeTextChunk(0);
+            attachRow(row);
+        }
+    }
+
+    private int readChars(Reader reader, int offset) throws IOException {
+        int length = offset;
+        while (length < text.length) {
+            int read = reader.read(text, length, text.length - length);
+            if (read == -1) {
+                break;
+            }
+            length += read;
+        }
+        return length - offset;
+    }
+
+    private void writeBinaryChunk(int length) throws IOException {
+        writeEscape('B');
+        writeLong(length);
+        writeByte(':');
+        writeHex(chunk, length);
+        writeByte('\n');
+    }
+
+    private void writeTextChunk(int length) throws IOException {
+        long bytes = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text[i];
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text[i + 1])) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        writeEscape('C');
+        writeLong(bytes);
+        writeByte(':');
+        for (int i = 0; i < length; i++) {
+            char c = text[i];
+            switch (c) {
+                case '\\' -> writeEscape(c);
+                case '\n' -> writeEscape('n');
+                case '\r' -> writeEscape('r');
+                default -> {
+                    if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text[i + 1])) {
+                        writeCodePoint(Character.toCodePoint(c, text[++i]));
+                    } else {
+                        writeChar(c);
+                    }
+                }
+            }
+        }
+        writeByte('\n');
+    }
+
+    /** Takes the part of the row written so far out of the buffer, so chunk lines can go before it. */
+    private byte[] detachRow() {
+        byte[] row = Arrays.copyOfRange(buffer, rowStart, position);
+        position = rowStart;
+        rowStart = -1;
+        return row;
+    }
+
+    private void attachRow(byte[] row) throws IOException {
+        ensure(row.length);
+        rowStart = position;
+        System.arraycopy(row, 0, buffer, position, row.length);
+        position += row.length;
+        writeEscape('L');
+    }
+
+    private void writePlain(String value) throws IOException {
+        if (value == null) {
+            writeNull();
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            writeChar(value.charAt(i));
+        }
+    }
+
+    private void writeQuoted(String value) throws IOException {
+        if (value == null) {
+            writeNull();
+            return;
+        }
+        writeByte('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"', '\\' -> writeEscape(c);
+                case '\n' -> writeEscape('n');
+                case '\r' -> writeEscape('r');
+                default -> {
+                    if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        writeCodePoint(Character.toCodePoint(c, value.charAt(++i)));
+                    } else {
+                        writeChar(c);
+                    }
+                }
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeEscape(char c) throws IOException {
+        ensure(2);
+        buffer[position++] = '\\';
+        buffer[position++] = (byte) c;
+    }
+
+    private void writeChar(char c) throws IOException {
+        if (c < 0x80) {
+            writeByte(c);
+        } else if (c < 0x800) {
+            ensure(2);
+            buffer[position++] = (byte) (0xC0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+            writeByte('?');
+        } else {
+            ensure(3);
+            buffer[position++] = (byte) (0xE0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void writeCodePoint(int codePoint) throws IOException {
+        ensure(4);
+        buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+    }
+
+    private void writeByte(int b) throws IOException {
+        ensure(1);
+        buffer[position++] = (byte) b;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (position + bytes > buffer.length) {
+            // A row of a table with large columns stays whole until it is known whether chunks go first.
+            int flushed = rowStart >= 0 ? rowStart : position;
+            out.write(buffer, 0, flushed);
+            flushedBytes += flushed;
+            System.arraycopy(buffer, flushed, buffer, 0, position - flushed);
+            position -= flushed;
+            if (rowStart >= 0) {
+                rowStart = 0;
+                if (position + bytes > buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+                }
+            }
+        }
+    }
+}
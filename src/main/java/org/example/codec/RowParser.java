@@ -0,0 +1,674 @@
+package org.example.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tokenizes rows written by {@link RowEncoder} directly over a reusable byte buffer.
+ * Field boundaries are tracked as offsets into the buffer; numbers, booleans and dates are parsed
+ * in place and Strings are only built for text columns.
+ * <p>
+ * The chunk lines of large values that precede a row are read along with it; what becomes of them
+ * depends on the {@link LargeValueMode}.
+ */
+public class RowParser {
+
+    public enum LargeValueMode {
+        /** Chunks are checked and dropped, problems are reported by {@link #checkRecord()}. */
+        CHECK,
+        /** Values are spilled to {@link LargeValue}s, which the caller takes over and closes. */
+        SPILL,
+        /** Chunk lines are kept as they are and returned by {@link #recordBytes(int)} ahead of the row. */
+        RETAIN
+    }
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final InputStream in;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private boolean endOfStream;
+
+    private int[] fieldStart = new int[16];
+    private int[] fieldEnd = new int[16];
+    private boolean[] fieldQuoted = new boolean[16];
+    private boolean[] fieldEscaped = new boolean[16];
+    private int fieldCount;
+    private int recordEnd;
+    private boolean malformed;
+
+    private byte[] unescaped = new byte[256];
+    private char[] chars = new char[64];
+    private CharsetDecoder utf8Decoder;
+
+    private LargeValueMode largeValueMode = LargeValueMode.CHECK;
+    private final List<LargeValue> largeValues = new ArrayList<>();
+    private final ByteArrayOutputStream retainedChunks = new ByteArrayOutputStream();
+    private LargeValue currentValue;
+    private boolean inValue;
+    private boolean valueBinary;
+    private int largeValueCount;
+    private String largeValueProblem;
+
+    public RowParser(InputStream in) {
+        this.in = in;
+    }
+
+    public void setLargeValueMode(LargeValueMode largeValueMode) {
+        this.largeValueMode = largeValueMode;
+    }
+
+    public String readLine() throws IOException {
+        int end = findLineEnd();
+        if (end == -1) {
+            return null;
+        }
+        String line = new String(buffer, position, end - position, StandardCharsets.UTF_8);
+        position = Math.min(end + 1, limit);
+        return line;
+    }
+
+    public boolean nextRecord() throws IOException {
+        startRecord();
+        while (true) {
+            int end = findLineEnd();
+            if (end == -1) {
+                if (inValue || largeValueCount > 0) {
+                    throw new IOException("The data ends inside a large value.");
+                }
+                return false;
+            }
+            if (end > position) {
+                if (isChunkLine(position, end)) {
+                    readChunk(position, end);
+                    position = Math.min(end + 1, limit);
+                    continue;
+                }
+                tokenize(position, end);
+                position = Math.min(end + 1, limit);
+                if (largeValueCount > 0 || inValue || largeValueMode == LargeValueMode.CHECK) {
+                    checkLargeValues();
+                }
+                return true;
+            }
+            position = Math.min(end + 1, limit);
+        }
+    }
+
+    public boolean skipRecord() throws IOException {
+        while (true) {
+            int end = findLineEnd();
+            if (end == -1) {
+                return false;
+            }
+            boolean row = end > position && !isChunkLine(position, end);
+            position = Math.min(end + 1, limit);
+            if (row) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Tokenizes an encoded row the caller already holds, e.g. one just written by {@link RowEncoder}.
+     * Only for parsers that are not reading a stream, as it replaces the buffered input.
+     */
+    public void load(byte[] record, int length) {
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+        }
+        System.arraycopy(record, 0, buffer, 0, length);
+        position = length;
+        limit = length;
+        startRecord();
+        tokenize(0, length > 0 && record[length - 1] == '\n' ? length - 1 : length);
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    public boolean isQuoted(int field) {
+        return fieldQuoted[field];
+    }
+
+    /**
+     * The encoded bytes of the current record from {@code field} on, without the line end. With
+     * {@link LargeValueMode#RETAIN} the chunk lines of its large values come first.
+     */
+    public byte[] recordBytes(int field) {
+        int start = fieldQuoted[field] ? fieldStart[field] - 1 : fieldStart[field];
+        if (retainedChunks.size() == 0) {
+            return Arrays.copyOfRange(buffer, start, recordEnd);
+        }
+        retainedChunks.write(buffer, start, recordEnd - start);
+        return retainedChunks.toByteArray();
+    }
+
+    /** Whether the field stands for a large value written in chunks before the row. */
+    public boolean isLargeValue(int field) {
+        int start = fieldStart[field];
+        return !fieldQuoted[field] && fieldEnd[field] - start == 2 && buffer[start] == '\\' && buffer[start + 1] == 'L';
+    }
+
+    /** The spilled value of a {@link #isLargeValue large value} field, see {@link LargeValueMode#SPILL}. */
+    public LargeValue getLargeValue(int field) {
+        int index = 0;
+        for (int i = 0; i < field; i++) {
+            if (isLargeValue(i)) {
+                index++;
+            }
+        }
+        if (index >= largeValues.size()) {
+            throw new IllegalArgumentException("The large value of field " + (field + 1) + " is missing");
+        }
+        return largeValues.get(index);
+    }
+
+    public boolean isNull(int field) {
+        int start = fieldStart[field];
+        return !fieldQuoted[field] && fieldEnd[field] - start == 2 && buffer[start] == '\\' && buffer[start + 1] == 'N';
+    }
+
+    public long getLong(int field) {
+        int start = skipSpaces(fieldStart[field], fieldEnd[field]);
+        int end = trimSpaces(start, fieldEnd[field]);
+        boolean negative = start < end && buffer[start] == '-';
+        int i = negative || (start < end && buffer[start] == '+') ? start + 1 : start;
+        if (i == end || end - i > 19) {
+            return Long.parseLong(getString(field).trim());
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + getString(field) + "\"");
+            }
+            value = value * 10 - digit;
+            if (value > 0) {
+                return Long.parseLong(getString(field).trim());
+            }
+        }
+        if (!negative) {
+            if (value == Long.MIN_VALUE) {
+                return Long.parseLong(getString(field).trim());
+            }
+            value = -value;
+        }
+        return value;
+    }
+
+    public int getInt(int field) {
+        long value = getLong(field);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Value out of int range: " + value);
+        }
+        return (int) value;
+    }
+
+    public double getDouble(int field) {
+        int start = skipSpaces(fieldStart[field], fieldEnd[field]);
+        int end = trimSpaces(start, fieldEnd[field]);
+        boolean negative = start < end && buffer[start] == '-';
+        int i = negative ? start + 1 : start;
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; i < end; i++) {
+            byte b = buffer[i];
+            if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else if (b >= '0' && b <= '9') {
+                if (mantissa != 0 || b != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                seenDigit = true;
+                if (seenPoint) {
+                    scale++;
+                }
+            } else {
+                break;
+            }
+        }
+        if (i != end || !seenDigit || digits > 15 || scale >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(getString(field).trim());
+        }
+        double value = (double) mantissa / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    public boolean getBoolean(int field) {
+        int start = fieldStart[field];
+        int length = fieldEnd[field] - start;
+        if (length == 0) {
+            return false;
+        }
+        byte first = buffer[start];
+        return first == 't' || first == 'T' || first == '1' || first == 'y' || first == 'Y';
+    }
+
+    public Date getDate(int field) {
+        int start = fieldStart[field];
+        if (fieldEnd[field] - start == 10 && buffer[start + 4] == '-' && buffer[start + 7] == '-') {
+            int year = digits(start, 4);
+            int month = digits(start + 5, 2);
+            int day = digits(start + 8, 2);
+            if (year >= 0 && month >= 0 && day >= 0) {
+                return Date.valueOf(LocalDate.of(year, month, day));
+            }
+        }
+        return Date.valueOf(getString(field).trim());
+    }
+
+    public Timestamp getTimestamp(int field) {
+        int start = fieldStart[field];
+        int length = fieldEnd[field] - start;
+        if (length >= 19 && buffer[start + 4] == '-' && buffer[start + 7] == '-' && buffer[start + 10] == ' '
+                && buffer[start + 13] == ':' && buffer[start + 16] == ':') {
+            int year = digits(start, 4);
+            int month = digits(start + 5, 2);
+            int day = digits(start + 8, 2);
+            int hour = digits(start + 11, 2);
+            int minute = digits(start + 14, 2);
+            int second = digits(start + 17, 2);
+            int nanos = 0;
+            if (length > 20 && length <= 29 && buffer[start + 19] == '.') {
+                int fraction = digits(start + 20, length - 20);
+                nanos = fraction < 0 ? -1 : fraction * (int) POWERS_OF_TEN[29 - length];
+            } else if (length != 19) {
+                nanos = -1;
+            }
+            if (year >= 0 && month >= 0 && day >= 0 && hour >= 0 && minute >= 0 && second >= 0 && nanos >= 0) {
+                return Timestamp.valueOf(LocalDateTime.of(year, month, day, hour, minute, second, nanos));
+            }
+        }
+        return Timestamp.valueOf(getString(field).trim());
+    }
+
+    public BigDecimal getDecimal(int field) {
+        int start = skipSpaces(fieldStart[field], fieldEnd[field]);
+        int length = trimSpaces(start, fieldEnd[field]) - start;
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) buffer[start + i];
+        }
+        return new BigDecimal(chars, 0, length);
+    }
+
+    public byte[] getBinary(int field) {
+        int start = fieldStart[field];
+        int end = fieldEnd[field];
+        if (fieldQuoted[field] || end - start < 2 || buffer[start] != '\\' || buffer[start + 1] != 'x') {
+            return getString(field).getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] value = new byte[(end - start - 2) / 2];
+        for (int i = 0, j = start + 2; i < value.length; i++, j += 2) {
+            value[i] = (byte) ((Character.digit(buffer[j], 16) << 4) | Character.digit(buffer[j + 1], 16));
+        }
+        return value;
+    }
+
+    public String getString(int field) {
+        int start = fieldStart[field];
+        int length = fieldEnd[field] - start;
+        if (!fieldEscaped[field]) {
+            return new String(buffer, start, length, StandardCharsets.UTF_8);
+        }
+        if (unescaped.length < length) {
+            unescaped = new byte[Math.max(length, unescaped.length * 2)];
+        }
+        int n = 0;
+        for (int i = start; i < start + length; i++) {
+            byte b = buffer[i];
+            if (b == '\\' && i + 1 < start + length) {
+                b = buffer[++i];
+                b = b == 'n' ? (byte) '\n' : b == 'r' ? (byte) '\r' : b;
+            }
+            unescaped[n++] = b;
+        }
+        return new String(unescaped, 0, n, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks that the current record would decode cleanly: quotes are closed, escapes are known,
+     * binary fields are hex and text is valid UTF-8. Returns the first problem found, or null.
+     */
+    public String checkRecord() {
+        if (malformed) {
+            return "unterminated or misplaced quote";
+        }
+        if (largeValueProblem != null) {
+            return largeValueProblem;
+        }
+        for (int field = 0; field < fieldCount; field++) {
+            int start = fieldStart[field];
+            int end = fieldEnd[field];
+            if (fieldQuoted[field] && fieldEscaped[field]) {
+                for (int i = start; i < end; i++) {
+                    if (buffer[i] == '\\') {
+                        byte next = i + 1 < end ? buffer[++i] : 0;
+                        if (next != '"' && next != '\\' && next != 'n' && next != 'r') {
+                            return "invalid escape in field " + (field + 1);
+                        }
+                    }
+                }
+            } else if (!fieldQuoted[field] && end - start >= 2 && buffer[start] == '\\' && buffer[start + 1] == 'x') {
+                if ((end - start) % 2 != 0) {
+                    return "odd number of hex digits in field " + (field + 1);
+                }
+                for (int i = start + 2; i < end; i++) {
+                    if (Character.digit(buffer[i], 16) < 0) {
+                        return "invalid hex digit in field " + (field + 1);
+                    }
+                }
+                continue;
+            }
+            if (!isValidUtf8(start, end)) {
+                return "invalid UTF-8 in field " + (field + 1);
+            }
+        }
+        return null;
+    }
+
+    private boolean isValidUtf8(int start, int end) {
+        int i = start;
+        while (i < end && buffer[i] >= 0) {
+            i++;
+        }
+        if (i == end) {
+            return true;
+        }
+        if (utf8Decoder == null) {
+            utf8Decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT);
+        }
+        try {
+            utf8Decoder.reset().decode(ByteBuffer.wrap(buffer, start, end - start));
+            return true;
+        } catch (CharacterCodingException e) {
+            return false;
+        }
+    }
+
+    private void startRecord() {
+        // Spilled values belong to whoever took them from the previous record.
+        largeValues.clear();
+        retainedChunks.reset();
+        largeValueCount = 0;
+        largeValueProblem = null;
+    }
+
+    private boolean isChunkLine(int start, int end) {
+        return end - start >= 3 && buffer[start] == '\\' && (buffer[start + 1] == 'B' || buffer[start + 1] == 'C')
+                && buffer[start + 2] >= '0' && buffer[start + 2] <= '9';
+    }
+
+    private void readChunk(int start, int end) throws IOException {
+        boolean binary = buffer[start + 1] == 'B';
+        int colon = start + 2;
+        long length = 0;
+        while (colon < end && buffer[colon] >= '0' && buffer[colon] <= '9' && length <= Integer.MAX_VALUE) {
+            length = length * 10 + buffer[colon++] - '0';
+        }
+        if (colon == end || buffer[colon] != ':' || length > Integer.MAX_VALUE) {
+            largeValueProblem("malformed chunk length");
+            return;
+        }
+        if (inValue && binary != valueBinary) {
+            largeValueProblem("binary and text chunks mixed in one large value");
+            return;
+        }
+        int decoded = binary ? decodeHexChunk(colon + 1, end) : decodeTextChunk(colon + 1, end);
+        if (decoded < 0) {
+            return;
+        }
+        if (decoded != length) {
+            largeValueProblem("chunk of " + decoded + " bytes says it has " + length);
+            return;
+        }
+        switch (largeValueMode) {
+            case SPILL -> {
+                if (currentValue == null) {
+                    currentValue = new LargeValue(binary);
+                }
+                currentValue.append(unescaped, decoded);
+            }
+            case RETAIN -> {
+                retainedChunks.write(buffer, start, end - start);
+                retainedChunks.write('\n');
+            }
+            default -> {
+            }
+        }
+        inValue = length > 0;
+        valueBinary = binary;
+        if (length == 0) {
+            largeValueCount++;
+            if (currentValue != null) {
+                currentValue.finish();
+                largeValues.add(currentValue);
+                currentValue = null;
+            }
+        }
+    }
+
+    private int decodeHexChunk(int start, int end) throws IOException {
+        if ((end - start) % 2 != 0) {
+            largeValueProblem("odd number of hex digits in a chunk");
+            return -1;
+        }
+        int length = (end - start) / 2;
+        if (unescaped.length < length) {
+            unescaped = new byte[Math.max(length, unescaped.length * 2)];
+        }
+        for (int i = 0, j = start; i < length; i++, j += 2) {
+            int high = Character.digit(buffer[j], 16);
+            int low = Character.digit(buffer[j + 1], 16);
+            if (high < 0 || low < 0) {
+                largeValueProblem("invalid hex digit in a chunk");
+                return -1;
+            }
+            unescaped[i] = (byte) ((high << 4) | low);
+        }
+        return length;
+    }
+
+    private int decodeTextChunk(int start, int end) throws IOException {
+        if (largeValueMode == LargeValueMode.CHECK && !isValidUtf8(start, end)) {
+            largeValueProblem("invalid UTF-8 in a chunk");
+            return -1;
+        }
+        if (unescaped.length < end - start) {
+            unescaped = new byte[Math.max(end - start, unescaped.length * 2)];
+        }
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer[i];
+            if (b == '\\') {
+                b = i + 1 < end ? buffer[++i] : 0;
+                if (b != '\\' && b != 'n' && b != 'r') {
+                    largeValueProblem("invalid escape in a chunk");
+                    return -1;
+                }
+                b = b == 'n' ? (byte) '\n' : b == 'r' ? (byte) '\r' : b;
+            }
+            unescaped[n++] = b;
+        }
+        return n;
+    }
+
+    private void checkLargeValues() throws IOException {
+        if (inValue) {
+            inValue = false;
+            largeValueProblem("row follows an unfinished large value");
+            return;
+        }
+        int fields = 0;
+        for (int field = 0; field < fieldCount; field++) {
+            if (isLargeValue(field)) {
+                fields++;
+            }
+        }
+        if (fields != largeValueCount) {
+            largeValueProblem(fields + " large value field(s) but " + largeValueCount + " value(s) before the row");
+        }
+    }
+
+    /** Spilled rows cannot be loaded half, so restoring stops; otherwise the problem goes with the record. */
+    private void largeValueProblem(String problem) throws IOException {
+        if (largeValueMode == LargeValueMode.SPILL) {
+            for (LargeValue value : largeValues) {
+                value.close();
+            }
+            largeValues.clear();
+            if (currentValue != null) {
+                currentValue.close();
+                currentValue = null;
+            }
+            throw new IOException("Invalid large value: " + problem);
+        }
+        if (largeValueProblem == null) {
+            largeValueProblem = problem;
+        }
+    }
+
+    private void tokenize(int start, int end) {
+        fieldCount = 0;
+        recordEnd = end;
+        malformed = false;
+        int i = start;
+        while (true) {
+            ensureFieldCapacity();
+            if (i < end && buffer[i] == '"') {
+                int fieldBegin = ++i;
+                boolean escaped = false;
+                while (i < end && buffer[i] != '"') {
+                    if (buffer[i] == '\\') {
+                        escaped = true;
+                        i++;
+                    }
+                    i++;
+                }
+                addField(fieldBegin, Math.min(i, end), true, escaped);
+                i++;
+                if (i > end || (i < end && buffer[i] != ',')) {
+                    malformed = true;
+                }
+            } else {
+                int fieldBegin = i;
+                while (i < end && buffer[i] != ',') {
+                    i++;
+                }
+                addField(fieldBegin, i, false, false);
+            }
+            if (i >= end) {
+                return;
+            }
+            i++;
+        }
+    }
+
+    private void addField(int start, int end, boolean quoted, boolean escaped) {
+        fieldStart[fieldCount] = start;
+        fieldEnd[fieldCount] = end;
+        fieldQuoted[fieldCount] = quoted;
+        fieldEscaped[fieldCount] = escaped;
+        fieldCount++;
+    }
+
+    private void ensureFieldCapacity() {
+        if (fieldCount == fieldStart.length) {
+            int size = fieldStart.length * 2;
+            fieldStart = Arrays.copyOf(fieldStart, size);
+            fieldEnd = Arrays.copyOf(fieldEnd, size);
+            fieldQuoted = Arrays.copyOf(fieldQuoted, size);
+            fieldEscaped = Arrays.copyOf(fieldEscaped, size);
+        }
+    }
+
+    private int findLineEnd() throws IOException {
+        int scanned = position;
+        while (true) {
+            for (int i = scanned; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    return i;
+                }
+            }
+            scanned = limit;
+            if (endOfStream) {
+                return position < limit ? limit : -1;
+            }
+            int shift = position;
+            fill();
+            scanned -= shift;
+        }
+    }
+
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read == -1) {
+            endOfStream = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    private int digits(int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private int skipSpaces(int start, int end) {
+        while (start < end && buffer[start] == ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimSpaces(int start, int end) {
+        while (end > start && buffer[end - 1] == ' ') {
+            end--;
+        }
+        return end;
+    }
+}
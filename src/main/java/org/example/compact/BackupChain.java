@@ -0,0 +1,137 @@
+package org.example.compact;
+
+import org.example.entities.ManifestEntry;
+import org.example.factory.StorageFactory;
+import org.example.manifest.BackupManifest;
+import org.example.memory.PooledBufferedInputStream;
+import org.example.storage.BackupStorage;
+import org.example.throttle.ThrottledInputStream;
+import org.example.throttle.TokenBucket;
+import org.example.util.BackupStreamUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * A full backup and the incremental backups taken on top of it, found by following the {@code BASE}
+ * lines of the manifests back from the newest one. Every backup in a chain must be complete, written
+ * in key order and encrypted with the same key.
+ */
+public class BackupChain {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final List<Link> links;
+
+    private BackupChain(List<Link> links) {
+        this.links = links;
+    }
+
+    public static BackupChain resolve(BackupStorage storage, String dbFolder, String folder, String key) throws IOException {
+        List<Link> links = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String current = folder; current != null; ) {
+            if (!seen.add(current)) {
+                throw new IOException("The chain of backup " + folder + " loops back to " + current + ".");
+            }
+            String path = dbFolder + "/" + current;
+            BackupStorage folderStorage = StorageFactory.getStorage(storage, path);
+            if (!BackupManifest.exists(folderStorage, path)) {
+                throw new IOException("Backup " + current + " has no manifest: " + folderStorage.describe(path));
+            }
+            BackupManifest manifest = BackupManifest.open(folderStorage, path);
+            if (!manifest.isComplete()) {
+                throw new IOException("Backup " + current + " is incomplete, finish it with --resume first.");
+            }
+            if (!manifest.isSorted()) {
+                throw new IOException("Backup " + current + " was not written in key order and cannot start a chain, take a new full backup with --sorted.");
+            }
+            if (!manifest.matchesKey(key)) {
+                throw new IOException("Backup " + current + " was written with a different key.");
+            }
+            links.add(0, new Link(current, path, folderStorage, manifest));
+            current = manifest.getBase();
+        }
+        return new BackupChain(links);
+    }
+
+    public List<Link> links() {
+        return links;
+    }
+
+    public Link newest() {
+        return links.get(links.size() - 1);
+    }
+
+    public boolean isIncremental() {
+        return links.size() > 1;
+    }
+
+    /**
+     * The entities of the newest backup. A table or collection dropped since an older link is not in it and
+     * must not come back from that link's files.
+     */
+    public List<String> entities() {
+        Set<String> entities = new LinkedHashSet<>();
+        newest().manifest().entries().forEach(entry -> entities.add(entry.entity()));
+        return new ArrayList<>(entities);
+    }
+
+    /** The files of an entity, newest first. */
+    public List<ChainFile> files(String entity, Predicate<String> fileNameFilter) {
+        List<ChainFile> files = new ArrayList<>();
+        for (int i = links.size() - 1; i >= 0; i--) {
+            Link link = links.get(i);
+            for (ManifestEntry entry : link.manifest().entries()) {
+                if (entry.entity().equals(entity) && fileNameFilter.test(entry.fileName())) {
+                    files.add(new ChainFile(link, entry));
+                }
+            }
+        }
+        return files;
+    }
+
+    public record Link(String folder, String path, BackupStorage storage, BackupManifest manifest) {
+
+        public boolean isIncremental() {
+            return manifest.getBase() != null;
+        }
+    }
+
+    public record ChainFile(Link link, ManifestEntry entry) {
+
+        public String location() {
+            return link.storage().describe(link.path() + "/" + entry.fileName());
+        }
+
+        public InputStream openRaw() throws IOException {
+            return link.storage().open(link.path() + "/" + entry.fileName());
+        }
+
+        public InputStream openDecoded(String key) throws IOException {
+            return openDecoded(key, null);
+        }
+
+        /** Opens the file decompressed and decrypted; raw reads are charged to {@code budget} if given. */
+        public InputStream openDecoded(String key, TokenBucket budget) throws IOException {
+            boolean encrypted = entry.fileName().contains("_encrypted");
+            if (encrypted && key == null) {
+                throw new IOException(location() + " is encrypted, pass --key to read it.");
+            }
+            InputStream raw = openRaw();
+            try {
+                raw = new PooledBufferedInputStream(budget != null ? new ThrottledInputStream(raw, budget) : raw, READ_BUFFER_SIZE);
+                return BackupStreamUtil.openDecoded(raw, encrypted ? key : null);
+            } catch (Exception e) {
+                raw.close();
+                throw e instanceof IOException io ? io : new IOException("Cannot decode " + location() + ": " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.example.compact;
+
+import org.example.codec.RowEncoder;
+import org.example.entities.CompactOptions;
+import org.example.entities.ManifestEntry;
+import org.example.factory.StorageFactory;
+import org.example.manifest.BackupManifest;
+import org.example.manifest.ChecksumOutputStream;
+import org.example.memory.BufferPool;
+import org.example.memory.PooledBufferedOutputStream;
+import org.example.storage.BackupStorage;
+import org.example.throttle.ThrottledInputStream;
+import org.example.throttle.ThrottledOutputStream;
+import org.example.throttle.TokenBucket;
+import org.example.util.BackupStreamUtil;
+import org.example.util.EncryptionUtil;
+import org.example.util.ExecutorUtil;
+import org.example.util.ProgressBarUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Folds a chain of incremental backups into a new full backup without touching any database. Every
+ * table or collection is rebuilt by a k-way merge of its files across the chain, newest change winning,
+ * and written under a new folder that restores like any other backup. Entities are merged in parallel and
+ * all reads and writes share one byte budget, so compaction can run next to production traffic.
+ */
+public class BackupCompactor {
+
+    private static final int WRITE_BUFFER_SIZE = 8192;
+
+    private static final BackupCompactor instance = new BackupCompactor();
+
+    private BackupCompactor() {
+    }
+
+    public static BackupCompactor getInstance() {
+        return instance;
+    }
+
+    public boolean compact(String key, String dbType, String folder, CompactOptions options) {
+        if (key != null) {
+            EncryptionUtil.validateKey(key);
+        }
+        BackupStorage storage = StorageFactory.getStorage();
+        BufferPool.getInstance().checkFits(options.getWorkers(),
+                storage.writeBufferSize() + WRITE_BUFFER_SIZE + BackupStreamUtil.encodedBufferSize());
+        boolean sql = dbType.equalsIgnoreCase("sql");
+        TokenBucket budget = new TokenBucket(options.getMaxMegabytesPerSecond() * 1024 * 1024);
+        String timestamp = new SimpleDateFormat("yyyy-MMdd_HHmmss").format(new Date());
+        String target = dbType + "/" + timestamp;
+        boolean written = false;
+        boolean success = false;
+
+        ExecutorService executor = Executors.newFixedThreadPool(options.getWorkers());
+        try {
+            BackupChain chain = BackupChain.resolve(storage, dbType, folder, key);
+            if (!chain.isIncremental()) {
+                System.out.println("Backup " + folder + " is already a full backup, nothing to compact.");
+            } else {
+                if (storage.exists(target)) {
+                    throw new IOException("Backup " + storage.describe(target) + " already exists.");
+                }
+                written = true;
+                BackupManifest manifest = BackupManifest.open(storage, target);
+                manifest.bindKey(key);
+                manifest.markSorted();
+
+                List<String> entities = chain.entities();
+                for (String entity : entities) {
+                    manifest.bindSelection(entity, chain.newest().manifest().getSelection(entity));
+                }
+                ExecutorCompletionService<List<ManifestEntry>> completion = new ExecutorCompletionService<>(executor);
+                for (String entity : entities) {
+                    completion.submit(() -> sql
+                            ? List.of(compactTable(storage, chain, entity, target, timestamp, key, budget))
+                            : compactCollection(storage, chain, entity, target, timestamp, key, budget));
+                }
+                for (int i = 0; i < entities.size(); i++) {
+                    for (ManifestEntry entry : completion.take().get()) {
+                        manifest.record(entry);
+                    }
+                    ProgressBarUtil.printProgress(i + 1, entities.size());
+                }
+                manifest.markComplete();
+                System.out.println("\nCompacted " + chain.links().size() + " backups into " + storage.describe(target));
+            }
+            success = true;
+
+            if (options.getKeepFullBackups() > 0) {
+                List<String> expired = new RetentionPolicy(options.getKeepFullBackups()).apply(storage, dbType);
+                System.out.println("Retention kept the newest " + options.getKeepFullBackups() + " full backup(s), removed "
+                        + expired.size() + " backup(s).");
+            }
+        } catch (ExecutionException e) {
+            System.err.println("Error while compacting the backup: " + e.getCause().getMessage());
+        } catch (IOException e) {
+            System.err.println("Error while compacting the backup: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Compaction interrupted.");
+        } finally {
+            ExecutorUtil.shutdownAndWait(executor);
+            if (written && !success) {
+                deleteBackup(storage, target);
+            }
+        }
+        return success;
+    }
+
+    private ManifestEntry compactTable(BackupStorage storage, BackupChain chain, String table, String target, String timestamp,
+                                       String key, TokenBucket budget) throws Exception {
+        List<SqlChangeSource> sources = SqlChangeSource.openChain(chain, table, key, budget);
+        try (KWayMerge<SqlKey> merge = new KWayMerge<>(sources)) {
+            SqlChangeSource newest = sources.get(sources.size() - 1);
+            for (SqlChangeSource source : sources) {
+                if (!source.keyColumns().equals(newest.keyColumns()) || !source.columns().equals(newest.columns())) {
+                    throw new IOException(source.describe() + " does not have the columns and primary key of " + newest.describe() + ".");
+                }
+            }
+            // Without a primary key every backup holds a full copy, so the newest is the only source.
+            ChangeSource<SqlKey> rows = newest.keyColumns().isEmpty() ? newest : merge;
+
+            String fileName = table + "_" + timestamp + (key != null ? "_encrypted" : "") + ".csv.gz";
+            ChecksumOutputStream checksumOutputStream = openFile(storage, target + "/" + fileName, budget);
+            long count = 0;
+            try (OutputStream out = BackupStreamUtil.openEncoded(new PooledBufferedOutputStream(checksumOutputStream, WRITE_BUFFER_SIZE), key)) {
+                RowEncoder encoder = new RowEncoder(out);
+                for (String line : newest.schemaLines()) {
+                    encoder.writeLine(line);
+                }
+                if (!newest.keyColumns().isEmpty()) {
+                    encoder.writeLine(SqlChangeSource.PRIMARY_KEY_SECTION);
+                    encoder.writeLine(String.join(",", newest.keyColumns()));
+                }
+                encoder.writeLine("-- DATA");
+                encoder.writeLine(newest.columns());
+                for (ChangeRecord<SqlKey> row = rows.next(); row != null; row = rows.next()) {
+                    encoder.writeRecord(row.row());
+                    count++;
+                }
+                encoder.flush();
+            } finally {
+                checksumOutputStream.close();
+            }
+            return entry(table, fileName, checksumOutputStream, count);
+        }
+    }
+
+    private List<ManifestEntry> compactCollection(BackupStorage storage, BackupChain chain, String collection, String target,
+                                                  String timestamp, String key, TokenBucket budget) throws Exception {
+        String filePrefix = collection + "_" + timestamp + (key != null ? "_encrypted" : "");
+        String dataFile = filePrefix + MongoChangeSource.DATA_FILE_SUFFIX;
+        ChecksumOutputStream checksumOutputStream = openFile(storage, target + "/" + dataFile, budget);
+        long count = 0;
+        try (KWayMerge<MongoKey> merge = new KWayMerge<>(MongoChangeSource.openChain(chain, collection, key, budget));
+             OutputStream out = BackupStreamUtil.openEncoded(new PooledBufferedOutputStream(checksumOutputStream, WRITE_BUFFER_SIZE), key)) {
+            for (ChangeRecord<MongoKey> document = merge.next(); document != null; document = merge.next()) {
+                out.write(document.row());
+                out.write('\n');
+                count++;
+            }
+        } finally {
+            checksumOutputStream.close();
+        }
+        ManifestEntry data = entry(collection, dataFile, checksumOutputStream, count);
+
+        // Index definitions are not incremental, every backup holds them all; the newest are copied as they are.
+        List<BackupChain.ChainFile> indexFiles = chain.files(collection, name -> name.endsWith(MongoChangeSource.INDEX_FILE_SUFFIX));
+        if (indexFiles.isEmpty()) {
+            return List.of(data);
+        }
+        BackupChain.ChainFile newestIndexes = indexFiles.get(0);
+        String indexFile = filePrefix + MongoChangeSource.INDEX_FILE_SUFFIX;
+        ChecksumOutputStream indexOutputStream = openFile(storage, target + "/" + indexFile, budget);
+        try (InputStream in = new ThrottledInputStream(newestIndexes.openRaw(), budget)) {
+            in.transferTo(indexOutputStream);
+        } finally {
+            indexOutputStream.close();
+        }
+        return List.of(data, entry(collection, indexFile, indexOutputStream, newestIndexes.entry().rows()));
+    }
+
+    private ChecksumOutputStream openFile(BackupStorage storage, String path, TokenBucket budget) throws IOException {
+        return new ChecksumOutputStream(new ThrottledOutputStream(storage.create(path), budget));
+    }
+
+    private ManifestEntry entry(String entity, String fileName, ChecksumOutputStream file, long rows) {
+        return new ManifestEntry(entity, fileName, file.getCount(), file.getChecksum(), rows, file.getBlockChecksums());
+    }
+
+    private void deleteBackup(BackupStorage storage, String backupPath) {
+        try {
+            storage.delete(backupPath);
+        } catch (IOException e) {
+            System.err.println("Failed to delete: " + storage.describe(backupPath));
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package org.example.compact;
+
+/** One row of a key-ordered backup file: its key, its encoded form and whether it removes the key. */
+public record ChangeRecord<K>(K key, byte[] row, boolean deleted) {
+}
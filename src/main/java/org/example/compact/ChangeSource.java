@@ -0,0 +1,13 @@
+package org.example.compact;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/** Rows of one backup file in ascending key order. */
+public interface ChangeSource<K> extends Closeable {
+
+    /** The next row, or null once the file is exhausted. */
+    ChangeRecord<K> next() throws IOException;
+
+    String describe();
+}
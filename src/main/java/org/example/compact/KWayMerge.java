@@ -0,0 +1,92 @@
+package org.example.compact;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges key-ordered sources into the rows that are live after applying them in order. Sources are
+ * given oldest first; when several hold the same key the newest one wins, and a winning delete drops
+ * the key. Each source is checked to be strictly ascending, so an unsorted file fails the merge
+ * instead of silently producing duplicates.
+ */
+public class KWayMerge<K extends Comparable<K>> implements ChangeSource<K> {
+
+    private final List<? extends ChangeSource<K>> sources;
+    private final List<K> lastKeys;
+    private final PriorityQueue<Head<K>> heads = new PriorityQueue<>();
+    private boolean started;
+
+    public KWayMerge(List<? extends ChangeSource<K>> sources) {
+        this.sources = sources;
+        this.lastKeys = new ArrayList<>(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            lastKeys.add(null);
+        }
+    }
+
+    @Override
+    public ChangeRecord<K> next() throws IOException {
+        if (!started) {
+            started = true;
+            for (int i = 0; i < sources.size(); i++) {
+                advance(i);
+            }
+        }
+        while (!heads.isEmpty()) {
+            Head<K> winner = heads.poll();
+            advance(winner.source());
+            while (!heads.isEmpty() && heads.peek().record().key().compareTo(winner.record().key()) == 0) {
+                advance(heads.poll().source());
+            }
+            if (!winner.record().deleted()) {
+                return winner.record();
+            }
+        }
+        return null;
+    }
+
+    private void advance(int source) throws IOException {
+        ChangeRecord<K> record = sources.get(source).next();
+        if (record == null) {
+            return;
+        }
+        K lastKey = lastKeys.get(source);
+        if (lastKey != null && lastKey.compareTo(record.key()) >= 0) {
+            throw new IOException(sources.get(source).describe() + " is not in key order at key " + record.key()
+                    + ", it cannot be merged.");
+        }
+        lastKeys.set(source, record.key());
+        heads.add(new Head<>(record, source));
+    }
+
+    @Override
+    public String describe() {
+        return "merge of " + sources.size() + " file(s)";
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (ChangeSource<K> source : sources) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private record Head<K extends Comparable<K>>(ChangeRecord<K> record, int source) implements Comparable<Head<K>> {
+
+        @Override
+        public int compareTo(Head<K> other) {
+            int order = record.key().compareTo(other.record.key());
+            return order != 0 ? order : Integer.compare(other.source, source);
+        }
+    }
+}
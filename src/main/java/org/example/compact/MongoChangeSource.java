@@ -0,0 +1,107 @@
+package org.example.compact;
+
+import org.bson.Document;
+import org.example.throttle.TokenBucket;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a MongoDB backup file as {@code _id}-ordered documents. A full file holds one document per line;
+ * a change file, written by an incremental backup, holds {@code {"op": "upsert", "doc": ...}} and
+ * {@code {"op": "delete", "_id": ...}} lines.
+ */
+public class MongoChangeSource implements ChangeSource<MongoKey> {
+
+    public static final String INDEX_FILE_SUFFIX = ".indexes.json.gz";
+    public static final String DATA_FILE_SUFFIX = ".json.gz";
+
+    private static final String UPSERT_PREFIX = "{\"op\": \"upsert\", \"doc\": ";
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final BufferedReader reader;
+    private final String location;
+    private final boolean changeFile;
+
+    public MongoChangeSource(InputStream in, String location, boolean changeFile) {
+        this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), READ_BUFFER_SIZE);
+        this.location = location;
+        this.changeFile = changeFile;
+    }
+
+    /**
+     * Opens the files that together hold a collection's current documents, oldest first: its newest full
+     * copy in the chain and the change files written after it.
+     */
+    public static List<MongoChangeSource> openChain(BackupChain chain, String collection, String key, TokenBucket budget) throws IOException {
+        List<MongoChangeSource> sources = new ArrayList<>();
+        try {
+            for (BackupChain.ChainFile file : chain.files(collection, MongoChangeSource::isDataFile)) {
+                boolean changes = file.link().isIncremental();
+                sources.add(0, new MongoChangeSource(file.openDecoded(key, budget), file.location(), changes));
+                if (!changes) {
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            new KWayMerge<>(sources).close();
+            throw e;
+        }
+        return sources;
+    }
+
+    public static boolean isDataFile(String fileName) {
+        return fileName.endsWith(DATA_FILE_SUFFIX) && !fileName.endsWith(INDEX_FILE_SUFFIX);
+    }
+
+    public static String upsertLine(String json) {
+        return UPSERT_PREFIX + json + "}";
+    }
+
+    public static String deleteLine(Object id) {
+        return new Document("op", "delete").append("_id", id).toJson();
+    }
+
+    @Override
+    public ChangeRecord<MongoKey> next() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+        } while (line.isEmpty());
+        try {
+            if (!changeFile) {
+                return new ChangeRecord<>(new MongoKey(Document.parse(line).get("_id")), line.getBytes(StandardCharsets.UTF_8), false);
+            }
+            if (line.startsWith(UPSERT_PREFIX) && line.endsWith("}")) {
+                String json = line.substring(UPSERT_PREFIX.length(), line.length() - 1);
+                return new ChangeRecord<>(new MongoKey(Document.parse(json).get("_id")), json.getBytes(StandardCharsets.UTF_8), false);
+            }
+            Document change = Document.parse(line);
+            if (!"delete".equals(change.getString("op"))) {
+                throw new IOException(location + ": unknown change " + line);
+            }
+            return new ChangeRecord<>(new MongoKey(change.get("_id")), line.getBytes(StandardCharsets.UTF_8), true);
+        } catch (RuntimeException e) {
+            // Malformed JSON or an _id type that has no defined order.
+            throw new IOException(location + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String describe() {
+        return location;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
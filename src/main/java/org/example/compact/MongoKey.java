@@ -0,0 +1,84 @@
+package org.example.compact;
+
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * A document {@code _id} ordered the way MongoDB sorts it: by BSON type first (numbers, strings,
+ * object ids, booleans, dates), then by value. Other {@code _id} types cannot be merged.
+ */
+public final class MongoKey implements Comparable<MongoKey> {
+
+    private final Object id;
+    private final int typeOrder;
+
+    public MongoKey(Object id) {
+        this.id = id;
+        this.typeOrder = typeOrder(id);
+    }
+
+    public Object id() {
+        return id;
+    }
+
+    private static int typeOrder(Object id) {
+        if (id == null) {
+            return 1;
+        }
+        if (id instanceof Number number) {
+            if (number instanceof Integer || number instanceof Long || number instanceof Double || number instanceof Decimal128) {
+                return 2;
+            }
+        } else if (id instanceof String) {
+            return 3;
+        } else if (id instanceof ObjectId) {
+            return 7;
+        } else if (id instanceof Boolean) {
+            return 8;
+        } else if (id instanceof Date) {
+            return 9;
+        }
+        throw new IllegalArgumentException("_id values of type " + id.getClass().getSimpleName()
+                + " are not supported by incremental backups.");
+    }
+
+    @Override
+    public int compareTo(MongoKey other) {
+        if (typeOrder != other.typeOrder) {
+            return Integer.compare(typeOrder, other.typeOrder);
+        }
+        return switch (typeOrder) {
+            case 1 -> 0;
+            case 2 -> compareNumbers((Number) id, (Number) other.id);
+            case 3 -> SqlKey.compareCodePoints((String) id, (String) other.id);
+            case 7 -> ((ObjectId) id).compareTo((ObjectId) other.id);
+            case 8 -> Boolean.compare((Boolean) id, (Boolean) other.id);
+            default -> ((Date) id).compareTo((Date) other.id);
+        };
+    }
+
+    private static int compareNumbers(Number a, Number b) {
+        if ((a instanceof Integer || a instanceof Long) && (b instanceof Integer || b instanceof Long)) {
+            return Long.compare(a.longValue(), b.longValue());
+        }
+        return decimal(a).compareTo(decimal(b));
+    }
+
+    private static BigDecimal decimal(Number number) {
+        if (number instanceof Decimal128 decimal128) {
+            return decimal128.bigDecimalValue();
+        }
+        if (number instanceof Double) {
+            return new BigDecimal(number.doubleValue());
+        }
+        return BigDecimal.valueOf(number.longValue());
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(id);
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.compact;
+
+import org.example.factory.StorageFactory;
+import org.example.manifest.BackupManifest;
+import org.example.storage.BackupStorage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the newest full backups of a database type, real or compacted, together with the incremental
+ * backups built on them, and deletes the older chains. Backups without a complete manifest are left
+ * alone since they may still be running or be resumed, and so are increments whose base is gone.
+ */
+public class RetentionPolicy {
+
+    private final int keepFullBackups;
+
+    public RetentionPolicy(int keepFullBackups) {
+        this.keepFullBackups = keepFullBackups;
+    }
+
+    /** Deletes the backups outside the policy and returns their folder names. */
+    public List<String> apply(BackupStorage storage, String dbFolder) throws IOException {
+        Map<String, String> bases = new HashMap<>();
+        for (String folder : storage.list(dbFolder)) {
+            String path = dbFolder + "/" + folder;
+            BackupStorage folderStorage = StorageFactory.getStorage(storage, path);
+            if (BackupManifest.exists(folderStorage, path)) {
+                BackupManifest manifest = BackupManifest.open(folderStorage, path);
+                if (manifest.isComplete()) {
+                    bases.put(folder, manifest.getBase());
+                }
+            }
+        }
+
+        // Folder names start with the backup time, so they sort from oldest to newest.
+        List<String> fullBackups = bases.keySet().stream()
+                .filter(folder -> bases.get(folder) == null)
+                .sorted(Comparator.reverseOrder())
+                .toList();
+        Set<String> keptFullBackups = new HashSet<>(fullBackups.subList(0, Math.min(keepFullBackups, fullBackups.size())));
+
+        List<String> expired = new ArrayList<>();
+        for (String folder : bases.keySet()) {
+            String root = root(folder, bases);
+            if (root != null && !keptFullBackups.contains(root)) {
+                expired.add(folder);
+            }
+        }
+        // Newest first, so increments go before the backups they are built on.
+        expired.sort(Comparator.reverseOrder());
+        for (String folder : expired) {
+            storage.delete(dbFolder + "/" + folder);
+            System.out.println("Removed expired backup: " + storage.describe(dbFolder + "/" + folder));
+        }
+        return expired;
+    }
+
+    private static String root(String folder, Map<String, String> bases) {
+        Set<String> seen = new HashSet<>();
+        String current = folder;
+        while (bases.containsKey(current) && seen.add(current)) {
+            String base = bases.get(current);
+            if (base == null) {
+                return current;
+            }
+            current = base;
+        }
+        return null;
+    }
+}
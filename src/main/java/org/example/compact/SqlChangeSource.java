@@ -0,0 +1,158 @@
+package org.example.compact;
+
+import org.example.codec.RowParser;
+import org.example.throttle.TokenBucket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a SQL backup file as key-ordered rows. A full file lists its rows; a change file, written by an
+ * incremental backup, has an extra leading {@code ~op} column that is {@code +} for an inserted or
+ * updated row and {@code -} for a deleted one (the row then holds its last known values).
+ */
+public class SqlChangeSource implements ChangeSource<SqlKey> {
+
+    public static final String PRIMARY_KEY_SECTION = "-- PRIMARY KEY";
+    public static final String OP_COLUMN = "~op";
+    public static final byte[] UPSERT = "+,".getBytes(StandardCharsets.US_ASCII);
+    public static final byte[] DELETE = "-,".getBytes(StandardCharsets.US_ASCII);
+
+    private final InputStream in;
+    private final String location;
+    private final RowParser parser;
+    private final List<String> schemaLines = new ArrayList<>();
+    private List<String> keyColumns = List.of();
+    private String columns;
+    private boolean changeFile;
+    private int[] keyFields;
+    private int width;
+
+    public SqlChangeSource(InputStream in, String location) throws IOException {
+        this.in = in;
+        this.location = location;
+        this.parser = new RowParser(in);
+        // Rows are copied as they are, so the chunks of their large values must come along.
+        parser.setLargeValueMode(RowParser.LargeValueMode.RETAIN);
+        try {
+            readHead();
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    public static SqlChangeSource open(BackupChain.ChainFile file, String key, TokenBucket budget) throws IOException {
+        return new SqlChangeSource(file.openDecoded(key, budget), file.location());
+    }
+
+    /**
+     * Opens the files that together hold a table's current rows, oldest first: its newest full copy in
+     * the chain and the change files written after it.
+     */
+    public static List<SqlChangeSource> openChain(BackupChain chain, String table, String key, TokenBucket budget) throws IOException {
+        List<SqlChangeSource> sources = new ArrayList<>();
+        try {
+            // The chain stops at the newest full copy, which may be spread over several part files.
+            BackupChain.Link fullCopy = null;
+            for (BackupChain.ChainFile file : chain.files(table, name -> name.endsWith(".csv.gz"))) {
+                if (fullCopy != null && file.link() != fullCopy) {
+                    break;
+                }
+                SqlChangeSource source = open(file, key, budget);
+                sources.add(0, source);
+                if (!source.isChangeFile()) {
+                    fullCopy = file.link();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            new KWayMerge<>(sources).close();
+            throw e;
+        }
+        return sources;
+    }
+
+    private void readHead() throws IOException {
+        String line = parser.readLine();
+        if (line == null || !line.startsWith("-- SCHEMA")) {
+            throw new IOException(location + " has no schema section.");
+        }
+        while (line != null && !line.startsWith("-- DATA")) {
+            if (line.equals(PRIMARY_KEY_SECTION)) {
+                String keys = parser.readLine();
+                keyColumns = keys == null || keys.isEmpty() ? List.of() : List.of(keys.split(","));
+            } else {
+                schemaLines.add(line);
+            }
+            line = parser.readLine();
+        }
+        String header = line != null ? parser.readLine() : null;
+        if (header == null) {
+            throw new IOException(location + " has no data section.");
+        }
+        changeFile = header.startsWith(OP_COLUMN + ",");
+        columns = changeFile ? header.substring(OP_COLUMN.length() + 1) : header;
+        List<String> names = Arrays.asList(columns.split(",", -1));
+        width = names.size() + (changeFile ? 1 : 0);
+        keyFields = new int[keyColumns.size()];
+        for (int i = 0; i < keyFields.length; i++) {
+            keyFields[i] = names.indexOf(keyColumns.get(i));
+            if (keyFields[i] < 0) {
+                throw new IOException(location + " has no column " + keyColumns.get(i) + " for its primary key.");
+            }
+        }
+    }
+
+    @Override
+    public ChangeRecord<SqlKey> next() throws IOException {
+        if (!parser.nextRecord()) {
+            return null;
+        }
+        if (parser.fieldCount() != width) {
+            throw new IOException(location + ": expected " + width + " fields but found " + parser.fieldCount() + ".");
+        }
+        int offset = changeFile ? 1 : 0;
+        boolean deleted = false;
+        if (changeFile) {
+            String op = parser.getString(0);
+            deleted = op.equals("-");
+            if (!deleted && !op.equals("+")) {
+                throw new IOException(location + ": unknown change '" + op + "'.");
+            }
+        }
+        SqlKey key = keyFields.length > 0 ? SqlKey.of(parser, keyFields, offset) : null;
+        return new ChangeRecord<>(key, parser.recordBytes(offset), deleted);
+    }
+
+    /** Lines before the data section except the primary key, i.e. the schema, post-load and foreign key sections. */
+    public List<String> schemaLines() {
+        return schemaLines;
+    }
+
+    public List<String> keyColumns() {
+        return keyColumns;
+    }
+
+    /** The column header without the {@code ~op} column. */
+    public String columns() {
+        return columns;
+    }
+
+    public boolean isChangeFile() {
+        return changeFile;
+    }
+
+    @Override
+    public String describe() {
+        return location;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
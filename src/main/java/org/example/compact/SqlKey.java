@@ -0,0 +1,105 @@
+package org.example.compact;
+
+import org.example.codec.RowParser;
+
+import java.math.BigDecimal;
+
+/**
+ * Primary key of a SQL row as read from a backup file. Unquoted numeric fields compare by value and
+ * everything else by code point, which is the order the exporter asks the database for (numeric
+ * columns as they are, text columns in binary collation).
+ */
+public final class SqlKey implements Comparable<SqlKey> {
+
+    private final String[] values;
+    private final boolean[] quoted;
+
+    private SqlKey(String[] values, boolean[] quoted) {
+        this.values = values;
+        this.quoted = quoted;
+    }
+
+    /** Reads the key of the parser's current record; {@code fields} are the key positions after {@code offset}. */
+    public static SqlKey of(RowParser parser, int[] fields, int offset) {
+        String[] values = new String[fields.length];
+        boolean[] quoted = new boolean[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            values[i] = parser.getString(fields[i] + offset);
+            quoted[i] = parser.isQuoted(fields[i] + offset);
+        }
+        return new SqlKey(values, quoted);
+    }
+
+    @Override
+    public int compareTo(SqlKey other) {
+        for (int i = 0; i < values.length; i++) {
+            int order = !quoted[i] && !other.quoted[i] && isNumber(values[i]) && isNumber(other.values[i])
+                    ? compareNumbers(values[i], other.values[i])
+                    : compareCodePoints(values[i], other.values[i]);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isNumber(String value) {
+        int i = value.startsWith("-") ? 1 : 0;
+        if (i == value.length()) {
+            return false;
+        }
+        boolean digit = false;
+        for (; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digit = true;
+            } else if (c != '.' && c != 'e' && c != 'E' && c != '-' && c != '+') {
+                return false;
+            }
+        }
+        return digit;
+    }
+
+    private static int compareNumbers(String a, String b) {
+        if (a.length() < 19 && b.length() < 19 && isInteger(a) && isInteger(b)) {
+            return Long.compare(Long.parseLong(a), Long.parseLong(b));
+        }
+        try {
+            return new BigDecimal(a).compareTo(new BigDecimal(b));
+        } catch (NumberFormatException e) {
+            return compareCodePoints(a, b);
+        }
+    }
+
+    private static boolean isInteger(String value) {
+        for (int i = value.startsWith("-") ? 1 : 0; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** String order by code point, which matches the byte order of UTF-8 unlike {@link String#compareTo}. */
+    static int compareCodePoints(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            int x = a.charAt(i);
+            int y = b.charAt(i);
+            if (x != y) {
+                if (x >= Character.MIN_SURROGATE && y >= Character.MIN_SURROGATE) {
+                    // Surrogates encode code points above U+FFFF, so move them past U+E000..U+FFFF.
+                    x = x >= 0xE000 ? x - 0x800 : x + 0x2000;
+                    y = y >= 0xE000 ? y - 0x800 : y + 0x2000;
+                }
+                return Integer.compare(x, y);
+            }
+        }
+        return Integer.compare(a.length(), b.length());
+    }
+
+    @Override
+    public String toString() {
+        return String.join(", ", values);
+    }
+}
@@ -0,0 +1,370 @@
+package org.example.daemon;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.example.compact.RetentionPolicy;
+import org.example.entities.BackupOptions;
+import org.example.entities.RestoreOptions;
+import org.example.factory.ExporterFactory;
+import org.example.factory.StorageFactory;
+import org.example.manifest.BackupManifest;
+import org.example.memory.BufferPool;
+import org.example.service.DatabaseRestorer;
+import org.example.service.impl.MongoDatabaseRestorer;
+import org.example.service.impl.SQLRestorer;
+import org.example.storage.BackupStorage;
+import org.example.storage.PrefixedBackupStorage;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the jobs of a {@link DaemonConfig} on their schedules inside one long-lived JVM, so a fleet of
+ * databases shares warmed-up code and pooled connections instead of starting a process per backup. Every
+ * run gets a virtual thread; at most {@code maxConcurrentJobs} run at once and at most {@code maxJobsPerHost}
+ * against one database server, the others wait in line in the order they became due. A job that is due
+ * while its previous run is still waiting or running is skipped. Each backup job writes under its own
+ * folder of the backup storage, {@code <job>/sql/...}, and applies its retention after every successful run.
+ */
+public class BackupDaemon {
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+    private static final long SHUTDOWN_GRACE_SECONDS = 30;
+
+    private final DaemonConfig config;
+    private final BackupStorage storage;
+    private final Map<String, JobStatus> statuses = new LinkedHashMap<>();
+    private final Semaphore jobPermits;
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Object wakeUp = new Object();
+    private volatile boolean stopped;
+    private PrintStream console;
+    private HttpServer statusServer;
+
+    public BackupDaemon(DaemonConfig config, BackupStorage storage) {
+        this.config = config;
+        this.storage = storage;
+        this.jobPermits = new Semaphore(config.getMaxConcurrentJobs(), true);
+    }
+
+    /** Schedules the jobs and blocks until the daemon is stopped, by {@link #stop()} or by the JVM shutting down. */
+    public void run() throws IOException {
+        Files.createDirectories(config.getLogDir());
+        if (config.getMemoryMegabytes() > 0) {
+            BufferPool.getInstance().setCeiling(config.getMemoryMegabytes() * 1024L * 1024L);
+        }
+        ZonedDateTime now = ZonedDateTime.now();
+        for (JobDefinition job : config.getJobs()) {
+            statuses.put(job.name(), new JobStatus(job, job.schedule().next(now)));
+        }
+        startStatusServer();
+
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        console = out;
+        System.setOut(new JobOutput(out));
+        System.setErr(new JobOutput(err));
+        Thread shutdownHook = new Thread(this::stop, "backup-daemon-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        printSchedule();
+        try {
+            schedule();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stop();
+            System.setOut(out);
+            System.setErr(err);
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // already shutting down
+            }
+        }
+    }
+
+    /** Stops scheduling, interrupts the running jobs and waits a little for them to leave resumable backups behind. */
+    public void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        synchronized (wakeUp) {
+            wakeUp.notifyAll();
+        }
+        if (statusServer != null) {
+            statusServer.stop(0);
+        }
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS)) {
+                console.println("Some jobs did not stop within " + SHUTDOWN_GRACE_SECONDS + " seconds.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        console.println("Daemon stopped.");
+    }
+
+    private void schedule() throws InterruptedException {
+        while (!stopped) {
+            ZonedDateTime now = ZonedDateTime.now();
+            ZonedDateTime wakeAt = null;
+            for (JobStatus status : statuses.values()) {
+                if (!status.getNextRun().isAfter(now)) {
+                    JobDefinition job = status.getJob();
+                    if (status.queue(job.schedule().next(now))) {
+                        try {
+                            executor.submit(() -> runJob(status));
+                        } catch (RejectedExecutionException e) {
+                            return; // stopped meanwhile
+                        }
+                    } else {
+                        console.println(format(now) + " Skipping " + job.name() + ", its previous run has not finished.");
+                    }
+                }
+                if (wakeAt == null || status.getNextRun().isBefore(wakeAt)) {
+                    wakeAt = status.getNextRun();
+                }
+            }
+            long waitMillis = ChronoUnit.MILLIS.between(ZonedDateTime.now(), wakeAt);
+            synchronized (wakeUp) {
+                if (!stopped && waitMillis > 0) {
+                    wakeUp.wait(waitMillis);
+                }
+            }
+        }
+    }
+
+    private void runJob(JobStatus status) {
+        JobDefinition job = status.getJob();
+        Semaphore hostLimit = hostPermits.computeIfAbsent(hostOf(job.db().getUrl()),
+                host -> new Semaphore(config.getMaxJobsPerHost(), true));
+        boolean succeeded = false;
+        String error = null;
+        String logFile = config.getLogDir().resolve(job.name() + ".log").toString();
+        try (PrintStream log = new PrintStream(new FileOutputStream(logFile, true), true, StandardCharsets.UTF_8)) {
+            JobOutput.bind(log);
+            // The host permit is taken first, so a job waiting for a busy server does not hold a global slot.
+            hostLimit.acquire();
+            try {
+                jobPermits.acquire();
+                try {
+                    ZonedDateTime start = ZonedDateTime.now();
+                    status.started(start);
+                    console.println(format(start) + " Started " + job.name());
+                    log.println("=== " + job.type().name().toLowerCase() + " started at " + format(start));
+                    succeeded = job.type() == JobType.BACKUP ? runBackup(job) : runRestore(job);
+                    log.println();
+                    log.println("=== " + (succeeded ? "succeeded" : "failed") + " at " + format(ZonedDateTime.now()));
+                } finally {
+                    jobPermits.release();
+                }
+            } finally {
+                hostLimit.release();
+            }
+            if (!succeeded) {
+                error = "see " + logFile;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = "interrupted";
+        } catch (IOException e) {
+            error = e.getMessage();
+        } catch (RuntimeException e) {
+            error = e.toString();
+        } finally {
+            JobOutput.unbind();
+            ZonedDateTime end = ZonedDateTime.now();
+            status.finished(succeeded, error, end);
+            console.println(format(end) + " " + (succeeded ? "Finished " : "Failed ") + job.name()
+                    + (error != null ? " (" + error + ")" : "") + ", next run " + format(status.getNextRun()));
+        }
+    }
+
+    private boolean runBackup(JobDefinition job) throws IOException {
+        BackupStorage jobStorage = new PrefixedBackupStorage(storage, job.name());
+        BackupOptions options = BackupOptions.builder()
+                .workers(job.workers())
+                .maxMegabytesPerSecond(job.maxMegabytesPerSecond())
+                .build();
+        if (!ExporterFactory.createExporter(job.db(), jobStorage).exportDatabase(job.key(), job.entities(), options)) {
+            return false;
+        }
+        if (job.keep() > 0) {
+            new RetentionPolicy(job.keep()).apply(jobStorage, job.dbFolder());
+        }
+        return true;
+    }
+
+    private boolean runRestore(JobDefinition job) throws IOException {
+        JobDefinition source = statuses.get(job.source()).getJob();
+        BackupStorage sourceStorage = new PrefixedBackupStorage(storage, source.name());
+        String folder = newestFullBackup(sourceStorage, source.dbFolder());
+        if (folder == null) {
+            System.out.println("Job " + source.name() + " has no complete full backup to restore yet.");
+            return false;
+        }
+        System.out.println("Restoring " + sourceStorage.describe(source.dbFolder() + "/" + folder));
+        DatabaseRestorer restorer = source.dbFolder().equals("mongo") ? MongoDatabaseRestorer.getInstance() : SQLRestorer.getInstance();
+        RestoreOptions options = RestoreOptions.builder()
+                .workers(job.workers())
+                .build();
+        String key = job.key() != null ? job.key() : source.key();
+        return restorer.restoreDatabase(sourceStorage, key, job.entities(), source.dbFolder(), folder, job.db(), options);
+    }
+
+    /** The newest backup with a complete manifest that is not an increment; folder names sort by backup time. */
+    private static String newestFullBackup(BackupStorage storage, String dbFolder) throws IOException {
+        List<String> folders = storage.list(dbFolder);
+        for (int i = folders.size() - 1; i >= 0; i--) {
+            String path = dbFolder + "/" + folders.get(i);
+            BackupStorage folderStorage = StorageFactory.getStorage(storage, path);
+            if (BackupManifest.exists(folderStorage, path)) {
+                BackupManifest manifest = BackupManifest.open(folderStorage, path);
+                if (manifest.isComplete() && manifest.getBase() == null) {
+                    return folders.get(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The database server a connection string points at, {@code host:port}, e.g. {@code db1:5432} for
+     * {@code jdbc:postgresql://db1:5432/orders}. For a MongoDB replica set it is the first listed member.
+     */
+    static String hostOf(String url) {
+        String address = url.startsWith("jdbc:") ? url.substring("jdbc:".length()) : url;
+        int scheme = address.indexOf("://");
+        if (scheme < 0) {
+            return url;
+        }
+        address = address.substring(scheme + 3);
+        for (char end : new char[]{'/', '?', ';'}) {
+            int index = address.indexOf(end);
+            if (index >= 0) {
+                address = address.substring(0, index);
+            }
+        }
+        address = address.substring(address.lastIndexOf('@') + 1);
+        int comma = address.indexOf(',');
+        return (comma >= 0 ? address.substring(0, comma) : address).toLowerCase();
+    }
+
+    private void printSchedule() {
+        console.println("Daemon started with " + statuses.size() + " job(s), at most " + config.getMaxConcurrentJobs()
+                + " at once and " + config.getMaxJobsPerHost() + " per database server. Logs: " + config.getLogDir().toAbsolutePath());
+        if (statusServer != null) {
+            console.println("Job status: http://" + config.getStatusAddress() + ":" + statusServer.getAddress().getPort() + "/status");
+        }
+        for (JobStatus status : statuses.values()) {
+            JobDefinition job = status.getJob();
+            console.println(String.format("    %-24s %-8s %-16s next run %s", job.name(), job.type().name().toLowerCase(),
+                    job.schedule(), format(status.getNextRun())));
+        }
+    }
+
+    private void startStatusServer() throws IOException {
+        if (config.getStatusPort() == 0) {
+            return;
+        }
+        statusServer = HttpServer.create(new InetSocketAddress(config.getStatusAddress(), config.getStatusPort()), 0);
+        statusServer.createContext("/status", this::handleStatus);
+        statusServer.start();
+    }
+
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        byte[] body;
+        int code;
+        if (exchange.getRequestMethod().equals("GET")) {
+            body = statusJson().getBytes(StandardCharsets.UTF_8);
+            code = 200;
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+        } else {
+            body = new byte[0];
+            code = 405;
+        }
+        exchange.sendResponseHeaders(code, body.length > 0 ? body.length : -1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private String statusJson() {
+        long running = statuses.values().stream().filter(status -> status.getState() == JobStatus.State.RUNNING).count();
+        long queued = statuses.values().stream().filter(status -> status.getState() == JobStatus.State.QUEUED).count();
+        StringBuilder json = new StringBuilder("{\"maxConcurrentJobs\":").append(config.getMaxConcurrentJobs())
+                .append(",\"maxJobsPerHost\":").append(config.getMaxJobsPerHost())
+                .append(",\"runningJobs\":").append(running)
+                .append(",\"queuedJobs\":").append(queued)
+                .append(",\"bufferMemoryBytes\":").append(BufferPool.getInstance().getInUse())
+                .append(",\"bufferMemoryBudgetBytes\":").append(BufferPool.getInstance().getCeiling())
+                .append(",\"jobs\":[");
+        boolean first = true;
+        for (JobStatus status : statuses.values()) {
+            JobDefinition job = status.getJob();
+            json.append(first ? "" : ",")
+                    .append("{\"name\":").append(quote(job.name()))
+                    .append(",\"type\":").append(quote(job.type().name().toLowerCase()))
+                    .append(",\"schedule\":").append(quote(job.schedule().toString()))
+                    .append(",\"state\":").append(quote(status.getState().name().toLowerCase()))
+                    .append(",\"nextRun\":").append(quote(format(status.getNextRun())))
+                    .append(",\"lastStart\":").append(quote(format(status.getLastStart())))
+                    .append(",\"lastDurationSeconds\":").append(status.getLastDuration() != null ? status.getLastDuration().toSeconds() : "null")
+                    .append(",\"lastResult\":").append(status.getLastSucceeded() == null ? "null" : quote(status.getLastSucceeded() ? "succeeded" : "failed"))
+                    .append(",\"lastError\":").append(quote(status.getLastError()))
+                    .append(",\"runs\":").append(status.getRuns())
+                    .append(",\"failures\":").append(status.getFailures())
+                    .append('}');
+            first = false;
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                case '\n' -> quoted.append("\\n");
+                case '\r' -> quoted.append("\\r");
+                case '\t' -> quoted.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static String format(ZonedDateTime time) {
+        return time == null ? null : time.truncatedTo(ChronoUnit.SECONDS).format(TIME_FORMAT);
+    }
+}
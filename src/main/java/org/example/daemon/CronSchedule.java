@@ -0,0 +1,134 @@
+package org.example.daemon;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * A five field cron expression, {@code minute hour day-of-month month day-of-week}, with {@code *}, lists,
+ * ranges and steps, e.g. {@code 30 2 * * 1-5} or {@code *}{@code /15 * * * *}. Sunday is 0 or 7. As in cron,
+ * a day matches when either day field does if both are restricted. {@code @hourly}, {@code @daily} and
+ * {@code @weekly} are accepted as shorthands.
+ */
+public class CronSchedule {
+
+    private static final Map<String, String> MACROS = Map.of(
+            "@hourly", "0 * * * *",
+            "@daily", "0 0 * * *",
+            "@midnight", "0 0 * * *",
+            "@weekly", "0 0 * * 0",
+            "@monthly", "0 0 1 * *");
+
+    // Every combination of fields repeats within four years, leap days included.
+    private static final int MAX_YEARS_AHEAD = 5;
+
+    private final String expression;
+    private final BitSet minutes;
+    private final BitSet hours;
+    private final BitSet daysOfMonth;
+    private final BitSet months;
+    private final BitSet daysOfWeek;
+    private final boolean anyDayOfMonth;
+    private final boolean anyDayOfWeek;
+
+    private CronSchedule(String expression, String[] fields) {
+        this.expression = expression;
+        this.minutes = parseField(fields[0], 0, 59, "minute");
+        this.hours = parseField(fields[1], 0, 23, "hour");
+        this.daysOfMonth = parseField(fields[2], 1, 31, "day of month");
+        this.months = parseField(fields[3], 1, 12, "month");
+        this.daysOfWeek = parseField(fields[4], 0, 7, "day of week");
+        if (daysOfWeek.get(7)) {
+            daysOfWeek.set(0);
+        }
+        this.anyDayOfMonth = fields[2].equals("*");
+        this.anyDayOfWeek = fields[4].equals("*");
+    }
+
+    public static CronSchedule parse(String expression) {
+        String trimmed = expression.trim();
+        String[] fields = MACROS.getOrDefault(trimmed.toLowerCase(), trimmed).split("\\s+");
+        if (fields.length != 5) {
+            throw new IllegalArgumentException("A schedule needs five fields (minute hour day month weekday): " + expression);
+        }
+        return new CronSchedule(trimmed, fields);
+    }
+
+    /** The first matching minute strictly after {@code after}. */
+    public ZonedDateTime next(ZonedDateTime after) {
+        ZonedDateTime time = after.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        ZonedDateTime limit = after.plusYears(MAX_YEARS_AHEAD);
+        while (time.isBefore(limit)) {
+            if (!months.get(time.getMonthValue())) {
+                time = time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).plusMonths(1);
+            } else if (!dayMatches(time)) {
+                time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+            } else if (!hours.get(time.getHour())) {
+                time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+            } else if (!minutes.get(time.getMinute())) {
+                time = time.plusMinutes(1);
+            } else {
+                return time;
+            }
+        }
+        throw new IllegalArgumentException("The schedule never fires: " + expression);
+    }
+
+    private boolean dayMatches(ZonedDateTime time) {
+        boolean dayOfMonth = daysOfMonth.get(time.getDayOfMonth());
+        boolean dayOfWeek = daysOfWeek.get(time.getDayOfWeek().getValue() % 7);
+        if (!anyDayOfMonth && !anyDayOfWeek) {
+            return dayOfMonth || dayOfWeek;
+        }
+        return dayOfMonth && dayOfWeek;
+    }
+
+    private static BitSet parseField(String field, int min, int max, String name) {
+        BitSet values = new BitSet(max + 1);
+        for (String part : field.split(",")) {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash >= 0) {
+                step = number(part.substring(slash + 1), 1, max, name);
+                part = part.substring(0, slash);
+            }
+            int from;
+            int to;
+            if (part.equals("*")) {
+                from = min;
+                to = max;
+            } else if (part.indexOf('-') > 0) {
+                from = number(part.substring(0, part.indexOf('-')), min, max, name);
+                to = number(part.substring(part.indexOf('-') + 1), min, max, name);
+            } else {
+                from = number(part, min, max, name);
+                to = slash >= 0 ? max : from;
+            }
+            if (from > to) {
+                throw new IllegalArgumentException("Invalid " + name + " range: " + part);
+            }
+            for (int value = from; value <= to; value += step) {
+                values.set(value);
+            }
+        }
+        return values;
+    }
+
+    private static int number(String text, int min, int max, String name) {
+        try {
+            int value = Integer.parseInt(text);
+            if (value < min || value > max) {
+                throw new IllegalArgumentException("The " + name + " must be between " + min + " and " + max + ": " + text);
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " in schedule: " + text);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
@@ -0,0 +1,260 @@
+package org.example.daemon;
+
+import org.example.entities.BackupOptions;
+import org.example.entities.DbConnectionEntity;
+import org.example.entities.RestoreOptions;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The daemon configuration, a properties file:
+ * <pre>
+ * daemon.maxConcurrentJobs=16
+ * daemon.maxJobsPerHost=2
+ * daemon.statusPort=8085
+ * daemon.statusAddress=127.0.0.1
+ * daemon.logDir=/var/log/db-backup
+ * daemon.memoryMb=512
+ *
+ * job.orders.type=backup
+ * job.orders.db=sql
+ * job.orders.url=jdbc:postgresql://db1:5432/orders
+ * job.orders.user=backup
+ * job.orders.password=${ORDERS_PASSWORD}
+ * job.orders.schedule=30 2 * * *
+ * job.orders.keep=7
+ *
+ * job.orders-drill.type=restore
+ * job.orders-drill.source=orders
+ * job.orders-drill.db=sql
+ * job.orders-drill.url=jdbc:postgresql://staging:5432/orders
+ * job.orders-drill.schedule=0 6 * * 0
+ * </pre>
+ * Jobs may also set {@code key}, {@code entities}, {@code workers} and {@code maxMbps}. A value written as
+ * {@code ${NAME}} is read from that environment variable, so passwords and keys stay out of the file.
+ */
+public class DaemonConfig {
+
+    public static final int DEFAULT_MAX_CONCURRENT_JOBS = 8;
+    public static final int DEFAULT_MAX_JOBS_PER_HOST = 1;
+    public static final String DEFAULT_STATUS_ADDRESS = "127.0.0.1";
+
+    private static final String JOB_PREFIX = "job.";
+    private static final Pattern JOB_NAME = Pattern.compile("[\\w-]+");
+    private static final Pattern ENVIRONMENT_REFERENCE = Pattern.compile("\\$\\{(\\w+)}");
+    private static final List<String> JOB_KEYS = List.of("type", "db", "url", "user", "password", "dbName", "schedule",
+            "key", "entities", "workers", "maxMbps", "keep", "source");
+
+    private final int maxConcurrentJobs;
+    private final int maxJobsPerHost;
+    private final int statusPort;
+    private final String statusAddress;
+    private final Path logDir;
+    private final int memoryMegabytes;
+    private final List<JobDefinition> jobs;
+
+    private DaemonConfig(int maxConcurrentJobs, int maxJobsPerHost, int statusPort, String statusAddress, Path logDir,
+                         int memoryMegabytes, List<JobDefinition> jobs) {
+        this.maxConcurrentJobs = maxConcurrentJobs;
+        this.maxJobsPerHost = maxJobsPerHost;
+        this.statusPort = statusPort;
+        this.statusAddress = statusAddress;
+        this.logDir = logDir;
+        this.memoryMegabytes = memoryMegabytes;
+        this.jobs = jobs;
+    }
+
+    public static DaemonConfig load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return parse(properties);
+    }
+
+    static DaemonConfig parse(Properties properties) {
+        int maxConcurrentJobs = intValue(properties, "daemon.maxConcurrentJobs", DEFAULT_MAX_CONCURRENT_JOBS, 1);
+        int maxJobsPerHost = intValue(properties, "daemon.maxJobsPerHost", DEFAULT_MAX_JOBS_PER_HOST, 1);
+        int statusPort = intValue(properties, "daemon.statusPort", 0, 0);
+        String statusAddress = value(properties, "daemon.statusAddress", DEFAULT_STATUS_ADDRESS);
+        Path logDir = Path.of(value(properties, "daemon.logDir", "logs"));
+        int memoryMegabytes = intValue(properties, "daemon.memoryMb", 0, 0);
+
+        TreeSet<String> names = new TreeSet<>();
+        for (String property : properties.stringPropertyNames()) {
+            if (property.startsWith(JOB_PREFIX)) {
+                int dot = property.lastIndexOf('.');
+                String name = property.substring(JOB_PREFIX.length(), Math.max(dot, JOB_PREFIX.length()));
+                if (!JOB_NAME.matcher(name).matches() || !JOB_KEYS.contains(property.substring(dot + 1))) {
+                    throw new IllegalArgumentException("Unknown setting " + property);
+                }
+                names.add(name);
+            } else if (property.startsWith("daemon.")
+                    && !List.of("daemon.maxConcurrentJobs", "daemon.maxJobsPerHost", "daemon.statusPort", "daemon.statusAddress", "daemon.logDir",
+                    "daemon.memoryMb")
+                    .contains(property)) {
+                throw new IllegalArgumentException("Unknown setting " + property);
+            }
+        }
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("The configuration defines no jobs.");
+        }
+
+        Map<String, JobDefinition> jobs = new LinkedHashMap<>();
+        for (String name : names) {
+            jobs.put(name, parseJob(properties, name));
+        }
+        for (JobDefinition job : jobs.values()) {
+            if (job.type() == JobType.RESTORE) {
+                JobDefinition source = jobs.get(job.source());
+                if (source == null || source.type() != JobType.BACKUP) {
+                    throw new IllegalArgumentException("Job " + job.name() + " restores from " + job.source() + ", which is not a backup job.");
+                }
+                if (!source.dbFolder().equals(job.dbFolder())) {
+                    throw new IllegalArgumentException("Job " + job.name() + " cannot restore a " + source.db().getDbType() + " backup into a "
+                            + job.db().getDbType() + " database.");
+                }
+            }
+        }
+        return new DaemonConfig(maxConcurrentJobs, maxJobsPerHost, statusPort, statusAddress, logDir, memoryMegabytes,
+                List.copyOf(jobs.values()));
+    }
+
+    private static JobDefinition parseJob(Properties properties, String name) {
+        String prefix = JOB_PREFIX + name + ".";
+        JobType type;
+        try {
+            type = JobType.valueOf(value(properties, prefix + "type", "backup").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("The type of job " + name + " must be backup or restore.");
+        }
+        String dbType = required(properties, prefix + "db");
+        if (!dbType.equalsIgnoreCase("sql") && !dbType.equalsIgnoreCase("mongo")) {
+            throw new IllegalArgumentException("The db of job " + name + " must be sql or mongo.");
+        }
+        DbConnectionEntity db = DbConnectionEntity.builder()
+                .dbType(dbType)
+                .url(required(properties, prefix + "url"))
+                .user(value(properties, prefix + "user", null))
+                .password(value(properties, prefix + "password", null))
+                .DbName(value(properties, prefix + "dbName", null))
+                .build();
+        CronSchedule schedule;
+        try {
+            schedule = CronSchedule.parse(required(properties, prefix + "schedule"));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Job " + name + ": " + e.getMessage());
+        }
+        String entities = value(properties, prefix + "entities", null);
+        List<String> entityList = entities == null ? null : Arrays.stream(entities.split(","))
+                .map(String::trim)
+                .filter(entity -> !entity.isEmpty())
+                .toList();
+        int defaultWorkers = type == JobType.BACKUP ? BackupOptions.DEFAULT_WORKERS : RestoreOptions.DEFAULT_WORKERS;
+        String source = type == JobType.RESTORE ? required(properties, prefix + "source") : null;
+        if (type == JobType.BACKUP && properties.containsKey(prefix + "source")) {
+            throw new IllegalArgumentException("Only restore jobs take a source, job " + name + " is a backup job.");
+        }
+        return new JobDefinition(name, type, db, schedule, value(properties, prefix + "key", null), entityList,
+                intValue(properties, prefix + "workers", defaultWorkers, 1),
+                doubleValue(properties, prefix + "maxMbps"),
+                intValue(properties, prefix + "keep", 0, 0),
+                source);
+    }
+
+    private static String required(Properties properties, String property) {
+        String value = value(properties, property, null);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing setting " + property);
+        }
+        return value;
+    }
+
+    private static String value(Properties properties, String property, String defaultValue) {
+        String value = properties.getProperty(property);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        Matcher matcher = ENVIRONMENT_REFERENCE.matcher(value.trim());
+        if (matcher.matches()) {
+            String environmentValue = System.getenv(matcher.group(1));
+            if (environmentValue == null) {
+                throw new IllegalArgumentException(property + " refers to " + matcher.group(1) + ", which is not set.");
+            }
+            return environmentValue;
+        }
+        return value.trim();
+    }
+
+    private static int intValue(Properties properties, String property, int defaultValue, int min) {
+        String value = value(properties, property, null);
+        try {
+            int number = value == null ? defaultValue : Integer.parseInt(value);
+            if (number < min) {
+                throw new IllegalArgumentException(property + " must be at least " + min + ".");
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(property + " must be a whole number: " + value);
+        }
+    }
+
+    private static double doubleValue(Properties properties, String property) {
+        String value = value(properties, property, null);
+        try {
+            double number = value == null ? 0 : Double.parseDouble(value);
+            if (number < 0) {
+                throw new IllegalArgumentException(property + " cannot be negative.");
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(property + " must be a number: " + value);
+        }
+    }
+
+    public int getMaxConcurrentJobs() {
+        return maxConcurrentJobs;
+    }
+
+    public int getMaxJobsPerHost() {
+        return maxJobsPerHost;
+    }
+
+    /** Port of the HTTP status endpoint; 0 leaves it off. */
+    public int getStatusPort() {
+        return statusPort;
+    }
+
+    /**
+     * Address the status endpoint listens on. It is unauthenticated and reports raw error messages, so it only
+     * listens on the loopback interface unless configured otherwise.
+     */
+    public String getStatusAddress() {
+        return statusAddress;
+    }
+
+    public Path getLogDir() {
+        return logDir;
+    }
+
+    /** The buffer memory budget shared by all jobs; 0 keeps the default of {@link org.example.memory.BufferPool}. */
+    public int getMemoryMegabytes() {
+        return memoryMegabytes;
+    }
+
+    public List<JobDefinition> getJobs() {
+        return jobs;
+    }
+}
@@ -0,0 +1,19 @@
+package org.example.daemon;
+
+import org.example.entities.DbConnectionEntity;
+
+import java.util.List;
+
+/**
+ * One job of the daemon configuration. A backup job writes to its own folder of the backup storage and keeps
+ * its newest {@code keep} full backups (0 keeps everything); a restore job loads the newest complete full
+ * backup of its {@code source} job into its database.
+ */
+public record JobDefinition(String name, JobType type, DbConnectionEntity db, CronSchedule schedule, String key,
+                            List<String> entities, int workers, double maxMegabytesPerSecond, int keep, String source) {
+
+    /** The backup folder of the database type, {@code sql} or {@code mongo}. */
+    public String dbFolder() {
+        return "MONGO".equalsIgnoreCase(db.getDbType()) ? "mongo" : "sql";
+    }
+}
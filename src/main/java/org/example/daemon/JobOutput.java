@@ -0,0 +1,94 @@
+package org.example.daemon;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Replaces System.out and System.err while the daemon runs, so that the messages and progress bars of
+ * concurrent jobs land in each job's own log instead of interleaving on the console. The target is
+ * inherited by the threads a job starts, its export and restore workers included; output of threads
+ * outside any job, or of a job that has finished, goes to the console.
+ */
+public class JobOutput extends PrintStream {
+
+    private static final InheritableThreadLocal<AtomicReference<PrintStream>> target = new InheritableThreadLocal<>();
+
+    private final PrintStream console;
+
+    public JobOutput(PrintStream console) {
+        super(console, true);
+        this.console = console;
+    }
+
+    /** Routes the output of the current thread and the threads it starts to {@code log} until {@link #unbind()}. */
+    public static AtomicReference<PrintStream> bind(PrintStream log) {
+        AtomicReference<PrintStream> reference = new AtomicReference<>(log);
+        target.set(reference);
+        return reference;
+    }
+
+    /** Sends the output of the job bound to the current thread, and of any thread it left behind, back to the console. */
+    public static void unbind() {
+        AtomicReference<PrintStream> reference = target.get();
+        if (reference != null) {
+            reference.set(null);
+            target.remove();
+        }
+    }
+
+    private PrintStream current() {
+        AtomicReference<PrintStream> reference = target.get();
+        PrintStream log = reference != null ? reference.get() : null;
+        return log != null ? log : console;
+    }
+
+    @Override
+    public void write(int b) {
+        current().write(b);
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) {
+        current().write(buf, off, len);
+    }
+
+    @Override
+    public void flush() {
+        current().flush();
+    }
+
+    @Override
+    public void print(String s) {
+        current().print(s);
+    }
+
+    @Override
+    public void print(Object obj) {
+        current().print(obj);
+    }
+
+    @Override
+    public void println() {
+        current().println();
+    }
+
+    @Override
+    public void println(String x) {
+        current().println(x);
+    }
+
+    @Override
+    public void println(Object x) {
+        current().println(x);
+    }
+
+    /** The stream to restore when the daemon stops. */
+    public PrintStream getConsole() {
+        return console;
+    }
+
+    @Override
+    public void close() {
+        // The console and the job logs are closed by their owners.
+    }
+}
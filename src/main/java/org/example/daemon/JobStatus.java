@@ -0,0 +1,93 @@
+package org.example.daemon;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+
+/** What the daemon knows about one job, shared between the scheduler, the job itself and the status endpoint. */
+public class JobStatus {
+
+    public enum State {
+        IDLE,
+        QUEUED,
+        RUNNING
+    }
+
+    private final JobDefinition job;
+    private State state = State.IDLE;
+    private ZonedDateTime nextRun;
+    private ZonedDateTime lastStart;
+    private Duration lastDuration;
+    private Boolean lastSucceeded;
+    private String lastError;
+    private long runs;
+    private long failures;
+
+    public JobStatus(JobDefinition job, ZonedDateTime nextRun) {
+        this.job = job;
+        this.nextRun = nextRun;
+    }
+
+    public JobDefinition getJob() {
+        return job;
+    }
+
+    /** Marks the job queued unless a previous run is still queued or running; returns whether it was. */
+    public synchronized boolean queue(ZonedDateTime nextRun) {
+        this.nextRun = nextRun;
+        if (state != State.IDLE) {
+            return false;
+        }
+        state = State.QUEUED;
+        return true;
+    }
+
+    public synchronized void started(ZonedDateTime start) {
+        state = State.RUNNING;
+        lastStart = start;
+    }
+
+    public synchronized void finished(boolean succeeded, String error, ZonedDateTime end) {
+        // A job stopped while still queued never started, so it has no duration of its own.
+        lastDuration = state == State.RUNNING ? Duration.between(lastStart, end) : null;
+        state = State.IDLE;
+        lastSucceeded = succeeded;
+        lastError = error;
+        runs++;
+        if (!succeeded) {
+            failures++;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized ZonedDateTime getNextRun() {
+        return nextRun;
+    }
+
+    public synchronized ZonedDateTime getLastStart() {
+        return lastStart;
+    }
+
+    public synchronized Duration getLastDuration() {
+        return lastDuration;
+    }
+
+    /** Null until the job has run once. */
+    public synchronized Boolean getLastSucceeded() {
+        return lastSucceeded;
+    }
+
+    public synchronized String getLastError() {
+        return lastError;
+    }
+
+    public synchronized long getRuns() {
+        return runs;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+}
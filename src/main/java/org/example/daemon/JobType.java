@@ -0,0 +1,6 @@
+package org.example.daemon;
+
+public enum JobType {
+    BACKUP,
+    RESTORE
+}
@@ -0,0 +1,17 @@
+package org.example.diff;
+
+/** What a differential restore did: rows read from the backup, and live rows written and deleted to match them. */
+public record DiffCounts(long rows, long written, long deleted) {
+
+    public static final DiffCounts NONE = new DiffCounts(0, 0, 0);
+
+    public DiffCounts plus(DiffCounts other) {
+        return new DiffCounts(rows + other.rows, written + other.written, deleted + other.deleted);
+    }
+
+    /** E.g. "Compared 1,000 backed up rows: 990 already matched, 10 written, 2 deleted." */
+    public String summary(String unit) {
+        return String.format("Compared %,d backed up %s: %,d already matched, %,d written, %,d deleted.",
+                rows, unit, Math.max(0, rows - written), written, deleted);
+    }
+}
@@ -0,0 +1,114 @@
+package org.example.diff;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.example.compact.ChangeRecord;
+import org.example.compact.KWayMerge;
+import org.example.compact.MongoChangeSource;
+import org.example.compact.MongoKey;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The MongoDB counterpart of {@link SqlTableDiff}: the collection is read in {@code _id} order and every
+ * document serialized as the backup serialized it, so one merge pass against the file finds the documents
+ * to replace and the ones to delete. Changes go out as unordered bulk writes.
+ */
+public class MongoCollectionDiff {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int FETCH_SIZE = 1000;
+
+    private final MongoCollection<Document> collection;
+    private final String collectionName;
+    private final String location;
+    private final Document filter;
+    private final List<WriteModel<Document>> changes = new ArrayList<>(BATCH_SIZE);
+    private long written;
+    private long deleted;
+
+    /** @param filter the filter the backup was taken with, or null; documents outside it are left alone */
+    public MongoCollectionDiff(MongoCollection<Document> collection, String collectionName, String location, Document filter) {
+        this.collection = collection;
+        this.collectionName = collectionName;
+        this.location = location;
+        this.filter = filter;
+    }
+
+    public DiffCounts apply(InputStream in) throws IOException {
+        long documents = 0;
+        try (KWayMerge<MongoKey> backupDocuments = new KWayMerge<>(List.of(new MongoChangeSource(in, location, false)));
+             MongoCursor<Document> cursor = collection.find(filter != null ? filter : new Document())
+                     .sort(Sorts.ascending("_id")).batchSize(FETCH_SIZE).iterator()) {
+            ChangeRecord<MongoKey> backup = backupDocuments.next();
+            MongoKey lastKey = null;
+            while (cursor.hasNext()) {
+                Document document = cursor.next();
+                MongoKey key;
+                try {
+                    key = new MongoKey(document.get("_id"));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(collectionName + ": " + e.getMessage(), e);
+                }
+                if (lastKey != null && lastKey.compareTo(key) >= 0) {
+                    throw new IOException("Documents of " + collectionName + " did not come back in _id order at _id " + key + ".");
+                }
+                lastKey = key;
+
+                for (; backup != null && backup.key().compareTo(key) < 0; backup = backupDocuments.next()) {
+                    replace(backup);
+                    documents++;
+                }
+                if (backup != null && backup.key().compareTo(key) == 0) {
+                    if (!Arrays.equals(backup.row(), document.toJson().getBytes(StandardCharsets.UTF_8))) {
+                        replace(backup);
+                    }
+                    documents++;
+                    backup = backupDocuments.next();
+                } else {
+                    change(new DeleteOneModel<>(Filters.eq("_id", key.id())));
+                    deleted++;
+                }
+            }
+            for (; backup != null; backup = backupDocuments.next()) {
+                replace(backup);
+                documents++;
+            }
+            flush();
+        }
+        return new DiffCounts(documents, written, deleted);
+    }
+
+    private void replace(ChangeRecord<MongoKey> backup) {
+        Document document = Document.parse(new String(backup.row(), StandardCharsets.UTF_8));
+        change(new ReplaceOneModel<>(Filters.eq("_id", backup.key().id()), document, new ReplaceOptions().upsert(true)));
+        written++;
+    }
+
+    private void change(WriteModel<Document> change) {
+        changes.add(change);
+        if (changes.size() == BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (!changes.isEmpty()) {
+            collection.bulkWrite(changes, new BulkWriteOptions().ordered(false));
+            changes.clear();
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package org.example.diff;
+
+import org.example.codec.ColumnKind;
+import org.example.codec.RowBatch;
+import org.example.codec.RowEncoder;
+import org.example.codec.RowParser;
+import org.example.compact.ChangeRecord;
+import org.example.compact.KWayMerge;
+import org.example.compact.SqlChangeSource;
+import org.example.compact.SqlKey;
+import org.example.util.SqlDialect;
+import org.example.util.SqlSchemaUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Brings a live table, or one key range of it, in line with a backup file while writing only the rows that
+ * differ. The live rows are read in primary key order and encoded the way the backup encodes them, so one
+ * merge pass against the file finds the rows to write and the rows to delete; a row that already matches
+ * costs a read but no write. Tables without a primary key or with BLOB or CLOB columns cannot be compared
+ * row by row and have their range deleted and loaded again instead.
+ */
+public class SqlTableDiff {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int FETCH_SIZE = 10_000;
+    // PostgreSQL post-load statements moving a sequence past the loaded keys.
+    private static final String SEQUENCE_RESET = "SELECT setval(";
+
+    private final String tableName;
+    private final String location;
+    private final String filter;
+    private final Long lowerBound;
+    private final Long upperBound;
+
+    /**
+     * @param filter     the WHERE condition the backup was taken with, or null; live rows outside it are left alone
+     * @param lowerBound first key of the file's range for a part of a large table, or null
+     * @param upperBound key after the file's range for a part of a large table, or null
+     */
+    public SqlTableDiff(String tableName, String location, String filter, Long lowerBound, Long upperBound) {
+        this.tableName = tableName;
+        this.location = location;
+        this.filter = filter;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+    }
+
+    /** Reads the live rows over {@code reader} and writes the changes over {@code writer}, committing batch by batch. */
+    public DiffCounts apply(InputStream in, Connection reader, Connection writer) throws IOException, SQLException {
+        List<String> liveKey = SqlSchemaUtil.primaryKeyColumns(reader, tableName);
+        if (liveKey.isEmpty() || hasLargeColumns(reader)) {
+            System.out.println("\nTable " + tableName + (liveKey.isEmpty() ? " has no primary key" : " has BLOB or CLOB columns")
+                    + ", its rows are reloaded instead of compared.");
+            return reload(in, reader, writer, liveKey.isEmpty() ? null : liveKey.get(0));
+        }
+        SqlChangeSource file = new SqlChangeSource(in, location);
+        try (KWayMerge<SqlKey> backupRows = new KWayMerge<>(List.of(file))) {
+            if (file.isChangeFile()) {
+                throw new IOException(location + " only holds changes, it cannot be compared with the table.");
+            }
+            List<String> keyColumns = file.keyColumns();
+            if (!equalIgnoringCase(keyColumns, liveKey)) {
+                throw new IOException("The primary key of " + tableName + " differs from the backed up one, restore it without --diff.");
+            }
+            DiffCounts counts = merge(backupRows, file.columns(), keyColumns, reader, writer);
+            resetSequences(file.schemaLines(), writer);
+            return counts;
+        }
+    }
+
+    private DiffCounts merge(KWayMerge<SqlKey> backupRows, String columns, List<String> keyColumns, Connection reader,
+                             Connection writer) throws IOException, SQLException {
+        List<String> names = Arrays.asList(columns.split(","));
+        int[] keyFields = new int[keyColumns.size()];
+        for (int i = 0; i < keyFields.length; i++) {
+            keyFields[i] = indexOfIgnoringCase(names, keyColumns.get(i));
+        }
+        String query = "SELECT " + columns + " FROM " + tableName + where(keyColumns.get(0))
+                + SqlSchemaUtil.keyOrderBy(reader, tableName, keyColumns);
+        try (PreparedStatement statement = reader.prepareStatement(query)) {
+            statement.setFetchSize(SqlDialect.of(reader).streamingFetchSize(FETCH_SIZE));
+            try (ResultSet resultSet = statement.executeQuery();
+                 Changes changes = new Changes(writer, resultSet.getMetaData(), names, keyColumns, keyFields)) {
+                // Live rows go through the encoder on their own, so they compare byte for byte with the file's.
+                ByteArrayOutputStream rowBytes = new ByteArrayOutputStream();
+                RowEncoder rowEncoder = new RowEncoder(rowBytes);
+                rowEncoder.bind(resultSet.getMetaData());
+                RowParser liveRow = new RowParser(InputStream.nullInputStream());
+
+                long rows = 0;
+                ChangeRecord<SqlKey> backup = backupRows.next();
+                SqlKey lastKey = null;
+                while (resultSet.next()) {
+                    rowBytes.reset();
+                    rowEncoder.writeRow(resultSet);
+                    rowEncoder.flush();
+                    liveRow.load(rowBytes.toByteArray(), rowBytes.size());
+                    SqlKey key = SqlKey.of(liveRow, keyFields, 0);
+                    if (lastKey != null && lastKey.compareTo(key) >= 0) {
+                        throw new IOException("Rows of " + tableName + " did not come back in primary key order at key " + key + ".");
+                    }
+                    lastKey = key;
+
+                    for (; backup != null && backup.key().compareTo(key) < 0; backup = backupRows.next()) {
+                        changes.write(backup.row());
+                        rows++;
+                    }
+                    if (backup != null && backup.key().compareTo(key) == 0) {
+                        if (!Arrays.equals(backup.row(), liveRow.recordBytes(0))) {
+                            changes.write(backup.row());
+                        }
+                        rows++;
+                        backup = backupRows.next();
+                    } else {
+                        changes.delete(liveRow);
+                    }
+                }
+                for (; backup != null; backup = backupRows.next()) {
+                    changes.write(backup.row());
+                    rows++;
+                }
+                changes.flush();
+                return new DiffCounts(rows, changes.written, changes.deleted);
+            }
+        }
+    }
+
+    /** Deletes the live rows of the range and loads the file's rows in their place, in one transaction. */
+    private DiffCounts reload(InputStream in, Connection reader, Connection writer, String keyColumn) throws IOException, SQLException {
+        RowParser parser = new RowParser(in);
+        parser.setLargeValueMode(RowParser.LargeValueMode.SPILL);
+        List<String> schemaLines = new ArrayList<>();
+        String line = parser.readLine();
+        while (line != null && !line.startsWith("-- DATA")) {
+            schemaLines.add(line);
+            line = parser.readLine();
+        }
+        String header = line != null ? parser.readLine() : null;
+        if (header == null) {
+            throw new IOException(location + " has no data section.");
+        }
+        RowBatch batch;
+        try (Statement statement = reader.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT " + header + " FROM " + tableName + " WHERE 1 = 0")) {
+            batch = newBatch(resultSet.getMetaData());
+        }
+        long rows = 0;
+        long deleted;
+        String insert = "INSERT INTO " + tableName + " (" + header + ") VALUES ("
+                + String.join(",", Collections.nCopies(batch.columnCount(), "?")) + ")";
+        try (Statement delete = writer.createStatement();
+             PreparedStatement insertStatement = writer.prepareStatement(insert)) {
+            deleted = delete.executeUpdate("DELETE FROM " + tableName + where(keyColumn));
+            while (parser.nextRecord()) {
+                batch.add(parser);
+                rows++;
+                if (batch.isFull()) {
+                    execute(insertStatement, batch);
+                }
+            }
+            execute(insertStatement, batch);
+            writer.commit();
+        } catch (IOException | SQLException | RuntimeException e) {
+            writer.rollback();
+            throw e;
+        } finally {
+            batch.clear();
+        }
+        resetSequences(schemaLines, writer);
+        return new DiffCounts(rows, rows, deleted);
+    }
+
+    private static void execute(PreparedStatement statement, RowBatch batch) throws SQLException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            for (int row = 0; row < batch.size(); row++) {
+                batch.bind(statement, row);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /** Rows taken over from the backup may carry keys past the sequence the table draws new ones from. */
+    private static void resetSequences(List<String> schemaLines, Connection writer) throws SQLException {
+        boolean reset = false;
+        try (Statement statement = writer.createStatement()) {
+            for (String line : schemaLines) {
+                if (line.startsWith(SEQUENCE_RESET)) {
+                    statement.execute(line);
+                    reset = true;
+                }
+            }
+        }
+        if (reset) {
+            writer.commit();
+        }
+    }
+
+    private boolean hasLargeColumns(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT * FROM " + tableName + " WHERE 1 = 0")) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            for (int column = 1; column <= metaData.getColumnCount(); column++) {
+                if (ColumnKind.of(metaData, column).isLarge()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** The condition selecting the file's rows: the backup's filter and, for a part, its key range. */
+    private String where(String keyColumn) {
+        List<String> conditions = new ArrayList<>();
+        if (filter != null) {
+            conditions.add("(" + filter + ")");
+        }
+        if (keyColumn != null && lowerBound != null) {
+            conditions.add(keyColumn + " >= " + lowerBound);
+        }
+        if (keyColumn != null && upperBound != null) {
+            conditions.add(keyColumn + " < " + upperBound);
+        }
+        return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+    }
+
+    private static RowBatch newBatch(ResultSetMetaData metaData) throws SQLException {
+        ColumnKind[] kinds = new ColumnKind[metaData.getColumnCount()];
+        int[] sqlTypes = new int[kinds.length];
+        for (int i = 0; i < kinds.length; i++) {
+            kinds[i] = ColumnKind.of(metaData, i + 1);
+            sqlTypes[i] = metaData.getColumnType(i + 1);
+        }
+        return new RowBatch(kinds, sqlTypes, BATCH_SIZE);
+    }
+
+    private static boolean equalIgnoringCase(List<String> a, List<String> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.get(i).equalsIgnoreCase(b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOfIgnoringCase(List<String> names, String name) {
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No column " + name + " for the primary key.");
+    }
+
+    /**
+     * The pending writes and deletes of a merge. Each flush is one transaction; where the dialect has no
+     * upsert, a written row is deleted by key and inserted again.
+     */
+    private class Changes implements AutoCloseable {
+
+        private final Connection writer;
+        private final int[] keyFields;
+        private final RowBatch writes;
+        private final RowBatch deletes;
+        private final RowParser backupRow = new RowParser(InputStream.nullInputStream());
+        private final PreparedStatement writeStatement;
+        private final PreparedStatement deleteStatement;
+        private final boolean deleteBeforeInsert;
+        private long written;
+        private long deleted;
+
+        Changes(Connection writer, ResultSetMetaData metaData, List<String> columns, List<String> keyColumns, int[] keyFields)
+                throws SQLException {
+            this.writer = writer;
+            this.keyFields = keyFields;
+            this.writes = newBatch(metaData);
+            this.deletes = newBatch(metaData);
+            String upsert = SqlDialect.of(writer).upsertStatement(tableName, columns, keyColumns);
+            this.deleteBeforeInsert = upsert == null;
+            this.deleteStatement = writer.prepareStatement("DELETE FROM " + tableName + " WHERE "
+                    + String.join(" AND ", keyColumns.stream().map(column -> column + " = ?").toList()));
+            this.writeStatement = writer.prepareStatement(upsert != null ? upsert : "INSERT INTO " + tableName + " ("
+                    + String.join(",", columns) + ") VALUES (" + String.join(",", Collections.nCopies(columns.size(), "?")) + ")");
+        }
+
+        void write(byte[] row) throws SQLException {
+            backupRow.load(row, row.length);
+            writes.add(backupRow);
+            if (writes.isFull()) {
+                flush();
+            }
+        }
+
+        void delete(RowParser liveRow) throws SQLException {
+            deletes.add(liveRow);
+            if (deletes.isFull()) {
+                flush();
+            }
+        }
+
+        void flush() throws SQLException {
+            if (writes.isEmpty() && deletes.isEmpty()) {
+                return;
+            }
+            try {
+                deleteKeys(deletes);
+                if (!writes.isEmpty()) {
+                    if (deleteBeforeInsert) {
+                        deleteKeys(writes);
+                    }
+                    for (int row = 0; row < writes.size(); row++) {
+                        writes.bind(writeStatement, row);
+                        writeStatement.addBatch();
+                    }
+                    writeStatement.executeBatch();
+                }
+                writer.commit();
+            } catch (SQLException e) {
+                writer.rollback();
+                System.err.println("Error writing the changes of " + tableName + ": " + e.getMessage());
+                throw e;
+            }
+            written += writes.size();
+            deleted += deletes.size();
+            writes.clear();
+            deletes.clear();
+        }
+
+        private void deleteKeys(RowBatch rows) throws SQLException {
+            if (rows.isEmpty()) {
+                return;
+            }
+            for (int row = 0; row < rows.size(); row++) {
+                rows.bind(deleteStatement, row, keyFields);
+                deleteStatement.addBatch();
+            }
+            deleteStatement.executeBatch();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            writes.clear();
+            deletes.clear();
+            try (deleteStatement) {
+                writeStatement.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.example.entities;
+
+import org.example.builders.BackupOptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class BackupOptions {
+
+    public static final int DEFAULT_WORKERS = 4;
+    public static final String ALL_ENTITIES = "*";
+    public static final long DEFAULT_PART_MEGABYTES = 1024;
+
+    private int workers = DEFAULT_WORKERS;
+    private double maxMegabytesPerSecond;
+    private long maxRowsPerSecond;
+    private long latencyTargetMillis;
+    private String resumeFolder;
+    private String baseFolder;
+    private long partMegabytes = DEFAULT_PART_MEGABYTES;
+    private boolean planOnly;
+    private boolean sorted;
+    private Map<String, String> filters = new HashMap<>();
+    private Map<String, String> projections = new HashMap<>();
+
+    public static BackupOptionsBuilder builder() {
+        return new BackupOptionsBuilder();
+    }
+
+    public static BackupOptions defaults() {
+        return new BackupOptions();
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public double getMaxMegabytesPerSecond() {
+        return maxMegabytesPerSecond;
+    }
+
+    public void setMaxMegabytesPerSecond(double maxMegabytesPerSecond) {
+        this.maxMegabytesPerSecond = maxMegabytesPerSecond;
+    }
+
+    public long getMaxRowsPerSecond() {
+        return maxRowsPerSecond;
+    }
+
+    public void setMaxRowsPerSecond(long maxRowsPerSecond) {
+        this.maxRowsPerSecond = maxRowsPerSecond;
+    }
+
+    public long getLatencyTargetMillis() {
+        return latencyTargetMillis;
+    }
+
+    public void setLatencyTargetMillis(long latencyTargetMillis) {
+        this.latencyTargetMillis = latencyTargetMillis;
+    }
+
+    public String getResumeFolder() {
+        return resumeFolder;
+    }
+
+    public void setResumeFolder(String resumeFolder) {
+        this.resumeFolder = resumeFolder;
+    }
+
+    public String getBaseFolder() {
+        return baseFolder;
+    }
+
+    public void setBaseFolder(String baseFolder) {
+        this.baseFolder = baseFolder;
+    }
+
+    public long getPartMegabytes() {
+        return partMegabytes;
+    }
+
+    public void setPartMegabytes(long partMegabytes) {
+        this.partMegabytes = partMegabytes;
+    }
+
+    public boolean isPlanOnly() {
+        return planOnly;
+    }
+
+    public void setPlanOnly(boolean planOnly) {
+        this.planOnly = planOnly;
+    }
+
+    /** Whether a full backup is written in key order, so it can serve as the base of incremental backups. */
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    public void setSorted(boolean sorted) {
+        this.sorted = sorted;
+    }
+
+    public Map<String, String> getFilters() {
+        return filters;
+    }
+
+    public void setFilters(Map<String, String> filters) {
+        this.filters = filters;
+    }
+
+    public Map<String, String> getProjections() {
+        return projections;
+    }
+
+    public void setProjections(Map<String, String> projections) {
+        this.projections = projections;
+    }
+
+    /** The filter and projection for an entity; entity-specific ones take precedence over those for all entities. */
+    public EntitySelection getSelection(String entity) {
+        return new EntitySelection(filters.getOrDefault(entity, filters.get(ALL_ENTITIES)),
+                projections.getOrDefault(entity, projections.get(ALL_ENTITIES)));
+    }
+}
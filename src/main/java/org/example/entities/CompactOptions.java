@@ -0,0 +1,44 @@
+package org.example.entities;
+
+import org.example.builders.CompactOptionsBuilder;
+
+public class CompactOptions {
+
+    public static final int DEFAULT_WORKERS = 4;
+
+    private int workers = DEFAULT_WORKERS;
+    private double maxMegabytesPerSecond;
+    private int keepFullBackups;
+
+    public static CompactOptionsBuilder builder() {
+        return new CompactOptionsBuilder();
+    }
+
+    public static CompactOptions defaults() {
+        return new CompactOptions();
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public double getMaxMegabytesPerSecond() {
+        return maxMegabytesPerSecond;
+    }
+
+    public void setMaxMegabytesPerSecond(double maxMegabytesPerSecond) {
+        this.maxMegabytesPerSecond = maxMegabytesPerSecond;
+    }
+
+    public int getKeepFullBackups() {
+        return keepFullBackups;
+    }
+
+    public void setKeepFullBackups(int keepFullBackups) {
+        this.keepFullBackups = keepFullBackups;
+    }
+}
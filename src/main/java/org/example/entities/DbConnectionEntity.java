@@ -2,6 +2,8 @@ package org.example.entities;
 
 import org.example.builders.DbBuilder;
 
+import java.util.Objects;
+
 public class DbConnectionEntity {
 
     private String dbType;
@@ -56,4 +58,22 @@ public class DbConnectionEntity {
     public void setPassword(String password) {
         this.password = password;
     }
+
+    // Connection pools are keyed by the connection parameters.
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DbConnectionEntity that)) {
+            return false;
+        }
+        return Objects.equals(dbType, that.dbType) && Objects.equals(url, that.url) && Objects.equals(user, that.user)
+                && Objects.equals(password, that.password) && Objects.equals(dbName, that.dbName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(dbType, url, user, password, dbName);
+    }
 }
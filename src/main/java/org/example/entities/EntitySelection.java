@@ -0,0 +1,14 @@
+package org.example.entities;
+
+/**
+ * What to export from one table or collection: a SQL WHERE condition and column list, or a MongoDB
+ * filter and projection document. Null parts select everything.
+ */
+public record EntitySelection(String filter, String projection) {
+
+    public static final EntitySelection ALL = new EntitySelection(null, null);
+
+    public boolean isEmpty() {
+        return filter == null && projection == null;
+    }
+}
@@ -0,0 +1,6 @@
+package org.example.entities;
+
+import java.util.List;
+
+public record ManifestEntry(String entity, String fileName, long bytes, long checksum, long rows, List<Long> blockChecksums) {
+}
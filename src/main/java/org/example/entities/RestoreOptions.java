@@ -0,0 +1,55 @@
+package org.example.entities;
+
+import org.example.builders.RestoreOptionsBuilder;
+
+public class RestoreOptions {
+
+    public static final int DEFAULT_WORKERS = 4;
+
+    private int workers = DEFAULT_WORKERS;
+    private boolean resume;
+    private boolean shadow;
+    private boolean diff;
+
+    public static RestoreOptionsBuilder builder() {
+        return new RestoreOptionsBuilder();
+    }
+
+    public static RestoreOptions defaults() {
+        return new RestoreOptions();
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /** Load into shadow tables or collections and swap them in at the end, so the live ones stay readable. */
+    public boolean isShadow() {
+        return shadow;
+    }
+
+    public void setShadow(boolean shadow) {
+        this.shadow = shadow;
+    }
+
+    /** Compare with the live tables or collections and write only the rows that differ from the backup. */
+    public boolean isDiff() {
+        return diff;
+    }
+
+    public void setDiff(boolean diff) {
+        this.diff = diff;
+    }
+}
@@ -0,0 +1,9 @@
+package org.example.entities;
+
+import java.util.List;
+
+public record TableSchema(String tableName,
+                          String createStatement,
+                          List<String> postLoadStatements,
+                          List<String> foreignKeyStatements) {
+}
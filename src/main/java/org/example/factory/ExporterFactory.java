@@ -4,6 +4,7 @@ import org.example.entities.DbConnectionEntity;
 import org.example.service.DatabaseExporter;
 import org.example.service.impl.MongoDatabaseExporter;
 import org.example.service.impl.SqlDatabaseExporter;
+import org.example.storage.BackupStorage;
 
 public class ExporterFactory {
 
@@ -11,13 +12,17 @@ public class ExporterFactory {
     }
 
     public static DatabaseExporter createExporter(DbConnectionEntity dbConnectionEntity) {
+        return createExporter(dbConnectionEntity, StorageFactory.getStorage());
+    }
+
+    public static DatabaseExporter createExporter(DbConnectionEntity dbConnectionEntity, BackupStorage storage) {
         if ("SQL".equalsIgnoreCase(dbConnectionEntity.getDbType())) {
-            return new SqlDatabaseExporter(dbConnectionEntity.getUrl(), dbConnectionEntity.getUser(), dbConnectionEntity.getPassword());
+            return new SqlDatabaseExporter(dbConnectionEntity, storage);
         }
 
 
         if ("MONGO".equalsIgnoreCase(dbConnectionEntity.getDbType())) {
-            return new MongoDatabaseExporter(dbConnectionEntity.getUrl(), dbConnectionEntity.getDbName());
+            return new MongoDatabaseExporter(dbConnectionEntity, storage);
         }
         throw new UnsupportedOperationException("Unsupported database...");
     }
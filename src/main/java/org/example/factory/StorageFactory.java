@@ -0,0 +1,105 @@
+package org.example.factory;
+
+import org.example.archive.ContainerArchiveStorage;
+import org.example.storage.BackupStorage;
+import org.example.storage.LocalBackupStorage;
+import org.example.storage.S3BackupStorage;
+import org.example.storage.S3Settings;
+
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds the backup storage from the {@code backup.storage} system property or the
+ * {@code BACKUP_STORAGE} environment variable, e.g. {@code /mnt/backups} or
+ * {@code s3://bucket/prefix?endpoint=http://localhost:9000&region=us-east-1}. Without either,
+ * backups go to {@code ~/backups}. S3 credentials come from the usual AWS_* variables.
+ */
+public class StorageFactory {
+
+    private static final int DEFAULT_PART_SIZE_MB = 8;
+    private static final int DEFAULT_CONCURRENCY = 4;
+
+    private static BackupStorage storage;
+
+    private StorageFactory() {
+    }
+
+    public static synchronized BackupStorage getStorage() {
+        if (storage == null) {
+            String location = System.getProperty("backup.storage", System.getenv("BACKUP_STORAGE"));
+            storage = createStorage(location);
+        }
+        return storage;
+    }
+
+    /**
+     * Storage to read the backup at {@code backupPath} from. A {@code .dbk} container is mounted at its own
+     * path, so it can be listed and opened like a backup folder.
+     */
+    public static BackupStorage getStorage(String backupPath) {
+        return getStorage(getStorage(), backupPath);
+    }
+
+    public static BackupStorage getStorage(BackupStorage storage, String backupPath) {
+        if (backupPath.endsWith(ContainerArchiveStorage.SUFFIX)) {
+            return new ContainerArchiveStorage(storage, backupPath);
+        }
+        return storage;
+    }
+
+    public static BackupStorage createStorage(String location) {
+        if (location == null || location.isBlank()) {
+            return new LocalBackupStorage(Path.of(System.getProperty("user.home"), "backups"));
+        }
+        if (location.startsWith("s3://")) {
+            return new S3BackupStorage(s3Settings(URI.create(location)));
+        }
+        if (location.startsWith("file:")) {
+            return new LocalBackupStorage(Path.of(URI.create(location)));
+        }
+        return new LocalBackupStorage(Path.of(location));
+    }
+
+    private static S3Settings s3Settings(URI location) {
+        Map<String, String> parameters = queryParameters(location.getRawQuery());
+        String region = parameters.getOrDefault("region", envOrDefault("AWS_REGION", "us-east-1"));
+        String endpoint = parameters.getOrDefault("endpoint", "https://s3." + region + ".amazonaws.com");
+        String accessKey = System.getenv("AWS_ACCESS_KEY_ID");
+        String secretKey = System.getenv("AWS_SECRET_ACCESS_KEY");
+        if (accessKey == null || secretKey == null) {
+            throw new IllegalArgumentException("AWS_ACCESS_KEY_ID and AWS_SECRET_ACCESS_KEY must be set for S3 storage.");
+        }
+        String prefix = location.getPath() == null ? "" : location.getPath().replaceAll("^/+|/+$", "");
+        int partSize = Integer.parseInt(parameters.getOrDefault("partSizeMb", String.valueOf(DEFAULT_PART_SIZE_MB))) * 1024 * 1024;
+        int concurrency = Integer.parseInt(parameters.getOrDefault("concurrency", String.valueOf(DEFAULT_CONCURRENCY)));
+        if (partSize < 5 * 1024 * 1024 || concurrency < 1) {
+            throw new IllegalArgumentException("S3 part size must be at least 5 MB and concurrency at least 1.");
+        }
+        return new S3Settings(URI.create(endpoint), region, location.getAuthority(), prefix,
+                accessKey, secretKey, System.getenv("AWS_SESSION_TOKEN"), partSize, concurrency);
+    }
+
+    private static Map<String, String> queryParameters(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int separator = parameter.indexOf('=');
+                if (separator > 0) {
+                    parameters.put(parameter.substring(0, separator),
+                            URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private static String envOrDefault(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? value : defaultValue;
+    }
+}
@@ -0,0 +1,284 @@
+package org.example.manifest;
+
+import org.example.entities.EntitySelection;
+import org.example.entities.ManifestEntry;
+import org.example.storage.BackupStorage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal kept next to the backup files. Every finished file is recorded with its
+ * size, CRC32C and row count, which lets an interrupted backup resume and lets restores check
+ * that they are reading what was written.
+ */
+public class BackupManifest {
+
+    public static final String FILE_NAME = "manifest.txt";
+    public static final int BLOCK_SIZE = 4 * 1024 * 1024;
+
+    private static final String NO_KEY = "-";
+    private static final String NO_VALUE = "-";
+
+    private final BackupStorage storage;
+    private final String path;
+    private final Map<String, ManifestEntry> entries = new LinkedHashMap<>();
+    private final Map<String, EntitySelection> selections = new LinkedHashMap<>();
+    private final Map<String, List<Long>> splits = new LinkedHashMap<>();
+    private String keyCheck;
+    private String base;
+    private boolean sorted;
+    private boolean complete;
+
+    private BackupManifest(BackupStorage storage, String path) {
+        this.storage = storage;
+        this.path = path;
+    }
+
+    public static BackupManifest open(BackupStorage storage, String folder) throws IOException {
+        BackupManifest manifest = new BackupManifest(storage, BackupStorage.join(folder, FILE_NAME));
+        if (storage.exists(manifest.path)) {
+            manifest.load();
+        }
+        return manifest;
+    }
+
+    public static boolean exists(BackupStorage storage, String folder) throws IOException {
+        return storage.exists(BackupStorage.join(folder, FILE_NAME));
+    }
+
+    /** Read-only view of a manifest received as bytes, e.g. from a streamed archive. */
+    public static BackupManifest parse(byte[] content) {
+        BackupManifest manifest = new BackupManifest(null, FILE_NAME);
+        manifest.load(new String(content, StandardCharsets.UTF_8).lines().toList());
+        return manifest;
+    }
+
+    private void load() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(storage.open(path), StandardCharsets.UTF_8))) {
+            load(reader.lines().toList());
+        }
+    }
+
+    private void load(List<String> lines) {
+        for (String line : lines) {
+            String[] parts = line.split("\t");
+            switch (parts[0]) {
+                case "KEY" -> keyCheck = parts.length > 1 ? parts[1] : NO_KEY;
+                case "BASE" -> base = parts.length > 1 ? parts[1] : null;
+                case "SORTED" -> sorted = true;
+                case "PARTS" -> {
+                    if (parts.length == 3) {
+                        splits.put(parts[1], parts[2].equals(NO_VALUE) ? List.of()
+                                : Arrays.stream(parts[2].split(",")).map(Long::valueOf).toList());
+                    }
+                }
+                case "FILTER" -> {
+                    if (parts.length == 4) {
+                        selections.put(parts[1], new EntitySelection(value(parts[2]), value(parts[3])));
+                    }
+                }
+                case "FILE" -> {
+                    ManifestEntry entry = parseEntry(parts);
+                    if (entry != null) {
+                        entries.put(entry.fileName(), entry);
+                    }
+                }
+                case "COMPLETE" -> complete = true;
+                default -> {
+                }
+            }
+        }
+    }
+
+    private static ManifestEntry parseEntry(String[] parts) {
+        if (parts.length != 6 && parts.length != 7) {
+            return null;
+        }
+        try {
+            List<Long> blockChecksums = new ArrayList<>();
+            if (parts.length == 7 && !parts[6].isEmpty()) {
+                for (String blockChecksum : parts[6].split(",")) {
+                    blockChecksums.add(Long.parseLong(blockChecksum, 16));
+                }
+            }
+            return new ManifestEntry(parts[1], parts[2], Long.parseLong(parts[3]),
+                    Long.parseLong(parts[4], 16), Long.parseLong(parts[5]), blockChecksums);
+        } catch (NumberFormatException e) {
+            // A torn last line from a crash mid-append; the file is simply redone.
+            return null;
+        }
+    }
+
+    public synchronized void bindKey(String key) throws IOException {
+        String check = keyCheck(key);
+        if (keyCheck == null) {
+            keyCheck = check;
+            append("KEY\t" + check);
+        } else if (!keyCheck.equals(check)) {
+            throw new IllegalArgumentException("The backup being resumed was written with a different key.");
+        }
+    }
+
+    public synchronized boolean matchesKey(String key) {
+        return keyCheck == null || keyCheck.equals(keyCheck(key));
+    }
+
+    /** Records the backup this one holds the changes against; a backup without a base is a full one. */
+    public synchronized void bindBase(String baseFolder) throws IOException {
+        if (base == null) {
+            base = baseFolder;
+            append("BASE\t" + baseFolder);
+        } else if (!base.equals(baseFolder)) {
+            throw new IllegalArgumentException("The backup being resumed was taken against base " + base + ".");
+        }
+    }
+
+    public synchronized String getBase() {
+        return base;
+    }
+
+    /** Records that every file lists its rows in primary key or {@code _id} order, so it can be merged. */
+    public synchronized void markSorted() throws IOException {
+        if (!sorted) {
+            sorted = true;
+            append("SORTED");
+        }
+    }
+
+    public synchronized boolean isSorted() {
+        return sorted;
+    }
+
+    /** Records the filter and projection an entity was exported with; entities exported in full have no line. */
+    public synchronized void bindSelection(String entity, EntitySelection selection) throws IOException {
+        if (!selections.containsKey(entity) && !selection.isEmpty()) {
+            EntitySelection written = new EntitySelection(field(selection.filter()), field(selection.projection()));
+            selections.put(entity, new EntitySelection(value(written.filter()), value(written.projection())));
+            append("FILTER\t" + entity + "\t" + written.filter() + "\t" + written.projection());
+        } else if (!matchesSelection(entity, selection)) {
+            throw new IllegalArgumentException("The backup being resumed exported " + entity + " with a different filter or projection.");
+        }
+    }
+
+    public synchronized boolean matchesSelection(String entity, EntitySelection selection) {
+        EntitySelection recorded = getSelection(entity);
+        return field(recorded.filter()).equals(field(selection.filter()))
+                && field(recorded.projection()).equals(field(selection.projection()));
+    }
+
+    /**
+     * Pins the key values at which a table is split into parts, so a resumed backup cuts the table exactly as
+     * the interrupted run did. Returns the recorded splits if there are any, otherwise records and returns
+     * {@code proposed}.
+     */
+    public synchronized List<Long> bindSplits(String table, List<Long> proposed) throws IOException {
+        List<Long> recorded = splits.get(table);
+        if (recorded != null) {
+            return recorded;
+        }
+        splits.put(table, proposed);
+        append("PARTS\t" + table + "\t" + (proposed.isEmpty() ? NO_VALUE
+                : proposed.stream().map(String::valueOf).collect(Collectors.joining(","))));
+        return proposed;
+    }
+
+    /** The key values a table was cut into parts at, or null if none were recorded. */
+    public synchronized List<Long> getSplits(String table) {
+        return splits.get(table);
+    }
+
+    public synchronized EntitySelection getSelection(String entity) {
+        return selections.getOrDefault(entity, EntitySelection.ALL);
+    }
+
+    public synchronized void record(ManifestEntry entry) throws IOException {
+        entries.put(entry.fileName(), entry);
+        StringBuilder line = new StringBuilder("FILE\t").append(entry.entity()).append('\t').append(entry.fileName())
+                .append('\t').append(entry.bytes()).append('\t').append(Long.toHexString(entry.checksum()))
+                .append('\t').append(entry.rows()).append('\t');
+        for (int i = 0; i < entry.blockChecksums().size(); i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append(Long.toHexString(entry.blockChecksums().get(i)));
+        }
+        append(line.toString());
+    }
+
+    public synchronized void markComplete() throws IOException {
+        complete = true;
+        append("COMPLETE");
+    }
+
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    public synchronized ManifestEntry get(String fileName) {
+        return entries.get(fileName);
+    }
+
+    public synchronized List<ManifestEntry> entries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    public boolean isVerified(String fileName) throws IOException {
+        ManifestEntry entry = get(fileName);
+        String file = path.substring(0, path.length() - FILE_NAME.length()) + fileName;
+        if (entry == null || !storage.exists(file) || storage.size(file) != entry.bytes()) {
+            return false;
+        }
+        try (InputStream in = storage.open(file)) {
+            return checksum(in) == entry.checksum();
+        }
+    }
+
+    public static long checksum(InputStream in) throws IOException {
+        CRC32C checksum = new CRC32C();
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            checksum.update(buffer, 0, read);
+        }
+        return checksum.getValue();
+    }
+
+    // Filters are kept on one tab-separated line; tabs and line breaks are whitespace in SQL and JSON alike.
+    private static String field(String value) {
+        return value == null ? NO_VALUE : value.replaceAll("[\t\r\n]", " ");
+    }
+
+    private static String value(String field) {
+        return field.equals(NO_VALUE) ? null : field;
+    }
+
+    private void append(String line) throws IOException {
+        storage.append(path, (line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String keyCheck(String key) {
+        if (key == null) {
+            return NO_KEY;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.example.manifest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Read-side counterpart of {@link ChecksumOutputStream}: checksums the raw file bytes as they are
+ * consumed, so a verifier can check the manifest and decode the rows in a single pass.
+ */
+public class ChecksumInputStream extends FilterInputStream {
+
+    private final CRC32C checksum = new CRC32C();
+    private final CRC32C blockChecksum = new CRC32C();
+    private final List<Long> blockChecksums = new ArrayList<>();
+    private long count;
+    private int blockFill;
+
+    public ChecksumInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) {
+            update(new byte[]{(byte) b}, 0, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = in.read(b, off, len);
+        if (read > 0) {
+            update(b, off, read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        int read;
+        while (skipped < n && (read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped))) != -1) {
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    public void drain() throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        while (read(buffer, 0, buffer.length) != -1) {
+            // only the checksum is needed
+        }
+    }
+
+    private void update(byte[] b, int off, int len) {
+        checksum.update(b, off, len);
+        count += len;
+        while (len > 0) {
+            int n = Math.min(len, BackupManifest.BLOCK_SIZE - blockFill);
+            blockChecksum.update(b, off, n);
+            blockFill += n;
+            off += n;
+            len -= n;
+            if (blockFill == BackupManifest.BLOCK_SIZE) {
+                blockChecksums.add(blockChecksum.getValue());
+                blockChecksum.reset();
+                blockFill = 0;
+            }
+        }
+    }
+
+    public long getChecksum() {
+        return checksum.getValue();
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public List<Long> getBlockChecksums() {
+        List<Long> checksums = new ArrayList<>(blockChecksums);
+        if (blockFill > 0) {
+            checksums.add(blockChecksum.getValue());
+        }
+        return checksums;
+    }
+}
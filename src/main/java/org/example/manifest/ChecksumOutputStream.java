@@ -0,0 +1,76 @@
+package org.example.manifest;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Computes the CRC32C and size of everything written to the underlying file, plus one CRC32C per
+ * {@link BackupManifest#BLOCK_SIZE} block, so the manifest entry is ready as soon as the file is
+ * closed without reading it back.
+ */
+public class ChecksumOutputStream extends FilterOutputStream {
+
+    private final CRC32C checksum = new CRC32C();
+    private final CRC32C blockChecksum = new CRC32C();
+    private final List<Long> blockChecksums = new ArrayList<>();
+    private long count;
+    private int blockFill;
+
+    public ChecksumOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        checksum.update(b);
+        count++;
+        blockChecksum.update(b);
+        if (++blockFill == BackupManifest.BLOCK_SIZE) {
+            finishBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        checksum.update(b, off, len);
+        count += len;
+        while (len > 0) {
+            int n = Math.min(len, BackupManifest.BLOCK_SIZE - blockFill);
+            blockChecksum.update(b, off, n);
+            blockFill += n;
+            off += n;
+            len -= n;
+            if (blockFill == BackupManifest.BLOCK_SIZE) {
+                finishBlock();
+            }
+        }
+    }
+
+    private void finishBlock() {
+        blockChecksums.add(blockChecksum.getValue());
+        blockChecksum.reset();
+        blockFill = 0;
+    }
+
+    public long getChecksum() {
+        return checksum.getValue();
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public List<Long> getBlockChecksums() {
+        List<Long> checksums = new ArrayList<>(blockChecksums);
+        if (blockFill > 0) {
+            checksums.add(blockChecksum.getValue());
+        }
+        return checksums;
+    }
+}
@@ -0,0 +1,254 @@
+package org.example.memory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The I/O buffers of every backup, restore, verify and compaction stream in the JVM: compression and
+ * stream buffers and S3 upload parts. Buffers are reused between streams and together never exceed one
+ * memory budget, so memory no longer grows with the number of tables processed at once. A stream that
+ * needs a buffer while the budget is used up waits until another stream returns one.
+ * <p>
+ * The budget is taken from the {@code backup.memoryMb} system property or the {@code BACKUP_MEMORY_MB}
+ * environment variable and defaults to a quarter of the maximum heap.
+ */
+public class BufferPool {
+
+    private static final BufferPool instance = new BufferPool(defaultCeiling());
+
+    // Streams hold their buffers while they wait for the next one, so a wait during which no buffer at all
+    // comes back means every holder is waiting too.
+    private static final long STALL_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final Map<Integer, Deque<byte[]>> free = new HashMap<>();
+    private final List<Usage> windows = new ArrayList<>();
+    private long ceiling;
+    private long allocated;
+    private long inUse;
+    private long lastRelease = System.nanoTime();
+
+    BufferPool(long ceiling) {
+        this.ceiling = ceiling;
+    }
+
+    public static BufferPool getInstance() {
+        return instance;
+    }
+
+    private static long defaultCeiling() {
+        String megabytes = System.getProperty("backup.memoryMb", System.getenv("BACKUP_MEMORY_MB"));
+        if (megabytes != null && !megabytes.isBlank()) {
+            try {
+                long value = Long.parseLong(megabytes.trim());
+                if (value > 0) {
+                    return value * 1024 * 1024;
+                }
+            } catch (NumberFormatException e) {
+                // fall through to the default
+            }
+            System.err.println("Ignoring invalid memory budget: " + megabytes);
+        }
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /**
+     * Takes a buffer of exactly {@code size} bytes, waiting while the budget is used up. Fails if no buffer is
+     * returned to the pool for several minutes while it waits, rather than waiting on streams that wait as well.
+     */
+    public synchronized byte[] acquire(int size) throws IOException {
+        if (size > ceiling) {
+            throw new IllegalArgumentException("A buffer of " + megabytes(size) + " does not fit the memory budget of "
+                    + megabytes(ceiling) + ", raise backup.memoryMb.");
+        }
+        long waitStart = 0;
+        while (true) {
+            Deque<byte[]> buffers = free.get(size);
+            byte[] buffer = buffers != null ? buffers.pollFirst() : null;
+            if (buffer == null && (allocated + size <= ceiling || evict(size))) {
+                allocated += size;
+                buffer = new byte[size];
+            }
+            if (buffer != null) {
+                if (waitStart != 0) {
+                    recordWait(System.nanoTime() - waitStart);
+                }
+                record(inUse + size);
+                return buffer;
+            }
+            long now = System.nanoTime();
+            if (waitStart == 0) {
+                waitStart = now;
+            }
+            long stalledFor = now - Math.max(waitStart, lastRelease);
+            if (stalledFor >= STALL_TIMEOUT_NANOS) {
+                throw new IOException("No buffer came back to the pool for " + TimeUnit.NANOSECONDS.toMinutes(stalledFor)
+                        + " minutes, the memory budget of " + megabytes(ceiling) + " is too small for this many streams."
+                        + " Raise backup.memoryMb or lower --workers.");
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, STALL_TIMEOUT_NANOS - stalledFor);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a buffer");
+            }
+        }
+    }
+
+    /**
+     * Rejects work whose streams could deadlock: each stream takes its buffers one at a time and holds them while
+     * it waits for the next, so {@code streams} streams of {@code bytesPerStream} each have to fit the budget at once.
+     */
+    public synchronized void checkFits(int streams, long bytesPerStream) {
+        long needed = streams * bytesPerStream;
+        if (needed > ceiling) {
+            throw new IllegalArgumentException(streams + " streams of " + megabytes(bytesPerStream) + " each need " + megabytes(needed)
+                    + ", more than the memory budget of " + megabytes(ceiling) + ". Raise backup.memoryMb or lower --workers.");
+        }
+    }
+
+    /** Gives a buffer from {@link #acquire} back; it must not be used afterwards. */
+    public synchronized void release(byte[] buffer) {
+        record(inUse - buffer.length);
+        lastRelease = System.nanoTime();
+        if (allocated > ceiling) {
+            // The budget was lowered while the buffer was out.
+            allocated -= buffer.length;
+        } else {
+            free.computeIfAbsent(buffer.length, size -> new ArrayDeque<>()).addFirst(buffer);
+        }
+        notifyAll();
+    }
+
+    /** Drops idle buffers of other sizes until {@code size} more bytes fit, if they can. */
+    private boolean evict(int size) {
+        long idle = allocated - inUse;
+        if (inUse + size > ceiling || idle == 0) {
+            return false;
+        }
+        Iterator<Map.Entry<Integer, Deque<byte[]>>> entries = free.entrySet().iterator();
+        while (allocated + size > ceiling && entries.hasNext()) {
+            Deque<byte[]> buffers = entries.next().getValue();
+            while (allocated + size > ceiling && !buffers.isEmpty()) {
+                allocated -= buffers.pollFirst().length;
+            }
+            if (buffers.isEmpty()) {
+                entries.remove();
+            }
+        }
+        return allocated + size <= ceiling;
+    }
+
+    public synchronized void setCeiling(long ceiling) {
+        if (ceiling <= 0) {
+            throw new IllegalArgumentException("The memory budget must be positive.");
+        }
+        this.ceiling = ceiling;
+        evict(0);
+        lastRelease = System.nanoTime();
+        notifyAll();
+    }
+
+    public synchronized long getCeiling() {
+        return ceiling;
+    }
+
+    public synchronized long getInUse() {
+        return inUse;
+    }
+
+    /** Starts recording the pool's usage; {@link Usage#close()} stops it. Windows of concurrent commands may overlap. */
+    public synchronized Usage track() {
+        Usage usage = new Usage(System.nanoTime(), inUse);
+        windows.add(usage);
+        return usage;
+    }
+
+    private void record(long newInUse) {
+        long now = System.nanoTime();
+        for (Usage usage : windows) {
+            usage.advance(now, inUse, newInUse);
+        }
+        inUse = newInUse;
+    }
+
+    private void recordWait(long nanos) {
+        for (Usage usage : windows) {
+            usage.waits++;
+            usage.waitNanos += nanos;
+        }
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    /** Peak and time-weighted average of the pool's usage over one command, and how often streams had to wait. */
+    public class Usage implements AutoCloseable {
+
+        private final long start;
+        private long last;
+        private double byteNanos;
+        private long peak;
+        private long waits;
+        private long waitNanos;
+        private long end;
+
+        private Usage(long start, long inUse) {
+            this.start = start;
+            this.last = start;
+            this.peak = inUse;
+        }
+
+        private void advance(long now, long before, long after) {
+            byteNanos += (double) before * (now - last);
+            last = now;
+            peak = Math.max(peak, after);
+        }
+
+        public long getPeak() {
+            synchronized (BufferPool.this) {
+                return peak;
+            }
+        }
+
+        public long getAverage() {
+            synchronized (BufferPool.this) {
+                long now = end != 0 ? end : System.nanoTime();
+                double total = byteNanos + (end != 0 ? 0 : (double) inUse * (now - last));
+                return now > start ? (long) (total / (now - start)) : inUse;
+            }
+        }
+
+        public long getWaits() {
+            synchronized (BufferPool.this) {
+                return waits;
+            }
+        }
+
+        public String summary() {
+            synchronized (BufferPool.this) {
+                String line = "Buffer memory: peak " + megabytes(peak) + ", average " + megabytes(getAverage())
+                        + " of a " + megabytes(ceiling) + " budget";
+                return waits == 0 ? line + "." : line + String.format(", %d wait(s) for buffers totalling %.1f s.", waits, waitNanos / 1e9);
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (BufferPool.this) {
+                if (end == 0 && windows.remove(this)) {
+                    end = System.nanoTime();
+                    advance(end, inUse, inUse);
+                }
+            }
+        }
+    }
+}
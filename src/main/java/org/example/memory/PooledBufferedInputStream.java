@@ -0,0 +1,100 @@
+package org.example.memory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** A BufferedInputStream, without mark support, whose buffer comes from the {@link BufferPool} and goes back to it on close. */
+public class PooledBufferedInputStream extends FilterInputStream {
+
+    private byte[] buffer;
+    private int position;
+    private int limit;
+
+    public PooledBufferedInputStream(InputStream in, int size) throws IOException {
+        super(in);
+        this.buffer = BufferPool.getInstance().acquire(size);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        if (position == limit && len >= buffer.length) {
+            // Large reads bypass the buffer, as with BufferedInputStream.
+            return in.read(b, off, len);
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        if (n <= 0) {
+            return 0;
+        }
+        if (position < limit) {
+            int skipped = (int) Math.min(n, limit - position);
+            position += skipped;
+            return skipped;
+        }
+        return in.skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return (limit - position) + in.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            in.close();
+        } finally {
+            BufferPool.getInstance().release(buffer);
+            buffer = null;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        ensureOpen();
+        if (position < limit) {
+            return true;
+        }
+        int n = in.read(buffer, 0, buffer.length);
+        position = 0;
+        limit = Math.max(n, 0);
+        return n > 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
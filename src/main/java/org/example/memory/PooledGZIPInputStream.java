@@ -0,0 +1,38 @@
+package org.example.memory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/** A GZIPInputStream that reads compressed data into a buffer from the {@link BufferPool}. */
+public class PooledGZIPInputStream extends GZIPInputStream {
+
+    // The superclass insists on allocating a buffer of its own, which is swapped for a pooled one.
+    private static final int PLACEHOLDER_SIZE = 1;
+
+    private byte[] pooled;
+
+    public PooledGZIPInputStream(InputStream in, int size) throws IOException {
+        super(in, PLACEHOLDER_SIZE);
+        try {
+            this.pooled = BufferPool.getInstance().acquire(size);
+        } catch (IOException e) {
+            inf.end();
+            throw e;
+        }
+        this.buf = pooled;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (pooled != null) {
+                buf = new byte[PLACEHOLDER_SIZE];
+                BufferPool.getInstance().release(pooled);
+                pooled = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.example.memory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/** A GZIPOutputStream that compresses into a buffer from the {@link BufferPool}. */
+public class PooledGZIPOutputStream extends GZIPOutputStream {
+
+    // The superclass insists on allocating a buffer of its own, which is swapped for a pooled one.
+    private static final int PLACEHOLDER_SIZE = 1;
+
+    private byte[] pooled;
+
+    public PooledGZIPOutputStream(OutputStream out, int size) throws IOException {
+        super(out, PLACEHOLDER_SIZE);
+        try {
+            this.pooled = BufferPool.getInstance().acquire(size);
+        } catch (IOException e) {
+            def.end();
+            throw e;
+        }
+        this.buf = pooled;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (pooled != null) {
+                buf = new byte[PLACEHOLDER_SIZE];
+                BufferPool.getInstance().release(pooled);
+                pooled = null;
+            }
+        }
+    }
+}
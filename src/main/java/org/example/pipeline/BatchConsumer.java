@@ -0,0 +1,6 @@
+package org.example.pipeline;
+
+@FunctionalInterface
+public interface BatchConsumer<B> {
+    void accept(B batch) throws InterruptedException;
+}
@@ -0,0 +1,8 @@
+package org.example.pipeline;
+
+import java.io.InputStream;
+
+@FunctionalInterface
+public interface BatchParser<B> {
+    void parse(InputStream inputStream, BatchConsumer<B> out) throws Exception;
+}
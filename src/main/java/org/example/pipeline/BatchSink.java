@@ -0,0 +1,12 @@
+package org.example.pipeline;
+
+// Sinks write to JDBC or MongoDB, so close() keeps Exception rather than naming either store's exception here.
+@SuppressWarnings("try")
+@FunctionalInterface
+public interface BatchSink<B> extends AutoCloseable {
+    void accept(B batch) throws Exception;
+
+    @Override
+    default void close() throws Exception {
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.pipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+
+class BlockQueueInputStream extends InputStream {
+
+    private final BlockingQueue<ByteBuffer> blocks;
+    private ByteBuffer current;
+    private boolean finished;
+
+    BlockQueueInputStream(BlockingQueue<ByteBuffer> blocks) {
+        this.blocks = blocks;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return current.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int n = Math.min(len, current.remaining());
+        current.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Drain up to the end marker so a parser that stops early never leaves the reader blocked on a full queue.
+        while (!finished) {
+            releaseCurrent();
+            ensureData();
+        }
+        releaseCurrent();
+    }
+
+    private boolean ensureData() throws IOException {
+        while (!finished && (current == null || !current.hasRemaining())) {
+            // A read block goes back to the pool before waiting for the next, so an idle parser holds none.
+            releaseCurrent();
+            try {
+                current = blocks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for data");
+            }
+            if (current == RestorePipeline.END_OF_STREAM) {
+                finished = true;
+            }
+        }
+        return !finished;
+    }
+
+    private void releaseCurrent() {
+        if (current != null) {
+            RestorePipeline.release(current);
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.example.pipeline;
+
+import org.example.memory.BufferPool;
+import org.example.util.ExecutorUtil;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Three-stage restore pipeline: a read-ahead thread pulls decrypted/decompressed blocks off the source,
+ * a parser thread turns them into batches and a set of insert workers drains the batches.
+ * Stages are connected by bounded queues, so a slow stage applies backpressure to the ones before it.
+ * Blocks come from the {@link BufferPool} and go back to it once the parser has read them.
+ */
+public class RestorePipeline<B> {
+
+    static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+    private static final Object END_OF_BATCHES = new Object();
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final int workers;
+    private final int queueCapacity;
+
+    public RestorePipeline(int workers, int queueCapacity) {
+        if (workers < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Workers and queue capacity must be positive.");
+        }
+        this.workers = workers;
+        this.queueCapacity = queueCapacity;
+    }
+
+    public long run(InputStream source, BatchParser<B> parser, Supplier<BatchSink<B>> sinkFactory) throws Exception {
+        BlockingQueue<ByteBuffer> blocks = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Object> batches = new ArrayBlockingQueue<>(queueCapacity);
+        ExecutorService executor = Executors.newFixedThreadPool(workers + 2);
+        ExecutorCompletionService<Long> completion = new ExecutorCompletionService<>(executor);
+        AtomicBoolean parserDone = new AtomicBoolean();
+        try {
+            completion.submit(() -> readAhead(source, blocks, parserDone));
+            completion.submit(() -> parse(blocks, parser, batches, parserDone));
+            for (int i = 0; i < workers; i++) {
+                completion.submit(() -> insert(batches, sinkFactory));
+            }
+
+            long batchCount = 0;
+            for (int i = 0; i < workers + 2; i++) {
+                batchCount += completion.take().get();
+            }
+            return batchCount;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        } finally {
+            parserDone.set(true);
+            ExecutorUtil.shutdownAndWait(executor);
+            // Every stage has returned, so what is still queued is all that is left.
+            ByteBuffer block;
+            while ((block = blocks.poll()) != null) {
+                release(block);
+            }
+        }
+    }
+
+    private long readAhead(InputStream source, BlockingQueue<ByteBuffer> blocks, AtomicBoolean parserDone) throws Exception {
+        BufferPool pool = BufferPool.getInstance();
+        while (true) {
+            if (parserDone.get()) {
+                blocks.put(END_OF_STREAM);
+                return 0;
+            }
+            byte[] block = pool.acquire(BLOCK_SIZE);
+            int filled = 0;
+            try {
+                int read;
+                while (filled < BLOCK_SIZE && (read = source.read(block, filled, BLOCK_SIZE - filled)) != -1) {
+                    filled += read;
+                }
+                if (filled > 0) {
+                    blocks.put(ByteBuffer.wrap(block, 0, filled));
+                } else {
+                    pool.release(block);
+                }
+            } catch (Exception e) {
+                pool.release(block);
+                throw e;
+            }
+            if (filled < BLOCK_SIZE) {
+                blocks.put(END_OF_STREAM);
+                return 0;
+            }
+        }
+    }
+
+    static void release(ByteBuffer block) {
+        if (block != END_OF_STREAM) {
+            BufferPool.getInstance().release(block.array());
+        }
+    }
+
+    private long parse(BlockingQueue<ByteBuffer> blocks, BatchParser<B> parser, BlockingQueue<Object> batches,
+                       AtomicBoolean parserDone) throws Exception {
+        try (InputStream inputStream = new BlockQueueInputStream(blocks)) {
+            try {
+                parser.parse(inputStream, batches::put);
+            } finally {
+                parserDone.set(true);
+            }
+        }
+        for (int i = 0; i < workers; i++) {
+            batches.put(END_OF_BATCHES);
+        }
+        return 0;
+    }
+
+    @SuppressWarnings({"unchecked", "try"})
+    private long insert(BlockingQueue<Object> batches, Supplier<BatchSink<B>> sinkFactory) throws Exception {
+        long batchCount = 0;
+        try (BatchSink<B> sink = sinkFactory.get()) {
+            Object batch;
+            while ((batch = batches.take()) != END_OF_BATCHES) {
+                sink.accept((B) batch);
+                batchCount++;
+            }
+        }
+        return batchCount;
+    }
+}
@@ -0,0 +1,100 @@
+package org.example.plan;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The order in which a backup exports its tables or collections. Work is handed out largest first, so a
+ * big table cannot start last and keep one worker busy long after the others finished. Since workers take
+ * the next task as soon as they are free, submitting the tasks in this order is the whole scheduler.
+ */
+public class BackupPlan {
+
+    /** Export rate of one worker used for the predicted duration when nothing better is known. */
+    public static final double ASSUMED_MEGABYTES_PER_SECOND = 25;
+
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private final List<BackupTask> tasks;
+    private final int workers;
+
+    private BackupPlan(List<BackupTask> tasks, int workers) {
+        this.tasks = tasks;
+        this.workers = workers;
+    }
+
+    /**
+     * @param splits primary key values at which an entity is cut into parts; entities without splits are
+     *               exported whole
+     */
+    public static BackupPlan largestFirst(List<EntityEstimate> estimates, Map<String, List<Long>> splits, int workers) {
+        List<BackupTask> tasks = new ArrayList<>();
+        for (EntityEstimate estimate : estimates) {
+            List<Long> bounds = splits.getOrDefault(estimate.entity(), List.of());
+            int parts = bounds.size() + 1;
+            for (int part = 1; part <= parts; part++) {
+                tasks.add(new BackupTask(estimate.entity(), part, parts,
+                        part > 1 ? bounds.get(part - 2) : null,
+                        part < parts ? bounds.get(part - 1) : null,
+                        estimate.bytes() / parts, estimate.rows() / parts));
+            }
+        }
+        // Stable, so entities the catalog knows nothing about keep their catalog order at the end.
+        tasks.sort(Comparator.comparingLong(BackupTask::bytes).reversed());
+        return new BackupPlan(tasks, workers);
+    }
+
+    public List<BackupTask> tasks() {
+        return tasks;
+    }
+
+    /** Makespan of the plan when every worker exports at the assumed rate, capped by --max-mbps if set. */
+    public double predictedSeconds(double maxMegabytesPerSecond) {
+        long[] loads = new long[workers];
+        long total = 0;
+        for (BackupTask task : tasks) {
+            int idlest = 0;
+            for (int i = 1; i < loads.length; i++) {
+                if (loads[i] < loads[idlest]) {
+                    idlest = i;
+                }
+            }
+            loads[idlest] += task.bytes();
+            total += task.bytes();
+        }
+        long busiest = 0;
+        for (long load : loads) {
+            busiest = Math.max(busiest, load);
+        }
+        double seconds = busiest / (ASSUMED_MEGABYTES_PER_SECOND * MEGABYTE);
+        if (maxMegabytesPerSecond > 0) {
+            seconds = Math.max(seconds, total / (maxMegabytesPerSecond * MEGABYTE));
+        }
+        return seconds;
+    }
+
+    public void print(double maxMegabytesPerSecond) {
+        System.out.println("Backup plan, " + tasks.size() + " task(s) on " + workers + " worker(s), largest first:");
+        for (BackupTask task : tasks) {
+            String part = task.isPart() ? " part " + task.part() + "/" + task.parts() + " " + range(task) : "";
+            System.out.printf("  %-40s %10s %14s rows%n", task.entity() + part, formatBytes(task.bytes()), "~" + task.rows());
+        }
+        long seconds = Math.round(predictedSeconds(maxMegabytesPerSecond));
+        System.out.println("Predicted duration: " + (seconds / 3600) + "h " + (seconds / 60 % 60) + "m " + (seconds % 60) + "s"
+                + " at " + ASSUMED_MEGABYTES_PER_SECOND + " MB/s per worker"
+                + (maxMegabytesPerSecond > 0 ? ", capped at " + maxMegabytesPerSecond + " MB/s" : "") + ".");
+    }
+
+    private static String range(BackupTask task) {
+        return "[" + (task.lowerBound() != null ? task.lowerBound() : "") + ".." + (task.upperBound() != null ? task.upperBound() : "") + ")";
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < MEGABYTE) {
+            return (bytes / 1024) + " KB";
+        }
+        return bytes < 1024 * MEGABYTE ? String.format("%.1f MB", bytes / (double) MEGABYTE) : String.format("%.2f GB", bytes / (1024.0 * MEGABYTE));
+    }
+}
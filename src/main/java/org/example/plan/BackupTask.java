@@ -0,0 +1,17 @@
+package org.example.plan;
+
+/**
+ * One unit of backup work: a whole table or collection, or one primary key range of a large table.
+ * A range includes its lower bound and excludes its upper bound; a null bound leaves that side open.
+ */
+public record BackupTask(String entity, int part, int parts, Long lowerBound, Long upperBound, long bytes, long rows) {
+
+    public boolean isPart() {
+        return parts > 1;
+    }
+
+    /** Appended to the file name of a part, e.g. {@code .part0002}; empty for a whole entity. */
+    public String fileSuffix() {
+        return isPart() ? String.format(".part%04d", part) : "";
+    }
+}
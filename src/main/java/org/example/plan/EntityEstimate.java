@@ -0,0 +1,9 @@
+package org.example.plan;
+
+/** Size of a table or collection as the database catalog reports it; zero when the catalog does not know. */
+public record EntityEstimate(String entity, long bytes, long rows) {
+
+    public static EntityEstimate unknown(String entity) {
+        return new EntityEstimate(entity, 0, 0);
+    }
+}
@@ -0,0 +1,112 @@
+package org.example.pool;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.bson.Document;
+import org.example.entities.DbConnectionEntity;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps database connections open across the commands of one JVM: a {@link JdbcConnectionPool} per SQL
+ * database, keyed by the connection parameters, and one shared {@link MongoClient} per MongoDB connection
+ * string, whatever database is used on it. Backups, restores and scheduled jobs against the same database pay the connect, TLS and
+ * authentication cost once. Everything is closed when the JVM exits.
+ */
+public class ConnectionManager {
+
+    private static final long PING_AFTER_MILLIS = 30_000;
+
+    private static final ConnectionManager instance = new ConnectionManager();
+
+    private final Map<DbConnectionEntity, JdbcConnectionPool> pools = new HashMap<>();
+    private final Map<String, SharedClient> clients = new HashMap<>();
+
+    private ConnectionManager() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::closeAll, "connection-manager-shutdown"));
+    }
+
+    public static ConnectionManager getInstance() {
+        return instance;
+    }
+
+    /**
+     * Reserves room for the {@code parallelism} connections the caller holds at once, on top of what other
+     * callers reserved. Connections borrowed from the lease go back to the pool when closed; close the lease
+     * once they all are.
+     */
+    public JdbcConnectionPool.Lease lease(DbConnectionEntity db, int parallelism) {
+        JdbcConnectionPool pool;
+        synchronized (this) {
+            pool = pools.computeIfAbsent(copyOf(db), JdbcConnectionPool::new);
+        }
+        return pool.lease(parallelism);
+    }
+
+    /** The client shared by everything talking to this deployment. Callers must not close it. */
+    public synchronized MongoClient getMongoClient(DbConnectionEntity db) {
+        SharedClient shared = clients.get(db.getUrl());
+        if (shared != null && System.currentTimeMillis() - shared.lastUsed() > PING_AFTER_MILLIS && !ping(shared.client())) {
+            shared.client().close();
+            shared = null;
+        }
+        MongoClient client = shared != null ? shared.client() : MongoClients.create(db.getUrl());
+        // The driver pools its own connections; the ping only catches a client whose deployment went away.
+        clients.put(db.getUrl(), new SharedClient(client, System.currentTimeMillis()));
+        return client;
+    }
+
+    /** Closes the pool and client of a database that is no longer used, e.g. after --db points elsewhere. */
+    public void release(DbConnectionEntity db) {
+        JdbcConnectionPool pool;
+        SharedClient shared;
+        synchronized (this) {
+            pool = pools.remove(db);
+            shared = clients.remove(db.getUrl());
+        }
+        if (pool != null) {
+            pool.close();
+        }
+        if (shared != null) {
+            shared.client().close();
+        }
+    }
+
+    public void closeAll() {
+        Map<DbConnectionEntity, JdbcConnectionPool> openPools;
+        Map<String, SharedClient> openClients;
+        synchronized (this) {
+            openPools = new HashMap<>(pools);
+            openClients = new HashMap<>(clients);
+            pools.clear();
+            clients.clear();
+        }
+        openPools.values().forEach(JdbcConnectionPool::close);
+        openClients.values().forEach(shared -> shared.client().close());
+    }
+
+    private static boolean ping(MongoClient client) {
+        try {
+            client.getDatabase("admin").runCommand(new Document("ping", 1));
+            return true;
+        } catch (MongoException e) {
+            return false;
+        }
+    }
+
+    // Keys are copies, so a caller changing its entity afterwards cannot corrupt the maps.
+    private static DbConnectionEntity copyOf(DbConnectionEntity db) {
+        return DbConnectionEntity.builder()
+                .dbType(db.getDbType())
+                .url(db.getUrl())
+                .user(db.getUser())
+                .password(db.getPassword())
+                .DbName(db.getDbName())
+                .build();
+    }
+
+    private record SharedClient(MongoClient client, long lastUsed) {
+    }
+}
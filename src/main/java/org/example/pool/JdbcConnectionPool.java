@@ -0,0 +1,259 @@
+package org.example.pool;
+
+import org.example.entities.DbConnectionEntity;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A bounded pool of JDBC connections to one database. Borrowed connections are proxies whose
+ * {@code close()} hands the connection back instead of closing it, so callers keep using
+ * try-with-resources as with {@link DriverManager}. A connection is reset when it comes back and
+ * validated before it is lent out again if it sat idle for a while.
+ * <p>
+ * Callers borrow through a {@link Lease} for the number of connections they hold at once. The pool is as
+ * large as all open leases together, so two operations against one database never wait on each other.
+ */
+public class JdbcConnectionPool {
+
+    private static final long VALIDATE_AFTER_MILLIS = 30_000;
+    private static final long IDLE_TIMEOUT_MILLIS = 10 * 60_000;
+    private static final long BORROW_TIMEOUT_MILLIS = 60_000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private final DbConnectionEntity db;
+    private final Deque<PoolEntry> idle = new ArrayDeque<>();
+    private int maxSize;
+    private int open;
+    private boolean closed;
+
+    public JdbcConnectionPool(DbConnectionEntity db) {
+        this.db = db;
+    }
+
+    /** Grows the pool by {@code connections} until the returned lease is closed. */
+    public synchronized Lease lease(int connections) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("A lease needs at least one connection.");
+        }
+        maxSize += connections;
+        notifyAll();
+        return new Lease(connections);
+    }
+
+    private Connection borrow() throws SQLException {
+        PoolEntry entry = take();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new PooledConnection(entry));
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /** Connections currently open, lent out or idle. */
+    public synchronized int getOpen() {
+        return open;
+    }
+
+    public synchronized int getIdle() {
+        return idle.size();
+    }
+
+    public void close() {
+        Deque<PoolEntry> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new ArrayDeque<>(idle);
+            open -= idle.size();
+            idle.clear();
+            notifyAll();
+        }
+        toClose.forEach(entry -> closeQuietly(entry.connection()));
+    }
+
+    private PoolEntry take() throws SQLException {
+        long deadline = System.currentTimeMillis() + BORROW_TIMEOUT_MILLIS;
+        while (true) {
+            PoolEntry candidate;
+            synchronized (this) {
+                while (!closed && idle.isEmpty() && open >= maxSize) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new SQLException("Timed out waiting for one of the " + maxSize + " connections to " + db.getUrl());
+                    }
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a connection", e);
+                    }
+                }
+                if (closed) {
+                    throw new SQLException("The connection pool for " + db.getUrl() + " is closed");
+                }
+                candidate = idle.pollFirst();
+                if (candidate == null) {
+                    open++;
+                }
+            }
+            if (candidate == null) {
+                return openConnection();
+            }
+            if (isHealthy(candidate)) {
+                return candidate;
+            }
+            closeQuietly(candidate.connection());
+            discarded();
+        }
+    }
+
+    private PoolEntry openConnection() throws SQLException {
+        try {
+            Connection connection = JdbcDrivers.connect(db.getUrl(), db.getUser(), db.getPassword());
+            return new PoolEntry(connection, connection.getTransactionIsolation(), 0);
+        } catch (SQLException | RuntimeException e) {
+            discarded();
+            throw e;
+        }
+    }
+
+    private boolean isHealthy(PoolEntry candidate) {
+        long idleFor = System.currentTimeMillis() - candidate.idleSince();
+        if (idleFor > IDLE_TIMEOUT_MILLIS) {
+            return false;
+        }
+        try {
+            return idleFor < VALIDATE_AFTER_MILLIS ? !candidate.connection().isClosed() : candidate.connection().isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private synchronized void discarded() {
+        open--;
+        notifyAll();
+    }
+
+    private void giveBack(PoolEntry entry) {
+        Connection connection = entry.connection();
+        try {
+            // Whatever the borrower left open is thrown away, and the session is left as a new one would be.
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            if (connection.getTransactionIsolation() != entry.defaultIsolation()) {
+                connection.setTransactionIsolation(entry.defaultIsolation());
+            }
+            connection.clearWarnings();
+        } catch (SQLException e) {
+            closeQuietly(connection);
+            discarded();
+            return;
+        }
+        synchronized (this) {
+            if (!closed) {
+                idle.addFirst(new PoolEntry(connection, entry.defaultIsolation(), System.currentTimeMillis()));
+                notifyAll();
+                return;
+            }
+        }
+        closeQuietly(connection);
+        discarded();
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /**
+     * The share of the pool one operation holds. Closing it gives the share back; connections still idle stay
+     * open for the next operation.
+     */
+    public final class Lease implements AutoCloseable {
+
+        private final int connections;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(int connections) {
+            this.connections = connections;
+        }
+
+        public Connection borrow() throws SQLException {
+            if (released.get()) {
+                throw new SQLException("The lease on " + db.getUrl() + " was closed");
+            }
+            return JdbcConnectionPool.this.borrow();
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                synchronized (JdbcConnectionPool.this) {
+                    maxSize -= connections;
+                }
+            }
+        }
+    }
+
+    private record PoolEntry(Connection connection, int defaultIsolation, long idleSince) {
+    }
+
+    private class PooledConnection implements InvocationHandler {
+
+        private final PoolEntry entry;
+        private final Connection connection;
+        private final AtomicBoolean returned = new AtomicBoolean();
+
+        PooledConnection(PoolEntry entry) {
+            this.entry = entry;
+            this.connection = entry.connection();
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (returned.compareAndSet(false, true)) {
+                        giveBack(entry);
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    return returned.get() || connection.isClosed();
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "Pooled" + connection;
+                }
+                default -> {
+                    if (returned.get()) {
+                        throw new SQLException("Connection was returned to the pool");
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.example.pool;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Connects through the one driver a URL needs. The first use of {@link DriverManager} loads and
+ * instantiates every driver on the class path, the MongoDB JDBC driver and the whole MongoDB client
+ * with it, which a SQL command would pay for at startup. URLs of the databases the tool supports go
+ * straight to their driver; anything else still goes through {@link DriverManager}.
+ */
+public final class JdbcDrivers {
+
+    private static final Map<String, String> DRIVER_CLASSES = Map.of(
+            "jdbc:postgresql:", "org.postgresql.Driver",
+            "jdbc:mysql:", "com.mysql.cj.jdbc.Driver");
+
+    private static final Map<String, Driver> drivers = new ConcurrentHashMap<>();
+
+    private JdbcDrivers() { }
+
+    static Connection connect(String url, String user, String password) throws SQLException {
+        Driver driver = driverFor(url);
+        if (driver == null) {
+            return DriverManager.getConnection(url, user, password);
+        }
+        Properties info = new Properties();
+        if (user != null) {
+            info.put("user", user);
+        }
+        if (password != null) {
+            info.put("password", password);
+        }
+        Connection connection = driver.connect(url, info);
+        if (connection == null) {
+            throw new SQLException("No suitable driver found for " + url, "08001");
+        }
+        return connection;
+    }
+
+    /** Loads the driver class of a known URL prefix, or returns null if there is none or it is not on the class path. */
+    public static Driver driverFor(String url) {
+        for (Map.Entry<String, String> entry : DRIVER_CLASSES.entrySet()) {
+            if (url != null && url.startsWith(entry.getKey())) {
+                return drivers.computeIfAbsent(entry.getValue(), JdbcDrivers::load);
+            }
+        }
+        return null;
+    }
+
+    private static Driver load(String className) {
+        try {
+            return (Driver) Class.forName(className).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
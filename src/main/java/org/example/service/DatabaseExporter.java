@@ -1,8 +1,15 @@
 package org.example.service;
 
+import org.example.entities.BackupOptions;
+
 import java.util.List;
 
 public interface DatabaseExporter {
-    void exportDatabase(String key, List<String> entities);
-}
 
+    /** Returns whether the backup completed; failures are reported on the console. */
+    boolean exportDatabase(String key, List<String> entities, BackupOptions options);
+
+    default boolean exportDatabase(String key, List<String> entities) {
+        return exportDatabase(key, entities, BackupOptions.defaults());
+    }
+}
@@ -1,10 +1,28 @@
 package org.example.service;
 
 import org.example.entities.DbConnectionEntity;
+import org.example.entities.RestoreOptions;
+import org.example.factory.StorageFactory;
+import org.example.storage.BackupStorage;
 
+import java.io.InputStream;
 import java.util.List;
 
 public interface DatabaseRestorer {
 
-    void restoreDatabase(String key, List<String> saves, String fileDbType, String fileName, DbConnectionEntity dbConnectionEntity);
+    /** Restores the backup {@code fileDbType/fileName} of {@code storage} and returns whether the restore completed. */
+    boolean restoreDatabase(BackupStorage storage, String key, List<String> saves, String fileDbType, String fileName,
+                            DbConnectionEntity dbConnectionEntity, RestoreOptions options);
+
+    default boolean restoreDatabase(String key, List<String> saves, String fileDbType, String fileName, DbConnectionEntity dbConnectionEntity,
+                                    RestoreOptions options) {
+        return restoreDatabase(StorageFactory.getStorage(), key, saves, fileDbType, fileName, dbConnectionEntity, options);
+    }
+
+    default boolean restoreDatabase(String key, List<String> saves, String fileDbType, String fileName, DbConnectionEntity dbConnectionEntity) {
+        return restoreDatabase(key, saves, fileDbType, fileName, dbConnectionEntity, RestoreOptions.defaults());
+    }
+
+    /** Restores from a streamed archive, e.g. stdin, loading its entities concurrently as they arrive. */
+    void restoreArchive(String key, List<String> saves, InputStream archive, DbConnectionEntity dbConnectionEntity, RestoreOptions options);
 }
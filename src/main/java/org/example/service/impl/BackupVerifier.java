@@ -0,0 +1,237 @@
+package org.example.service.impl;
+
+import org.bson.Document;
+import org.example.codec.RowParser;
+import org.example.entities.ManifestEntry;
+import org.example.factory.StorageFactory;
+import org.example.manifest.BackupManifest;
+import org.example.manifest.ChecksumInputStream;
+import org.example.memory.PooledBufferedInputStream;
+import org.example.storage.BackupStorage;
+import org.example.util.BackupStreamUtil;
+import org.example.util.ExecutorUtil;
+import org.example.util.ProgressBarUtil;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Checks a backup folder without touching any database: every file is read once, checksummed
+ * block by block against the manifest and decoded row by row. Files are verified in parallel.
+ */
+public class BackupVerifier {
+
+    private static final int MAX_ROW_PROBLEMS = 10;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final BackupVerifier instance = new BackupVerifier();
+
+    private BackupVerifier() {
+    }
+
+    public static BackupVerifier getInstance() {
+        return instance;
+    }
+
+    public boolean verifyBackup(String key, String fileDbType, String fileName, int workers) {
+        String backupPath = fileDbType + "/" + fileName;
+        BackupStorage storage = StorageFactory.getStorage(backupPath);
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            if (!storage.exists(backupPath)) {
+                System.out.println("Backup directory not found: " + storage.describe(backupPath));
+                return false;
+            }
+            BackupManifest manifest = BackupManifest.exists(storage, backupPath) ? BackupManifest.open(storage, backupPath) : null;
+            List<String> files = storage.list(backupPath).stream()
+                    .filter(file -> !file.equals(BackupManifest.FILE_NAME))
+                    .toList();
+
+            List<FileReport> reports = new ArrayList<>();
+            if (manifest == null) {
+                System.out.println("No manifest found, only the contents of the files will be checked.");
+            } else {
+                if (!manifest.isComplete()) {
+                    reports.add(new FileReport(BackupManifest.FILE_NAME, -1, List.of("backup was never completed"), false));
+                }
+                Set<String> present = Set.copyOf(files);
+                for (ManifestEntry entry : manifest.entries()) {
+                    if (!present.contains(entry.fileName())) {
+                        reports.add(new FileReport(entry.fileName(), -1, List.of("missing from the backup folder"), false));
+                    }
+                }
+            }
+
+            boolean sql = fileDbType.equalsIgnoreCase("sql");
+            ExecutorCompletionService<FileReport> completion = new ExecutorCompletionService<>(executor);
+            for (String file : files) {
+                completion.submit(() -> verifyFile(storage, backupPath, file, key, manifest, sql));
+            }
+            for (int i = 0; i < files.size(); i++) {
+                reports.add(completion.take().get());
+                ProgressBarUtil.printProgress(i + 1, files.size());
+            }
+            System.out.println();
+            return printSummary(reports);
+
+        } catch (IOException e) {
+            System.err.println("Error accessing the directory: " + storage.describe(backupPath));
+        } catch (ExecutionException e) {
+            System.err.println("Error while verifying the backup: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Verification interrupted.");
+        } finally {
+            ExecutorUtil.shutdownAndWait(executor);
+        }
+        return false;
+    }
+
+    private FileReport verifyFile(BackupStorage storage, String backupPath, String fileName, String key, BackupManifest manifest, boolean sql) {
+        List<String> problems = new ArrayList<>();
+        ManifestEntry entry = manifest != null ? manifest.get(fileName) : null;
+        if (manifest != null && entry == null) {
+            problems.add("not recorded in the manifest");
+        }
+
+        boolean isEncrypted = fileName.contains("_encrypted");
+        boolean decoded = !isEncrypted || key != null;
+        long rows = -1;
+        try (ChecksumInputStream raw = new ChecksumInputStream(new PooledBufferedInputStream(storage.open(backupPath + "/" + fileName), READ_BUFFER_SIZE))) {
+            if (decoded) {
+                rows = decodeRows(raw, isEncrypted ? key : null, sql, problems);
+            }
+            raw.drain();
+
+            if (entry != null) {
+                compareWithManifest(entry, raw, rows, problems);
+            }
+        } catch (IOException e) {
+            problems.add("cannot be read: " + e.getMessage());
+        }
+        return new FileReport(fileName, rows, problems, decoded);
+    }
+
+    private long decodeRows(ChecksumInputStream raw, String key, boolean sql, List<String> problems) {
+        // Closing the decoded stream returns its buffer but must leave the raw bytes open for the caller to drain.
+        InputStream unclosedRaw = new FilterInputStream(raw) {
+            @Override
+            public void close() {
+            }
+        };
+        try (InputStream inputStream = BackupStreamUtil.openDecoded(unclosedRaw, key)) {
+            return sql ? decodeSqlRows(inputStream, problems) : decodeDocuments(inputStream, problems);
+        } catch (Exception e) {
+            problems.add("cannot be decoded: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private long decodeSqlRows(InputStream inputStream, List<String> problems) throws IOException {
+        RowParser parser = new RowParser(inputStream);
+        String line = parser.readLine();
+        if (line == null || !line.startsWith("-- SCHEMA")) {
+            problems.add("missing schema section");
+            return -1;
+        }
+        while ((line = parser.readLine()) != null && !line.startsWith("-- DATA")) {
+            // schema and index statements are checked by restoring, not here
+        }
+        String header = line != null ? parser.readLine() : null;
+        if (header == null) {
+            problems.add("missing data section");
+            return -1;
+        }
+
+        int columns = header.split(",", -1).length;
+        long rows = 0;
+        int rowProblems = 0;
+        while (parser.nextRecord()) {
+            rows++;
+            String problem = parser.fieldCount() != columns
+                    ? "expected " + columns + " fields but found " + parser.fieldCount()
+                    : parser.checkRecord();
+            if (problem != null && rowProblems++ < MAX_ROW_PROBLEMS) {
+                problems.add("row " + rows + ": " + problem);
+            }
+        }
+        return rows;
+    }
+
+    private long decodeDocuments(InputStream inputStream, List<String> problems) throws IOException {
+        // A reporting decoder, so malformed UTF-8 fails instead of turning into replacement characters.
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8.newDecoder()), READ_BUFFER_SIZE);
+        long rows = 0;
+        int rowProblems = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            rows++;
+            try {
+                Document.parse(line);
+            } catch (RuntimeException e) {
+                if (rowProblems++ < MAX_ROW_PROBLEMS) {
+                    problems.add("document " + rows + ": " + e.getMessage());
+                }
+            }
+        }
+        return rows;
+    }
+
+    private void compareWithManifest(ManifestEntry entry, ChecksumInputStream raw, long rows, List<String> problems) {
+        if (raw.getCount() != entry.bytes()) {
+            problems.add("size is " + raw.getCount() + " bytes, manifest says " + entry.bytes());
+        }
+        List<Long> blockChecksums = raw.getBlockChecksums();
+        for (int i = 0; i < Math.min(blockChecksums.size(), entry.blockChecksums().size()); i++) {
+            if (!blockChecksums.get(i).equals(entry.blockChecksums().get(i))) {
+                problems.add("checksum mismatch in block " + i + " (offset " + (long) i * BackupManifest.BLOCK_SIZE + ")");
+                break;
+            }
+        }
+        if (raw.getChecksum() != entry.checksum()) {
+            problems.add("file checksum mismatch");
+        }
+        if (rows >= 0 && rows != entry.rows()) {
+            problems.add("contains " + rows + " rows, manifest says " + entry.rows());
+        }
+    }
+
+    private boolean printSummary(List<FileReport> reports) {
+        int failed = 0;
+        int undecoded = 0;
+        for (FileReport report : reports) {
+            if (!report.problems().isEmpty()) {
+                failed++;
+                System.out.println("FAILED " + report.fileName());
+                report.problems().forEach(problem -> System.out.println("    " + problem));
+            } else if (!report.decoded()) {
+                undecoded++;
+            }
+        }
+        if (undecoded > 0) {
+            System.out.println(undecoded + " encrypted file(s) were only checksummed, pass --key to decode them.");
+        }
+        if (failed == 0) {
+            System.out.println("Backup verified: " + reports.size() + " file(s) OK.");
+            return true;
+        }
+        System.out.println("Backup verification failed: " + failed + " problem file(s).");
+        return false;
+    }
+
+    private record FileReport(String fileName, long rows, List<String> problems, boolean decoded) {
+    }
+}
@@ -1,88 +1,370 @@
 package org.example.service.impl;
 
-import com.mongodb.client.MongoClients;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Sorts;
 import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.example.checkpoint.MongoRestoreCheckpoint;
+import org.example.compact.BackupChain;
+import org.example.compact.ChangeRecord;
+import org.example.compact.KWayMerge;
+import org.example.compact.MongoChangeSource;
+import org.example.compact.MongoKey;
+import org.example.entities.BackupOptions;
+import org.example.entities.DbConnectionEntity;
+import org.example.entities.EntitySelection;
+import org.example.entities.ManifestEntry;
+import org.example.manifest.BackupManifest;
+import org.example.manifest.ChecksumOutputStream;
+import org.example.memory.BufferPool;
+import org.example.memory.PooledBufferedOutputStream;
+import org.example.plan.BackupPlan;
+import org.example.plan.BackupTask;
+import org.example.plan.EntityEstimate;
+import org.example.pool.ConnectionManager;
 import org.example.service.DatabaseExporter;
+import org.example.storage.BackupStorage;
+import org.example.throttle.BackupThrottle;
+import org.example.util.BackupStreamUtil;
 import org.example.util.EncryptionUtil;
+import org.example.util.ExecutorUtil;
 import org.example.util.ProgressBarUtil;
 
-import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
 import javax.crypto.SecretKey;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MongoDatabaseExporter implements DatabaseExporter {
 
-    private final String uri;
-    private final String dbName;
-    private static final String MAIN_BACKUP_FOLDER_PATH = System.getProperty("user.home") + "/backups/mongo";
+    private final DbConnectionEntity db;
+    private static final int FETCH_SIZE = 1000;
+    private static final String ID_INDEX_NAME = "_id_";
+    private static final String MAIN_BACKUP_FOLDER_PATH = "mongo";
+    private static final int WRITE_BUFFER_SIZE = 8192;
 
-    public MongoDatabaseExporter(String uri, String dbName) {
-        this.uri = uri;
-        this.dbName = dbName;
+    private final BackupStorage storage;
+
+    public MongoDatabaseExporter(DbConnectionEntity db, BackupStorage storage) {
+        this.db = db;
+        this.storage = storage;
     }
 
     @Override
-    public void exportDatabase(String key, List<String> entities) {
+    public boolean exportDatabase(String key, List<String> entities, BackupOptions options) {
         if (key != null) {
             EncryptionUtil.validateKey(key);
         }
-        String timestamp = new SimpleDateFormat("yyyy-MMdd_HHmmss").format(new Date());
+        if (options.isPlanOnly()) {
+            return printPlan(entities, options);
+        }
+        BufferPool.getInstance().checkFits(options.getWorkers(),
+                storage.writeBufferSize() + WRITE_BUFFER_SIZE + BackupStreamUtil.encodedBufferSize());
+        boolean resuming = options.getResumeFolder() != null;
+        String timestamp = resuming ? options.getResumeFolder() : new SimpleDateFormat("yyyy-MMdd_HHmmss").format(new Date());
         String backupPath = MAIN_BACKUP_FOLDER_PATH + "/" + timestamp;
-        File backupDir = new File(backupPath);
-        if (!backupDir.mkdirs()) {
-            System.out.println("Error while creating directory: " + backupPath);
-            return;
+        try {
+            if (resuming && !BackupManifest.exists(storage, backupPath)) {
+                System.out.println("Backup to resume not found: " + storage.describe(backupPath));
+                return false;
+            }
+        } catch (IOException e) {
+            System.out.println("Error while accessing backup storage: " + e.getMessage());
+            return false;
         }
 
-        try (var mongoClient = MongoClients.create(uri)) {
-            MongoDatabase database = mongoClient.getDatabase(dbName);
+        boolean success = false;
+        BackupManifest manifest = null;
+        BackupThrottle throttle = new BackupThrottle(options);
+        ExecutorService executor = Executors.newFixedThreadPool(options.getWorkers());
+        MongoClient mongoClient = ConnectionManager.getInstance().getMongoClient(db);
+        BufferPool.Usage memory = BufferPool.getInstance().track();
+        try {
+            manifest = BackupManifest.open(storage, backupPath);
+            manifest.bindKey(key);
+            BackupChain chain = resolveChain(manifest, options, key);
+            manifest.markSorted();
+            MongoDatabase database = mongoClient.getDatabase(db.getDbName());
             if (entities == null) {
-                entities = database.listCollectionNames().into(new ArrayList<>());
+                entities = listCollections(database);
             }
+            BackupPlan plan = planBackup(database, entities, options);
 
-            int i = 0;
-            for (String collectionName : entities) {
+            SecretKey secretKey = key != null ? EncryptionUtil.decodeKey(key) : null;
+            ExecutorCompletionService<List<ManifestEntry>> completion = new ExecutorCompletionService<>(executor);
+            int submitted = 0;
+            for (BackupTask task : plan.tasks()) {
+                String collectionName = task.entity();
                 MongoCollection<Document> collection = database.getCollection(collectionName);
-                String filePath = backupPath + "/" + collectionName + "_" + timestamp + (key != null ? "_encrypted" : "") + ".json.gz";
-                SecretKey secretKey = key != null ? EncryptionUtil.decodeKey(key) : null;
-                exportCollectionToFile(collection, filePath, secretKey);
-                ProgressBarUtil.printProgress(i + 1, entities.size());
-                Thread.sleep(1000);
-                i++;
+                String filePrefix = collectionName + "_" + timestamp + (key != null ? "_encrypted" : "");
+                String dataFile = filePrefix + ".json.gz";
+                String indexFile = filePrefix + ".indexes.json.gz";
+                EntitySelection selection = options.getSelection(collectionName);
+                Document filter = parseDocument(selection.filter(), "filter", collectionName);
+                Document projection = parseDocument(selection.projection(), "projection", collectionName);
+                if (chain != null && projection != null && excludesId(projection)) {
+                    throw new IllegalArgumentException("The projection for " + collectionName + " excludes _id, which an incremental backup needs.");
+                }
+                if (chain != null && !chain.newest().manifest().matchesSelection(collectionName, selection)) {
+                    throw new IllegalArgumentException("The base backup exported " + collectionName
+                            + " with a different filter or projection, take a full backup instead.");
+                }
+                manifest.bindSelection(collectionName, selection);
+                if (manifest.isVerified(dataFile) && manifest.isVerified(indexFile)) {
+                    continue;
+                }
+                completion.submit(() -> List.of(
+                        exportCollectionToFile(collection, filter, projection, backupPath, dataFile, key, secretKey, throttle, chain),
+                        exportIndexesToFile(collection, backupPath, indexFile, secretKey)));
+                submitted++;
             }
-            System.out.println("\nBackup completed: " + backupPath);
+
+            int skipped = plan.tasks().size() - submitted;
+            if (skipped > 0) {
+                System.out.println("Skipping " + skipped + " collection(s) already backed up and verified.");
+            }
+            for (int i = 0; i < submitted; i++) {
+                for (ManifestEntry entry : completion.take().get()) {
+                    manifest.record(entry);
+                }
+                ProgressBarUtil.printProgress(skipped + i + 1, plan.tasks().size());
+            }
+            manifest.markComplete();
+            success = true;
+            System.out.println("\n" + (chain != null ? "Incremental backup" : "Backup") + " completed: " + storage.describe(backupPath));
+            System.out.println(memory.summary());
+        } catch (ExecutionException e) {
+            System.err.println("Error while exporting the database: " + e.getCause().getMessage());
         } catch (Exception e) {
             System.err.println("Error while connecting to database: " + e.getMessage());
+        } finally {
+            ExecutorUtil.shutdownAndWait(executor);
+            memory.close();
+            if (!success && !storage.isReadable()) {
+                System.err.println("Backup incomplete, the archive only holds the collections that finished.");
+            } else if (!success && (resuming || (manifest != null && !manifest.entries().isEmpty()))) {
+                System.err.println("Backup incomplete, resume it with --resume " + timestamp);
+            }
+        }
+        return success;
+    }
+
+    private boolean printPlan(List<String> entities, BackupOptions options) {
+        try {
+            MongoDatabase database = ConnectionManager.getInstance().getMongoClient(db).getDatabase(db.getDbName());
+            planBackup(database, entities != null ? entities : listCollections(database), options).print(options.getMaxMegabytesPerSecond());
+            return true;
+        } catch (MongoException e) {
+            System.err.println("Error while planning the backup: " + e.getMessage());
+        }
+        return false;
+    }
+
+    private List<String> listCollections(MongoDatabase database) {
+        List<String> collections = database.listCollectionNames().into(new ArrayList<>());
+        collections.remove(MongoRestoreCheckpoint.COLLECTION_NAME);
+        return collections;
+    }
+
+    /** Orders the collections largest first by the size collStats reports. Collections are always exported whole. */
+    private BackupPlan planBackup(MongoDatabase database, List<String> collections, BackupOptions options) {
+        List<EntityEstimate> estimates = new ArrayList<>();
+        for (String collectionName : collections) {
+            try {
+                Document stats = database.runCommand(new Document("collStats", collectionName));
+                estimates.add(new EntityEstimate(collectionName, longValue(stats.get("size")), longValue(stats.get("count"))));
+            } catch (MongoException e) {
+                // Views and collections that do not exist yet have no statistics.
+                estimates.add(EntityEstimate.unknown(collectionName));
+            }
         }
+        return BackupPlan.largestFirst(estimates, Map.of(), options.getWorkers());
     }
 
-    private void exportCollectionToFile(MongoCollection<Document> collection, String filePath, SecretKey key) throws Exception {
-        try (MongoCursor<Document> cursor = collection.find().iterator();
-             FileOutputStream fileOutputStream = new FileOutputStream(filePath);
-             GZIPOutputStream gzipOutputStream = new GZIPOutputStream(fileOutputStream);
-             OutputStream finalOutputStream = (key != null) ? getEncryptedOutputStream(gzipOutputStream, key) : gzipOutputStream;
-             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(finalOutputStream))) {
+    private static long longValue(Object value) {
+        return value instanceof Number number ? number.longValue() : 0;
+    }
+
+    private BackupChain resolveChain(BackupManifest manifest, BackupOptions options, String key) throws IOException {
+        String base = options.getBaseFolder() != null ? options.getBaseFolder() : manifest.getBase();
+        if (base == null) {
+            return null;
+        }
+        BackupChain chain = BackupChain.resolve(storage, MAIN_BACKUP_FOLDER_PATH, base, key);
+        manifest.bindBase(base);
+        return chain;
+    }
+
+    // Relaxed JSON as the shell accepts it, e.g. {age: {$gt: 30}}.
+    private static Document parseDocument(String json, String what, String collectionName) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return Document.parse(json);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid " + what + " for " + collectionName + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static boolean excludesId(Document projection) {
+        Object id = projection.get("_id");
+        return id != null && (Boolean.FALSE.equals(id) || (id instanceof Number number && number.intValue() == 0));
+    }
+
+    private ManifestEntry exportCollectionToFile(MongoCollection<Document> collection, Bson filter, Bson projection, String folder, String fileName,
+                                                 String key, SecretKey secretKey, BackupThrottle throttle, BackupChain chain) throws Exception {
+        String collectionName = collection.getNamespace().getCollectionName();
+        long totalDocuments = 0;
+        ChecksumOutputStream checksumOutputStream = new ChecksumOutputStream(storage.create(folder + "/" + fileName));
+        // The filter and projection run on the server, so excluded documents and fields never cross the network.
+        try (MongoCursor<Document> cursor = collection.find(filter != null ? filter : new Document())
+                     .projection(projection).sort(Sorts.ascending("_id")).batchSize(FETCH_SIZE).iterator();
+             BufferedWriter writer = openWriter(checksumOutputStream, secretKey);
+             KWayMerge<MongoKey> previousDocuments = chain != null
+                     ? new KWayMerge<>(MongoChangeSource.openChain(chain, collectionName, key, null)) : null) {
+
+            DocumentDiff diff = previousDocuments != null ? new DocumentDiff(collectionName, previousDocuments, writer) : null;
+            boolean hasNext = true;
+            while (hasNext) {
+                int documents = 0;
+                long bytes = 0;
+                throttle.beforeFetch();
+                long fetchStart = System.nanoTime();
+                try {
+                    hasNext = cursor.hasNext();
+                } finally {
+                    throttle.afterFetch(System.nanoTime() - fetchStart);
+                }
+                while (hasNext) {
+                    Document document = cursor.next();
+                    String json = document.toJson();
+                    if (diff != null) {
+                        diff.accept(document.get("_id"), json);
+                    } else {
+                        writer.write(json);
+                        writer.newLine();
+                    }
+                    bytes += json.length() + 1;
+                    if (++documents == FETCH_SIZE) {
+                        break;
+                    }
+                    hasNext = cursor.hasNext();
+                }
+                throttle.pace(documents, bytes);
+                totalDocuments += documents;
+            }
+            if (diff != null) {
+                totalDocuments = diff.finish();
+            }
+        } finally {
+            checksumOutputStream.close();
+        }
+        return new ManifestEntry(collectionName, fileName,
+                checksumOutputStream.getCount(), checksumOutputStream.getChecksum(), totalDocuments,
+                checksumOutputStream.getBlockChecksums());
+    }
+
+    private ManifestEntry exportIndexesToFile(MongoCollection<Document> collection, String folder, String fileName, SecretKey key) throws Exception {
+        long indexes = 0;
+        ChecksumOutputStream checksumOutputStream = new ChecksumOutputStream(storage.create(folder + "/" + fileName));
+        try (MongoCursor<Document> cursor = collection.listIndexes().iterator();
+             BufferedWriter writer = openWriter(checksumOutputStream, key)) {
 
             while (cursor.hasNext()) {
-                Document doc = cursor.next();
-                writer.write(doc.toJson());
-                writer.newLine();
+                Document index = cursor.next();
+                if (!ID_INDEX_NAME.equals(index.getString("name"))) {
+                    writer.write(index.toJson());
+                    writer.newLine();
+                    indexes++;
+                }
             }
+        } finally {
+            checksumOutputStream.close();
         }
+        return new ManifestEntry(collection.getNamespace().getCollectionName(), fileName,
+                checksumOutputStream.getCount(), checksumOutputStream.getChecksum(), indexes,
+                checksumOutputStream.getBlockChecksums());
     }
 
-    private OutputStream getEncryptedOutputStream(OutputStream outputStream, SecretKey key) throws Exception {
-        Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding", "BC");
-        cipher.init(Cipher.ENCRYPT_MODE, key);
-        return new CipherOutputStream(outputStream, cipher);
+    private BufferedWriter openWriter(OutputStream fileOutputStream, SecretKey key) throws Exception {
+        OutputStream finalOutputStream = BackupStreamUtil.openEncoded(new PooledBufferedOutputStream(fileOutputStream, WRITE_BUFFER_SIZE), key);
+        return new BufferedWriter(new OutputStreamWriter(finalOutputStream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Merge-joins the collection, read in {@code _id} order, with its documents as of the base backup and
+     * writes the inserted, updated and deleted documents.
+     */
+    private static class DocumentDiff {
+
+        private final String collectionName;
+        private final KWayMerge<MongoKey> previousDocuments;
+        private final BufferedWriter writer;
+        private ChangeRecord<MongoKey> previous;
+        private MongoKey lastKey;
+        private long changes;
+
+        DocumentDiff(String collectionName, KWayMerge<MongoKey> previousDocuments, BufferedWriter writer) throws IOException {
+            this.collectionName = collectionName;
+            this.previousDocuments = previousDocuments;
+            this.writer = writer;
+            this.previous = previousDocuments.next();
+        }
+
+        void accept(Object id, String json) throws IOException {
+            MongoKey key;
+            try {
+                key = new MongoKey(id);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(collectionName + ": " + e.getMessage(), e);
+            }
+            if (lastKey != null && lastKey.compareTo(key) >= 0) {
+                throw new IOException("Documents of " + collectionName + " did not come back in _id order at _id " + key + ".");
+            }
+            lastKey = key;
+            while (previous != null && previous.key().compareTo(key) < 0) {
+                writeDelete();
+            }
+            if (previous != null && previous.key().compareTo(key) == 0) {
+                if (!Arrays.equals(previous.row(), json.getBytes(StandardCharsets.UTF_8))) {
+                    write(MongoChangeSource.upsertLine(json));
+                }
+                previous = previousDocuments.next();
+            } else {
+                write(MongoChangeSource.upsertLine(json));
+            }
+        }
+
+        long finish() throws IOException {
+            while (previous != null) {
+                writeDelete();
+            }
+            return changes;
+        }
+
+        private void writeDelete() throws IOException {
+            write(MongoChangeSource.deleteLine(previous.key().id()));
+            previous = previousDocuments.next();
+        }
+
+        private void write(String line) throws IOException {
+            writer.write(line);
+            writer.newLine();
+            changes++;
+        }
     }
 }
@@ -1,29 +1,62 @@
 package org.example.service.impl;
 
-import com.mongodb.client.MongoClients;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.RenameCollectionOptions;
 import org.bson.Document;
+import org.example.archive.StreamArchiveReader;
+import org.example.checkpoint.MongoRestoreCheckpoint;
+import org.example.checkpoint.RestoreCheckpoint;
+import org.example.diff.DiffCounts;
+import org.example.diff.MongoCollectionDiff;
 import org.example.entities.DbConnectionEntity;
+import org.example.entities.RestoreOptions;
+import org.example.factory.StorageFactory;
+import org.example.manifest.BackupManifest;
+import org.example.memory.BufferPool;
+import org.example.pipeline.BatchConsumer;
+import org.example.pipeline.RestorePipeline;
+import org.example.pool.ConnectionManager;
 import org.example.service.DatabaseRestorer;
-import org.example.util.EncryptionUtil;
+import org.example.storage.BackupStorage;
+import org.example.util.BackupStreamUtil;
+import org.example.util.ExecutorUtil;
 import org.example.util.ProgressBarUtil;
+import org.example.util.ShadowTables;
 
-import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.crypto.SecretKey;
 import java.io.BufferedReader;
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MongoDatabaseRestorer implements DatabaseRestorer {
 
+    private static final int BATCH_SIZE = 1000;
+    private static final int DUPLICATE_KEY_ERROR = 11000;
+    private static final String DATA_FILE_SUFFIX = ".json.gz";
+    private static final String INDEX_FILE_SUFFIX = ".indexes.json.gz";
+    private static final String DB_FOLDER = "mongo";
+    private static final String ARCHIVE_RESTORE_ID = "archive";
+
     private static final MongoDatabaseRestorer instance = new MongoDatabaseRestorer();
 
     private MongoDatabaseRestorer() {
@@ -34,72 +67,383 @@ public class MongoDatabaseRestorer implements DatabaseRestorer {
     }
 
     @Override
-    public void restoreDatabase(String key, List<String> collections, String fileDbType, String fileName, DbConnectionEntity dbConnectionEntity) {
-        Path backupPath = Paths.get(System.getProperty("user.home"), "backups", fileDbType, fileName);
-
-        if (!Files.isDirectory(backupPath)) {
-            System.out.println("Backup directory not found: " + backupPath);
-            return;
-        }
+    public boolean restoreDatabase(BackupStorage backupStorage, String key, List<String> collections, String fileDbType, String fileName,
+                                   DbConnectionEntity dbConnectionEntity, RestoreOptions options) {
+        String backupPath = fileDbType + "/" + fileName;
+        BackupStorage storage = StorageFactory.getStorage(backupStorage, backupPath);
 
-        try (var mongoClient = MongoClients.create(dbConnectionEntity.getUrl())) {
+        try (BufferPool.Usage memory = BufferPool.getInstance().track()) {
+            MongoClient mongoClient = ConnectionManager.getInstance().getMongoClient(dbConnectionEntity);
+            if (!storage.exists(backupPath)) {
+                System.out.println("Backup directory not found: " + storage.describe(backupPath));
+                return false;
+            }
             MongoDatabase database = mongoClient.getDatabase(dbConnectionEntity.getDbName());
 
-            List<Path> fileList = Files.list(backupPath)
-                    .filter(file -> {
-                        String collectionName = extractCollectionName(file.getFileName().toString());
-                        return collections == null || collections.isEmpty() || collections.contains(collectionName);
-                    })
+            List<String> fileList = storage.list(backupPath).stream()
+                    .filter(file -> file.endsWith(DATA_FILE_SUFFIX))
+                    .filter(file -> isSelected(file, collections))
                     .toList();
 
+            List<String> dataFiles = fileList.stream().filter(file -> !isIndexFile(file)).toList();
+            List<String> indexFiles = fileList.stream().filter(this::isIndexFile).toList();
+            BackupManifest manifest = BackupManifest.exists(storage, backupPath) ? BackupManifest.open(storage, backupPath) : null;
+            if (manifest != null && manifest.getBase() != null) {
+                System.out.println("Backup " + fileName + " only holds the changes since " + manifest.getBase()
+                        + ", run --compact " + fileDbType + " --folder " + fileName + " and restore the backup it writes.");
+                return false;
+            }
+            if (manifest != null && !manifest.isComplete()) {
+                System.out.println("Warning: backup " + fileName + " is incomplete, only the collections it finished will be restored.");
+            }
+
+            MongoRestoreCheckpoint checkpoint = MongoRestoreCheckpoint.open(database, fileDbType + "/" + fileName, options.isResume());
+            // A differential restore leaves the indexes of the collections it compared as they are.
+            Set<String> diffed = new HashSet<>();
+            List<String> loadFiles = dataFiles;
+            if (options.isDiff()) {
+                loadFiles = diffCollections(storage, backupPath, dataFiles, manifest, key, database, checkpoint, options, diffed);
+                if (loadFiles == null) {
+                    return false;
+                }
+            }
             int i = 0;
-            for (Path filePath : fileList) {
-                if (!restoreCollectionFromFile(filePath, key, database)) {
-                    System.out.println("Access denied for encrypted file: " + filePath.getFileName());
-                    return;
+            for (String dataFile : loadFiles) {
+                if (!canDecrypt(dataFile, key) || !restoreCollectionFromFile(storage.open(backupPath + "/" + dataFile), dataFile,
+                        storage.describe(backupPath + "/" + dataFile), key, database, checkpoint, options)) {
+                    System.out.println("Access denied for encrypted file: " + dataFile);
+                    System.out.println("Restore incomplete, rerun it with --resume to continue.");
+                    return false;
+                }
+                ProgressBarUtil.printProgress(++i, loadFiles.size());
+            }
+
+            System.out.println("\nBuilding indexes...");
+            Map<String, List<Document>> indexes = new LinkedHashMap<>();
+            for (String indexFile : indexFiles) {
+                String collectionName = extractCollectionName(indexFile);
+                if (canDecrypt(indexFile, key) && !checkpoint.isMarked(collectionName, RestoreCheckpoint.INDEXED)
+                        && !diffed.contains(collectionName)) {
+                    indexes.put(collectionName, readIndexes(storage.open(backupPath + "/" + indexFile), indexFile, key));
                 }
-                ProgressBarUtil.printProgress(++i, fileList.size());
             }
-            System.out.println("\nRestore completed successfully.");
+            if (!buildIndexes(indexes, database, checkpoint, options)) {
+                if (options.isShadow()) {
+                    System.out.println("Some indexes of the restored collections were not built, so they were not swapped in.");
+                    System.out.println("The live collections are unchanged, rerun the restore with --resume to retry the indexes and the swap.");
+                } else {
+                    System.out.println("Restore incomplete, some indexes were not built. Rerun it with --resume to retry them.");
+                }
+                return false;
+            }
+            if (options.isShadow()) {
+                swapCollections(dataFiles.stream().map(this::extractCollectionName).toList(), database, checkpoint);
+            }
+            checkpoint.clear();
+            System.out.println("Restore completed successfully.");
+            System.out.println(memory.summary());
+            return true;
         } catch (Exception e) {
             System.err.println("Error restoring MongoDB database: " + e.getMessage());
         }
+        return false;
     }
 
-    private boolean restoreCollectionFromFile(Path filePath, String key, MongoDatabase database) {
-        String fileName = filePath.getFileName().toString();
-        boolean isEncrypted = fileName.contains("_encrypted");
+    @Override
+    public void restoreArchive(String key, List<String> collections, InputStream archive, DbConnectionEntity dbConnectionEntity,
+                               RestoreOptions options) {
+        try (BufferPool.Usage memory = BufferPool.getInstance().track()) {
+            MongoClient mongoClient = ConnectionManager.getInstance().getMongoClient(dbConnectionEntity);
+            MongoDatabase database = mongoClient.getDatabase(dbConnectionEntity.getDbName());
+            MongoRestoreCheckpoint checkpoint = MongoRestoreCheckpoint.open(database, DB_FOLDER + "/" + ARCHIVE_RESTORE_ID, false);
+            StreamArchiveReader reader = new StreamArchiveReader(archive);
+            // Index files can arrive before their collection is loaded, so they are only built once everything is in.
+            Map<String, List<Document>> indexes = new ConcurrentHashMap<>();
+            Set<String> restored = ConcurrentHashMap.newKeySet();
+            AtomicBoolean failed = new AtomicBoolean();
+            try {
+                reader.read((path, data) -> {
+                    if (!path.startsWith(DB_FOLDER + "/")) {
+                        throw new IOException("The archive is not a MongoDB backup: " + path);
+                    }
+                    String file = path.substring(path.lastIndexOf('/') + 1);
+                    if (!file.endsWith(DATA_FILE_SUFFIX) || !isSelected(file, collections)) {
+                        return;
+                    }
+                    if (!canDecrypt(file, key)) {
+                        failed.set(true);
+                    } else if (isIndexFile(file)) {
+                        indexes.put(extractCollectionName(file), readIndexes(data, file, key));
+                    } else if (restoreCollectionFromFile(data, file, "archive:" + path, key, database, checkpoint, options)) {
+                        restored.add(extractCollectionName(file));
+                        System.out.println("Restored collection " + extractCollectionName(file));
+                    } else {
+                        failed.set(true);
+                    }
+                });
+            } catch (IOException e) {
+                System.err.println("Error reading the archive: " + e.getMessage());
+                failed.set(true);
+            }
+            reader.verify().forEach(problem -> System.out.println("Warning: " + problem));
+            if (failed.get()) {
+                System.out.println("Restore incomplete, indexes were not built.");
+                return;
+            }
+
+            System.out.println("Building indexes...");
+            if (!buildIndexes(indexes, database, checkpoint, options)) {
+                System.out.println(options.isShadow()
+                        ? "Some indexes of the restored collections were not built, so they were not swapped in. The live collections are unchanged."
+                        : "Restore incomplete, some indexes were not built.");
+                return;
+            }
+            if (options.isShadow()) {
+                swapCollections(restored, database, checkpoint);
+            }
+            checkpoint.clear();
+            System.out.println("Restore completed successfully.");
+            System.out.println(memory.summary());
+        } catch (Exception e) {
+            System.err.println("Error restoring MongoDB database: " + e.getMessage());
+        }
+    }
+
+    private boolean isSelected(String fileName, List<String> collections) {
+        return collections == null || collections.isEmpty() || collections.contains(extractCollectionName(fileName));
+    }
 
-        if (isEncrypted && key == null) {
+    private boolean canDecrypt(String fileName, String key) {
+        if (fileName.contains("_encrypted") && key == null) {
             System.out.println("Access denied: Encrypted file requires a key.");
             return false;
         }
+        return true;
+    }
 
-        try (InputStream fileInputStream = new FileInputStream(filePath.toFile());
-             InputStream finalInputStream = isEncrypted ? getDecryptedInputStream(fileInputStream, key) : new GZIPInputStream(fileInputStream);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(finalInputStream))) {
+    /**
+     * Differential restore: every collection that already exists is merged with its backup in place, as many
+     * at a time as there are workers, and added to {@code diffed}. Returns the files of missing collections,
+     * which are loaded the usual way, or null if a file could not be restored.
+     */
+    private List<String> diffCollections(BackupStorage storage, String backupPath, List<String> dataFiles, BackupManifest manifest,
+                                         String key, MongoDatabase database, MongoRestoreCheckpoint checkpoint, RestoreOptions options,
+                                         Set<String> diffed) throws InterruptedException {
+        Set<String> existing = database.listCollectionNames().into(new HashSet<>());
+        List<String> missingCollections = new ArrayList<>();
+        Map<String, Future<DiffCounts>> diffs = new LinkedHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(options.getWorkers());
+        try {
+            for (String dataFile : dataFiles) {
+                String collectionName = extractCollectionName(dataFile);
+                if (checkpoint.isMarked(collectionName, RestoreCheckpoint.LOADED)) {
+                    continue;
+                }
+                // A collection an earlier, interrupted run started loading is still loaded the usual way.
+                if (!existing.contains(collectionName) || checkpoint.hasProgress(collectionName)) {
+                    missingCollections.add(dataFile);
+                    continue;
+                }
+                if (!canDecrypt(dataFile, key)) {
+                    System.out.println("Access denied for encrypted file: " + dataFile);
+                    return null;
+                }
+                diffed.add(collectionName);
+                String path = backupPath + "/" + dataFile;
+                String filter = manifest != null ? manifest.getSelection(collectionName).filter() : null;
+                MongoCollectionDiff diff = new MongoCollectionDiff(database.getCollection(collectionName), collectionName,
+                        storage.describe(path), filter != null ? Document.parse(filter) : null);
+                diffs.put(dataFile, executor.submit(() -> {
+                    try (InputStream rawInputStream = storage.open(path);
+                         InputStream inputStream = BackupStreamUtil.openDecoded(rawInputStream, dataFile.contains("_encrypted") ? key : null)) {
+                        DiffCounts counts = diff.apply(inputStream);
+                        checkpoint.mark(collectionName, RestoreCheckpoint.LOADED);
+                        return counts;
+                    }
+                }));
+            }
 
-            String collectionName = extractCollectionName(fileName);
-            MongoCollection<Document> collection = database.getCollection(collectionName);
-            collection.drop();
+            DiffCounts total = DiffCounts.NONE;
+            boolean failed = false;
+            int done = 0;
+            for (Map.Entry<String, Future<DiffCounts>> diff : diffs.entrySet()) {
+                try {
+                    total = total.plus(diff.getValue().get());
+                } catch (ExecutionException e) {
+                    System.err.println("Error processing file: " + storage.describe(backupPath + "/" + diff.getKey()) + " - " + e.getCause().getMessage());
+                    failed = true;
+                }
+                ProgressBarUtil.printProgress(++done, diffs.size());
+            }
+            if (!diffs.isEmpty()) {
+                System.out.println();
+            }
+            if (failed) {
+                System.out.println("Restore incomplete, rerun it with --resume to continue.");
+                return null;
+            }
+            System.out.println(total.summary("documents"));
+            return missingCollections;
+        } finally {
+            ExecutorUtil.shutdownAndWait(executor);
+        }
+    }
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                collection.insertOne(Document.parse(line));
+    private boolean restoreCollectionFromFile(InputStream rawInputStream, String fileName, String location, String key, MongoDatabase database,
+                                              MongoRestoreCheckpoint checkpoint, RestoreOptions options) {
+        int workers = options.getWorkers();
+        boolean isEncrypted = fileName.contains("_encrypted");
+        String collectionName = extractCollectionName(fileName);
+        try (rawInputStream; InputStream finalInputStream = BackupStreamUtil.openDecoded(rawInputStream, isEncrypted ? key : null)) {
+            if (checkpoint.isMarked(collectionName, RestoreCheckpoint.LOADED)) {
+                return true;
+            }
+            String targetName = targetName(collectionName, checkpoint, options);
+            MongoCollection<Document> collection = database.getCollection(targetName);
+            boolean resuming = checkpoint.hasProgress(collectionName);
+            if (!resuming) {
+                collection.drop();
             }
+            // Collections only appear on their first insert; an empty backup must still leave one, or a shadow to swap in.
+            if (!database.listCollectionNames().into(new HashSet<>()).contains(targetName)) {
+                database.createCollection(targetName);
+            }
+
+            InsertManyOptions insertOptions = new InsertManyOptions().ordered(false);
+            RestoreCheckpoint.CommittedRows committedRows = checkpoint.committedRows(collectionName);
+            RestorePipeline<DocumentBatch> pipeline = new RestorePipeline<>(workers, workers * 4);
+            pipeline.run(finalInputStream, (in, out) -> parseDocuments(in, committedRows, out), () -> batch -> {
+                insertDocuments(collection, batch.documents(), insertOptions, resuming);
+                checkpoint.recordBatch(collectionName, batch.firstRow(), batch.documents().size());
+            });
+            checkpoint.mark(collectionName, RestoreCheckpoint.LOADED);
             return true;
 
         } catch (Exception e) {
-            System.err.println("Error processing file: " + filePath + " - " + e.getMessage());
+            System.err.println("Error processing file: " + location + " - " + e.getMessage());
             return false;
         }
     }
 
-    private InputStream getDecryptedInputStream(InputStream encryptedInputStream, String key) throws Exception {
-        SecretKey secretKey = EncryptionUtil.decodeKey(key);
-        Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding", "BC");
-        cipher.init(Cipher.DECRYPT_MODE, secretKey);
-        return new CipherInputStream(encryptedInputStream, cipher);
+    private void insertDocuments(MongoCollection<Document> collection, List<Document> documents, InsertManyOptions insertOptions, boolean resuming) {
+        try {
+            collection.insertMany(documents, insertOptions);
+        } catch (MongoBulkWriteException e) {
+            // A resumed run may replay a batch whose checkpoint was lost; those documents are already there.
+            boolean onlyDuplicates = e.getWriteErrors().stream().allMatch(error -> error.getCode() == DUPLICATE_KEY_ERROR);
+            if (!resuming || !onlyDuplicates) {
+                throw e;
+            }
+        }
+    }
+
+    /** Returns false if an index could not be built; its collection stays unmarked, so {@code --resume} builds it again. */
+    private boolean buildIndexes(Map<String, List<Document>> indexes, MongoDatabase database, MongoRestoreCheckpoint checkpoint,
+                                 RestoreOptions options) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(options.getWorkers());
+        try {
+            Map<String, Future<?>> futures = new LinkedHashMap<>();
+            indexes.forEach((collectionName, collectionIndexes) -> {
+                if (!checkpoint.isMarked(collectionName, RestoreCheckpoint.INDEXED)) {
+                    futures.put(collectionName, executor.submit(() -> {
+                        if (!collectionIndexes.isEmpty()) {
+                            database.runCommand(new Document("createIndexes", targetName(collectionName, checkpoint, options))
+                                    .append("indexes", collectionIndexes));
+                        }
+                        checkpoint.mark(collectionName, RestoreCheckpoint.INDEXED);
+                        return null;
+                    }));
+                }
+            });
+            boolean failed = false;
+            for (Map.Entry<String, Future<?>> future : futures.entrySet()) {
+                try {
+                    future.getValue().get();
+                } catch (ExecutionException e) {
+                    System.err.println("Error building indexes of " + future.getKey() + ": " + e.getCause().getMessage());
+                    failed = true;
+                }
+            }
+            return !failed;
+        } finally {
+            ExecutorUtil.shutdownAndWait(executor);
+        }
+    }
+
+    /** Where a collection is loaded: its shadow in a shadow restore, until it has been swapped in. */
+    private String targetName(String collectionName, MongoRestoreCheckpoint checkpoint, RestoreOptions options) {
+        return options.isShadow() && !checkpoint.isMarked(collectionName, RestoreCheckpoint.SWAPPED)
+                ? ShadowTables.shadowName(collectionName) : collectionName;
+    }
+
+    /**
+     * Renames every loaded shadow collection over its live collection. Each rename drops and replaces its
+     * target atomically; collections already swapped by an interrupted run are skipped.
+     */
+    private void swapCollections(Collection<String> collectionNames, MongoDatabase database, MongoRestoreCheckpoint checkpoint) {
+        System.out.println("Swapping in the restored collections...");
+        Set<String> existing = database.listCollectionNames().into(new HashSet<>());
+        for (String collectionName : new LinkedHashSet<>(collectionNames)) {
+            String shadowName = ShadowTables.shadowName(collectionName);
+            if (checkpoint.isMarked(collectionName, RestoreCheckpoint.SWAPPED) || !existing.contains(shadowName)) {
+                continue;
+            }
+            database.getCollection(shadowName).renameCollection(new MongoNamespace(database.getName(), collectionName),
+                    new RenameCollectionOptions().dropTarget(true));
+            checkpoint.mark(collectionName, RestoreCheckpoint.SWAPPED);
+        }
+    }
+
+    private List<Document> readIndexes(InputStream rawInputStream, String fileName, String key) throws Exception {
+        boolean isEncrypted = fileName.contains("_encrypted");
+        List<Document> indexes = new ArrayList<>();
+        try (rawInputStream; InputStream inputStream = BackupStreamUtil.openDecoded(rawInputStream, isEncrypted ? key : null);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                Document index = Document.parse(line);
+                index.remove("v");
+                index.remove("ns");
+                indexes.add(index);
+            }
+        }
+        return indexes;
+    }
+
+    private boolean isIndexFile(String file) {
+        return file.endsWith(INDEX_FILE_SUFFIX);
+    }
+
+    private void parseDocuments(InputStream inputStream, RestoreCheckpoint.CommittedRows committedRows,
+                                BatchConsumer<DocumentBatch> out) throws IOException, InterruptedException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        long row = 0;
+        DocumentBatch batch = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            if (committedRows.resumeFrom(row) > row) {
+                if (batch != null) {
+                    out.accept(batch);
+                    batch = null;
+                }
+                row++;
+                continue;
+            }
+            if (batch == null) {
+                batch = new DocumentBatch(row, new ArrayList<>(BATCH_SIZE));
+            }
+            batch.documents().add(Document.parse(line));
+            row++;
+            if (batch.documents().size() == BATCH_SIZE) {
+                out.accept(batch);
+                batch = null;
+            }
+        }
+        if (batch != null) {
+            out.accept(batch);
+        }
     }
 
     private String extractCollectionName(String fileName) {
@@ -109,4 +453,7 @@ public class MongoDatabaseRestorer implements DatabaseRestorer {
         }
         return fileName;
     }
+
+    private record DocumentBatch(long firstRow, List<Document> documents) {
+    }
 }
@@ -1,26 +1,65 @@
 package org.example.service.impl;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.example.codec.ColumnKind;
+import org.example.codec.RowBatch;
+import org.example.codec.RowParser;
+import org.example.archive.StreamArchiveReader;
+import org.example.checkpoint.RestoreCheckpoint;
+import org.example.checkpoint.SqlRestoreCheckpoint;
+import org.example.diff.DiffCounts;
+import org.example.diff.SqlTableDiff;
 import org.example.entities.DbConnectionEntity;
+import org.example.entities.EntitySelection;
+import org.example.entities.RestoreOptions;
+import org.example.entities.TableSchema;
+import org.example.factory.StorageFactory;
+import org.example.manifest.BackupManifest;
+import org.example.memory.BufferPool;
+import org.example.pipeline.BatchConsumer;
+import org.example.pipeline.BatchSink;
+import org.example.pipeline.RestorePipeline;
+import org.example.pool.ConnectionManager;
+import org.example.pool.JdbcConnectionPool;
 import org.example.service.DatabaseRestorer;
-import org.example.util.EncryptionUtil;
+import org.example.storage.BackupStorage;
+import org.example.util.BackupStreamUtil;
+import org.example.util.ExecutorUtil;
 import org.example.util.ProgressBarUtil;
+import org.example.util.ShadowTables;
+import org.example.util.SqlDialect;
+import org.example.util.SqlSchemaUtil;
 
-import javax.crypto.*;
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.security.Security;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 public class SQLRestorer implements DatabaseRestorer {
 
-    static {
-        Security.addProvider(new BouncyCastleProvider());
-    }
+    private static final int BATCH_SIZE = 1000;
+    private static final String DATA_FILE_SUFFIX = ".csv.gz";
+    private static final String DB_FOLDER = "sql";
+    private static final String ARCHIVE_RESTORE_ID = "archive";
+    // Large tables are backed up as key ranges in files like users_2024-0101_120000.part0002.csv.gz.
+    private static final Pattern PART_SUFFIX = Pattern.compile("\\.part\\d{4}(?=\\.csv\\.gz$)");
 
     private static final SQLRestorer instance = new SQLRestorer();
 
@@ -32,102 +71,343 @@ public class SQLRestorer implements DatabaseRestorer {
     }
 
     @Override
-    public void restoreDatabase(String key, List<String> saves, String fileDbType, String fileName, DbConnectionEntity dbConnectionEntity) {
-        Path backupPath = Paths.get(System.getProperty("user.home"), "backups", fileDbType, fileName);
-
-        if (!Files.isDirectory(backupPath)) {
-            System.out.println("Backup directory not found: " + backupPath);
-            return;
-        }
+    public boolean restoreDatabase(BackupStorage backupStorage, String key, List<String> saves, String fileDbType, String fileName,
+                                   DbConnectionEntity dbConnectionEntity, RestoreOptions options) {
+        String backupPath = fileDbType + "/" + fileName;
+        BackupStorage storage = StorageFactory.getStorage(backupStorage, backupPath);
 
         try {
-            List<Path> fileList = Files.list(backupPath)
-                    .filter(file -> {
-                        String tableName = extractTableName(file.getFileName().toString());
-                        return saves == null || saves.isEmpty() || saves.contains(tableName);
-                    })
+            if (!storage.exists(backupPath)) {
+                System.out.println("Backup directory not found: " + storage.describe(backupPath));
+                return false;
+            }
+
+            List<String> fileList = storage.list(backupPath).stream()
+                    .filter(file -> file.endsWith(DATA_FILE_SUFFIX))
+                    .filter(file -> isSelected(file, saves))
                     .toList();
 
             if (fileList.isEmpty()) {
                 System.out.println("No matching backup files found.");
-                return;
+                return false;
+            }
+            BackupManifest manifest = BackupManifest.exists(storage, backupPath) ? BackupManifest.open(storage, backupPath) : null;
+            if (manifest != null && manifest.getBase() != null) {
+                System.out.println("Backup " + fileName + " only holds the changes since " + manifest.getBase()
+                        + ", run --compact " + fileDbType + " --folder " + fileName + " and restore the backup it writes.");
+                return false;
+            }
+            if (manifest != null && !manifest.isComplete()) {
+                System.out.println("Warning: backup " + fileName + " is incomplete, only the tables it finished will be restored.");
+            }
+            if (options.isDiff() && manifest != null && !manifest.isSorted()) {
+                System.out.println("Backup " + fileName + " was not written in key order, so it cannot be compared with the live tables."
+                        + " Restore it without --diff, or take backups with --sorted.");
+                return false;
             }
 
-            try (Connection connection = DriverManager.getConnection(dbConnectionEntity.getUrl(),
-                    dbConnectionEntity.getUser(), dbConnectionEntity.getPassword())) {
-                int totalFiles = fileList.size();
+            return restore(backupPath, dbConnectionEntity, options, context -> {
+                List<String> loadFiles = options.isDiff() ? diffBackupFiles(storage, backupPath, fileList, manifest, key, context) : fileList;
+                if (loadFiles == null) {
+                    return false;
+                }
+                int totalFiles = loadFiles.size();
                 for (int i = 0; i < totalFiles; i++) {
-                    Path filePath = fileList.get(i);
-                    if (!processBackupFile(filePath, key, connection)) {
-                        System.out.println("Access denied for encrypted file: " + filePath.getFileName());
-                        return;
+                    String dataFile = loadFiles.get(i);
+                    String location = storage.describe(backupPath + "/" + dataFile);
+                    if (!canDecrypt(dataFile, key)
+                            || !processBackupFile(storage.open(backupPath + "/" + dataFile), dataFile, location, key, context)) {
+                        System.out.println("Access denied for encrypted file: " + dataFile);
+                        System.out.println("Restore incomplete, rerun it with --resume to continue.");
+                        return false;
                     }
                     ProgressBarUtil.printProgress(i + 1, totalFiles);
-                    Thread.sleep(200 * 3);
                 }
-                System.out.println("\nRestore completed successfully.");
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
+                if (totalFiles > 0) {
+                    System.out.println();
+                }
+                return true;
+            });
 
         } catch (IOException e) {
-            System.err.println("Error accessing the directory: " + backupPath);
+            System.err.println("Error accessing the directory: " + storage.describe(backupPath));
         } catch (SQLException e) {
             System.err.println("Error establishing database connection: " + e.getMessage());
         }
+        return false;
     }
 
-    private boolean processBackupFile(Path filePath, String key, Connection connection) {
-        String fileName = filePath.getFileName().toString();
-        boolean isEncrypted = fileName.contains("_encrypted");
+    @Override
+    public void restoreArchive(String key, List<String> saves, InputStream archive, DbConnectionEntity dbConnectionEntity,
+                               RestoreOptions options) {
+        try {
+            StreamArchiveReader reader = new StreamArchiveReader(archive);
+            restore(DB_FOLDER + "/" + ARCHIVE_RESTORE_ID, dbConnectionEntity, options, context -> {
+                AtomicBoolean failed = new AtomicBoolean();
+                try {
+                    reader.read((path, data) -> {
+                        if (!path.startsWith(DB_FOLDER + "/")) {
+                            throw new IOException("The archive is not a SQL backup: " + path);
+                        }
+                        String dataFile = path.substring(path.lastIndexOf('/') + 1);
+                        if (!dataFile.endsWith(DATA_FILE_SUFFIX) || !isSelected(dataFile, saves)) {
+                            return;
+                        }
+                        if (canDecrypt(dataFile, key) && processBackupFile(data, dataFile, "archive:" + path, key, context)) {
+                            System.out.println("Restored table " + extractProgressName(dataFile));
+                        } else {
+                            failed.set(true);
+                        }
+                    });
+                } catch (IOException e) {
+                    System.err.println("Error reading the archive: " + e.getMessage());
+                    failed.set(true);
+                }
+                reader.verify().forEach(problem -> System.out.println("Warning: " + problem));
+                if (failed.get()) {
+                    System.out.println("Restore incomplete, indexes and constraints were not built.");
+                }
+                return !failed.get();
+            });
+        } catch (IOException e) {
+            System.err.println("Error reading the archive: " + e.getMessage());
+        } catch (SQLException e) {
+            System.err.println("Error establishing database connection: " + e.getMessage());
+        }
+    }
+
+    private boolean restore(String restoreId, DbConnectionEntity dbConnectionEntity, RestoreOptions options, TableLoader loader)
+            throws SQLException, IOException {
+        BlockingQueue<Connection> workerConnections = new ArrayBlockingQueue<>(options.getWorkers());
+        // A differential restore reads each live table over one connection while it writes the changes over another.
+        BlockingQueue<Connection> readConnections = new ArrayBlockingQueue<>(options.getWorkers());
+        ConnectionManager connections = ConnectionManager.getInstance();
+        int parallelism = options.getWorkers() * (options.isDiff() ? 2 : 1) + 1;
+        try (JdbcConnectionPool.Lease lease = connections.lease(dbConnectionEntity, parallelism);
+             Connection connection = lease.borrow();
+             BufferPool.Usage memory = BufferPool.getInstance().track()) {
+            SqlDialect dialect = SqlDialect.of(connection);
+            // Pooled connections outlive the restore, so none may go back with foreign key checks off.
+            Set<Connection> bulkLoading = new HashSet<>();
+            try {
+                if (dialect.applyBulkLoadSettings(connection)) {
+                    bulkLoading.add(connection);
+                }
+                SqlRestoreCheckpoint checkpoint = SqlRestoreCheckpoint.open(connection, restoreId, options.isResume());
+                if (!options.isResume() && !checkpoint.savedForeignKeyTables().isEmpty()) {
+                    System.out.println("An earlier restore was interrupted after taking off foreign keys of other tables, they are added back at the end.");
+                }
+                for (int i = 0; i < options.getWorkers(); i++) {
+                    Connection workerConnection = lease.borrow();
+                    workerConnections.add(workerConnection);
+                    workerConnection.setAutoCommit(false);
+                    if (dialect.applyBulkLoadSettings(workerConnection)) {
+                        bulkLoading.add(workerConnection);
+                    }
+                    if (options.isDiff()) {
+                        Connection readConnection = lease.borrow();
+                        readConnections.add(readConnection);
+                        readConnection.setAutoCommit(false);
+                    }
+                }
+
+                List<TableSchema> schemas = Collections.synchronizedList(new ArrayList<>());
+                if (!loader.load(new RestoreContext(connection, workerConnections, readConnections, options.getWorkers(), schemas, checkpoint,
+                        options.isShadow()))) {
+                    return false;
+                }
+
+                for (Connection workerConnection : workerConnections) {
+                    if (bulkLoading.remove(workerConnection)) {
+                        dialect.resetSessionSettings(workerConnection);
+                    }
+                }
+                System.out.println("Building indexes and constraints...");
+                if (options.isShadow()) {
+                    if (!runInParallel(schemas, schema -> ShadowTables.postLoadStatements(schema, dialect), RestoreCheckpoint.INDEXED,
+                            workerConnections, checkpoint)) {
+                        // An incomplete copy never replaces the live tables.
+                        System.out.println("Some indexes of the restored tables were not built, so they were not swapped in.");
+                        System.out.println("The live tables are unchanged, rerun the restore with --resume to retry the indexes and the swap.");
+                        return false;
+                    }
+                    System.out.println("Swapping in the restored tables...");
+                    try {
+                        ShadowTables.swap(connection, dialect, schemas, checkpoint);
+                    } catch (SQLException e) {
+                        System.err.println("Error swapping in the restored tables: " + e.getMessage());
+                        System.out.println("The live tables are unchanged, rerun the restore with --resume to retry the swap.");
+                        return false;
+                    }
+                } else if (!runInParallel(schemas, TableSchema::postLoadStatements, RestoreCheckpoint.INDEXED, workerConnections, checkpoint)) {
+                    System.out.println("Restore incomplete, some indexes were not built. Rerun it with --resume to retry them.");
+                    return false;
+                }
+                Map<String, List<String>> foreignKeys = statementsByTable(schemas, schema -> Stream.concat(schema.foreignKeyStatements().stream(),
+                        checkpoint.savedForeignKeys(schema.tableName()).stream()).toList());
+                // An interrupted earlier restore may have taken off keys pointing at tables this one leaves alone.
+                for (String tableName : checkpoint.savedForeignKeyTables()) {
+                    foreignKeys.putIfAbsent(tableName, checkpoint.savedForeignKeys(tableName));
+                }
+                if (!runInParallel(foreignKeys, RestoreCheckpoint.CONSTRAINED, workerConnections, checkpoint)) {
+                    System.out.println("Restore incomplete, some foreign keys were not added. Rerun it with --resume to retry them.");
+                    return false;
+                }
+                checkpoint.clear(connection);
+                System.out.println("Restore completed successfully.");
+                System.out.println(memory.summary());
+                return true;
+            } finally {
+                for (Connection bulkConnection : bulkLoading) {
+                    // A failed batch can leave its transaction aborted, which would reject the reset.
+                    rollbackQuietly(bulkConnection);
+                    dialect.resetSessionSettings(bulkConnection);
+                }
+                closeAll(workerConnections);
+                closeAll(readConnections);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Restore interrupted.");
+        }
+        return false;
+    }
 
-        if (isEncrypted && key == null) {
+    private boolean isSelected(String fileName, List<String> saves) {
+        return saves == null || saves.isEmpty() || saves.contains(extractTableName(fileName));
+    }
+
+    private boolean canDecrypt(String fileName, String key) {
+        if (fileName.contains("_encrypted") && key == null) {
             System.out.println("Access denied: Encrypted file requires a key.");
             return false;
         }
+        return true;
+    }
 
-        Path extractedFilePath = Paths.get(filePath.toString().replace(".gz", ""));
-        try (InputStream fileInputStream = new FileInputStream(filePath.toFile());
-             GZIPInputStream gzipInputStream = new GZIPInputStream(fileInputStream);
-             FileOutputStream extractedFileOutputStream = new FileOutputStream(extractedFilePath.toFile())) {
+    /**
+     * Differential restore: every file of a table that already exists is merged into the live table in place,
+     * as many files at a time as there are workers. Returns the files of missing tables, which are loaded the
+     * usual way, or null if a file could not be restored.
+     */
+    private List<String> diffBackupFiles(BackupStorage storage, String backupPath, List<String> files, BackupManifest manifest,
+                                         String key, RestoreContext context) throws SQLException, InterruptedException {
+        List<String> missingTables = new ArrayList<>();
+        Map<String, Future<DiffCounts>> diffs = new LinkedHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(context.workers());
+        try {
+            for (String dataFile : files) {
+                String tableName = extractTableName(dataFile);
+                if (context.checkpoint().isMarked(extractProgressName(dataFile), RestoreCheckpoint.LOADED)) {
+                    continue;
+                }
+                boolean exists;
+                synchronized (context.connection()) {
+                    exists = SqlSchemaUtil.storedTableName(context.connection(), tableName) != null;
+                }
+                // A table created by an earlier, interrupted run is still being loaded the usual way.
+                if (!exists || context.checkpoint().isMarked(tableName, RestoreCheckpoint.CREATED)) {
+                    missingTables.add(dataFile);
+                    continue;
+                }
+                if (!canDecrypt(dataFile, key)) {
+                    System.out.println("Access denied for encrypted file: " + dataFile);
+                    return null;
+                }
+                diffs.put(dataFile, executor.submit(() -> diffBackupFile(storage, backupPath, dataFile, manifest, key, context)));
+            }
 
-            byte[] buffer = new byte[8192];
-            int len;
-            while ((len = gzipInputStream.read(buffer)) > 0) {
-                extractedFileOutputStream.write(buffer, 0, len);
+            DiffCounts total = DiffCounts.NONE;
+            boolean failed = false;
+            int done = 0;
+            for (Map.Entry<String, Future<DiffCounts>> diff : diffs.entrySet()) {
+                try {
+                    total = total.plus(diff.getValue().get());
+                } catch (ExecutionException e) {
+                    System.err.println("Error processing file: " + storage.describe(backupPath + "/" + diff.getKey()) + " - " + e.getCause().getMessage());
+                    failed = true;
+                }
+                ProgressBarUtil.printProgress(++done, diffs.size());
             }
-        } catch (IOException e) {
-            System.err.println("Error decompressing file: " + filePath + " - " + e.getMessage());
-            return false;
+            if (!diffs.isEmpty()) {
+                System.out.println();
+            }
+            if (failed) {
+                System.out.println("Restore incomplete, rerun it with --resume to continue.");
+                return null;
+            }
+            System.out.println(total.summary("rows"));
+            return missingTables;
+        } finally {
+            ExecutorUtil.shutdownAndWait(executor);
         }
+    }
 
-        try (InputStream finalInputStream = isEncrypted ? getDecryptedInputStream(new FileInputStream(extractedFilePath.toFile()), key)
-                : new FileInputStream(extractedFilePath.toFile());
-             BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(finalInputStream))) {
+    private DiffCounts diffBackupFile(BackupStorage storage, String backupPath, String fileName, BackupManifest manifest, String key,
+                                      RestoreContext context) throws Exception {
+        String tableName = extractTableName(fileName);
+        String progressName = extractProgressName(fileName);
+        EntitySelection selection = manifest != null ? manifest.getSelection(tableName) : EntitySelection.ALL;
+        Long lowerBound = null;
+        Long upperBound = null;
+        Matcher part = PART_SUFFIX.matcher(fileName);
+        if (part.find()) {
+            // Only the part's key range of the live table is compared, the other parts take care of the rest.
+            int partNumber = Integer.parseInt(part.group().substring(".part".length()));
+            List<Long> splits = manifest != null ? manifest.getSplits(tableName) : null;
+            if (splits == null || partNumber > splits.size() + 1) {
+                throw new IOException("The backup manifest does not record the key range of " + fileName + ".");
+            }
+            lowerBound = partNumber > 1 ? splits.get(partNumber - 2) : null;
+            upperBound = partNumber <= splits.size() ? splits.get(partNumber - 1) : null;
+        }
+        String path = backupPath + "/" + fileName;
+        SqlTableDiff diff = new SqlTableDiff(tableName, storage.describe(path), selection.filter(), lowerBound, upperBound);
 
-            String tableName = extractTableName(fileName);
-            restoreTableFromBackup(bufferedReader, tableName, connection);
+        Connection reader = context.readConnections().take();
+        Connection writer = context.workerConnections().take();
+        try (InputStream rawInputStream = storage.open(path);
+             InputStream inputStream = BackupStreamUtil.openDecoded(rawInputStream, fileName.contains("_encrypted") ? key : null)) {
+            DiffCounts counts = diff.apply(inputStream, reader, writer);
+            synchronized (context.connection()) {
+                context.checkpoint().mark(context.connection(), progressName, RestoreCheckpoint.LOADED);
+            }
+            return counts;
+        } finally {
+            // Ends the read transaction, so the next table is read as it is now.
+            rollbackQuietly(reader);
+            context.readConnections().add(reader);
+            context.workerConnections().add(writer);
+        }
+    }
+
+    private boolean processBackupFile(InputStream rawInputStream, String fileName, String location, String key, RestoreContext context) {
+        boolean isEncrypted = fileName.contains("_encrypted");
+        String tableName = extractTableName(fileName);
+        String progressName = extractProgressName(fileName);
+        // Checkpoints keep the backed up name; a shadow restore loads into the shadow table until the swap.
+        String targetTable = context.shadow() && !context.checkpoint().isMarked(tableName, RestoreCheckpoint.SWAPPED)
+                ? ShadowTables.shadowName(tableName) : tableName;
+        try (rawInputStream; InputStream inputStream = BackupStreamUtil.openDecoded(rawInputStream, isEncrypted ? key : null)) {
+            int workers = context.workers();
+            int queueCapacity = workers * 4;
+            BlockingQueue<RowBatch> freeBatches = new ArrayBlockingQueue<>(queueCapacity + workers + 1);
+            RestorePipeline<RowBatch> pipeline = new RestorePipeline<>(workers, queueCapacity);
+            AtomicReference<String> insertColumns = new AtomicReference<>();
+            pipeline.run(inputStream,
+                    (in, out) -> parseTableFromBackup(in, tableName, targetTable, progressName, context, freeBatches, insertColumns, out),
+                    () -> new InsertBatchSink(targetTable, progressName, insertColumns, context.workerConnections(), freeBatches, context.checkpoint()));
+            synchronized (context.connection()) {
+                context.checkpoint().mark(context.connection(), progressName, RestoreCheckpoint.LOADED);
+            }
             return true;
 
         } catch (Exception e) {
-            System.err.println("Error processing file: " + filePath + " - " + e.getMessage());
+            System.err.println("Error processing file: " + location + " - " + e.getMessage());
             return false;
-        } finally {
-            try {
-                Files.deleteIfExists(extractedFilePath);
-            } catch (IOException e) {
-                System.err.println("Failed to delete temporary extracted file: " + extractedFilePath);
-            }
         }
     }
 
-    private InputStream getDecryptedInputStream(InputStream encryptedInputStream, String key) throws Exception {
-        SecretKey secretKey = EncryptionUtil.decodeKey(key);
-        Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding", "BC");
-        cipher.init(Cipher.DECRYPT_MODE, secretKey);
-        return new CipherInputStream(encryptedInputStream, cipher);
-    }
-
     private String extractTableName(String fileName) {
         int lastUnderscoreIndex = fileName.lastIndexOf("_2");
         //TODO: ensure it works in 3000s
@@ -137,78 +417,327 @@ public class SQLRestorer implements DatabaseRestorer {
         return fileName;
     }
 
-    private void restoreTableFromBackup(BufferedReader bufferedReader, String tableName, Connection connection) throws IOException, SQLException {
-        String line;
-        boolean schemaProcessed = false;
+    /** Checkpoint name of a file: the table name, plus the part suffix for one key range of a large table. */
+    private String extractProgressName(String fileName) {
+        Matcher matcher = PART_SUFFIX.matcher(fileName);
+        return matcher.find() ? extractTableName(fileName) + matcher.group() : extractTableName(fileName);
+    }
+
+    private void parseTableFromBackup(InputStream inputStream, String tableName, String targetTable, String progressName, RestoreContext context,
+                                      BlockingQueue<RowBatch> freeBatches, AtomicReference<String> insertColumns,
+                                      BatchConsumer<RowBatch> out)
+            throws IOException, SQLException, InterruptedException {
+        SqlRestoreCheckpoint checkpoint = context.checkpoint();
+        Connection connection = context.connection();
+        RowParser parser = new RowParser(inputStream);
+        parser.setLargeValueMode(RowParser.LargeValueMode.SPILL);
+        String createStatement = null;
+        List<String> postLoadStatements = new ArrayList<>();
+        List<String> foreignKeyStatements = new ArrayList<>();
+        TableColumns columns = null;
 
-        while ((line = bufferedReader.readLine()) != null) {
+        String line = parser.readLine();
+        while (line != null) {
             if (line.startsWith("-- SCHEMA")) {
-                line = bufferedReader.readLine();
+                line = parser.readLine();
                 if (line != null && line.startsWith("CREATE TABLE")) {
-                    executeCreateTable(line, connection);
-                    schemaProcessed = true;
+                    createStatement = line;
+                    // Archive restores load several tables at once over the shared control connection.
+                    synchronized (connection) {
+                        // Every part of a table carries its schema; whichever part comes first creates the table.
+                        if (!checkpoint.hasProgress(tableName)) {
+                            executeCreateTable(targetTable.equals(tableName) ? line : ShadowTables.createStatement(line, tableName), connection, checkpoint);
+                            checkpoint.mark(connection, tableName, RestoreCheckpoint.CREATED);
+                        }
+                        columns = getTableColumns(targetTable, null, connection);
+                    }
+                    line = parser.readLine();
                 }
-            } else if (schemaProcessed && line.startsWith("-- DATA")) {
-                bufferedReader.readLine();
-                while ((line = bufferedReader.readLine()) != null) {
-                    insertData(line, tableName, connection);
+            } else if (line.startsWith("-- POST-LOAD")) {
+                line = readStatements(parser, postLoadStatements);
+            } else if (line.startsWith("-- FOREIGN KEYS")) {
+                line = readStatements(parser, foreignKeyStatements);
+            } else if (columns != null && line.startsWith("-- DATA")) {
+                synchronized (context.schemas()) {
+                    if (context.schemas().stream().noneMatch(schema -> schema.tableName().equals(tableName))) {
+                        context.schemas().add(new TableSchema(tableName, createStatement, postLoadStatements, foreignKeyStatements));
+                    }
                 }
+                if (!checkpoint.isMarked(progressName, RestoreCheckpoint.LOADED)) {
+                    String header = parser.readLine();
+                    if (header != null && !header.equalsIgnoreCase(columns.names())) {
+                        // Taken with --columns: only the listed columns are loaded, the others get their defaults.
+                        synchronized (connection) {
+                            columns = getTableColumns(targetTable, header, connection);
+                        }
+                        insertColumns.set(header);
+                    }
+                    parseRows(parser, checkpoint.committedRows(progressName), freeBatches, columns, out);
+                }
+                return;
+            } else {
+                line = parser.readLine();
             }
         }
     }
 
+    private void parseRows(RowParser parser, RestoreCheckpoint.CommittedRows committedRows, BlockingQueue<RowBatch> freeBatches,
+                           TableColumns columns, BatchConsumer<RowBatch> out) throws IOException, InterruptedException {
+        long row = 0;
+        RowBatch batch = null;
+        while (true) {
+            long resumeRow = committedRows.resumeFrom(row);
+            if (resumeRow > row) {
+                // Batches must cover consecutive rows, so close the current one before skipping.
+                if (batch != null && !batch.isEmpty()) {
+                    out.accept(batch);
+                    batch = null;
+                }
+                while (row < resumeRow && parser.skipRecord()) {
+                    row++;
+                }
+                if (row < resumeRow) {
+                    break;
+                }
+                continue;
+            }
+            if (!parser.nextRecord()) {
+                break;
+            }
+            if (batch == null) {
+                batch = nextBatch(freeBatches, columns);
+                batch.setFirstRow(row);
+            }
+            batch.add(parser);
+            row++;
+            if (batch.isFull()) {
+                out.accept(batch);
+                batch = null;
+            }
+        }
+        if (batch != null && !batch.isEmpty()) {
+            out.accept(batch);
+        }
+    }
 
-    private void executeCreateTable(String createStatement, Connection connection) throws SQLException {
+    private String readStatements(RowParser parser, List<String> statements) throws IOException {
+        String line;
+        while ((line = parser.readLine()) != null && !line.startsWith("-- ")) {
+            if (!line.isBlank()) {
+                statements.add(line);
+            }
+        }
+        return line;
+    }
+
+    private RowBatch nextBatch(BlockingQueue<RowBatch> freeBatches, TableColumns columns) {
+        RowBatch batch = freeBatches.poll();
+        return batch != null ? batch : new RowBatch(columns.kinds(), columns.sqlTypes(), BATCH_SIZE);
+    }
+
+    private void executeCreateTable(String createStatement, Connection connection, SqlRestoreCheckpoint checkpoint) throws SQLException {
         String tableName = createStatement.split(" ")[2];
-        try (PreparedStatement dropStmt = connection.prepareStatement("DROP TABLE IF EXISTS " + tableName);
+        SqlDialect dialect = SqlDialect.of(connection);
+        // The table's own foreign keys come from the backup; keys of other tables pointing at it are taken off
+        // for the drop and added back with the foreign keys of the restore.
+        checkpoint.forgetForeignKeysOf(connection, tableName);
+        for (SqlSchemaUtil.ReferencingKey key : SqlSchemaUtil.referencingKeys(connection, tableName)) {
+            if (!key.tableName().equalsIgnoreCase(tableName)) {
+                checkpoint.saveForeignKey(connection, tableName, key.tableName(), key.addStatement());
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute(dialect.dropForeignKeyStatement(key.tableName(), key.name()));
+                }
+            }
+        }
+        try (PreparedStatement dropStmt = connection.prepareStatement(dialect.dropTableStatement(tableName));
              PreparedStatement createStmt = connection.prepareStatement(createStatement)) {
             dropStmt.executeUpdate();
             createStmt.executeUpdate();
         }
     }
 
-    private void insertData(String line, String tableName, Connection connection) throws SQLException {
-        if (line == null || line.isEmpty()) return;
-
-        String[] values = line.split(",");
-        String placeholders = String.join(",", java.util.Collections.nCopies(values.length, "?"));
-        String query = "INSERT INTO " + tableName + " VALUES (" + placeholders + ")";
-        ResultSetMetaData metaData;
+    private TableColumns getTableColumns(String tableName, String columnList, Connection connection) throws SQLException {
         try (Statement statement = connection.createStatement();
-             ResultSet rs = statement.executeQuery("SELECT * FROM " + tableName + " LIMIT 1")) {
-            metaData = rs.getMetaData();
-        }
-
-        try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
-            for (int i = 0; i < values.length; i++) {
-                int columnType = metaData.getColumnType(i + 1);
-                String value = values[i].trim();
-
-                switch (columnType) {
-                    case Types.BIGINT:
-                        preparedStatement.setLong(i + 1, Long.parseLong(value));
-                        break;
-                    case Types.INTEGER:
-                        preparedStatement.setInt(i + 1, Integer.parseInt(value));
-                        break;
-                    case Types.DOUBLE:
-                        preparedStatement.setDouble(i + 1, Double.parseDouble(value));
-                        break;
-                    case Types.FLOAT:
-                        preparedStatement.setFloat(i + 1, Float.parseFloat(value));
-                        break;
-                    case Types.DATE:
-                        preparedStatement.setDate(i + 1, Date.valueOf(value));
-                        break;
-                    default:
-                        preparedStatement.setString(i + 1, value);
-                        break;
-                }
-            }
-            preparedStatement.executeUpdate();
-        } catch (SQLException | NumberFormatException e) {
-            System.err.println("Error inserting data into " + tableName + ": " + e.getMessage());
-            throw e;
+             ResultSet rs = statement.executeQuery("SELECT " + (columnList != null ? columnList : "*") + " FROM " + tableName + " WHERE 1 = 0")) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            ColumnKind[] kinds = new ColumnKind[metaData.getColumnCount()];
+            int[] sqlTypes = new int[kinds.length];
+            StringJoiner names = new StringJoiner(",");
+            for (int i = 0; i < kinds.length; i++) {
+                kinds[i] = ColumnKind.of(metaData, i + 1);
+                sqlTypes[i] = metaData.getColumnType(i + 1);
+                names.add(metaData.getColumnName(i + 1));
+            }
+            return new TableColumns(kinds, sqlTypes, names.toString());
+        }
+    }
+
+    /** Returns false if a statement failed; its table stays unmarked, so {@code --resume} runs what is left of it again. */
+    private boolean runInParallel(List<TableSchema> schemas, Function<TableSchema, List<String>> phase, long marker,
+                                  BlockingQueue<Connection> connections, SqlRestoreCheckpoint checkpoint) throws InterruptedException {
+        return runInParallel(statementsByTable(schemas, phase), marker, connections, checkpoint);
+    }
+
+    private static Map<String, List<String>> statementsByTable(List<TableSchema> schemas, Function<TableSchema, List<String>> phase) {
+        Map<String, List<String>> statements = new LinkedHashMap<>();
+        for (TableSchema schema : schemas) {
+            statements.put(schema.tableName(), phase.apply(schema));
+        }
+        return statements;
+    }
+
+    private boolean runInParallel(Map<String, List<String>> statementsByTable, long marker, BlockingQueue<Connection> connections,
+                                  SqlRestoreCheckpoint checkpoint) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(connections.size());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Map.Entry<String, List<String>> entry : statementsByTable.entrySet()) {
+                String tableName = entry.getKey();
+                List<String> statements = entry.getValue();
+                if (!statements.isEmpty() && !checkpoint.isMarked(tableName, marker)) {
+                    futures.add(executor.submit(() -> executeStatements(tableName, statements, marker, connections, checkpoint)));
+                }
+            }
+            boolean failed = false;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // The statement itself was reported when it failed; the other tables still get theirs.
+                    failed = true;
+                }
+            }
+            return !failed;
+        } finally {
+            ExecutorUtil.shutdownAndWait(executor);
+        }
+    }
+
+    private Void executeStatements(String tableName, List<String> statements, long marker, BlockingQueue<Connection> connections,
+                                   SqlRestoreCheckpoint checkpoint) throws InterruptedException, SQLException {
+        // Each statement that went through is recorded, so a resumed restore does not create the same index twice.
+        String progressName = tableName + "#" + -marker;
+        RestoreCheckpoint.CommittedRows done = checkpoint.committedRows(progressName);
+        Connection connection = connections.take();
+        try {
+            for (int i = 0; i < statements.size(); i++) {
+                if (done.resumeFrom(i) > i) {
+                    continue;
+                }
+                String sql = statements.get(i);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute(sql);
+                    checkpoint.recordBatch(connection, progressName, i, 1);
+                    connection.commit();
+                } catch (SQLException e) {
+                    System.err.println("Error executing '" + sql + "': " + e.getMessage());
+                    rollbackQuietly(connection);
+                    throw e;
+                }
+            }
+            checkpoint.mark(connection, tableName, marker);
+        } finally {
+            connections.add(connection);
+        }
+        return null;
+    }
+
+    private static void rollbackQuietly(Connection connection) {
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+            }
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private void closeAll(BlockingQueue<Connection> connections) {
+        for (Connection connection : connections) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                System.err.println("Failed to close connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private record TableColumns(ColumnKind[] kinds, int[] sqlTypes, String names) {
+    }
+
+    private record RestoreContext(Connection connection, BlockingQueue<Connection> workerConnections,
+                                  BlockingQueue<Connection> readConnections, int workers,
+                                  List<TableSchema> schemas, SqlRestoreCheckpoint checkpoint, boolean shadow) {
+    }
+
+    @FunctionalInterface
+    private interface TableLoader {
+        boolean load(RestoreContext context) throws IOException, SQLException, InterruptedException;
+    }
+
+    private static class InsertBatchSink implements BatchSink<RowBatch> {
+
+        private final String tableName;
+        private final String progressName;
+        private final AtomicReference<String> insertColumns;
+        private final BlockingQueue<Connection> connections;
+        private final BlockingQueue<RowBatch> freeBatches;
+        private final SqlRestoreCheckpoint checkpoint;
+        private final Connection connection;
+        private PreparedStatement preparedStatement;
+
+        InsertBatchSink(String tableName, String progressName, AtomicReference<String> insertColumns, BlockingQueue<Connection> connections,
+                        BlockingQueue<RowBatch> freeBatches, SqlRestoreCheckpoint checkpoint) {
+            this.tableName = tableName;
+            this.progressName = progressName;
+            this.insertColumns = insertColumns;
+            this.connections = connections;
+            this.freeBatches = freeBatches;
+            this.checkpoint = checkpoint;
+            try {
+                this.connection = connections.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a connection", e);
+            }
+        }
+
+        @Override
+        public void accept(RowBatch batch) throws SQLException {
+            try {
+                if (preparedStatement == null) {
+                    preparedStatement = connection.prepareStatement(insertStatement(tableName, insertColumns.get(), batch));
+                }
+                for (int row = 0; row < batch.size(); row++) {
+                    batch.bind(preparedStatement, row);
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+                checkpoint.recordBatch(connection, progressName, batch.getFirstRow(), batch.size());
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                System.err.println("Error inserting data into " + tableName + ": " + e.getMessage());
+                throw e;
+            } finally {
+                batch.clear();
+                freeBatches.offer(batch);
+            }
+        }
+
+        private static String insertStatement(String tableName, String columnList, RowBatch batch) {
+            String placeholders = String.join(",", Collections.nCopies(batch.columnCount(), "?"));
+            return "INSERT INTO " + tableName + (columnList != null ? " (" + columnList + ")" : "") + " VALUES (" + placeholders + ")";
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                if (preparedStatement != null) {
+                    preparedStatement.close();
+                }
+            } finally {
+                connections.add(connection);
+            }
         }
     }
 }
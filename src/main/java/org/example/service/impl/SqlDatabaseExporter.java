@@ -1,174 +1,498 @@
 package org.example.service.impl;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.example.checkpoint.SqlRestoreCheckpoint;
+import org.example.codec.RowEncoder;
+import org.example.codec.RowParser;
+import org.example.compact.BackupChain;
+import org.example.compact.ChangeRecord;
+import org.example.compact.KWayMerge;
+import org.example.compact.SqlChangeSource;
+import org.example.compact.SqlKey;
+import org.example.entities.BackupOptions;
+import org.example.entities.DbConnectionEntity;
+import org.example.entities.EntitySelection;
+import org.example.entities.ManifestEntry;
+import org.example.entities.TableSchema;
+import org.example.manifest.BackupManifest;
+import org.example.manifest.ChecksumOutputStream;
+import org.example.memory.BufferPool;
+import org.example.memory.PooledBufferedOutputStream;
+import org.example.plan.BackupPlan;
+import org.example.plan.BackupTask;
+import org.example.plan.EntityEstimate;
+import org.example.pool.ConnectionManager;
+import org.example.pool.JdbcConnectionPool;
 import org.example.service.DatabaseExporter;
+import org.example.storage.BackupStorage;
+import org.example.throttle.BackupThrottle;
+import org.example.util.BackupStreamUtil;
 import org.example.util.EncryptionUtil;
+import org.example.util.ExecutorUtil;
 import org.example.util.ProgressBarUtil;
+import org.example.util.SqlDialect;
+import org.example.util.SqlSchemaUtil;
 
-import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
 import javax.crypto.SecretKey;
 import java.io.*;
-import java.security.Security;
 import java.sql.*;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Objects;
-import java.util.zip.GZIPOutputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class SqlDatabaseExporter implements DatabaseExporter {
 
-    private final String jdbcUrl;
-    private final String user;
-    private final String password;
+    private final DbConnectionEntity db;
 
-    private static final String MAIN_BACKUP_FOLDER_PATH = System.getProperty("user.home") + "/backups/sql";
+    private static final int FETCH_SIZE = 10_000;
+    private static final String MAIN_BACKUP_FOLDER_PATH = "sql";
+    // Part numbers are written with four digits.
+    private static final int MAX_PARTS = 9999;
+    private static final int WRITE_BUFFER_SIZE = 8192;
 
-    public SqlDatabaseExporter(String jdbcUrl, String user, String password) {
-        Security.addProvider(new BouncyCastleProvider());
-        this.jdbcUrl = jdbcUrl;
-        this.user = user;
-        this.password = password;
+    private final BackupStorage storage;
+
+    public SqlDatabaseExporter(DbConnectionEntity db, BackupStorage storage) {
+        this.db = db;
+        this.storage = storage;
     }
 
     @Override
-    public void exportDatabase(String key, List<String> entities) {
+    public boolean exportDatabase(String key, List<String> entities, BackupOptions options) {
         if (key != null) {
             EncryptionUtil.validateKey(key);
         }
-        String timestamp = new SimpleDateFormat("yyyy-MMdd_HHmmss").format(new Date());
+        if (options.isPlanOnly()) {
+            return printPlan(entities, options);
+        }
+        BufferPool.getInstance().checkFits(options.getWorkers(),
+                storage.writeBufferSize() + WRITE_BUFFER_SIZE + BackupStreamUtil.encodedBufferSize());
+        boolean resuming = options.getResumeFolder() != null;
+        String timestamp = resuming ? options.getResumeFolder() : new SimpleDateFormat("yyyy-MMdd_HHmmss").format(new Date());
         String currentBackupPath = MAIN_BACKUP_FOLDER_PATH + "/" + timestamp;
-        File backupDir = new File(currentBackupPath);
-        if (!backupDir.mkdirs()) {
-            System.out.println("Error while creating file: " + currentBackupPath);
-            return;
+        try {
+            if (resuming && !BackupManifest.exists(storage, currentBackupPath)) {
+                System.out.println("Backup to resume not found: " + storage.describe(currentBackupPath));
+                return false;
+            }
+        } catch (IOException e) {
+            System.out.println("Error while accessing backup storage: " + e.getMessage());
+            return false;
         }
 
         boolean success = false;
-        try (Connection connection = DriverManager.getConnection(jdbcUrl, user, password)) {
+        BackupManifest manifest = null;
+        BackupThrottle throttle = new BackupThrottle(options);
+        BufferPool.Usage memory = BufferPool.getInstance().track();
+        BlockingQueue<Connection> workerConnections = new ArrayBlockingQueue<>(options.getWorkers());
+        ExecutorService executor = Executors.newFixedThreadPool(options.getWorkers());
+        ConnectionManager connections = ConnectionManager.getInstance();
+        JdbcConnectionPool.Lease lease = connections.lease(db, options.getWorkers() + 1);
+        try (Connection connection = lease.borrow()) {
+            manifest = BackupManifest.open(storage, currentBackupPath);
+            manifest.bindKey(key);
+            BackupChain chain = resolveChain(manifest, options, key);
+            // Key order costs a full sort for some character keys, so only backups that need it pay for it.
+            boolean sorted = resuming ? manifest.isSorted() : chain != null || options.isSorted();
+            if (sorted) {
+                manifest.markSorted();
+            }
+            SqlDialect dialect = SqlDialect.of(connection);
             connection.setAutoCommit(false);
+            String snapshot = dialect.exportSnapshot(connection);
+            for (int i = 0; i < options.getWorkers(); i++) {
+                Connection workerConnection = lease.borrow();
+                workerConnection.setAutoCommit(false);
+                dialect.importSnapshot(workerConnection, snapshot);
+                workerConnections.add(workerConnection);
+            }
+
             List<String> tables = (entities == null || entities.isEmpty()) ? getTables(connection) : entities;
-            int totalTables = tables.size();
-            for (int i = 0; i < totalTables; i++) {
-                String table = tables.get(i);
-                String tableBackupFilePath = currentBackupPath + "/" + table + "_" + timestamp + (key != null ? "_encrypted" : "") + ".csv.gz";
-                SecretKey secretKey = key != null ? EncryptionUtil.decodeKey(key) : null;
-                exportTableToFile(connection, table, tableBackupFilePath, secretKey);
-                ProgressBarUtil.printProgress(i + 1, totalTables);
-                Thread.sleep(200 * 4);
+            BackupPlan plan = planBackup(connection, dialect, tables, options, manifest, chain == null);
+            SecretKey secretKey = key != null ? EncryptionUtil.decodeKey(key) : null;
+            ExecutorCompletionService<ManifestEntry> completion = new ExecutorCompletionService<>(executor);
+            int submitted = 0;
+            for (BackupTask task : plan.tasks()) {
+                String table = task.entity();
+                String tableBackupFile = table + "_" + timestamp + (key != null ? "_encrypted" : "") + task.fileSuffix() + ".csv.gz";
+                EntitySelection selection = options.getSelection(table);
+                manifest.bindSelection(table, selection);
+                if (manifest.isVerified(tableBackupFile)) {
+                    continue;
+                }
+                completion.submit(() -> {
+                    Connection workerConnection = workerConnections.take();
+                    try {
+                        return exportTableToFile(workerConnection, task, selection, currentBackupPath, tableBackupFile, key, secretKey, throttle, chain, sorted);
+                    } finally {
+                        workerConnections.add(workerConnection);
+                    }
+                });
+                submitted++;
             }
 
-            success = true;
+            int totalTables = plan.tasks().size();
+            int skipped = totalTables - submitted;
+            if (skipped > 0) {
+                System.out.println("Skipping " + skipped + " table file(s) already backed up and verified.");
+            }
+            for (int i = 0; i < submitted; i++) {
+                manifest.record(completion.take().get());
+                ProgressBarUtil.printProgress(skipped + i + 1, totalTables);
+            }
+
+            for (Connection workerConnection : workerConnections) {
+                workerConnection.commit();
+            }
             connection.commit();
-            System.out.println("\nBackup completed: " + currentBackupPath);
+            manifest.markComplete();
+            success = true;
+            System.out.println("\n" + (chain != null ? "Incremental backup" : "Backup") + " completed: " + storage.describe(currentBackupPath));
+            System.out.println(memory.summary());
 
         } catch (Exception e) {
-            System.err.println("Error while exporting the database...");
-            deleteDirectory(backupDir);
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            System.err.println("Error while exporting the database: " + cause.getMessage());
         } finally {
+            ExecutorUtil.shutdownAndWait(executor);
+            memory.close();
+            closeAll(workerConnections);
+            lease.close();
             if (!success) {
-                deleteDirectory(backupDir);
+                if (!storage.isReadable()) {
+                    System.err.println("Backup incomplete, the archive only holds the tables that finished.");
+                } else if (resuming || (manifest != null && !manifest.entries().isEmpty())) {
+                    System.err.println("Backup incomplete, resume it with --resume " + timestamp);
+                } else {
+                    deleteBackup(currentBackupPath);
+                }
             }
         }
+        return success;
+    }
+
+
+    private BackupChain resolveChain(BackupManifest manifest, BackupOptions options, String key) throws IOException {
+        String base = options.getBaseFolder() != null ? options.getBaseFolder() : manifest.getBase();
+        if (base == null) {
+            return null;
+        }
+        BackupChain chain = BackupChain.resolve(storage, MAIN_BACKUP_FOLDER_PATH, base, key);
+        manifest.bindBase(base);
+        return chain;
     }
 
+    private boolean printPlan(List<String> entities, BackupOptions options) {
+        try (JdbcConnectionPool.Lease lease = ConnectionManager.getInstance().lease(db, 1);
+             Connection connection = lease.borrow()) {
+            List<String> tables = (entities == null || entities.isEmpty()) ? getTables(connection) : entities;
+            planBackup(connection, SqlDialect.of(connection), tables, options, null, options.getBaseFolder() == null)
+                    .print(options.getMaxMegabytesPerSecond());
+            return true;
+        } catch (SQLException | IOException e) {
+            System.err.println("Error while planning the backup: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Orders the tables largest first by their catalog size and cuts those above the part size into primary
+     * key ranges that are exported in parallel. Incremental backups keep every table whole, since each one is
+     * diffed against its base in a single pass.
+     */
+    private BackupPlan planBackup(Connection connection, SqlDialect dialect, List<String> tables, BackupOptions options,
+                                  BackupManifest manifest, boolean splittable) throws SQLException, IOException {
+        Map<String, EntityEstimate> sizes = dialect.estimateTableSizes(connection);
+        long partBytes = options.getPartMegabytes() * 1024 * 1024;
+        List<EntityEstimate> estimates = new ArrayList<>();
+        Map<String, List<Long>> splits = new HashMap<>();
+        for (String table : tables) {
+            EntityEstimate size = sizes.getOrDefault(table, EntityEstimate.unknown(table));
+            estimates.add(new EntityEstimate(table, size.bytes(), size.rows()));
+            List<Long> tableSplits = List.of();
+            if (splittable && partBytes > 0 && size.bytes() > partBytes) {
+                int parts = (int) Math.min(MAX_PARTS, (size.bytes() + partBytes - 1) / partBytes);
+                tableSplits = SqlSchemaUtil.integerKeySplits(connection, table, exportKeyColumns(connection, table, options.getSelection(table)), parts);
+            }
+            splits.put(table, manifest != null ? manifest.bindSplits(table, tableSplits) : tableSplits);
+        }
+        return BackupPlan.largestFirst(estimates, splits, options.getWorkers());
+    }
 
     private List<String> getTables(Connection connection) throws SQLException {
         List<String> tables = new ArrayList<>();
         DatabaseMetaData metaData = connection.getMetaData();
         try (ResultSet rs = metaData.getTables(null, null, "%", new String[]{"TABLE"})) {
             while (rs.next()) {
-                tables.add(rs.getString("TABLE_NAME"));
+                String tableName = rs.getString("TABLE_NAME");
+                if (!SqlRestoreCheckpoint.TABLE_NAME.equalsIgnoreCase(tableName)
+                        && !SqlRestoreCheckpoint.FOREIGN_KEYS_TABLE_NAME.equalsIgnoreCase(tableName)) {
+                    tables.add(tableName);
+                }
             }
         }
         return tables;
     }
 
-    private void exportTableToFile(Connection connection, String tableName, String filePath, SecretKey key) throws Exception {
-        try (PreparedStatement statement = connection.prepareStatement("SELECT * FROM " + tableName);
-             ResultSet resultSet = statement.executeQuery();
-             FileOutputStream fileOutputStream = new FileOutputStream(filePath);
-             BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(fileOutputStream, 8192);
-             OutputStream finalOutputStream = (key != null) ? getEncryptedOutputStream(bufferedOutputStream, key) : new GZIPOutputStream(bufferedOutputStream);
-             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(finalOutputStream), 8192)) {
-
-            writeTableSchema(connection, tableName, writer);
-            writeColumnNames(resultSet, writer);
-            writeTableData(resultSet, writer);
+    private ManifestEntry exportTableToFile(Connection connection, BackupTask task, EntitySelection selection, String folder, String fileName,
+                                            String key, SecretKey secretKey, BackupThrottle throttle, BackupChain chain, boolean sorted) throws Exception {
+        String tableName = task.entity();
+        long rows;
+        ChecksumOutputStream checksumOutputStream;
+        List<String> keyColumns = exportKeyColumns(connection, tableName, selection);
+        String orderBy = sorted ? SqlSchemaUtil.keyOrderBy(connection, tableName, keyColumns) : "";
+        // The condition and column list go into the query itself, so filtered rows never leave the database.
+        List<String> conditions = new ArrayList<>();
+        if (selection.filter() != null) {
+            conditions.add("(" + selection.filter() + ")");
         }
-    }
+        if (task.lowerBound() != null) {
+            conditions.add(keyColumns.get(0) + " >= " + task.lowerBound());
+        }
+        if (task.upperBound() != null) {
+            conditions.add(keyColumns.get(0) + " < " + task.upperBound());
+        }
+        String query = "SELECT " + (selection.projection() != null ? selection.projection() : "*") + " FROM " + tableName
+                + (conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions)) + orderBy;
+        // Read before the query, a streaming MySQL result set leaves the connection to itself until it is closed.
+        TableSchema schema = SqlSchemaUtil.describeTable(connection, tableName);
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setFetchSize(SqlDialect.of(connection).streamingFetchSize(FETCH_SIZE));
+            try (ResultSet resultSet = statement.executeQuery();
+                 ChecksumOutputStream fileOutputStream = new ChecksumOutputStream(storage.create(folder + "/" + fileName));
+                 OutputStream finalOutputStream = BackupStreamUtil.openEncoded(new PooledBufferedOutputStream(fileOutputStream, WRITE_BUFFER_SIZE), secretKey)) {
 
-    private void writeTableSchema(Connection connection, String tableName, BufferedWriter writer) throws SQLException, IOException {
-        DatabaseMetaData metaData = connection.getMetaData();
-        try (ResultSet columns = metaData.getColumns(null, null, tableName, null)) {
-            StringBuilder createStatement = new StringBuilder("CREATE TABLE ").append(tableName).append(" (");
-            boolean first = true;
-            while (columns.next()) {
-                if (!first) {
-                    createStatement.append(", ");
+                checksumOutputStream = fileOutputStream;
+                RowEncoder encoder = new RowEncoder(finalOutputStream);
+                encoder.bind(resultSet.getMetaData());
+                writeTableSchema(schema, keyColumns, encoder);
+                String columnNames = getColumnNames(resultSet);
+                List<SqlChangeSource> previous = null;
+                if (chain != null && !keyColumns.isEmpty()) {
+                    if (encoder.hasLargeColumns()) {
+                        // Comparing rows byte for byte would mean holding their large values in memory.
+                        System.out.println("\nTable " + tableName + " has BLOB or CLOB columns, it is backed up in full.");
+                    } else {
+                        previous = openPreviousRows(chain, tableName, selection, key, keyColumns, columnNames);
+                    }
                 }
-                String columnName = columns.getString("COLUMN_NAME");
-                String columnType = columns.getString("TYPE_NAME");
-                int columnSize = columns.getInt("COLUMN_SIZE");
-                createStatement.append(columnName).append(" ").append(columnType);
-                if (columnType.equalsIgnoreCase("VARCHAR") || columnType.equalsIgnoreCase("CHAR")) {
-                    createStatement.append("(").append(columnSize).append(")");
+                if (previous == null) {
+                    encoder.writeLine(columnNames);
+                    rows = writeTableData(resultSet, encoder, throttle);
+                } else {
+                    try (KWayMerge<SqlKey> previousRows = new KWayMerge<>(previous)) {
+                        encoder.writeLine(SqlChangeSource.OP_COLUMN + "," + columnNames);
+                        rows = writeTableChanges(resultSet, encoder, throttle, tableName, keyColumns, previousRows);
+                    }
                 }
-                first = false;
+                encoder.flush();
             }
-            createStatement.append(");");
-            writer.write("-- SCHEMA\n");
-            writer.write(createStatement.toString());
-            writer.newLine();
-            writer.write("-- DATA");
-            writer.newLine();
         }
+        return new ManifestEntry(tableName, fileName, checksumOutputStream.getCount(), checksumOutputStream.getChecksum(), rows,
+                checksumOutputStream.getBlockChecksums());
+    }
+
+    private static List<String> exportKeyColumns(Connection connection, String tableName, EntitySelection selection) throws SQLException {
+        List<String> keyColumns = SqlSchemaUtil.primaryKeyColumns(connection, tableName);
+        if (selection.projection() != null && !projects(selection.projection(), keyColumns)) {
+            // Without the whole key the rows cannot be matched up, so the table is copied unsorted and in full.
+            return List.of();
+        }
+        return keyColumns;
     }
 
-    private void writeColumnNames(ResultSet resultSet, BufferedWriter writer) throws SQLException, IOException {
+    private static boolean projects(String projection, List<String> columns) {
+        Set<String> projected = new HashSet<>();
+        for (String column : projection.split(",")) {
+            projected.add(column.trim().replace("\"", "").toLowerCase());
+        }
+        return columns.stream().allMatch(column -> projected.contains(column.toLowerCase()));
+    }
+
+    /**
+     * The files holding the table's rows as of the base backup, or null if the table has to be backed up
+     * in full because its columns, primary key, filter or projection changed since.
+     */
+    private List<SqlChangeSource> openPreviousRows(BackupChain chain, String tableName, EntitySelection selection, String key,
+                                                   List<String> keyColumns, String columnNames) throws IOException {
+        if (!chain.newest().manifest().matchesSelection(tableName, selection)) {
+            System.out.println("\nTable " + tableName + " is filtered differently from the base backup, it is backed up in full.");
+            return null;
+        }
+        List<SqlChangeSource> sources = SqlChangeSource.openChain(chain, tableName, key, null);
+        for (SqlChangeSource source : sources) {
+            if (!source.keyColumns().equals(keyColumns) || !source.columns().equals(columnNames)) {
+                new KWayMerge<>(sources).close();
+                System.out.println("\nTable " + tableName + " changed shape since the base backup, it is backed up in full.");
+                return null;
+            }
+        }
+        return sources;
+    }
+
+    private void writeTableSchema(TableSchema schema, List<String> keyColumns, RowEncoder encoder) throws IOException {
+        encoder.writeLine("-- SCHEMA");
+        encoder.writeLine(schema.createStatement());
+        encoder.writeLine("-- POST-LOAD");
+        for (String statement : schema.postLoadStatements()) {
+            encoder.writeLine(statement);
+        }
+        encoder.writeLine("-- FOREIGN KEYS");
+        for (String statement : schema.foreignKeyStatements()) {
+            encoder.writeLine(statement);
+        }
+        if (!keyColumns.isEmpty()) {
+            encoder.writeLine(SqlChangeSource.PRIMARY_KEY_SECTION);
+            encoder.writeLine(String.join(",", keyColumns));
+        }
+        encoder.writeLine("-- DATA");
+    }
+
+    private String getColumnNames(ResultSet resultSet) throws SQLException {
         int columnCount = resultSet.getMetaData().getColumnCount();
         StringBuilder header = new StringBuilder();
         for (int i = 1; i <= columnCount; i++) {
             header.append(resultSet.getMetaData().getColumnName(i));
             if (i < columnCount) header.append(",");
         }
-        writer.write(header.toString());
-        writer.newLine();
+        return header.toString();
     }
 
-    private void writeTableData(ResultSet resultSet, BufferedWriter writer) throws SQLException, IOException {
-        int columnCount = resultSet.getMetaData().getColumnCount();
-        StringBuilder row = new StringBuilder();
-        while (resultSet.next()) {
-            row.setLength(0);
-            for (int i = 1; i <= columnCount; i++) {
-                row.append(resultSet.getString(i));
-                if (i < columnCount) row.append(",");
+    private long writeTableData(ResultSet resultSet, RowEncoder encoder, BackupThrottle throttle) throws SQLException, IOException, InterruptedException {
+        long totalRows = 0;
+        boolean hasRow = true;
+        while (hasRow) {
+            int rows = 0;
+            long bytesBefore = encoder.getBytesWritten();
+            throttle.beforeFetch();
+            long fetchStart = System.nanoTime();
+            try {
+                hasRow = resultSet.next();
+            } finally {
+                throttle.afterFetch(System.nanoTime() - fetchStart);
+            }
+            while (hasRow) {
+                encoder.writeRow(resultSet);
+                if (++rows == FETCH_SIZE) {
+                    break;
+                }
+                hasRow = resultSet.next();
             }
-            writer.write(row.toString());
-            writer.newLine();
+            throttle.pace(rows, encoder.getBytesWritten() - bytesBefore);
+            totalRows += rows;
         }
+        return totalRows;
     }
 
-    private OutputStream getEncryptedOutputStream(OutputStream fileOutputStream, SecretKey key) throws Exception {
-        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(fileOutputStream, 8192);
-        Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding", "BC");
-        cipher.init(Cipher.ENCRYPT_MODE, key);
-        return new CipherOutputStream(gzipOutputStream, cipher);
+    /**
+     * Writes only what changed since the base: the query and the previous rows are both in key order, so
+     * one merge pass finds the inserted, updated ({@code +}) and deleted ({@code -}) rows.
+     */
+    private long writeTableChanges(ResultSet resultSet, RowEncoder encoder, BackupThrottle throttle, String tableName,
+                                   List<String> keyColumns, KWayMerge<SqlKey> previousRows) throws SQLException, IOException, InterruptedException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int[] keyFields = new int[keyColumns.size()];
+        for (int i = 0; i < keyFields.length; i++) {
+            for (int column = 1; column <= metaData.getColumnCount(); column++) {
+                if (metaData.getColumnName(column).equalsIgnoreCase(keyColumns.get(i))) {
+                    keyFields[i] = column - 1;
+                }
+            }
+        }
+        // Rows are encoded on their own first, so they can be compared byte for byte with the stored ones.
+        ByteArrayOutputStream rowBytes = new ByteArrayOutputStream();
+        RowEncoder rowEncoder = new RowEncoder(rowBytes);
+        rowEncoder.bind(metaData);
+        RowParser rowParser = new RowParser(InputStream.nullInputStream());
+
+        ChangeRecord<SqlKey> previous = previousRows.next();
+        SqlKey lastKey = null;
+        long changes = 0;
+        boolean hasRow = true;
+        while (hasRow) {
+            int rows = 0;
+            long bytesBefore = encoder.getBytesWritten();
+            throttle.beforeFetch();
+            long fetchStart = System.nanoTime();
+            try {
+                hasRow = resultSet.next();
+            } finally {
+                throttle.afterFetch(System.nanoTime() - fetchStart);
+            }
+            while (hasRow) {
+                rowBytes.reset();
+                rowEncoder.writeRow(resultSet);
+                rowEncoder.flush();
+                rowParser.load(rowBytes.toByteArray(), rowBytes.size());
+                SqlKey key = SqlKey.of(rowParser, keyFields, 0);
+                if (lastKey != null && lastKey.compareTo(key) >= 0) {
+                    throw new IOException("Rows of " + tableName + " did not come back in primary key order at key " + key + ".");
+                }
+                lastKey = key;
+                byte[] row = rowParser.recordBytes(0);
+
+                while (previous != null && previous.key().compareTo(key) < 0) {
+                    writeChange(encoder, SqlChangeSource.DELETE, previous.row());
+                    changes++;
+                    previous = previousRows.next();
+                }
+                if (previous != null && previous.key().compareTo(key) == 0) {
+                    if (!Arrays.equals(previous.row(), row)) {
+                        writeChange(encoder, SqlChangeSource.UPSERT, row);
+                        changes++;
+                    }
+                    previous = previousRows.next();
+                } else {
+                    writeChange(encoder, SqlChangeSource.UPSERT, row);
+                    changes++;
+                }
+                if (++rows == FETCH_SIZE) {
+                    break;
+                }
+                hasRow = resultSet.next();
+            }
+            throttle.pace(rows, encoder.getBytesWritten() - bytesBefore);
+        }
+        for (; previous != null; previous = previousRows.next()) {
+            writeChange(encoder, SqlChangeSource.DELETE, previous.row());
+            changes++;
+        }
+        return changes;
+    }
+
+    private void writeChange(RowEncoder encoder, byte[] op, byte[] row) throws IOException {
+        encoder.writeRaw(op);
+        encoder.writeRecord(row);
     }
 
 
 
-    private void deleteDirectory(File directory) {
-        if (directory.isDirectory()) {
-            for (File file : Objects.requireNonNull(directory.listFiles())) {
-                deleteDirectory(file);
+    private void closeAll(BlockingQueue<Connection> connections) {
+        for (Connection connection : connections) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                System.err.println("Failed to close connection: " + e.getMessage());
             }
         }
-        if (!directory.delete()) {
-            System.err.println("Failed to delete: " + directory.getAbsolutePath());
+    }
+
+    private void deleteBackup(String backupPath) {
+        try {
+            storage.delete(backupPath);
+        } catch (IOException e) {
+            System.err.println("Failed to delete: " + storage.describe(backupPath));
         }
     }
 }
@@ -0,0 +1,114 @@
+package org.example.startup;
+
+import org.bson.Document;
+import org.example.pool.JdbcDrivers;
+import org.example.util.BackupStreamUtil;
+import org.example.util.EncryptionUtil;
+import org.example.util.RegexUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Measures how long the JVM took to reach the first command and how long each of the stacks a command can
+ * need takes to load on top of that, without connecting anywhere. Cron-driven runs are dominated by exactly
+ * this, so it is kept as a command of its own. It also touches every path a real command takes, which makes
+ * it the training run the AppCDS archive is dumped from.
+ */
+public class StartupBenchmark {
+
+    private static final String[] SAMPLE_COMMANDS = {
+            "--generate key",
+            "--db sql --url jdbc:postgresql://localhost:5432/benchmark --password secret --user benchmark",
+            "--do backup --entity [users, orders] --key AAECAwQFBgcICQoLDA0ODw== --workers 4 --max-mbps 50 --container",
+            "--restore --foldertypedb sql --folderName 2024-01-01_00-00-00 --saves [users] --workers 4 --diff",
+            "--restore --stdin --key AAECAwQFBgcICQoLDA0ODw== --shadow",
+            "--verify mongo --folder 2024-01-01_00-00-00 --workers 2",
+            "--compact sql --folder 2024-01-01_00-00-00 --keep 3",
+            "--list sql --folder 2024-01-01_00-00-00",
+            "--daemon daemon.properties"
+    };
+
+    // A fixed key: commands only decode one, and generating a key would time the seeding of SecureRandom instead.
+    private static final String SAMPLE_KEY = "AAECAwQFBgcICQoLDA0ODw==";
+
+    private StartupBenchmark() { }
+
+    public static void run() {
+        RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+        long toFirstCommand = runtime.getUptime();
+        boolean archived = runtime.getInputArguments().stream().anyMatch(argument -> argument.startsWith("-XX:SharedArchiveFile"));
+
+        System.out.println("Startup benchmark (" + (archived ? "with" : "without") + " a CDS archive):");
+        System.out.printf("  %-34s %6d ms%n", "JVM start to first command", toFirstCommand);
+        long total = toFirstCommand;
+        total += phase("Command parsing", StartupBenchmark::parseCommands);
+        total += phase("BouncyCastle provider", EncryptionUtil::provider);
+        total += phase("Encryption and compression", StartupBenchmark::encodeAndDecode);
+        total += phase("PostgreSQL driver", () -> loadDriver("jdbc:postgresql://localhost:5432/benchmark"));
+        total += phase("MySQL driver", () -> loadDriver("jdbc:mysql://localhost:3306/benchmark"));
+        total += phase("MongoDB driver", StartupBenchmark::loadMongoDriver);
+        System.out.printf("  %-34s %6d ms%n", "Ready for any command after", total);
+    }
+
+    private interface Phase {
+        void run() throws Exception;
+    }
+
+    private static long phase(String name, Phase phase) {
+        long start = System.nanoTime();
+        try {
+            phase.run();
+        } catch (Exception | LinkageError e) {
+            System.out.printf("  %-34s failed: %s%n", name, e);
+            return 0;
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf("  %-34s %6d ms%n", name, millis);
+        return millis;
+    }
+
+    private static void parseCommands() {
+        for (String command : SAMPLE_COMMANDS) {
+            if (RegexUtil.isGenerateKey(command) || RegexUtil.isDbParams(command) || RegexUtil.isDoBackup(command)
+                    || RegexUtil.isRestoreWithSavesAndKey(command) || RegexUtil.isRestoreFromStdin(command)
+                    || RegexUtil.isListCommand(command) || RegexUtil.isVerify(command) || RegexUtil.isCompact(command)
+                    || RegexUtil.isDaemon(command)) {
+                RegexUtil.getIntOption(command, "workers", 1);
+                RegexUtil.hasFlag(command, "diff");
+            } else {
+                throw new IllegalStateException("Sample command not recognized: " + command);
+            }
+        }
+    }
+
+    private static void encodeAndDecode() throws Exception {
+        byte[] row = "1\t\"benchmark\"\t2024-01-01 00:00:00\n".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try (OutputStream out = BackupStreamUtil.openEncoded(encoded, SAMPLE_KEY)) {
+            out.write(row);
+        }
+        try (InputStream in = BackupStreamUtil.openDecoded(new ByteArrayInputStream(encoded.toByteArray()), SAMPLE_KEY)) {
+            if (!Arrays.equals(in.readAllBytes(), row)) {
+                throw new IllegalStateException("Round trip changed the data.");
+            }
+        }
+    }
+
+    private static void loadDriver(String url) {
+        if (JdbcDrivers.driverFor(url) == null) {
+            throw new IllegalStateException("No driver on the class path for " + url);
+        }
+    }
+
+    private static void loadMongoDriver() throws ClassNotFoundException {
+        Class.forName("com.mongodb.client.MongoClients");
+        Document.parse("{\"_id\": 1, \"name\": \"benchmark\"}").toJson();
+    }
+}
@@ -0,0 +1,69 @@
+package org.example.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Where backups live. Paths are relative and '/'-separated, e.g. {@code sql/2024-0101_120000/users_2024-0101_120000.csv.gz};
+ * each implementation maps them onto its own namespace. Streams returned by {@link #create} must be
+ * closed for the object to become visible.
+ */
+public interface BackupStorage {
+
+    OutputStream create(String path) throws IOException;
+
+    InputStream open(String path) throws IOException;
+
+    /** True if {@code path} is an object or a folder with at least one object under it. */
+    boolean exists(String path) throws IOException;
+
+    long size(String path) throws IOException;
+
+    /** Sorted names of the direct children of {@code folder}; empty if it does not exist. */
+    List<String> list(String folder) throws IOException;
+
+    /** Deletes {@code path} and everything under it. */
+    void delete(String path) throws IOException;
+
+    String describe(String path);
+
+    /** The file behind {@code path} when it lives on the local file system, so it can be memory-mapped; null otherwise. */
+    default Path localPath(String path) {
+        return null;
+    }
+
+    /** {@link org.example.memory.BufferPool} memory an open stream from {@link #create} holds on top of its caller's buffers. */
+    default int writeBufferSize() {
+        return 0;
+    }
+
+    /** False for write-only sinks such as a streamed archive; backups written there cannot be resumed. */
+    default boolean isReadable() {
+        return true;
+    }
+
+    /**
+     * Appends to a small object such as a journal. Object stores cannot append, so the default
+     * rewrites the whole object; implementations that can append in place should.
+     */
+    default void append(String path, byte[] data) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        if (exists(path)) {
+            try (InputStream in = open(path)) {
+                in.transferTo(content);
+            }
+        }
+        content.write(data);
+        try (OutputStream out = create(path)) {
+            content.writeTo(out);
+        }
+    }
+
+    static String join(String folder, String name) {
+        return folder == null || folder.isEmpty() ? name : folder + "/" + name;
+    }
+}
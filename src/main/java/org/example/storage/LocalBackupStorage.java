@@ -0,0 +1,96 @@
+package org.example.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class LocalBackupStorage implements BackupStorage {
+
+    private final Path root;
+
+    public LocalBackupStorage(Path root) {
+        this.root = root;
+    }
+
+    @Override
+    public OutputStream create(String path) throws IOException {
+        Path file = resolve(path);
+        Files.createDirectories(file.getParent());
+        return Files.newOutputStream(file);
+    }
+
+    @Override
+    public InputStream open(String path) throws IOException {
+        return Files.newInputStream(resolve(path));
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return Files.exists(resolve(path));
+    }
+
+    @Override
+    public long size(String path) throws IOException {
+        return Files.size(resolve(path));
+    }
+
+    @Override
+    public List<String> list(String folder) throws IOException {
+        Path directory = resolve(folder);
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> children = Files.list(directory)) {
+            return children.map(child -> child.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        Path target = resolve(path);
+        if (!Files.exists(target)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(target)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Override
+    public String describe(String path) {
+        return resolve(path).toString();
+    }
+
+    @Override
+    public Path localPath(String path) {
+        return resolve(path);
+    }
+
+    @Override
+    public void append(String path, byte[] data) throws IOException {
+        Path file = resolve(path);
+        Files.createDirectories(file.getParent());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+
+    private Path resolve(String path) {
+        return path == null || path.isEmpty() ? root : root.resolve(path);
+    }
+}
@@ -0,0 +1,81 @@
+package org.example.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A folder of another storage seen as a storage of its own, so that every daemon job keeps its
+ * {@code sql/} or {@code mongo/} backups, and its retention, apart from the other jobs.
+ */
+public class PrefixedBackupStorage implements BackupStorage {
+
+    private final BackupStorage storage;
+    private final String prefix;
+
+    public PrefixedBackupStorage(BackupStorage storage, String prefix) {
+        this.storage = storage;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public OutputStream create(String path) throws IOException {
+        return storage.create(resolve(path));
+    }
+
+    @Override
+    public InputStream open(String path) throws IOException {
+        return storage.open(resolve(path));
+    }
+
+    @Override
+    public boolean exists(String path) throws IOException {
+        return storage.exists(resolve(path));
+    }
+
+    @Override
+    public long size(String path) throws IOException {
+        return storage.size(resolve(path));
+    }
+
+    @Override
+    public List<String> list(String folder) throws IOException {
+        return storage.list(resolve(folder));
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        storage.delete(resolve(path));
+    }
+
+    @Override
+    public String describe(String path) {
+        return storage.describe(resolve(path));
+    }
+
+    @Override
+    public int writeBufferSize() {
+        return storage.writeBufferSize();
+    }
+
+    @Override
+    public Path localPath(String path) {
+        return storage.localPath(resolve(path));
+    }
+
+    @Override
+    public boolean isReadable() {
+        return storage.isReadable();
+    }
+
+    @Override
+    public void append(String path, byte[] data) throws IOException {
+        storage.append(resolve(path), data);
+    }
+
+    private String resolve(String path) {
+        return path.isEmpty() ? prefix : BackupStorage.join(prefix, path);
+    }
+}
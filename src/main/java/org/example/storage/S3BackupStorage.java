@@ -0,0 +1,306 @@
+package org.example.storage;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * S3-compatible storage over plain HTTP with path-style addressing, so it also works against MinIO
+ * and similar servers. Writes stream into concurrent multipart uploads and reads are served by
+ * parallel ranged GETs, so nothing is staged on local disk.
+ */
+public class S3BackupStorage implements BackupStorage {
+
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long RETRY_BACKOFF_MILLIS = 200;
+
+    private final S3Settings settings;
+    private final S3Signer signer;
+    private final HttpClient client;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public S3BackupStorage(S3Settings settings) {
+        this.settings = settings;
+        this.signer = new S3Signer(settings.accessKey(), settings.secretKey(), settings.sessionToken(), settings.region());
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(executor)
+                .build();
+    }
+
+    @Override
+    public OutputStream create(String path) throws IOException {
+        return new S3MultipartOutputStream(this, key(path), settings.partSize(), settings.concurrency());
+    }
+
+    /** The part being filled; parts in flight go back to the pool as their uploads finish. */
+    @Override
+    public int writeBufferSize() {
+        return settings.partSize();
+    }
+
+    @Override
+    public InputStream open(String path) throws IOException {
+        String key = key(path);
+        HttpResponse<byte[]> head = send("HEAD", key, null, null, Map.of());
+        long size = Long.parseLong(head.headers().firstValue("Content-Length").orElse("0"));
+        String etag = head.headers().firstValue("ETag").orElse(null);
+        return new S3RangeInputStream(this, key, etag, size, settings.partSize(), settings.concurrency());
+    }
+
+    @Override
+    public boolean exists(String path) throws IOException {
+        try {
+            send("HEAD", key(path), null, null, Map.of());
+            return true;
+        } catch (NoSuchFileException e) {
+            return !listKeys(key(path) + "/", "/", 1).isEmpty();
+        }
+    }
+
+    @Override
+    public long size(String path) throws IOException {
+        HttpResponse<byte[]> head = send("HEAD", key(path), null, null, Map.of());
+        return Long.parseLong(head.headers().firstValue("Content-Length").orElse("0"));
+    }
+
+    @Override
+    public List<String> list(String folder) throws IOException {
+        String prefix = key(folder);
+        prefix = prefix.isEmpty() ? "" : prefix + "/";
+        List<String> names = new ArrayList<>();
+        for (String child : listKeys(prefix, "/", Integer.MAX_VALUE)) {
+            String name = child.substring(prefix.length());
+            names.add(name.endsWith("/") ? name.substring(0, name.length() - 1) : name);
+        }
+        return names.stream().sorted().toList();
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        List<String> keys = new ArrayList<>(listKeys(key(path) + "/", null, Integer.MAX_VALUE));
+        keys.add(key(path));
+        List<Future<Object>> deletions = new ArrayList<>();
+        for (String key : keys) {
+            deletions.add(submit(() -> send("DELETE", key, null, null, Map.of())));
+        }
+        for (Future<Object> deletion : deletions) {
+            await(deletion);
+        }
+    }
+
+    @Override
+    public String describe(String path) {
+        return location(key(path));
+    }
+
+    private String location(String key) {
+        return "s3://" + settings.bucket() + "/" + key;
+    }
+
+    String initiateMultipartUpload(String key) throws IOException {
+        HttpResponse<byte[]> response = send("POST", key, "uploads", new byte[0], Map.of());
+        return firstText(response.body(), "UploadId");
+    }
+
+    String uploadPart(String key, String uploadId, int partNumber, byte[] data, int length) throws IOException {
+        HttpResponse<byte[]> response = send("PUT", key,
+                "partNumber=" + partNumber + "&uploadId=" + S3Signer.encode(uploadId, false),
+                length == data.length ? data : Arrays.copyOf(data, length), Map.of());
+        return response.headers().firstValue("ETag")
+                .orElseThrow(() -> new IOException("No ETag returned for part " + partNumber + " of " + key));
+    }
+
+    void completeMultipartUpload(String key, String uploadId, List<String> etags) throws IOException {
+        StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+        for (int i = 0; i < etags.size(); i++) {
+            body.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+                    .append(etags.get(i).replace("&", "&amp;").replace("\"", "&quot;")).append("</ETag></Part>");
+        }
+        body.append("</CompleteMultipartUpload>");
+        HttpResponse<byte[]> response = send("POST", key, "uploadId=" + S3Signer.encode(uploadId, false),
+                body.toString().getBytes(StandardCharsets.UTF_8), Map.of("Content-Type", "application/xml"));
+        // S3 can report a failed completion with a 200 status and an <Error> body.
+        if (new String(response.body(), StandardCharsets.UTF_8).contains("<Error>")) {
+            throw new IOException("Completing the upload of " + key + " failed: " + new String(response.body(), StandardCharsets.UTF_8));
+        }
+    }
+
+    void abortMultipartUpload(String key, String uploadId) {
+        try {
+            send("DELETE", key, "uploadId=" + S3Signer.encode(uploadId, false), null, Map.of());
+        } catch (IOException e) {
+            System.err.println("Failed to abort upload of " + key + ": " + e.getMessage());
+        }
+    }
+
+    void putObject(String key, byte[] data, int length) throws IOException {
+        send("PUT", key, null, length == data.length ? data : Arrays.copyOf(data, length), Map.of());
+    }
+
+    byte[] getRange(String key, String etag, long first, long last) throws IOException {
+        Map<String, String> headers = etag != null
+                ? Map.of("Range", "bytes=" + first + "-" + last, "If-Match", etag)
+                : Map.of("Range", "bytes=" + first + "-" + last);
+        byte[] data = send("GET", key, null, null, headers).body();
+        if (data.length != last - first + 1) {
+            throw new IOException("Short read of " + key + " at offset " + first);
+        }
+        return data;
+    }
+
+    <T> Future<T> submit(Callable<T> task) {
+        return executor.submit(task);
+    }
+
+    static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for storage");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private List<String> listKeys(String prefix, String delimiter, int limit) throws IOException {
+        List<String> keys = new ArrayList<>();
+        String continuationToken = null;
+        do {
+            StringBuilder query = new StringBuilder("list-type=2&prefix=").append(S3Signer.encode(prefix, false));
+            if (delimiter != null) {
+                query.append("&delimiter=").append(S3Signer.encode(delimiter, false));
+            }
+            if (continuationToken != null) {
+                query.append("&continuation-token=").append(S3Signer.encode(continuationToken, false));
+            }
+            byte[] body = send("GET", "", query.toString(), null, Map.of()).body();
+            org.w3c.dom.Document document = parseXml(body);
+            keys.addAll(texts(document, "Contents", "Key"));
+            keys.addAll(texts(document, "CommonPrefixes", "Prefix"));
+            continuationToken = "true".equals(firstText(document, "IsTruncated")) ? firstText(document, "NextContinuationToken") : null;
+        } while (continuationToken != null && keys.size() < limit);
+        keys.remove(prefix);
+        return keys;
+    }
+
+    private HttpResponse<byte[]> send(String method, String key, String query, byte[] body, Map<String, String> headers) throws IOException {
+        String base = settings.endpoint().toString().replaceAll("/+$", "");
+        URI uri = URI.create(base + "/" + S3Signer.encode(settings.bucket(), false)
+                + (key.isEmpty() ? "" : "/" + S3Signer.encode(key, true))
+                + (query != null ? "?" + query : ""));
+
+        IOException failure = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            if (attempt > 1) {
+                sleep(RETRY_BACKOFF_MILLIS << (attempt - 2));
+            }
+            HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                    .timeout(Duration.ofMinutes(5))
+                    .method(method, body != null ? HttpRequest.BodyPublishers.ofByteArray(body) : HttpRequest.BodyPublishers.noBody());
+            signer.sign(method, uri, S3Signer.UNSIGNED_PAYLOAD).forEach(request::header);
+            headers.forEach(request::header);
+
+            HttpResponse<byte[]> response;
+            try {
+                response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while talking to storage");
+            } catch (IOException e) {
+                failure = e;
+                continue;
+            }
+
+            int status = response.statusCode();
+            if (status / 100 == 2) {
+                return response;
+            }
+            if (status == 404) {
+                throw new NoSuchFileException(location(key));
+            }
+            failure = new IOException(method + " " + location(key) + " failed with HTTP " + status + ": "
+                    + new String(response.body(), StandardCharsets.UTF_8));
+            if (status < 500 && status != 429) {
+                throw failure;
+            }
+        }
+        throw failure;
+    }
+
+    private String key(String path) {
+        String prefix = settings.prefix();
+        if (prefix == null || prefix.isEmpty()) {
+            return path == null ? "" : path;
+        }
+        return path == null || path.isEmpty() ? prefix : prefix + "/" + path;
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while retrying");
+        }
+    }
+
+    private static org.w3c.dom.Document parseXml(byte[] xml) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+        } catch (Exception e) {
+            throw new IOException("Invalid response from storage: " + e.getMessage(), e);
+        }
+    }
+
+    private static String firstText(byte[] xml, String element) throws IOException {
+        return firstText(parseXml(xml), element);
+    }
+
+    private static String firstText(org.w3c.dom.Document document, String element) {
+        NodeList nodes = document.getElementsByTagName(element);
+        return nodes.getLength() > 0 ? nodes.item(0).getTextContent() : null;
+    }
+
+    private static List<String> texts(org.w3c.dom.Document document, String parent, String child) {
+        List<String> values = new ArrayList<>();
+        NodeList parents = document.getElementsByTagName(parent);
+        for (int i = 0; i < parents.getLength(); i++) {
+            NodeList children = ((Element) parents.item(i)).getElementsByTagName(child);
+            if (children.getLength() > 0) {
+                values.add(children.item(0).getTextContent());
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,191 @@
+package org.example.storage;
+
+import org.example.memory.BufferPool;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams an object into S3 as a multipart upload. Each full part is handed to a background upload
+ * while the writer keeps filling the next one; at most {@code concurrency} parts are in flight, so
+ * a slow network pushes back on the export instead of buffering without bound. Objects smaller
+ * than one part are sent with a single PUT. Part buffers come from the {@link BufferPool}, so all
+ * uploads together also stay within its memory budget.
+ */
+class S3MultipartOutputStream extends OutputStream {
+
+    private static final int MAX_PARTS = 10_000;
+    private static final int PARTS_PER_SIZE_STEP = 1_000;
+
+    private final S3BackupStorage storage;
+    private final String key;
+    private final int basePartSize;
+    private final Semaphore inFlight;
+    private final List<Part> parts = new ArrayList<>();
+    private byte[] buffer;
+    private int filled;
+    private String uploadId;
+    private boolean closed;
+
+    S3MultipartOutputStream(S3BackupStorage storage, String key, int partSize, int concurrency) throws IOException {
+        this.storage = storage;
+        this.key = key;
+        this.basePartSize = partSize;
+        this.inFlight = new Semaphore(concurrency);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (buffer != null && filled == buffer.length) {
+            uploadPart();
+        }
+        ensureBuffer();
+        buffer[filled++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (buffer != null && filled == buffer.length) {
+                uploadPart();
+            }
+            ensureBuffer();
+            int n = Math.min(len, buffer.length - filled);
+            System.arraycopy(b, off, buffer, filled, n);
+            filled += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (uploadId == null) {
+                storage.putObject(key, buffer != null ? buffer : new byte[0], filled);
+                return;
+            }
+            if (filled > 0) {
+                uploadPart();
+            }
+            List<String> etags = new ArrayList<>(parts.size());
+            for (Part part : parts) {
+                etags.add(S3BackupStorage.await(part.upload()));
+            }
+            storage.completeMultipartUpload(key, uploadId, etags);
+        } catch (IOException | RuntimeException e) {
+            abort();
+            throw e;
+        } finally {
+            releaseBuffer();
+        }
+    }
+
+    private void uploadPart() throws IOException {
+        try {
+            if (uploadId == null) {
+                uploadId = storage.initiateMultipartUpload(key);
+            }
+            if (parts.size() == MAX_PARTS) {
+                throw new IOException("Object " + key + " exceeds the multipart upload part limit");
+            }
+            failFast();
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new InterruptedIOException("Interrupted while waiting for an upload slot");
+        } catch (IOException | RuntimeException e) {
+            abort();
+            throw e;
+        }
+
+        int partNumber = parts.size() + 1;
+        byte[] data = buffer;
+        int length = filled;
+        buffer = null;
+        AtomicBoolean claimed = new AtomicBoolean();
+        parts.add(new Part(storage.submit(() -> {
+            // Whoever claims the part, this upload or an abort before it started, gives its buffer back.
+            if (!claimed.compareAndSet(false, true)) {
+                return null;
+            }
+            try {
+                return storage.uploadPart(key, uploadId, partNumber, data, length);
+            } finally {
+                BufferPool.getInstance().release(data);
+                inFlight.release();
+            }
+        }), data, claimed));
+        filled = 0;
+    }
+
+    /**
+     * Takes the next part buffer only once there is data for it, so a stream that waits for its other buffers
+     * or for its first bytes does not sit on a whole part meanwhile.
+     */
+    private void ensureBuffer() throws IOException {
+        if (buffer != null) {
+            return;
+        }
+        // Later parts grow so that the 10,000 part limit still leaves room for very large tables.
+        try {
+            buffer = BufferPool.getInstance().acquire(basePartSize * (1 + parts.size() / PARTS_PER_SIZE_STEP));
+        } catch (IOException | RuntimeException e) {
+            abort();
+            throw e;
+        }
+        filled = 0;
+    }
+
+    private void failFast() throws IOException {
+        for (Part part : parts) {
+            if (part.upload().isDone()) {
+                S3BackupStorage.await(part.upload());
+            }
+        }
+    }
+
+    private void abort() {
+        closed = true;
+        for (Part part : parts) {
+            part.upload().cancel(true);
+            if (part.claimed().compareAndSet(false, true)) {
+                BufferPool.getInstance().release(part.data());
+                inFlight.release();
+            }
+        }
+        releaseBuffer();
+        if (uploadId != null) {
+            storage.abortMultipartUpload(key, uploadId);
+        }
+    }
+
+    private void releaseBuffer() {
+        if (buffer != null) {
+            BufferPool.getInstance().release(buffer);
+            buffer = null;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private record Part(Future<String> upload, byte[] data, AtomicBoolean claimed) {
+    }
+}
@@ -0,0 +1,85 @@
+package org.example.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Future;
+
+/**
+ * Reads an S3 object as consecutive byte ranges fetched in parallel. Up to {@code concurrency}
+ * ranges are requested ahead of the reader and handed out in order. Every range is pinned to the
+ * ETag seen when the stream was opened, so an object replaced mid-read fails instead of mixing versions.
+ */
+class S3RangeInputStream extends InputStream {
+
+    private final S3BackupStorage storage;
+    private final String key;
+    private final String etag;
+    private final long size;
+    private final int chunkSize;
+    private final int concurrency;
+    private final Deque<Future<byte[]>> window = new ArrayDeque<>();
+    private long nextOffset;
+    private byte[] current = new byte[0];
+    private int position;
+
+    S3RangeInputStream(S3BackupStorage storage, String key, String etag, long size, int chunkSize, int concurrency) {
+        this.storage = storage;
+        this.key = key;
+        this.etag = etag;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.concurrency = concurrency;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == current.length && !advance()) {
+            return -1;
+        }
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position == current.length && !advance()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() {
+        window.forEach(range -> range.cancel(true));
+        window.clear();
+        nextOffset = size;
+    }
+
+    private boolean advance() throws IOException {
+        fillWindow();
+        Future<byte[]> next = window.poll();
+        if (next == null) {
+            return false;
+        }
+        current = S3BackupStorage.await(next);
+        position = 0;
+        fillWindow();
+        return true;
+    }
+
+    private void fillWindow() {
+        while (window.size() < concurrency && nextOffset < size) {
+            long first = nextOffset;
+            long last = Math.min(size, first + chunkSize) - 1;
+            window.add(storage.submit(() -> storage.getRange(key, etag, first, last)));
+            nextOffset = last + 1;
+        }
+    }
+}
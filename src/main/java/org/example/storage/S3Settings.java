@@ -0,0 +1,8 @@
+package org.example.storage;
+
+import java.net.URI;
+
+public record S3Settings(URI endpoint, String region, String bucket, String prefix,
+                         String accessKey, String secretKey, String sessionToken,
+                         int partSize, int concurrency) {
+}
@@ -0,0 +1,59 @@
+package org.example.throttle;
+
+/**
+ * AIMD limiter on the number of fetches running against the source at the same time.
+ * Every fetch that finishes under the latency target counts towards growing the limit by one;
+ * a fetch above the target halves it, at most once per cool-down period so a single slow burst
+ * does not collapse the limit to one. Without a target the limit stays at the maximum.
+ */
+public class AdaptiveConcurrencyController {
+
+    private static final long DECREASE_COOLDOWN_NANOS = 1_000_000_000L;
+
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+    private int limit;
+    private int inFlight;
+    private int goodSamples;
+    private long lastDecreaseNanos;
+
+    public AdaptiveConcurrencyController(int maxLimit, long targetLatencyMillis) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.targetLatencyNanos = targetLatencyMillis * 1_000_000L;
+        this.limit = targetLatencyMillis > 0 ? 1 : this.maxLimit;
+        this.lastDecreaseNanos = System.nanoTime() - DECREASE_COOLDOWN_NANOS;
+    }
+
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    public synchronized void release(long latencyNanos) {
+        inFlight--;
+        if (targetLatencyNanos > 0) {
+            adjust(latencyNanos);
+        }
+        notifyAll();
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    private void adjust(long latencyNanos) {
+        long now = System.nanoTime();
+        if (latencyNanos > targetLatencyNanos) {
+            goodSamples = 0;
+            if (now - lastDecreaseNanos >= DECREASE_COOLDOWN_NANOS) {
+                limit = Math.max(1, limit / 2);
+                lastDecreaseNanos = now;
+            }
+        } else if (++goodSamples >= limit) {
+            goodSamples = 0;
+            limit = Math.min(maxLimit, limit + 1);
+        }
+    }
+}
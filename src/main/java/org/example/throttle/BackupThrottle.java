@@ -0,0 +1,33 @@
+package org.example.throttle;
+
+import org.example.entities.BackupOptions;
+
+public class BackupThrottle {
+
+    private final TokenBucket byteBucket;
+    private final TokenBucket rowBucket;
+    private final AdaptiveConcurrencyController concurrencyController;
+
+    public BackupThrottle(BackupOptions options) {
+        this.byteBucket = new TokenBucket(options.getMaxMegabytesPerSecond() * 1024 * 1024);
+        this.rowBucket = new TokenBucket(options.getMaxRowsPerSecond());
+        this.concurrencyController = new AdaptiveConcurrencyController(options.getWorkers(), options.getLatencyTargetMillis());
+    }
+
+    public void beforeFetch() throws InterruptedException {
+        concurrencyController.acquire();
+    }
+
+    public void afterFetch(long fetchLatencyNanos) {
+        concurrencyController.release(fetchLatencyNanos);
+    }
+
+    public void pace(long rows, long bytes) throws InterruptedException {
+        rowBucket.acquire(rows);
+        byteBucket.acquire(bytes);
+    }
+
+    public int getConcurrencyLimit() {
+        return concurrencyController.getLimit();
+    }
+}
@@ -0,0 +1,49 @@
+package org.example.throttle;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/** Charges every byte read to a {@link TokenBucket}, for jobs that run under an I/O budget. */
+public class ThrottledInputStream extends FilterInputStream {
+
+    private final TokenBucket bucket;
+
+    public ThrottledInputStream(InputStream in, TokenBucket bucket) {
+        super(in);
+        this.bucket = bucket;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            charge(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        charge(read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        charge(skipped);
+        return skipped;
+    }
+
+    private void charge(long bytes) throws IOException {
+        try {
+            bucket.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled.");
+        }
+    }
+}
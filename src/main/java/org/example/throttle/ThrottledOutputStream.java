@@ -0,0 +1,38 @@
+package org.example.throttle;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/** Charges every byte written to a {@link TokenBucket}, for jobs that run under an I/O budget. */
+public class ThrottledOutputStream extends FilterOutputStream {
+
+    private final TokenBucket bucket;
+
+    public ThrottledOutputStream(OutputStream out, TokenBucket bucket) {
+        super(out);
+        this.bucket = bucket;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        charge(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        charge(len);
+    }
+
+    private void charge(long bytes) throws IOException {
+        try {
+            bucket.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled.");
+        }
+    }
+}
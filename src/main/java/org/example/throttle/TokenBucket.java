@@ -0,0 +1,42 @@
+package org.example.throttle;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket shared by all workers of a backup. Callers take permits after doing the work and
+ * go into debt if the bucket is empty; the debt is paid back by sleeping, so large reads are
+ * smoothed out instead of being rejected. A non-positive rate disables the bucket.
+ */
+public class TokenBucket {
+
+    private final double ratePerSecond;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(double ratePerSecond) {
+        this.ratePerSecond = ratePerSecond;
+        this.tokens = ratePerSecond;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public boolean isUnlimited() {
+        return ratePerSecond <= 0;
+    }
+
+    public void acquire(long permits) throws InterruptedException {
+        if (isUnlimited() || permits <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(ratePerSecond, tokens + (now - lastRefillNanos) * ratePerSecond / 1_000_000_000d);
+            lastRefillNanos = now;
+            tokens -= permits;
+            waitNanos = tokens < 0 ? (long) (-tokens / ratePerSecond * 1_000_000_000d) : 0;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.example.util;
+
+import org.example.memory.PooledGZIPInputStream;
+import org.example.memory.PooledGZIPOutputStream;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class BackupStreamUtil {
+
+    private static final int INFLATE_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFLATE_BUFFER_SIZE = 8192;
+
+    private BackupStreamUtil() { }
+
+    /** Pool memory a stream from {@link #openEncoded} holds until it is closed. */
+    public static int encodedBufferSize() {
+        return DEFLATE_BUFFER_SIZE;
+    }
+
+    /**
+     * Closing the returned stream gives its pooled buffer back and closes {@code rawInputStream}, and so
+     * does a failure to open it.
+     */
+    public static InputStream openDecoded(InputStream rawInputStream, String key) throws Exception {
+        InputStream decompressed;
+        try {
+            decompressed = new PooledGZIPInputStream(rawInputStream, INFLATE_BUFFER_SIZE);
+        } catch (IOException e) {
+            closeQuietly(rawInputStream);
+            throw e;
+        }
+        if (key == null) {
+            return decompressed;
+        }
+        try {
+            SecretKey secretKey = EncryptionUtil.decodeKey(key);
+            Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding", EncryptionUtil.provider());
+            cipher.init(Cipher.DECRYPT_MODE, secretKey);
+            return new CipherInputStream(decompressed, cipher);
+        } catch (Exception e) {
+            closeQuietly(decompressed);
+            throw e;
+        }
+    }
+
+    /** The write side of {@link #openDecoded}: data is encrypted first and the ciphertext compressed. */
+    public static OutputStream openEncoded(OutputStream rawOutputStream, String key) throws Exception {
+        return openEncoded(rawOutputStream, key != null ? EncryptionUtil.decodeKey(key) : null);
+    }
+
+    public static OutputStream openEncoded(OutputStream rawOutputStream, SecretKey secretKey) throws Exception {
+        OutputStream compressed;
+        try {
+            compressed = new PooledGZIPOutputStream(rawOutputStream, DEFLATE_BUFFER_SIZE);
+        } catch (IOException e) {
+            closeQuietly(rawOutputStream);
+            throw e;
+        }
+        if (secretKey == null) {
+            return compressed;
+        }
+        try {
+            Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5Padding", EncryptionUtil.provider());
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+            return new CipherOutputStream(compressed, cipher);
+        } catch (Exception e) {
+            closeQuietly(compressed);
+            throw e;
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable stream) {
+        try {
+            stream.close();
+        } catch (Exception e) {
+            // the original failure is reported
+        }
+    }
+}
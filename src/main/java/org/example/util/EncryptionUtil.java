@@ -12,15 +12,29 @@ import java.util.Base64;
 
 public class EncryptionUtil {
 
-    static {
-        Security.addProvider(new BouncyCastleProvider());
+    private EncryptionUtil() { }
+
+    /**
+     * Name of the BouncyCastle provider, registered the first time a command actually encrypts or decrypts.
+     * Loading the provider costs more than most commands that need no key take in total.
+     */
+    public static String provider() {
+        return ProviderHolder.NAME;
     }
 
-    private EncryptionUtil() { }
+    private static final class ProviderHolder {
+        static final String NAME;
+
+        static {
+            BouncyCastleProvider provider = new BouncyCastleProvider();
+            Security.addProvider(provider);
+            NAME = provider.getName();
+        }
+    }
 
     public static SecretKey generateKey() {
         try {
-            KeyGenerator keyGenerator = KeyGenerator.getInstance("AES", "BC");
+            KeyGenerator keyGenerator = KeyGenerator.getInstance("AES", provider());
             keyGenerator.init(128);
             return keyGenerator.generateKey();
         } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
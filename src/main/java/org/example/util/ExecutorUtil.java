@@ -0,0 +1,31 @@
+package org.example.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class ExecutorUtil {
+
+    private static final long NOTICE_AFTER_SECONDS = 10;
+
+    private ExecutorUtil() { }
+
+    /**
+     * Interrupts the tasks of {@code executor} and waits until they have all returned, so none of them still
+     * holds a connection, a pooled buffer or a file being written once the caller cleans those up. A task blocked
+     * in a database call ignores the interrupt and is waited for. Only an interrupt of the waiting thread itself
+     * stops the wait early.
+     */
+    public static void shutdownAndWait(ExecutorService executor) {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(NOTICE_AFTER_SECONDS, TimeUnit.SECONDS)) {
+                System.out.println("Waiting for running tasks to stop...");
+                while (!executor.awaitTermination(NOTICE_AFTER_SECONDS, TimeUnit.SECONDS)) {
+                    // Keep waiting; a task that returns late must not find its resources gone.
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,49 +1,85 @@
 package org.example.util;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class RegexUtil {
 
-    private static final String generateKeyRegex = "--generate\\s+key";
-    private static final String dbParamsRegex = "--db\\s+(\\S+)" +
+    private static final Pattern generateKeyPattern = Pattern.compile("--generate\\s+key");
+    private static final Pattern dbParamsPattern = Pattern.compile("--db\\s+(\\S+)" +
             "\\s+--url\\s+(\\S+)" +
             "(?:\\s+--password\\s+(\\S+))?" +
             "(?:\\s+--user\\s+(\\S+))?" +
-            "(?:\\s+--dbName\\s+(\\S+))?";
-    private static final String doBackupRegex = "--do\\s+backup(?:\\s+--entity\\s+(\\[?[\\w,\\s]+]?))?(?:\\s+--key\\s+(\\S+))?";
-    private static final String restoreWithSavesAndKeyRegex = "--restore\\s+--foldertypedb\\s+(mongo|sql)" +
+            "(?:\\s+--dbName\\s+(\\S+))?");
+    private static final String optionValueRegex = "(\"[^\"]*\"|[^\\s\"-]\\S*)";
+    private static final String extraOptionsRegex = "(?:\\s+--[\\w-]+(?:\\s+" + optionValueRegex + ")?)*";
+    private static final Pattern doBackupPattern = Pattern.compile("--do\\s+backup(?:\\s+--entity\\s+(\\[?[\\w,\\s]+]?))?(?:\\s+--key\\s+(\\S+))?" + extraOptionsRegex);
+    private static final Pattern restoreWithSavesAndKeyPattern = Pattern.compile("--restore\\s+--foldertypedb\\s+(mongo|sql)" +
             "\\s+--folderName\\s+(\\S+)" +
             "(?:\\s+--saves\\s+\\[(\\s*\\w+(?:,\\s*\\w+)*\\s*)])?" +
-            "(?:\\s+--key\\s+(\\S+))?";
-    private static final String listDbTypeRegex = "--list\\s+(mongo|sql)?(?:\\s+--folder\\s+(\\S+))?";
+            "(?:\\s+--key\\s+(\\S+))?" + extraOptionsRegex);
+    private static final Pattern restoreFromStdinPattern = Pattern.compile("--restore\\s+--stdin" +
+            "(?:\\s+--saves\\s+\\[(\\s*\\w+(?:,\\s*\\w+)*\\s*)])?" +
+            "(?:\\s+--key\\s+(\\S+))?" + extraOptionsRegex);
+    private static final Pattern listDbTypePattern = Pattern.compile("--list\\s+(mongo|sql)?(?:\\s+--folder\\s+(\\S+))?");
+    private static final Pattern verifyPattern = Pattern.compile("--verify\\s+(mongo|sql)\\s+--folder\\s+(\\S+)(?:\\s+--key\\s+(\\S+))?" + extraOptionsRegex);
+    private static final Pattern compactPattern = Pattern.compile("--compact\\s+(mongo|sql)\\s+--folder\\s+(\\S+)(?:\\s+--key\\s+(\\S+))?" + extraOptionsRegex);
+    private static final Pattern daemonPattern = Pattern.compile("--daemon\\s+(\\S+)");
+    private static final Pattern startupBenchmarkPattern = Pattern.compile("--startup-benchmark");
+
+    // Compiled once per option name; commands look up the same few names again and again.
+    private static final Map<String, Pattern> optionPatterns = new ConcurrentHashMap<>();
+    private static final Map<String, Pattern> flagPatterns = new ConcurrentHashMap<>();
 
 
     public static boolean isGenerateKey(String input) {
-        return input.matches(generateKeyRegex);
+        return generateKeyPattern.matcher(input).matches();
     }
 
     public static boolean isDbParams(String input) {
-        return input.matches(dbParamsRegex);
+        return dbParamsPattern.matcher(input).matches();
     }
 
     public static boolean isDoBackup(String input) {
-        return input.matches(doBackupRegex);
+        return doBackupPattern.matcher(input).matches();
     }
 
     public static boolean isRestoreWithSavesAndKey(String input) {
-        return input.matches(restoreWithSavesAndKeyRegex);
+        return restoreWithSavesAndKeyPattern.matcher(input).matches();
+    }
+
+    public static boolean isRestoreFromStdin(String input) {
+        return restoreFromStdinPattern.matcher(input).matches();
     }
 
     public static boolean isListCommand(String input) {
-        return input.matches(listDbTypeRegex);
+        return listDbTypePattern.matcher(input).matches();
+    }
+
+    public static boolean isVerify(String input) {
+        return verifyPattern.matcher(input).matches();
+    }
+
+    public static boolean isCompact(String input) {
+        return compactPattern.matcher(input).matches();
+    }
+
+    public static boolean isDaemon(String input) {
+        return daemonPattern.matcher(input).matches();
+    }
+
+    public static boolean isStartupBenchmark(String input) {
+        return startupBenchmarkPattern.matcher(input).matches();
     }
 
 
     public static List<String> getDbParams(String input) {
         try {
-            Matcher matcher = Pattern.compile(dbParamsRegex).matcher(input);
+            Matcher matcher = dbParamsPattern.matcher(input);
             if (matcher.find()) {
                 String db = matcher.group(1);
                 String url = matcher.group(2);
@@ -61,7 +97,7 @@ public class RegexUtil {
     }
 
     public static String getBackupKey(String input) {
-        Matcher matcher = Pattern.compile(doBackupRegex).matcher(input);
+        Matcher matcher = doBackupPattern.matcher(input);
         if (matcher.find()) {
             return matcher.group(2);
         }
@@ -69,7 +105,7 @@ public class RegexUtil {
     }
 
     public static String[] getBackupEntities(String input) {
-        Matcher matcher = Pattern.compile(doBackupRegex).matcher(input);
+        Matcher matcher = doBackupPattern.matcher(input);
         if (matcher.find() && matcher.group(1) != null) {
             return matcher.group(1).replace("[", "").replace("]", "").split(",\\s*");
         }
@@ -77,7 +113,7 @@ public class RegexUtil {
     }
 
     public static String getFileTypeDb(String input) {
-        Matcher matcher = Pattern.compile(restoreWithSavesAndKeyRegex).matcher(input);
+        Matcher matcher = restoreWithSavesAndKeyPattern.matcher(input);
         if (matcher.find()) {
             return matcher.group(1);
         }
@@ -85,7 +121,7 @@ public class RegexUtil {
     }
 
     public static String getFileName(String input) {
-        Matcher matcher = Pattern.compile(restoreWithSavesAndKeyRegex).matcher(input);
+        Matcher matcher = restoreWithSavesAndKeyPattern.matcher(input);
         if (matcher.find()) {
             return matcher.group(2);
         }
@@ -93,7 +129,7 @@ public class RegexUtil {
     }
 
     public static String[] getSaves(String input) {
-        Matcher matcher = Pattern.compile(restoreWithSavesAndKeyRegex).matcher(input);
+        Matcher matcher = restoreWithSavesAndKeyPattern.matcher(input);
         if (matcher.find() && matcher.group(3) != null) {
             return matcher.group(3).split(",\\s*");
         }
@@ -101,15 +137,31 @@ public class RegexUtil {
     }
 
     public static String getRestoreKey(String input) {
-        Matcher matcher = Pattern.compile(restoreWithSavesAndKeyRegex).matcher(input);
+        Matcher matcher = restoreWithSavesAndKeyPattern.matcher(input);
         if (matcher.find()) {
             return matcher.group(4);
         }
         return null;
     }
 
+    public static String[] getStdinSaves(String input) {
+        Matcher matcher = restoreFromStdinPattern.matcher(input);
+        if (matcher.find() && matcher.group(1) != null) {
+            return matcher.group(1).split(",\\s*");
+        }
+        return null;
+    }
+
+    public static String getStdinKey(String input) {
+        Matcher matcher = restoreFromStdinPattern.matcher(input);
+        if (matcher.find()) {
+            return matcher.group(2);
+        }
+        return null;
+    }
+
     public static String getDbType(String input) {
-        Matcher matcher = Pattern.compile(listDbTypeRegex).matcher(input);
+        Matcher matcher = listDbTypePattern.matcher(input);
         if (matcher.find()) {
             return matcher.group(1);
         }
@@ -117,13 +169,110 @@ public class RegexUtil {
     }
 
     public static String getFolderName(String input) {
-        Matcher matcher = Pattern.compile(listDbTypeRegex).matcher(input);
+        Matcher matcher = listDbTypePattern.matcher(input);
+        if (matcher.find()) {
+            return matcher.group(2);
+        }
+        return null;
+    }
+
+    public static String getVerifyDbType(String input) {
+        Matcher matcher = verifyPattern.matcher(input);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        return null;
+    }
+
+    public static String getVerifyFolderName(String input) {
+        Matcher matcher = verifyPattern.matcher(input);
+        if (matcher.find()) {
+            return matcher.group(2);
+        }
+        return null;
+    }
+
+    public static String getVerifyKey(String input) {
+        Matcher matcher = verifyPattern.matcher(input);
+        if (matcher.find()) {
+            return matcher.group(3);
+        }
+        return null;
+    }
+
+    public static String getCompactDbType(String input) {
+        Matcher matcher = compactPattern.matcher(input);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        return null;
+    }
+
+    public static String getCompactFolderName(String input) {
+        Matcher matcher = compactPattern.matcher(input);
         if (matcher.find()) {
             return matcher.group(2);
         }
         return null;
     }
 
+    public static String getCompactKey(String input) {
+        Matcher matcher = compactPattern.matcher(input);
+        if (matcher.find()) {
+            return matcher.group(3);
+        }
+        return null;
+    }
 
+    public static String getDaemonConfig(String input) {
+        Matcher matcher = daemonPattern.matcher(input);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        return null;
+    }
+
+    public static String getOption(String input, String name) {
+        Matcher matcher = optionPattern(name).matcher(input);
+        if (matcher.find()) {
+            String value = matcher.group(1);
+            return value.startsWith("\"") ? value.substring(1, value.length() - 1) : value;
+        }
+        return null;
+    }
+
+    /** Every value of an option that may be given more than once, in the order given. */
+    public static List<String> getOptions(String input, String name) {
+        Matcher matcher = optionPattern(name).matcher(input);
+        List<String> values = new ArrayList<>();
+        while (matcher.find()) {
+            String value = matcher.group(1);
+            values.add(value.startsWith("\"") ? value.substring(1, value.length() - 1) : value);
+        }
+        return values;
+    }
 
+    private static Pattern optionPattern(String name) {
+        return optionPatterns.computeIfAbsent(name, option -> Pattern.compile("--" + Pattern.quote(option) + "\\s+" + optionValueRegex));
+    }
+
+    public static boolean hasFlag(String input, String name) {
+        return flagPatterns.computeIfAbsent(name, flag -> Pattern.compile("--" + Pattern.quote(flag) + "(?=\\s|$)"))
+                .matcher(input).find();
+    }
+
+    public static int getIntOption(String input, String name, int defaultValue) {
+        String value = getOption(input, name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    public static long getLongOption(String input, String name, long defaultValue) {
+        String value = getOption(input, name);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    public static double getDoubleOption(String input, String name, double defaultValue) {
+        String value = getOption(input, name);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
 }
@@ -0,0 +1,206 @@
+package org.example.util;
+
+import org.example.checkpoint.RestoreCheckpoint;
+import org.example.checkpoint.SqlRestoreCheckpoint;
+import org.example.entities.TableSchema;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Shadow restores: each table is loaded and indexed as {@code <table>__shadow} while the live table stays
+ * untouched, and all of them replace their live tables in one step at the end. On PostgreSQL the swap is
+ * one transaction and on MySQL one {@code RENAME TABLE}; other databases swap table by table.
+ */
+public class ShadowTables {
+
+    public static final String SUFFIX = "__shadow";
+    private static final String OLD_SUFFIX = "__old";
+
+    private static final Pattern CREATE_INDEX = Pattern.compile("^CREATE (UNIQUE )?INDEX (\\S+) ON ");
+    private static final Pattern PRIMARY_KEY_NAME = Pattern.compile(" ADD CONSTRAINT (\\S+) PRIMARY KEY ");
+
+    private ShadowTables() { }
+
+    public static String shadowName(String tableName) {
+        return tableName + SUFFIX;
+    }
+
+    /** The backed up CREATE TABLE statement, creating the shadow table instead. */
+    public static String createStatement(String createStatement, String tableName) {
+        return createStatement.replaceFirst("^CREATE TABLE " + Pattern.quote(tableName) + "(?= )",
+                Matcher.quoteReplacement("CREATE TABLE " + shadowName(tableName)));
+    }
+
+    /**
+     * The post-load statements of {@link SqlSchemaUtil#describeTable} run against the shadow table. Where index
+     * names are unique per schema rather than per table they get the suffix too, and lose it again in the swap.
+     */
+    public static List<String> postLoadStatements(TableSchema schema, SqlDialect dialect) {
+        String table = Pattern.quote(schema.tableName());
+        String shadow = Matcher.quoteReplacement(shadowName(schema.tableName()));
+        List<String> statements = new ArrayList<>();
+        for (String statement : schema.postLoadStatements()) {
+            String rewritten = statement
+                    .replaceFirst("^ALTER TABLE " + table + "(?= )", "ALTER TABLE " + shadow)
+                    .replaceFirst("(?<= ON )" + table + "(?= \\()", shadow)
+                    .replaceFirst("(?<=pg_get_serial_sequence\\(')" + table + "(?=')", shadow)
+                    .replaceFirst("(?<= FROM )" + table + "$", shadow);
+            if (renamesIndexes(dialect)) {
+                rewritten = CREATE_INDEX.matcher(rewritten).replaceFirst("CREATE $1INDEX $2" + SUFFIX + " ON ");
+                rewritten = PRIMARY_KEY_NAME.matcher(rewritten).replaceFirst(" ADD CONSTRAINT $1" + SUFFIX + " PRIMARY KEY ");
+            }
+            statements.add(rewritten);
+        }
+        return statements;
+    }
+
+    /**
+     * Replaces the live tables by their loaded shadows. Tables already swapped by an earlier, interrupted
+     * run are skipped, and each swapped table is marked in the checkpoint.
+     */
+    public static void swap(Connection connection, SqlDialect dialect, List<TableSchema> schemas,
+                            SqlRestoreCheckpoint checkpoint) throws SQLException {
+        List<TableSchema> pending = new ArrayList<>();
+        for (TableSchema schema : schemas) {
+            if (!checkpoint.isMarked(schema.tableName(), RestoreCheckpoint.SWAPPED) && SqlSchemaUtil.storedTableName(connection, shadowName(schema.tableName())) != null) {
+                pending.add(schema);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (dialect == SqlDialect.MYSQL) {
+            swapByRename(connection, pending);
+        } else {
+            swapInTransaction(connection, dialect, pending);
+        }
+        for (TableSchema schema : pending) {
+            checkpoint.mark(connection, schema.tableName(), RestoreCheckpoint.SWAPPED);
+        }
+    }
+
+    /** MySQL commits DDL at once, but renames every table of a single RENAME TABLE atomically. */
+    private static void swapByRename(Connection connection, List<TableSchema> schemas) throws SQLException {
+        List<String> renames = new ArrayList<>();
+        List<String> oldTables = new ArrayList<>();
+        for (TableSchema schema : schemas) {
+            String table = schema.tableName();
+            if (SqlSchemaUtil.storedTableName(connection, table) != null) {
+                renames.add(table + " TO " + table + OLD_SUFFIX);
+                oldTables.add(table + OLD_SUFFIX);
+            }
+            renames.add(shadowName(table) + " TO " + table);
+        }
+        // Foreign keys follow a renamed table, so the keys of other tables would end up pointing at the old copy.
+        List<SqlSchemaUtil.ReferencingKey> outsideKeys = outsideKeys(connection, schemas);
+        try (Statement statement = connection.createStatement()) {
+            for (String oldTable : oldTables) {
+                statement.execute("DROP TABLE IF EXISTS " + oldTable);
+            }
+            statement.execute("RENAME TABLE " + String.join(", ", renames));
+            for (SqlSchemaUtil.ReferencingKey key : outsideKeys) {
+                statement.execute(SqlDialect.MYSQL.dropForeignKeyStatement(key.tableName(), key.name()));
+                statement.execute(key.addStatement());
+            }
+            for (String oldTable : oldTables) {
+                try {
+                    statement.execute("DROP TABLE " + oldTable);
+                } catch (SQLException e) {
+                    // The swap itself is done; the old copy is dropped again by the next shadow restore.
+                    System.err.println("Could not drop " + oldTable + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void swapInTransaction(Connection connection, SqlDialect dialect, List<TableSchema> schemas) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            List<SqlSchemaUtil.ReferencingKey> outsideKeys = outsideKeys(connection, schemas);
+            for (TableSchema schema : schemas) {
+                String table = schema.tableName();
+                // An index that failed to build is reported then and simply missing now.
+                Set<String> built = indexNames(connection, SqlSchemaUtil.storedTableName(connection, shadowName(table)));
+                // Keys between restored tables come back with the restore's foreign keys, the others right after the swap.
+                for (SqlSchemaUtil.ReferencingKey key : SqlSchemaUtil.referencingKeys(connection, table)) {
+                    statement.execute(dialect.dropForeignKeyStatement(key.tableName(), key.name()));
+                }
+                statement.execute(dialect.dropTableStatement(table));
+                statement.execute("ALTER TABLE " + shadowName(table) + " RENAME TO " + table);
+                for (String index : indexNames(schema)) {
+                    if (built.contains((index + SUFFIX).toLowerCase())) {
+                        statement.execute("ALTER INDEX " + index + SUFFIX + " RENAME TO " + index);
+                    }
+                }
+            }
+            // Rows that no longer have their referenced row fail the key here and roll the whole swap back.
+            for (SqlSchemaUtil.ReferencingKey key : outsideKeys) {
+                statement.execute(key.addStatement());
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /** Foreign keys pointing at the swapped tables from tables that are not part of the restore. */
+    private static List<SqlSchemaUtil.ReferencingKey> outsideKeys(Connection connection, List<TableSchema> schemas) throws SQLException {
+        Set<String> swapped = new HashSet<>();
+        for (TableSchema schema : schemas) {
+            swapped.add(schema.tableName().toLowerCase());
+        }
+        List<SqlSchemaUtil.ReferencingKey> keys = new ArrayList<>();
+        for (TableSchema schema : schemas) {
+            for (SqlSchemaUtil.ReferencingKey key : SqlSchemaUtil.referencingKeys(connection, schema.tableName())) {
+                if (!swapped.contains(key.tableName().toLowerCase())) {
+                    keys.add(key);
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static List<String> indexNames(TableSchema schema) {
+        List<String> names = new ArrayList<>();
+        for (String statement : schema.postLoadStatements()) {
+            Matcher index = CREATE_INDEX.matcher(statement);
+            Matcher primaryKey = PRIMARY_KEY_NAME.matcher(statement);
+            if (index.find()) {
+                names.add(index.group(2));
+            } else if (primaryKey.find()) {
+                names.add(primaryKey.group(1));
+            }
+        }
+        return names;
+    }
+
+    private static Set<String> indexNames(Connection connection, String storedTableName) throws SQLException {
+        Set<String> names = new HashSet<>();
+        try (ResultSet indexes = connection.getMetaData().getIndexInfo(connection.getCatalog(), connection.getSchema(), storedTableName, false, true)) {
+            while (indexes.next()) {
+                String name = indexes.getString("INDEX_NAME");
+                if (name != null) {
+                    names.add(name.toLowerCase());
+                }
+            }
+        }
+        return names;
+    }
+
+    private static boolean renamesIndexes(SqlDialect dialect) {
+        return dialect != SqlDialect.MYSQL;
+    }
+}
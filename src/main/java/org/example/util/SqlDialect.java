@@ -0,0 +1,196 @@
+package org.example.util;
+
+import org.example.plan.EntityEstimate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+public enum SqlDialect {
+    POSTGRESQL,
+    MYSQL,
+    GENERIC;
+
+    public static SqlDialect of(Connection connection) throws SQLException {
+        String product = connection.getMetaData().getDatabaseProductName().toLowerCase();
+        if (product.contains("postgres")) {
+            return POSTGRESQL;
+        }
+        if (product.contains("mysql") || product.contains("mariadb")) {
+            return MYSQL;
+        }
+        return GENERIC;
+    }
+
+    /**
+     * Without CASCADE, so a foreign key of another table makes the drop fail instead of vanishing with it; callers
+     * take those keys off first with {@link #dropForeignKeyStatement} and add them again afterwards.
+     */
+    public String dropTableStatement(String tableName) {
+        return "DROP TABLE IF EXISTS " + tableName;
+    }
+
+    public String dropForeignKeyStatement(String tableName, String keyName) {
+        return this == MYSQL
+                ? "ALTER TABLE " + tableName + " DROP FOREIGN KEY " + keyName
+                : "ALTER TABLE " + tableName + " DROP CONSTRAINT " + keyName;
+    }
+
+    /**
+     * INSERT that overwrites the row with the same primary key, with one parameter per column. Null where
+     * the dialect has no such statement, so the row has to be deleted and inserted again.
+     */
+    public String upsertStatement(String tableName, List<String> columns, List<String> keyColumns) {
+        String insert = "INSERT INTO " + tableName + " (" + String.join(",", columns) + ") VALUES ("
+                + String.join(",", Collections.nCopies(columns.size(), "?")) + ")";
+        List<String> updated = columns.stream()
+                .filter(column -> keyColumns.stream().noneMatch(column::equalsIgnoreCase))
+                .toList();
+        return switch (this) {
+            case POSTGRESQL -> insert + " ON CONFLICT (" + String.join(",", keyColumns) + ")" + (updated.isEmpty() ? " DO NOTHING"
+                    : " DO UPDATE SET " + String.join(", ", updated.stream().map(column -> column + " = EXCLUDED." + column).toList()));
+            case MYSQL -> updated.isEmpty() ? insert.replaceFirst("^INSERT ", "INSERT IGNORE ")
+                    : insert + " ON DUPLICATE KEY UPDATE " + String.join(", ", updated.stream().map(column -> column + " = VALUES(" + column + ")").toList());
+            case GENERIC -> null;
+        };
+    }
+
+    /**
+     * Fetch size for reading a whole table row by row. MySQL's driver buffers the complete result set whatever
+     * the fetch size, unless it is {@link Integer#MIN_VALUE}; the connection then runs nothing else until the
+     * result set is closed.
+     */
+    public int streamingFetchSize(int rows) {
+        return this == MYSQL ? Integer.MIN_VALUE : rows;
+    }
+
+    /** Sort expression ordering a character column by the bytes of its value rather than its collation. */
+    public String binaryOrder(String column) {
+        return switch (this) {
+            case POSTGRESQL -> column + " COLLATE \"C\"";
+            case MYSQL -> "CAST(" + column + " AS BINARY)";
+            case GENERIC -> column;
+        };
+    }
+
+    /**
+     * Character columns of a table whose collation already orders values by their bytes. Their index serves
+     * a byte-order sort, so they need no {@link #binaryOrder} that would make the database sort the whole table.
+     */
+    public Set<String> byteOrderedColumns(Connection connection, String tableName) throws SQLException {
+        String query = switch (this) {
+            case POSTGRESQL -> "SELECT a.attname FROM pg_attribute a JOIN pg_collation c ON c.oid = a.attcollation"
+                    + " WHERE a.attrelid = (SELECT t.oid FROM pg_class t WHERE t.relname = ? AND pg_table_is_visible(t.oid))"
+                    + " AND a.attnum > 0 AND NOT a.attisdropped AND (c.collname IN ('C', 'POSIX', 'ucs_basic') OR (c.collname = 'default'"
+                    + " AND (SELECT datcollate FROM pg_database WHERE datname = current_database()) IN ('C', 'POSIX')))";
+            // Only NO PAD binary collations; the older _bin ones ignore trailing spaces.
+            case MYSQL -> "SELECT COLUMN_NAME FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?"
+                    + " AND (RIGHT(COLLATION_NAME, 9) = '_0900_bin' OR COLLATION_NAME = 'binary')";
+            case GENERIC -> null;
+        };
+        Set<String> columns = new HashSet<>();
+        if (query == null) {
+            return columns;
+        }
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setString(1, tableName);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    columns.add(rs.getString(1));
+                }
+            }
+        }
+        return columns;
+    }
+
+    /** Sizes of the tables of the current schema from the catalog statistics, without scanning any table. */
+    public Map<String, EntityEstimate> estimateTableSizes(Connection connection) throws SQLException {
+        String query = switch (this) {
+            case POSTGRESQL -> "SELECT c.relname, pg_relation_size(c.oid), c.reltuples::bigint FROM pg_class c"
+                    + " JOIN pg_namespace n ON n.oid = c.relnamespace WHERE c.relkind IN ('r', 'p') AND n.nspname = current_schema()";
+            case MYSQL -> "SELECT TABLE_NAME, DATA_LENGTH, TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE()";
+            case GENERIC -> null;
+        };
+        Map<String, EntityEstimate> estimates = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (query == null) {
+            return estimates;
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(query)) {
+            while (rs.next()) {
+                // reltuples is -1 for a table that was never analyzed.
+                String table = rs.getString(1);
+                estimates.put(table, new EntityEstimate(table, Math.max(0, rs.getLong(2)), Math.max(0, rs.getLong(3))));
+            }
+        }
+        return estimates;
+    }
+
+    public String exportSnapshot(Connection connection) throws SQLException {
+        if (this != POSTGRESQL) {
+            return null;
+        }
+        connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT pg_export_snapshot()")) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    public void importSnapshot(Connection connection, String snapshot) throws SQLException {
+        if (snapshot == null) {
+            return;
+        }
+        connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET TRANSACTION SNAPSHOT '" + snapshot + "'");
+        }
+    }
+
+    /** Returns whether any setting was applied, i.e. whether the session has to be reset afterwards. */
+    public boolean applyBulkLoadSettings(Connection connection) {
+        return apply(connection, switch (this) {
+            case POSTGRESQL -> List.of("SET session_replication_role = replica");
+            case MYSQL -> List.of("SET FOREIGN_KEY_CHECKS = 0", "SET UNIQUE_CHECKS = 0");
+            case GENERIC -> List.of();
+        });
+    }
+
+    public void resetSessionSettings(Connection connection) {
+        apply(connection, switch (this) {
+            case POSTGRESQL -> List.of("SET session_replication_role = DEFAULT");
+            case MYSQL -> List.of("SET FOREIGN_KEY_CHECKS = 1", "SET UNIQUE_CHECKS = 1");
+            case GENERIC -> List.of();
+        });
+    }
+
+    private boolean apply(Connection connection, List<String> settings) {
+        boolean applied = false;
+        for (String setting : settings) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(setting);
+                applied = true;
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                }
+            } catch (SQLException e) {
+                System.err.println("Could not apply session setting '" + setting + "': " + e.getMessage());
+                try {
+                    if (!connection.getAutoCommit()) {
+                        connection.rollback();
+                    }
+                } catch (SQLException ignored) {
+                }
+            }
+        }
+        return applied;
+    }
+}
@@ -0,0 +1,301 @@
+package org.example.util;
+
+import org.example.entities.TableSchema;
+
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Reads a table definition from {@link DatabaseMetaData} and splits it into a bare CREATE TABLE
+ * (columns, types, defaults, nullability) and the statements that should only run after the data
+ * is loaded: primary key, identity/auto-increment, secondary indexes and foreign keys.
+ */
+public class SqlSchemaUtil {
+
+    private static final Pattern MYSQL_UNQUOTED_DEFAULT = Pattern.compile("-?\\d+(\\.\\d+)?|[A-Za-z_]+(\\(\\d*\\))?|\\(.*\\)");
+
+    private SqlSchemaUtil() { }
+
+    public static TableSchema describeTable(Connection connection, String tableName) throws SQLException {
+        SqlDialect dialect = SqlDialect.of(connection);
+        DatabaseMetaData metaData = connection.getMetaData();
+
+        List<String> columnDefinitions = new ArrayList<>();
+        List<String> identityStatements = new ArrayList<>();
+        try (ResultSet columns = metaData.getColumns(null, null, tableName, null)) {
+            while (columns.next()) {
+                String columnName = columns.getString("COLUMN_NAME");
+                String columnType = columnType(columns);
+                String defaultValue = columns.getString("COLUMN_DEF");
+                boolean autoIncrement = "YES".equalsIgnoreCase(columns.getString("IS_AUTOINCREMENT"));
+                boolean serial = columnType.toLowerCase().endsWith("serial");
+
+                StringBuilder definition = new StringBuilder(columnName).append(" ").append(columnType);
+                if (defaultValue != null && !serial) {
+                    definition.append(" DEFAULT ").append(formatDefault(dialect, defaultValue));
+                }
+                if (columns.getInt("NULLABLE") == DatabaseMetaData.columnNoNulls) {
+                    definition.append(" NOT NULL");
+                }
+                columnDefinitions.add(definition.toString());
+
+                if (dialect == SqlDialect.POSTGRESQL && (serial || autoIncrement)) {
+                    if (!serial) {
+                        identityStatements.add("ALTER TABLE " + tableName + " ALTER COLUMN " + columnName + " ADD GENERATED BY DEFAULT AS IDENTITY");
+                    }
+                    identityStatements.add("SELECT setval(pg_get_serial_sequence('" + tableName + "', '" + columnName + "'), "
+                            + "COALESCE(MAX(" + columnName + "), 0) + 1, false) FROM " + tableName);
+                } else if (dialect == SqlDialect.MYSQL && autoIncrement) {
+                    identityStatements.add("ALTER TABLE " + tableName + " MODIFY " + definition + " AUTO_INCREMENT");
+                }
+            }
+        }
+
+        String createStatement = "CREATE TABLE " + tableName + " (" + String.join(", ", columnDefinitions) + ");";
+
+        List<String> postLoadStatements = new ArrayList<>();
+        String primaryKeyName = addPrimaryKey(metaData, tableName, postLoadStatements);
+        postLoadStatements.addAll(identityStatements);
+        addIndexes(metaData, tableName, primaryKeyName, postLoadStatements);
+
+        return new TableSchema(tableName, createStatement, postLoadStatements, foreignKeys(metaData, tableName));
+    }
+
+    public static List<String> primaryKeyColumns(Connection connection, String tableName) throws SQLException {
+        Map<Integer, String> keyColumns = new TreeMap<>();
+        try (ResultSet primaryKeys = connection.getMetaData().getPrimaryKeys(null, null, tableName)) {
+            while (primaryKeys.next()) {
+                keyColumns.put(primaryKeys.getInt("KEY_SEQ"), primaryKeys.getString("COLUMN_NAME"));
+            }
+        }
+        return new ArrayList<>(keyColumns.values());
+    }
+
+    /** The table's name as the catalog stores it, or null if there is no such table. */
+    public static String storedTableName(Connection connection, String tableName) throws SQLException {
+        // Unquoted names are folded to lower case by PostgreSQL and to upper case by most others.
+        for (String name : List.of(tableName, tableName.toLowerCase(), tableName.toUpperCase())) {
+            try (ResultSet tables = connection.getMetaData().getTables(connection.getCatalog(), connection.getSchema(), name, new String[]{"TABLE"})) {
+                while (tables.next()) {
+                    // The name is a LIKE pattern, in which _ matches any character.
+                    if (tables.getString("TABLE_NAME").equalsIgnoreCase(tableName)) {
+                        return tables.getString("TABLE_NAME");
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * ORDER BY clause listing rows in primary key order as backup files compare keys: numbers by value and
+     * character columns byte by byte, whatever the column collation. Empty for a table without a key.
+     * A character column whose collation does not sort by bytes cannot use its index for this order, and the
+     * database sorts the whole table before it returns the first row.
+     */
+    public static String keyOrderBy(Connection connection, String tableName, List<String> keyColumns) throws SQLException {
+        if (keyColumns.isEmpty()) {
+            return "";
+        }
+        SqlDialect dialect = SqlDialect.of(connection);
+        Map<String, Integer> columnTypes = new HashMap<>();
+        try (ResultSet columns = connection.getMetaData().getColumns(null, null, tableName, null)) {
+            while (columns.next()) {
+                columnTypes.put(columns.getString("COLUMN_NAME"), columns.getInt("DATA_TYPE"));
+            }
+        }
+        Set<String> byteOrdered = null;
+        List<String> order = new ArrayList<>();
+        for (String column : keyColumns) {
+            switch (columnTypes.getOrDefault(column, Types.OTHER)) {
+                case Types.CHAR, Types.VARCHAR, Types.LONGVARCHAR, Types.NCHAR, Types.NVARCHAR, Types.LONGNVARCHAR -> {
+                    if (byteOrdered == null) {
+                        byteOrdered = dialect.byteOrderedColumns(connection, tableName);
+                    }
+                    order.add(byteOrdered.contains(column) ? column : dialect.binaryOrder(column));
+                }
+                default -> order.add(column);
+            }
+        }
+        return " ORDER BY " + String.join(", ", order);
+    }
+
+    /**
+     * Key values cutting a table into {@code parts} ranges of equal key width, for tables whose primary key is
+     * a single integer column. Empty if the table cannot be split that way or is too small to split.
+     */
+    public static List<Long> integerKeySplits(Connection connection, String tableName, List<String> keyColumns, int parts) throws SQLException {
+        if (keyColumns.size() != 1 || parts < 2) {
+            return List.of();
+        }
+        String column = keyColumns.get(0);
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT MIN(" + column + "), MAX(" + column + ") FROM " + tableName)) {
+            int type = rs.getMetaData().getColumnType(1);
+            if (type != Types.TINYINT && type != Types.SMALLINT && type != Types.INTEGER && type != Types.BIGINT) {
+                return List.of();
+            }
+            if (!rs.next() || rs.getObject(1) == null) {
+                return List.of();
+            }
+            long min = rs.getLong(1);
+            long max = rs.getLong(2);
+            BigInteger width = BigInteger.valueOf(max).subtract(BigInteger.valueOf(min)).add(BigInteger.ONE);
+            List<Long> splits = new ArrayList<>();
+            for (int i = 1; i < parts; i++) {
+                long split = width.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(parts)).add(BigInteger.valueOf(min)).longValue();
+                if (split > min && (splits.isEmpty() || split > splits.get(splits.size() - 1))) {
+                    splits.add(split);
+                }
+            }
+            return splits;
+        }
+    }
+
+    private static String columnType(ResultSet columns) throws SQLException {
+        String typeName = columns.getString("TYPE_NAME");
+        int size = columns.getInt("COLUMN_SIZE");
+        int digits = columns.getInt("DECIMAL_DIGITS");
+        return switch (typeName.toLowerCase()) {
+            case "varchar", "char", "bpchar", "nvarchar", "nchar", "varbinary", "binary" ->
+                    size > 0 && size < Integer.MAX_VALUE ? typeName + "(" + size + ")" : typeName;
+            case "numeric", "decimal" ->
+                    size > 0 && size <= 1000 ? typeName + "(" + size + ", " + Math.max(digits, 0) + ")" : typeName;
+            default -> typeName;
+        };
+    }
+
+    private static String formatDefault(SqlDialect dialect, String defaultValue) {
+        if (dialect != SqlDialect.MYSQL || MYSQL_UNQUOTED_DEFAULT.matcher(defaultValue).matches()) {
+            return defaultValue;
+        }
+        return "'" + defaultValue.replace("'", "''") + "'";
+    }
+
+    private static String addPrimaryKey(DatabaseMetaData metaData, String tableName, List<String> statements) throws SQLException {
+        Map<Integer, String> keyColumns = new TreeMap<>();
+        String primaryKeyName = null;
+        try (ResultSet primaryKeys = metaData.getPrimaryKeys(null, null, tableName)) {
+            while (primaryKeys.next()) {
+                keyColumns.put(primaryKeys.getInt("KEY_SEQ"), primaryKeys.getString("COLUMN_NAME"));
+                primaryKeyName = primaryKeys.getString("PK_NAME");
+            }
+        }
+        if (keyColumns.isEmpty()) {
+            return null;
+        }
+        String constraint = primaryKeyName != null && !primaryKeyName.equalsIgnoreCase("PRIMARY")
+                ? " ADD CONSTRAINT " + primaryKeyName + " PRIMARY KEY (" : " ADD PRIMARY KEY (";
+        statements.add("ALTER TABLE " + tableName + constraint + String.join(", ", keyColumns.values()) + ")");
+        return primaryKeyName == null ? "PRIMARY" : primaryKeyName;
+    }
+
+    private static void addIndexes(DatabaseMetaData metaData, String tableName, String primaryKeyName, List<String> statements) throws SQLException {
+        Map<String, List<String>> indexColumns = new LinkedHashMap<>();
+        Map<String, Boolean> uniqueIndexes = new LinkedHashMap<>();
+        try (ResultSet indexes = metaData.getIndexInfo(null, null, tableName, false, true)) {
+            while (indexes.next()) {
+                String indexName = indexes.getString("INDEX_NAME");
+                String columnName = indexes.getString("COLUMN_NAME");
+                if (indexName == null || columnName == null || indexes.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic
+                        || indexName.equalsIgnoreCase(primaryKeyName)) {
+                    continue;
+                }
+                String column = columnName.contains("(") ? "(" + columnName + ")" : columnName;
+                if ("D".equals(indexes.getString("ASC_OR_DESC"))) {
+                    column += " DESC";
+                }
+                indexColumns.computeIfAbsent(indexName, name -> new ArrayList<>()).add(column);
+                uniqueIndexes.put(indexName, !indexes.getBoolean("NON_UNIQUE"));
+            }
+        }
+        indexColumns.forEach((indexName, columns) -> statements.add(
+                "CREATE " + (uniqueIndexes.get(indexName) ? "UNIQUE " : "") + "INDEX " + indexName
+                        + " ON " + tableName + " (" + String.join(", ", columns) + ")"));
+    }
+
+    private static List<String> foreignKeys(DatabaseMetaData metaData, String tableName) throws SQLException {
+        Map<String, List<String[]>> keys = new LinkedHashMap<>();
+        Map<String, String> rules = new LinkedHashMap<>();
+        try (ResultSet importedKeys = metaData.getImportedKeys(null, null, tableName)) {
+            while (importedKeys.next()) {
+                String referencedTable = importedKeys.getString("PKTABLE_NAME");
+                String name = importedKeys.getString("FK_NAME");
+                String key = name != null ? name : tableName + "_" + referencedTable + "_fkey";
+                keys.computeIfAbsent(key, k -> new ArrayList<>()).add(new String[]{
+                        importedKeys.getString("FKCOLUMN_NAME"), referencedTable, importedKeys.getString("PKCOLUMN_NAME")});
+                rules.put(key, rule("ON UPDATE", importedKeys.getShort("UPDATE_RULE"))
+                        + rule("ON DELETE", importedKeys.getShort("DELETE_RULE")));
+            }
+        }
+
+        List<String> statements = new ArrayList<>();
+        keys.forEach((name, columns) -> statements.add(addForeignKey(tableName, name, columns, rules.get(name))));
+        return statements;
+    }
+
+    /** A foreign key of another table that points at a restored table, and the statement that adds it again. */
+    public record ReferencingKey(String tableName, String name, String addStatement) {
+    }
+
+    /**
+     * The foreign keys of other tables that point at {@code tableName}. They keep the table from being dropped, and
+     * dropping it with CASCADE would remove them for good, since only the restored tables' own keys are replayed.
+     */
+    public static List<ReferencingKey> referencingKeys(Connection connection, String tableName) throws SQLException {
+        String storedName = storedTableName(connection, tableName);
+        if (storedName == null) {
+            return List.of();
+        }
+        Map<List<String>, List<String[]>> keys = new LinkedHashMap<>();
+        Map<List<String>, String> rules = new LinkedHashMap<>();
+        try (ResultSet exportedKeys = connection.getMetaData().getExportedKeys(connection.getCatalog(), connection.getSchema(), storedName)) {
+            while (exportedKeys.next()) {
+                String referencingTable = exportedKeys.getString("FKTABLE_NAME");
+                String name = exportedKeys.getString("FK_NAME");
+                List<String> key = List.of(referencingTable, name != null ? name : referencingTable + "_" + tableName + "_fkey");
+                keys.computeIfAbsent(key, k -> new ArrayList<>()).add(new String[]{
+                        exportedKeys.getString("FKCOLUMN_NAME"), tableName, exportedKeys.getString("PKCOLUMN_NAME")});
+                rules.put(key, rule("ON UPDATE", exportedKeys.getShort("UPDATE_RULE"))
+                        + rule("ON DELETE", exportedKeys.getShort("DELETE_RULE")));
+            }
+        }
+
+        List<ReferencingKey> referencingKeys = new ArrayList<>();
+        keys.forEach((key, columns) -> referencingKeys.add(new ReferencingKey(key.get(0), key.get(1),
+                addForeignKey(key.get(0), key.get(1), columns, rules.get(key)))));
+        return referencingKeys;
+    }
+
+    private static String addForeignKey(String tableName, String name, List<String[]> columns, String rules) {
+        List<String> localColumns = columns.stream().map(c -> c[0]).toList();
+        List<String> referencedColumns = columns.stream().map(c -> c[2]).toList();
+        return "ALTER TABLE " + tableName + " ADD CONSTRAINT " + name
+                + " FOREIGN KEY (" + String.join(", ", localColumns) + ")"
+                + " REFERENCES " + columns.get(0)[1] + " (" + String.join(", ", referencedColumns) + ")"
+                + rules;
+    }
+
+    private static String rule(String action, short rule) {
+        return switch (rule) {
+            case DatabaseMetaData.importedKeyCascade -> " " + action + " CASCADE";
+            case DatabaseMetaData.importedKeySetNull -> " " + action + " SET NULL";
+            case DatabaseMetaData.importedKeySetDefault -> " " + action + " SET DEFAULT";
+            case DatabaseMetaData.importedKeyRestrict -> " " + action + " RESTRICT";
+            default -> "";
+        };
+    }
+}